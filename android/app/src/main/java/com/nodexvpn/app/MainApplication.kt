@@ -1,7 +1,11 @@
 package com.nodexvpn.app
 
 import android.app.Application
+import android.content.Intent
 import android.content.res.Configuration
+import android.os.Build
+import androidx.core.content.ContextCompat
+import java.io.File
 
 import com.facebook.react.PackageList
 import com.facebook.react.ReactApplication
@@ -16,6 +20,8 @@ import com.facebook.soloader.SoLoader
 import expo.modules.ApplicationLifecycleDispatcher
 import expo.modules.ReactNativeHostWrapper
 import com.nodexvpn.app.vpn.RealWireGuardPackage
+import com.nodexvpn.app.vpn.WireGuardVpnService
+import com.wireguard.android.backend.GoBackend
 
 class MainApplication : Application(), ReactApplication {
 
@@ -43,6 +49,16 @@ class MainApplication : Application(), ReactApplication {
 
   override fun onCreate() {
     super.onCreate()
+    // El proceso :vpn solo ejecuta WireGuardVpnService: sin React Native ni Expo
+    if (isVpnProcess()) {
+      // Always-on VPN arranca el VpnService de GoBackend: restaurar el túnel guardado
+      GoBackend.setAlwaysOnCallback {
+        val intent = Intent(this, WireGuardVpnService::class.java)
+          .setAction(WireGuardVpnService.ACTION_RESTORE)
+        ContextCompat.startForegroundService(this, intent)
+      }
+      return
+    }
     SoLoader.init(this, OpenSourceMergedSoMapping)
     if (BuildConfig.IS_NEW_ARCHITECTURE_ENABLED) {
       // If you opted-in for the New Architecture, we load the native entry point for this app.
@@ -53,6 +69,16 @@ class MainApplication : Application(), ReactApplication {
 
   override fun onConfigurationChanged(newConfig: Configuration) {
     super.onConfigurationChanged(newConfig)
+    if (isVpnProcess()) return
     ApplicationLifecycleDispatcher.onConfigurationChanged(this, newConfig)
   }
+
+  private fun isVpnProcess(): Boolean {
+    val processName = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+      Application.getProcessName()
+    } else {
+      runCatching { File("/proc/self/cmdline").readText().trimEnd('\u0000') }.getOrDefault("")
+    }
+    return processName.endsWith(":vpn")
+  }
 }
@@ -0,0 +1,122 @@
+package com.nodexvpn.app.vpn;
+
+import android.net.DnsResolver;
+import android.net.Network;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EndpointResolver.Lookup} con DnsResolver de Android (API 29+):
+ * consulta A y AAAA por separado y lee el TTL de la respuesta cruda.
+ * En versiones anteriores usa InetAddress con el TTL por defecto.
+ */
+public final class AndroidDnsLookup implements EndpointResolver.Lookup {
+
+    private static final int TYPE_A = 1;
+    private static final int TYPE_AAAA = 28;
+    private static final int CLASS_IN = 1;
+
+    private final EndpointResolver.Lookup fallback = new EndpointResolver.SystemLookup();
+
+    // Red por la que consultar (null = red por defecto)
+    private volatile Network network;
+
+    public void setNetwork(Network network) {
+        this.network = network;
+    }
+
+    @Override
+    public EndpointResolver.Answer lookup(String host, int family) throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return fallback.lookup(host, family);
+        }
+        return rawLookup(host, family == EndpointResolver.FAMILY_V6 ? TYPE_AAAA : TYPE_A);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private EndpointResolver.Answer rawLookup(String host, int type) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final byte[][] answer = new byte[1][];
+        final Exception[] failure = new Exception[1];
+        CancellationSignal cancel = new CancellationSignal();
+
+        DnsResolver.getInstance().rawQuery(network, host, CLASS_IN, type, DnsResolver.FLAG_EMPTY,
+            Runnable::run, cancel, new DnsResolver.Callback<byte[]>() {
+                @Override
+                public void onAnswer(@NonNull byte[] bytes, int rcode) {
+                    answer[0] = bytes;
+                    done.countDown();
+                }
+
+                @Override
+                public void onError(@NonNull DnsResolver.DnsException e) {
+                    failure[0] = e;
+                    done.countDown();
+                }
+            });
+
+        if (!done.await(EndpointResolver.LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            cancel.cancel();
+            throw new java.net.SocketTimeoutException("DNS " + host);
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return parse(answer[0], type);
+    }
+
+    /**
+     * Extraer direcciones y TTL mínimo de un mensaje DNS
+     */
+    static EndpointResolver.Answer parse(byte[] msg, int wantedType) throws Exception {
+        int qdCount = u16(msg, 4);
+        int anCount = u16(msg, 6);
+        int pos = 12;
+        for (int i = 0; i < qdCount; i++) {
+            pos = skipName(msg, pos) + 4;
+        }
+
+        List<InetAddress> addresses = new ArrayList<>();
+        long ttl = Long.MAX_VALUE;
+        for (int i = 0; i < anCount; i++) {
+            pos = skipName(msg, pos);
+            int type = u16(msg, pos);
+            long recordTtl = ((long) u16(msg, pos + 4) << 16) | u16(msg, pos + 6);
+            int rdLength = u16(msg, pos + 8);
+            pos += 10;
+            if (type == wantedType && (rdLength == 4 || rdLength == 16)) {
+                byte[] raw = new byte[rdLength];
+                System.arraycopy(msg, pos, raw, 0, rdLength);
+                addresses.add(InetAddress.getByAddress(raw));
+                ttl = Math.min(ttl, recordTtl);
+            }
+            pos += rdLength;
+        }
+        return new EndpointResolver.Answer(Collections.unmodifiableList(addresses),
+                addresses.isEmpty() ? -1 : ttl);
+    }
+
+    private static int skipName(byte[] msg, int pos) {
+        while (true) {
+            int len = msg[pos] & 0xff;
+            if (len == 0) return pos + 1;
+            // Puntero de compresión: 2 bytes y termina el nombre
+            if ((len & 0xc0) == 0xc0) return pos + 2;
+            pos += len + 1;
+        }
+    }
+
+    private static int u16(byte[] msg, int pos) {
+        return ((msg[pos] & 0xff) << 8) | (msg[pos + 1] & 0xff);
+    }
+}
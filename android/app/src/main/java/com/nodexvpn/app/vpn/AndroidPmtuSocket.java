@@ -0,0 +1,54 @@
+package com.nodexvpn.app.vpn;
+
+import android.net.Network;
+import android.net.VpnService;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+
+/**
+ * {@link PmtuProber.SocketConfigurator} de Android: saca el socket del túnel
+ * (protect + red física) y activa DF con IP_MTU_DISCOVER = IP_PMTUDISC_DO.
+ */
+public final class AndroidPmtuSocket implements PmtuProber.SocketConfigurator {
+
+    // linux/in.h y linux/in6.h (no están en OsConstants)
+    private static final int IP_MTU_DISCOVER = 10;
+    private static final int IPV6_MTU_DISCOVER = 23;
+    private static final int PMTUDISC_DO = 2;
+
+    private final VpnService vpnService;
+    private final Network network;
+
+    /**
+     * @param network red física por la que sondear, o null para la de por defecto
+     */
+    public AndroidPmtuSocket(VpnService vpnService, Network network) {
+        this.vpnService = vpnService;
+        this.network = network;
+    }
+
+    @Override
+    public void configure(DatagramSocket socket, boolean ipv6) throws IOException {
+        if (!vpnService.protect(socket)) {
+            throw new IOException("No se pudo proteger el socket de sondeo");
+        }
+        if (network != null) {
+            network.bindSocket(socket);
+        }
+        // El descriptor es un dup: el setsockopt afecta al mismo socket
+        try (ParcelFileDescriptor pfd = ParcelFileDescriptor.fromDatagramSocket(socket)) {
+            if (ipv6) {
+                Os.setsockoptInt(pfd.getFileDescriptor(), OsConstants.IPPROTO_IPV6, IPV6_MTU_DISCOVER, PMTUDISC_DO);
+            } else {
+                Os.setsockoptInt(pfd.getFileDescriptor(), OsConstants.IPPROTO_IP, IP_MTU_DISCOVER, PMTUDISC_DO);
+            }
+        } catch (ErrnoException e) {
+            throw new IOException("No se pudo activar DF: " + e.getMessage());
+        }
+    }
+}
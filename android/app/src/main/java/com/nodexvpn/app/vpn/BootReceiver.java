@@ -0,0 +1,40 @@
+package com.nodexvpn.app.vpn;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.core.content.ContextCompat;
+
+import com.nodexvpn.app.BuildConfig;
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.io.File;
+
+/**
+ * Tras reiniciar el dispositivo o actualizar la app, levantar el túnel si
+ * estaba conectado, directamente en el proceso :vpn y sin React Native
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(action) && !Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            return;
+        }
+        // Mismo proceso :vpn: si el servicio no llega a arrancar, el registro queda igualmente
+        VpnLog.initialize(new File(context.getFilesDir(), VpnLog.DIR_NAME), "vpn", BuildConfig.DEBUG);
+        // Leer aquí evita arrancar un servicio en primer plano para nada
+        TunnelSnapshot snapshot = TunnelSnapshot.read(new File(context.getNoBackupFilesDir(), TunnelSnapshot.FILE_NAME));
+        if (snapshot == null || !snapshot.wantConnected) {
+            VpnLog.i(Event.BOOT_IDLE, action);
+            return;
+        }
+        VpnLog.i(Event.BOOT_RESTORE, action);
+        Intent restore = new Intent(context, WireGuardVpnService.class)
+            .setAction(WireGuardVpnService.ACTION_QUICK_CONNECT)
+            .putExtra(WireGuardVpnService.EXTRA_ORIGIN, WireGuardVpnService.ORIGIN_BOOT);
+        ContextCompat.startForegroundService(context, restore);
+    }
+}
@@ -0,0 +1,89 @@
+package com.nodexvpn.app.vpn;
+
+import com.wireguard.config.BadConfigException;
+import com.wireguard.config.Config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché LRU de {@link Config} ya construidos, indexada por
+ * {@link WireGuardConfig#cacheKey()}.
+ *
+ * Reconectar a un servidor reciente reutiliza el Config sin volver a
+ * construirlo ni validarlo. Una entrada solo se reutiliza si los campos
+ * de origen son idénticos, así que una colisión de huella no puede
+ * devolver un Config ajeno.
+ */
+public final class ConfigCache {
+
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private static ConfigCache instance;
+
+    public static synchronized ConfigCache getInstance() {
+        if (instance == null) {
+            instance = new ConfigCache(DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    private static final class Entry {
+        final WireGuardConfig source;
+        final Config config;
+
+        Entry(WireGuardConfig source, Config config) {
+            this.source = source;
+            this.config = config;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    public ConfigCache(final int capacity) {
+        this.entries = new LinkedHashMap<String, Entry>(capacity + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Devolver el Config cacheado o construirlo (y validarlo) si no existe
+     */
+    public synchronized Config getOrBuild(WireGuardConfig source) throws BadConfigException {
+        String key = source.cacheKey();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.source.equals(source)) {
+            hits++;
+            return entry.config;
+        }
+        misses++;
+        Config config = source.toConfig();
+        entries.put(key, new Entry(source, config));
+        return config;
+    }
+
+    /**
+     * Buscar un Config ya construido por su clave
+     */
+    public synchronized Config get(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.config : null;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,53 @@
+package com.nodexvpn.app.vpn;
+
+import com.wireguard.config.Config;
+
+/**
+ * Diferencia entre el Config activo y el nuevo al cambiar de servidor.
+ *
+ * Si la sección [Interface] no cambia, el cambio se aplica reutilizando la
+ * Interface actual y solo se reemplazan los peers.
+ */
+public final class ConfigDiff {
+
+    public enum Kind {
+        /** Nada cambió, no hay que tocar el túnel */
+        NONE,
+        /** Solo cambian peers/endpoint */
+        PEERS_ONLY,
+        /** Cambia la sección [Interface] (direcciones, clave, DNS, MTU...) */
+        INTERFACE
+    }
+
+    private ConfigDiff() {
+    }
+
+    public static Kind compare(Config current, Config next) {
+        if (current == null) {
+            return Kind.INTERFACE;
+        }
+        if (current == next) {
+            return Kind.NONE;
+        }
+        if (!current.getInterface().equals(next.getInterface())) {
+            return Kind.INTERFACE;
+        }
+        if (current.getPeers().equals(next.getPeers())) {
+            return Kind.NONE;
+        }
+        return Kind.PEERS_ONLY;
+    }
+
+    /**
+     * Config a aplicar: con PEERS_ONLY se conserva la Interface actual
+     */
+    public static Config merge(Config current, Config next, Kind kind) {
+        if (kind != Kind.PEERS_ONLY) {
+            return next;
+        }
+        return new Config.Builder()
+            .setInterface(current.getInterface())
+            .addPeers(next.getPeers())
+            .build();
+    }
+}
@@ -0,0 +1,545 @@
+package com.nodexvpn.app.vpn;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cliente de aprovisionamiento: descarga la configuración WireGuard de
+ * {@code http://<servidor>:3000/api/vpn/wireguard-config} y la guarda en disco.
+ *
+ * - Peticiones condicionales (ETag / If-None-Match): si no cambió, 304 sin cuerpo.
+ * - Caché en disco con expiración (Cache-Control max-age o {@link #DEFAULT_TTL_MS});
+ *   una configuración caducada se devuelve al momento y se revalida en segundo plano.
+ * - Una sola petición en vuelo por servidor: el connect se suma al prefetch en curso.
+ * - Conexiones reutilizadas: se lee siempre el cuerpo completo y no se llama a
+ *   disconnect(), así HttpURLConnection devuelve el socket al pool keep-alive del host.
+ * - Con publicKey se registra la clave del cliente ({@link KeyPool}): la
+ *   configuración vuelve sin PrivateKey y cada clave tiene su entrada en caché.
+ */
+public final class ConfigProvisioner {
+
+    public static final String DEFAULT_URL_FORMAT = "http://%s:3000/api/vpn/wireguard-config";
+    public static final long DEFAULT_TTL_MS = 60 * 60_000;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 10000;
+
+    private static final int MAGIC = 0x4E585043; // "NXPC"
+    private static final int VERSION = 2;
+    private static final String CLIENT_ID_FILE = "client_id";
+
+    public enum Source {
+        /** Descargada ahora */
+        NETWORK,
+        /** 304: la del disco sigue valiendo */
+        NOT_MODIFIED,
+        /** De la caché, vigente */
+        CACHE,
+        /** De la caché, caducada; se está revalidando */
+        STALE
+    }
+
+    public static final class Result {
+        public final String host;
+        public final String config;
+        public final String etag;
+        public final long fetchedAtMs;
+        public final long expiresAtMs;
+        public final Source source;
+        // Duración de la petición HTTP; 0 si no hubo
+        public final long requestNanos;
+
+        Result(Entry entry, Source source, long requestNanos) {
+            this.host = entry.host;
+            this.config = entry.config;
+            this.etag = entry.etag;
+            this.fetchedAtMs = entry.fetchedAtMs;
+            this.expiresAtMs = entry.expiresAtMs;
+            this.source = source;
+            this.requestNanos = requestNanos;
+        }
+
+        /**
+         * El servidor eligió la clave (no soporta registrar la del cliente)
+         */
+        public boolean hasPrivateKey() {
+            return value(config, "PrivateKey") != null;
+        }
+    }
+
+    public interface Callback {
+        void onResult(Result result);
+        void onError(Exception e);
+    }
+
+    private static final class Entry {
+        final String host;
+        final String publicKey;
+        final String config;
+        final String etag;
+        final long fetchedAtMs;
+        final long expiresAtMs;
+        // Conexiones del usuario a este servidor, para elegir qué precargar
+        volatile int uses;
+
+        Entry(String host, String publicKey, String config, String etag, long fetchedAtMs, long expiresAtMs, int uses) {
+            this.host = host;
+            this.publicKey = publicKey;
+            this.config = config;
+            this.etag = etag;
+            this.fetchedAtMs = fetchedAtMs;
+            this.expiresAtMs = expiresAtMs;
+            this.uses = uses;
+        }
+    }
+
+    private static ConfigProvisioner instance;
+
+    public static synchronized ConfigProvisioner getInstance(File dir) {
+        if (instance == null) {
+            instance = new ConfigProvisioner(dir, DEFAULT_URL_FORMAT);
+        }
+        return instance;
+    }
+
+    private final File dir;
+    private final String urlFormat;
+    private final String clientId;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, FutureTask<Result>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    // Dos hilos: un prefetch lento no retrasa el connect del usuario
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "NodexProvisioning");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param urlFormat URL con un %s para el servidor
+     */
+    public ConfigProvisioner(File dir, String urlFormat) {
+        this.dir = dir;
+        this.urlFormat = urlFormat;
+        dir.mkdirs();
+        this.clientId = loadClientId();
+    }
+
+    /**
+     * Configuración para conectar. Si la hay en caché se devuelve al momento
+     * (caducada solo con allowStale, y entonces se revalida en segundo plano);
+     * si no, o con force, se pide al servidor.
+     *
+     * @param publicKey clave pública del cliente a registrar, o null para que
+     *                  el servidor genere la clave
+     */
+    public void get(String host, String publicKey, boolean allowStale, boolean force, Callback callback) {
+        if (!force) {
+            Entry entry = entry(host, publicKey);
+            if (entry != null) {
+                entry.uses++;
+                long now = System.currentTimeMillis();
+                if (now < entry.expiresAtMs) {
+                    callback.onResult(new Result(entry, Source.CACHE, 0));
+                    return;
+                }
+                if (allowStale) {
+                    callback.onResult(new Result(entry, Source.STALE, 0));
+                    refreshAsync(host, publicKey);
+                    return;
+                }
+            }
+        }
+        executor.execute(() -> {
+            try {
+                // En cola detrás de un prefetch del mismo servidor: ya está en caché
+                Entry fresh = force ? null : entry(host, publicKey);
+                if (fresh != null && System.currentTimeMillis() < fresh.expiresAtMs) {
+                    fresh.uses++;
+                    callback.onResult(new Result(fresh, Source.CACHE, 0));
+                    return;
+                }
+                Result result = fetchShared(host, publicKey);
+                Entry entry = entries.get(host);
+                if (entry != null && !force) entry.uses++;
+                callback.onResult(result);
+            } catch (Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Registrar una clave pública nueva en el servidor (rotación), sin caché.
+     * Bloquea hasta la respuesta.
+     */
+    public Result register(String host, String publicKey) throws IOException {
+        return fetchShared(host, publicKey);
+    }
+
+    /**
+     * Precargar en segundo plano la configuración de los N servidores más
+     * usados de la lista (a igualdad de uso, en el orden recibido)
+     */
+    public void prefetch(List<String> hosts, String publicKey, int topN) {
+        List<String> ranked = new ArrayList<>(hosts);
+        // sort es estable: los empates conservan el orden de la UI
+        Collections.sort(ranked, (a, b) -> Integer.compare(uses(b), uses(a)));
+        final List<String> selected = ranked.subList(0, Math.min(topN, ranked.size()));
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            int fetched = 0;
+            for (String host : selected) {
+                Entry entry = entry(host, publicKey);
+                if (entry != null && System.currentTimeMillis() < entry.expiresAtMs) continue;
+                try {
+                    fetchShared(host, publicKey);
+                    fetched++;
+                } catch (Exception e) {
+                    VpnLog.w(Event.PROVISION_PREFETCH_FAILED, host, e);
+                }
+            }
+            if (fetched > 0) {
+                VpnLog.d(Event.PROVISION_PREFETCHED, fetched, (System.nanoTime() - start) / 1_000_000);
+            }
+        });
+    }
+
+    public void clear() {
+        entries.clear();
+        File[] files = dir.listFiles((d, name) -> name.startsWith("cfg_"));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /** Peticiones HTTP hechas y cuántas acabaron en 304 */
+    public int requestCount() {
+        return requests.get();
+    }
+
+    public int notModifiedCount() {
+        return notModified.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void refreshAsync(String host, String publicKey) {
+        executor.execute(() -> {
+            try {
+                fetchShared(host, publicKey);
+            } catch (Exception e) {
+                VpnLog.w(Event.PROVISION_REVALIDATE_FAILED, host, e);
+            }
+        });
+    }
+
+    /**
+     * Pedir al servidor, o esperar la petición ya en vuelo para ese host y clave
+     */
+    private Result fetchShared(String host, String publicKey) throws IOException {
+        String key = host + "|" + publicKey;
+        FutureTask<Result> task = new FutureTask<>(() -> fetch(host, publicKey));
+        FutureTask<Result> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            running = task;
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause != null ? cause.getMessage() : "Error de aprovisionamiento", cause);
+        }
+    }
+
+    private Result fetch(String host, String publicKey) throws IOException {
+        Entry cached = entry(host, publicKey);
+        long start = System.nanoTime();
+        requests.incrementAndGet();
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(String.format(urlFormat, host)).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", "application/json");
+        if (cached != null && cached.etag != null) {
+            connection.setRequestProperty("If-None-Match", cached.etag);
+        }
+
+        byte[] body;
+        try {
+            JSONObject request = new JSONObject().put("userId", clientId);
+            if (publicKey != null) {
+                request.put("publicKey", publicKey);
+            }
+            body = request.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        int code = connection.getResponseCode();
+        long now = System.currentTimeMillis();
+        long expiresAt = now + maxAgeMs(connection.getHeaderField("Cache-Control"));
+
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            drain(connection, false);
+            notModified.incrementAndGet();
+            Entry renewed = new Entry(host, publicKey, cached.config, cached.etag, now, expiresAt, cached.uses);
+            store(renewed);
+            VpnLog.d(Event.PROVISION_NOT_MODIFIED, host, (System.nanoTime() - start) / 1_000_000);
+            return new Result(renewed, Source.NOT_MODIFIED, System.nanoTime() - start);
+        }
+        if (code != HttpURLConnection.HTTP_OK) {
+            drain(connection, true);
+            throw new IOException("Error del servidor: " + code);
+        }
+
+        String config = extractConfig(new String(drain(connection, false), StandardCharsets.UTF_8));
+        Entry entry = new Entry(host, publicKey, config, connection.getHeaderField("ETag"), now, expiresAt,
+            cached != null ? cached.uses : uses(host));
+        store(entry);
+        VpnLog.d(Event.PROVISION_DOWNLOADED, host, (System.nanoTime() - start) / 1_000_000);
+        return new Result(entry, Source.NETWORK, System.nanoTime() - start);
+    }
+
+    /**
+     * Leer el cuerpo entero y cerrar el stream (no la conexión), requisito
+     * para que el socket vuelva al pool keep-alive
+     */
+    private static byte[] drain(HttpURLConnection connection, boolean error) throws IOException {
+        InputStream in = error ? connection.getErrorStream() : connection.getInputStream();
+        if (in == null) return new byte[0];
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * El texto de configuración WireGuard, en data.config, config o data
+     * (las mismas ubicaciones que aceptaba la app en JS)
+     */
+    static String extractConfig(String json) throws IOException {
+        try {
+            JSONObject data = new JSONObject(json);
+            if (!data.optBoolean("success", false)) {
+                throw new IOException(data.optString("error", "Error en la respuesta del servidor"));
+            }
+            JSONObject inner = data.optJSONObject("data");
+            String config = null;
+            if (inner != null) {
+                config = inner.optString("config", null);
+            } else if (data.has("config")) {
+                config = data.optString("config", null);
+            } else if (data.has("data")) {
+                config = data.optString("data", null);
+            }
+            if (config == null || config.trim().isEmpty()) {
+                throw new IOException("Configuración del servidor no válida");
+            }
+            return config;
+        } catch (JSONException e) {
+            throw new IOException("Respuesta del servidor no válida: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Valor de una clave de la configuración en texto ("Address", "PrivateKey"...),
+     * o null si no está o está vacía
+     */
+    public static String value(String config, String name) {
+        int from = 0;
+        while (from < config.length()) {
+            int lineEnd = config.indexOf('\n', from);
+            if (lineEnd < 0) lineEnd = config.length();
+            String line = config.substring(from, lineEnd).trim();
+            int equals = line.indexOf('=');
+            if (equals > 0 && line.substring(0, equals).trim().equalsIgnoreCase(name)) {
+                String value = line.substring(equals + 1).trim();
+                if (!value.isEmpty()) return value;
+            }
+            from = lineEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * max-age de Cache-Control; no-cache o no-store fuerzan revalidar siempre
+     */
+    static long maxAgeMs(String cacheControl) {
+        if (cacheControl == null) return DEFAULT_TTL_MS;
+        for (String directive : cacheControl.split(",")) {
+            String value = directive.trim().toLowerCase();
+            if (value.equals("no-cache") || value.equals("no-store")) {
+                return 0;
+            }
+            if (value.startsWith("max-age=")) {
+                try {
+                    return Math.max(0, Long.parseLong(value.substring(8).trim())) * 1000;
+                } catch (NumberFormatException e) {
+                    return DEFAULT_TTL_MS;
+                }
+            }
+        }
+        return DEFAULT_TTL_MS;
+    }
+
+    private int uses(String host) {
+        Entry entry = entry(host);
+        return entry != null ? entry.uses : 0;
+    }
+
+    /**
+     * Entrada del host registrada con esa clave; con otra clave no sirve
+     */
+    private Entry entry(String host, String publicKey) {
+        Entry entry = entry(host);
+        if (entry == null) return null;
+        if (publicKey == null ? entry.publicKey != null : !publicKey.equals(entry.publicKey)) return null;
+        return entry;
+    }
+
+    /**
+     * Entrada en memoria, o la del disco la primera vez
+     */
+    private Entry entry(String host) {
+        Entry entry = entries.get(host);
+        if (entry != null) return entry;
+        entry = load(host);
+        if (entry != null) {
+            Entry previous = entries.putIfAbsent(host, entry);
+            return previous != null ? previous : entry;
+        }
+        return null;
+    }
+
+    private File file(String host) {
+        return new File(dir, "cfg_" + host.replaceAll("[^A-Za-z0-9.\\-]", "_"));
+    }
+
+    private Entry load(String host) {
+        File file = file(host);
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            String storedHost = in.readUTF();
+            String publicKey = in.readBoolean() ? in.readUTF() : null;
+            String etag = in.readBoolean() ? in.readUTF() : null;
+            long fetchedAt = in.readLong();
+            long expiresAt = in.readLong();
+            int uses = in.readInt();
+            String config = in.readUTF();
+            return storedHost.equals(host) ? new Entry(host, publicKey, config, etag, fetchedAt, expiresAt, uses) : null;
+        } catch (IOException e) {
+            VpnLog.w(Event.PROVISION_CACHE_UNREADABLE, host, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Guardar en memoria y en disco (escritura atómica con rename)
+     */
+    private void store(Entry entry) {
+        entries.put(entry.host, entry);
+        File file = file(entry.host);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(entry.host);
+            out.writeBoolean(entry.publicKey != null);
+            if (entry.publicKey != null) out.writeUTF(entry.publicKey);
+            out.writeBoolean(entry.etag != null);
+            if (entry.etag != null) out.writeUTF(entry.etag);
+            out.writeLong(entry.fetchedAtMs);
+            out.writeLong(entry.expiresAtMs);
+            out.writeInt(entry.uses);
+            out.writeUTF(entry.config);
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            VpnLog.w(Event.PROVISION_STORE_FAILED, entry.host, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Identificador estable de esta instalación: el servidor ve siempre al
+     * mismo usuario y puede responder 304 en lugar de crear otro peer
+     */
+    private String loadClientId() {
+        File file = new File(dir, CLIENT_ID_FILE);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readUTF();
+        } catch (IOException e) {
+            // Primera vez
+        }
+        String id = "mobile-user-" + UUID.randomUUID();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeUTF(id);
+        } catch (IOException e) {
+            VpnLog.w(Event.PROVISION_CLIENT_ID_FAILED, e);
+        }
+        return id;
+    }
+}
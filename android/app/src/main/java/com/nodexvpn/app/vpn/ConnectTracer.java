@@ -0,0 +1,262 @@
+package com.nodexvpn.app.vpn;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Trazas de las fases del connect con histogramas por fase.
+ *
+ * Las marcas de tiempo usan System.nanoTime() (CLOCK_MONOTONIC, común a
+ * todos los procesos), así que una fase puede empezar en la UI y terminar
+ * en el proceso :vpn. Cada proceso registra sus fases en su propia
+ * instancia y las guarda en un archivo fuera del camino del connect, un
+ * registro por fase con su nombre: añadir fases no invalida lo guardado.
+ */
+public final class ConnectTracer {
+
+    public enum Phase {
+        // Proceso de la UI
+        CONFIG_BUILD,
+        PREPARE,
+        PERMISSION_DIALOG,
+        STATUS_DELIVERY,
+        TOTAL,
+        // Proceso :vpn
+        IPC_DELIVERY,
+        QUEUE,
+        DNS_RESOLVE,
+        SET_STATE,
+        FIRST_HANDSHAKE,
+        SERVICE_TOTAL,
+        // Cambios de red (proceso :vpn)
+        REBIND,
+        HANDOVER_OUTAGE,
+        // Arranque en frío desde TunnelSnapshot (proceso :vpn)
+        RESTORE,
+        // Toque en el tile hasta túnel UP, sin React Native
+        QUICK_CONNECT,
+        // Registro de la clave pública del cliente al conectar (proceso de la UI)
+        KEY_REGISTRATION,
+        // Rotación de clave (proceso :vpn): registro y corte hasta el handshake con la clave nueva
+        ROTATION_REGISTRATION,
+        ROTATION_OUTAGE
+    }
+
+    /**
+     * Resumen de una fase, en microsegundos
+     */
+    public static final class Summary {
+        public final long count;
+        public final long minUs;
+        public final long meanUs;
+        public final long p50Us;
+        public final long p90Us;
+        public final long p99Us;
+        public final long maxUs;
+        public final long lastUs;
+
+        Summary(LatencyHistogram h) {
+            count = h.getCount();
+            minUs = h.getMin();
+            meanUs = h.getMean();
+            p50Us = h.percentile(50);
+            p90Us = h.percentile(90);
+            p99Us = h.percentile(99);
+            maxUs = h.getMax();
+            lastUs = h.getLast();
+        }
+    }
+
+    private static final int MAGIC = 0x4e58434d; // "NXCM"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_NAME_BYTES = 64;
+    private static final int MAX_RECORDS = 256;
+    private static final int MAX_FILE_SIZE = HEADER_SIZE
+        + MAX_RECORDS * (2 + MAX_NAME_BYTES + LatencyHistogram.SERIALIZED_SIZE);
+
+    // Versión 1: histogramas por ordinal, sin nombre. Las fases siempre se
+    // añadieron al final, así que un archivo de N fases usa las N primeras
+    private static final String[] V1_PHASES = {
+        "CONFIG_BUILD", "PREPARE", "PERMISSION_DIALOG", "STATUS_DELIVERY", "TOTAL",
+        "IPC_DELIVERY", "QUEUE", "DNS_RESOLVE", "SET_STATE", "FIRST_HANDSHAKE", "SERVICE_TOTAL",
+        "REBIND", "HANDOVER_OUTAGE", "RESTORE", "QUICK_CONNECT", "KEY_REGISTRATION",
+        "ROTATION_REGISTRATION", "ROTATION_OUTAGE"
+    };
+
+    private static ConnectTracer instance;
+
+    /**
+     * Abrir (una vez por proceso) la instancia respaldada por {@code file}
+     */
+    public static synchronized ConnectTracer initialize(File file) {
+        if (instance == null) {
+            instance = new ConnectTracer(file);
+            instance.load();
+        }
+        return instance;
+    }
+
+    /**
+     * Instancia del proceso; solo en memoria si nadie llamó a initialize
+     */
+    public static synchronized ConnectTracer getInstance() {
+        if (instance == null) {
+            instance = new ConnectTracer(null);
+        }
+        return instance;
+    }
+
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    private final File file;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "NodexTraceWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ConnectTracer(File file) {
+        this.file = file;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Registrar la fase que empezó en {@code startNanos} y termina ahora
+     */
+    public void record(Phase phase, long startNanos) {
+        recordNanos(phase, now() - startNanos);
+    }
+
+    public void recordNanos(Phase phase, long durationNanos) {
+        if (durationNanos < 0) return;
+        histograms[phase.ordinal()].record(durationNanos / 1000);
+        scheduleFlush();
+    }
+
+    /**
+     * Resumen de las fases con al menos una muestra
+     */
+    public Map<Phase, Summary> summary() {
+        Map<Phase, Summary> result = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram h = histograms[phase.ordinal()];
+            if (h.getCount() > 0) {
+                result.put(phase, new Summary(h));
+            }
+        }
+        return result;
+    }
+
+    private void scheduleFlush() {
+        if (file == null || !flushScheduled.compareAndSet(false, true)) return;
+        writer.execute(() -> {
+            flushScheduled.set(false);
+            save();
+        });
+    }
+
+    void load() {
+        if (file == null) return;
+        long length = file.length();
+        if (length < HEADER_SIZE || length > MAX_FILE_SIZE) return;
+        ByteBuffer buffer;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] data = new byte[(int) length];
+            in.readFully(data);
+            buffer = ByteBuffer.wrap(data);
+        } catch (IOException e) {
+            VpnLog.w(Event.CONNECT_METRICS_READ_FAILED, e);
+            return;
+        }
+        if (buffer.getInt() != MAGIC) return;
+        int version = buffer.getInt();
+        int count = buffer.getInt();
+        buffer.getInt();
+        if (count < 0 || count > MAX_RECORDS) return;
+
+        // Primero validar todo el archivo: o se carga entero o nada
+        Map<Phase, Integer> positions = new EnumMap<>(Phase.class);
+        if (version == 1) {
+            if (buffer.remaining() != (long) count * LatencyHistogram.SERIALIZED_SIZE) return;
+            for (int i = 0; i < count && i < V1_PHASES.length; i++) {
+                Phase phase = phaseNamed(V1_PHASES[i]);
+                if (phase != null) positions.put(phase, buffer.position() + i * LatencyHistogram.SERIALIZED_SIZE);
+            }
+        } else if (version == VERSION) {
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < 2) return;
+                int nameLength = buffer.getShort();
+                if (nameLength <= 0 || nameLength > MAX_NAME_BYTES
+                        || buffer.remaining() < nameLength + LatencyHistogram.SERIALIZED_SIZE) {
+                    return;
+                }
+                byte[] name = new byte[nameLength];
+                buffer.get(name);
+                Phase phase = phaseNamed(new String(name, StandardCharsets.UTF_8));
+                // Fases que ya no existen se descartan
+                if (phase != null) positions.put(phase, buffer.position());
+                buffer.position(buffer.position() + LatencyHistogram.SERIALIZED_SIZE);
+            }
+            if (buffer.hasRemaining()) return;
+        } else {
+            return;
+        }
+        for (Map.Entry<Phase, Integer> entry : positions.entrySet()) {
+            buffer.position(entry.getValue());
+            histograms[entry.getKey().ordinal()].readFrom(buffer);
+        }
+    }
+
+    private void save() {
+        Phase[] phases = Phase.values();
+        byte[][] names = new byte[phases.length][];
+        int size = HEADER_SIZE;
+        for (Phase phase : phases) {
+            names[phase.ordinal()] = phase.name().getBytes(StandardCharsets.UTF_8);
+            size += 2 + names[phase.ordinal()].length + LatencyHistogram.SERIALIZED_SIZE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(phases.length).putInt(0);
+        for (Phase phase : phases) {
+            byte[] name = names[phase.ordinal()];
+            buffer.putShort((short) name.length).put(name);
+            histograms[phase.ordinal()].writeTo(buffer);
+        }
+        buffer.flip();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+            out.setLength(0);
+            out.getChannel().write(buffer);
+        } catch (IOException e) {
+            VpnLog.w(Event.CONNECT_METRICS_SAVE_FAILED, e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            VpnLog.w(Event.CONNECT_METRICS_REPLACE_FAILED, file.getName());
+        }
+    }
+
+    private static Phase phaseNamed(String name) {
+        for (Phase phase : Phase.values()) {
+            if (phase.name().equals(name)) return phase;
+        }
+        return null;
+    }
+}
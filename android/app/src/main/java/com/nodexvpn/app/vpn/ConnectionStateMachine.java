@@ -0,0 +1,219 @@
+package com.nodexvpn.app.vpn;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Máquina de estados de la conexión vista desde la UI.
+ *
+ * El estado es una instantánea inmutable en un AtomicReference: cada
+ * transición es un único compare-and-set y leerlo no toma ningún lock.
+ * Cualquier número de esperas puede aguardar un estado destino, cada una
+ * con su propio timeout, y todas terminan exactamente una vez (alcanzado,
+ * fallido, timeout o cancelado).
+ */
+public final class ConnectionStateMachine {
+
+    public enum State {
+        DISCONNECTED("disconnected", false),
+        PERMISSION_PENDING("connecting", false),
+        CONNECTING("connecting", false),
+        SWITCHING("connecting", true),
+        CONNECTED("connected", true),
+        DISCONNECTING("disconnecting", false),
+        ERROR("error", false);
+
+        /** Estado equivalente en la API de JS (ConnectionState) */
+        public final String status;
+        public final boolean connected;
+
+        State(String status, boolean connected) {
+            this.status = status;
+            this.connected = connected;
+        }
+
+        /**
+         * Acepta el nombre exacto ("permission_pending") o el de JS ("connecting")
+         */
+        public static State parse(String name) {
+            for (State state : values()) {
+                if (state.name().equalsIgnoreCase(name)) return state;
+            }
+            for (State state : values()) {
+                if (state.status.equals(name)) return state;
+            }
+            throw new IllegalArgumentException("Estado desconocido: " + name);
+        }
+    }
+
+    public enum Outcome { REACHED, FAILED, TIMED_OUT, CANCELLED }
+
+    /**
+     * Instantánea inmutable del estado
+     */
+    public static final class Snapshot {
+        public final State state;
+        public final State previous;
+        public final String message;
+        public final String errorCode;
+        public final Map<String, Object> extras;
+        public final long version;
+        public final long timestampMs;
+
+        Snapshot(State state, State previous, String message, String errorCode,
+                 Map<String, Object> extras, long version, long timestampMs) {
+            this.state = state;
+            this.previous = previous;
+            this.message = message;
+            this.errorCode = errorCode;
+            this.extras = extras != null ? Collections.unmodifiableMap(extras) : Collections.<String, Object>emptyMap();
+            this.version = version;
+            this.timestampMs = timestampMs;
+        }
+    }
+
+    public interface Callback {
+        void onComplete(Outcome outcome, Snapshot snapshot);
+    }
+
+    /** Cualquier estado de origen */
+    public static final Set<State> ANY = Collections.unmodifiableSet(EnumSet.allOf(State.class));
+
+    private final AtomicReference<Snapshot> current;
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final ScheduledThreadPoolExecutor timer;
+
+    public ConnectionStateMachine() {
+        current = new AtomicReference<>(new Snapshot(State.DISCONNECTED, State.DISCONNECTED, null, null, null, 0, System.currentTimeMillis()));
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "NodexStateTimeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Lectura sin lock del estado actual
+     */
+    public Snapshot get() {
+        return current.get();
+    }
+
+    public Snapshot transition(State to, String message, Set<State> from) {
+        return transition(to, message, null, null, from);
+    }
+
+    /**
+     * Pasar a {@code to} si el estado actual está en {@code from}.
+     * Devuelve la nueva instantánea o null si la transición no aplica.
+     */
+    public Snapshot transition(State to, String message, String errorCode, Map<String, Object> extras, Set<State> from) {
+        while (true) {
+            Snapshot prev = current.get();
+            if (!from.contains(prev.state)) {
+                return null;
+            }
+            Snapshot next = new Snapshot(to, prev.state, message, errorCode, extras, prev.version + 1, System.currentTimeMillis());
+            if (current.compareAndSet(prev, next)) {
+                notifyWaiters(next);
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Esperar a que el estado entre en {@code targets}. Falla si entra antes en
+     * {@code failures}. Solo cuentan instantáneas con versión mayor que
+     * {@code afterVersion} (-1: también la actual).
+     */
+    public void await(Set<State> targets, Set<State> failures, long afterVersion, long timeoutMs, Callback callback) {
+        final Waiter waiter = new Waiter(targets, failures, afterVersion, callback);
+        waiters.add(waiter);
+        if (timeoutMs > 0) {
+            waiter.timeout = timer.schedule(() -> {
+                if (waiter.complete()) {
+                    waiters.remove(waiter);
+                    callback.onComplete(Outcome.TIMED_OUT, current.get());
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        // Una transición entre la lectura y el registro ya nos habría notificado
+        Snapshot now = current.get();
+        Outcome outcome = waiter.match(now);
+        if (outcome != null && waiter.complete()) {
+            waiters.remove(waiter);
+            callback.onComplete(outcome, now);
+        }
+    }
+
+    /**
+     * Cancelar todas las esperas pendientes y parar el temporizador
+     */
+    public void shutdown() {
+        Snapshot now = current.get();
+        Waiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.complete()) {
+                waiter.callback.onComplete(Outcome.CANCELLED, now);
+            }
+        }
+        timer.shutdownNow();
+    }
+
+    public int pendingWaiters() {
+        return waiters.size();
+    }
+
+    private void notifyWaiters(Snapshot snapshot) {
+        Iterator<Waiter> it = waiters.iterator();
+        while (it.hasNext()) {
+            Waiter waiter = it.next();
+            Outcome outcome = waiter.match(snapshot);
+            if (outcome != null && waiter.complete()) {
+                it.remove();
+                waiter.callback.onComplete(outcome, snapshot);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        final Set<State> targets;
+        final Set<State> failures;
+        final long afterVersion;
+        final Callback callback;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        volatile ScheduledFuture<?> timeout;
+
+        Waiter(Set<State> targets, Set<State> failures, long afterVersion, Callback callback) {
+            this.targets = targets;
+            this.failures = failures;
+            this.afterVersion = afterVersion;
+            this.callback = callback;
+        }
+
+        Outcome match(Snapshot snapshot) {
+            if (snapshot.version <= afterVersion) return null;
+            if (targets.contains(snapshot.state)) return Outcome.REACHED;
+            if (failures.contains(snapshot.state)) return Outcome.FAILED;
+            return null;
+        }
+
+        /** Solo el primero que llega completa la espera */
+        boolean complete() {
+            if (!done.compareAndSet(false, true)) return false;
+            ScheduledFuture<?> pending = timeout;
+            if (pending != null) pending.cancel(false);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.Bundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Informe de diagnóstico en disco: JSON comprimido con gzip en
+ * {@code <cacheDir>/diagnostics}, conservando solo los últimos
+ * {@link #KEEP_FILES}. El contenido se redacta antes de escribir.
+ */
+public final class DiagnosticsExporter {
+
+    public static final String DIR_NAME = "diagnostics";
+    private static final int KEEP_FILES = 3;
+
+    private DiagnosticsExporter() {
+    }
+
+    /**
+     * Escribir el informe y borrar los antiguos. Devuelve el fichero creado.
+     */
+    public static File write(File dir, JSONObject report) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear " + dir);
+        }
+        File file = new File(dir, "nodex-diagnostics-" + System.currentTimeMillis() + ".json.gz");
+        byte[] json = VpnLog.redact(report.toString()).getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(json);
+        }
+        prune(dir);
+        return file;
+    }
+
+    /**
+     * Bundle del proceso :vpn a JSON (Bundles anidados, números, texto)
+     */
+    public static JSONObject toJson(Bundle bundle) throws JSONException {
+        JSONObject json = new JSONObject();
+        if (bundle == null) return json;
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value instanceof Bundle) {
+                json.put(key, toJson((Bundle) value));
+            } else if (value instanceof long[]) {
+                JSONArray array = new JSONArray();
+                for (long item : (long[]) value) {
+                    array.put(item);
+                }
+                json.put(key, array);
+            } else if (value instanceof Number || value instanceof Boolean) {
+                json.put(key, value);
+            } else if (value != null) {
+                json.put(key, value.toString());
+            }
+        }
+        return json;
+    }
+
+    private static void prune(File dir) {
+        File[] files = dir.listFiles((parent, name) -> name.startsWith("nodex-diagnostics-"));
+        if (files == null || files.length <= KEEP_FILES) return;
+        // El nombre lleva el timestamp: orden alfabético = cronológico
+        Arrays.sort(files, (a, b) -> b.getName().compareTo(a.getName()));
+        for (int i = KEEP_FILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.nodexvpn.app.vpn;
+
+import com.wireguard.config.BadConfigException;
+import com.wireguard.config.Config;
+import com.wireguard.config.InetEndpoint;
+import com.wireguard.config.Peer;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Caché de resolución DNS de los endpoints de los peers.
+ *
+ * Resuelve A y AAAA en paralelo al estilo happy eyeballs (si A llega
+ * primero se espera un momento por AAAA), respeta el TTL de la respuesta y
+ * reescribe el endpoint del Config a una dirección literal antes de
+ * aplicarlo, para que GoBackend.setState no resuelva DNS en la ruta de
+ * conexión. El hostname original se conserva para volver a resolver si la
+ * conexión falla. Sin dependencias de Android: el {@link Lookup} real lo
+ * pone el servicio.
+ */
+public final class EndpointResolver {
+
+    public static final int FAMILY_V4 = 4;
+    public static final int FAMILY_V6 = 6;
+
+    // RFC 8305: tiempo de espera por AAAA cuando A responde primero
+    static final long RESOLUTION_DELAY_MS = 50;
+    static final long LOOKUP_TIMEOUT_MS = 3000;
+    static final long MIN_TTL_SECONDS = 30;
+    static final long MAX_TTL_SECONDS = 3600;
+    static final long DEFAULT_TTL_SECONDS = 300;
+
+    /**
+     * Consulta DNS de una sola familia
+     */
+    public interface Lookup {
+        Answer lookup(String host, int family) throws Exception;
+    }
+
+    public static final class Answer {
+        public final List<InetAddress> addresses;
+        /** TTL en segundos, o -1 si la fuente no lo informa */
+        public final long ttlSeconds;
+
+        public Answer(List<InetAddress> addresses, long ttlSeconds) {
+            this.addresses = addresses;
+            this.ttlSeconds = ttlSeconds;
+        }
+    }
+
+    private static final class Entry {
+        final InetAddress preferred;
+        final long expiresAtMs;
+
+        Entry(InetAddress preferred, long expiresAtMs) {
+            this.preferred = preferred;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private static EndpointResolver instance;
+
+    public static synchronized EndpointResolver getInstance() {
+        if (instance == null) {
+            instance = new EndpointResolver(new SystemLookup());
+        }
+        return instance;
+    }
+
+    /**
+     * Fijar la fuente DNS (DnsResolver de Android) si todavía no hay instancia
+     */
+    public static synchronized void initialize(Lookup lookup) {
+        if (instance == null) {
+            instance = new EndpointResolver(lookup);
+        }
+    }
+
+    private final Lookup lookup;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "NodexDns");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, Entry> cache = new HashMap<>();
+
+    // Estadísticas (protegidas por this)
+    private long hits = 0;
+    private long misses = 0;
+    private long totalResolveMs = 0;
+    private long lastResolveMs = -1;
+
+    public EndpointResolver(Lookup lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Dirección para el host: de la caché si está vigente, si no resolviendo
+     */
+    public InetAddress resolve(String host) throws Exception {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry entry = cache.get(host);
+            if (entry != null && entry.expiresAtMs > now) {
+                hits++;
+                return entry.preferred;
+            }
+            misses++;
+        }
+        return resolveNow(host);
+    }
+
+    /**
+     * Resolver en segundo plano los endpoints de servidores favoritos/recientes
+     */
+    public void prefetch(Collection<String> hosts) {
+        for (final String host : hosts) {
+            if (host == null || isLiteral(host)) continue;
+            executor.execute(() -> {
+                try {
+                    resolve(host);
+                } catch (Exception ignored) {
+                    // Se reintenta en la próxima conexión
+                }
+            });
+        }
+    }
+
+    /**
+     * Olvidar la resolución de un host (por ejemplo tras un fallo de conexión)
+     */
+    public synchronized void invalidate(String host) {
+        cache.remove(host);
+    }
+
+    /**
+     * Config con los endpoints reescritos a direcciones literales
+     */
+    public Config rewrite(Config config) throws Exception {
+        List<Peer> peers = new ArrayList<>(config.getPeers().size());
+        boolean changed = false;
+        for (Peer peer : config.getPeers()) {
+            if (!peer.getEndpoint().isPresent() || isLiteral(peer.getEndpoint().get().getHost())) {
+                peers.add(peer);
+                continue;
+            }
+            InetEndpoint endpoint = peer.getEndpoint().get();
+            InetAddress address = resolve(endpoint.getHost());
+            peers.add(withEndpoint(peer, literalEndpoint(address, endpoint.getPort())));
+            changed = true;
+        }
+        if (!changed) {
+            return config;
+        }
+        return new Config.Builder().setInterface(config.getInterface()).addPeers(peers).build();
+    }
+
+    /**
+     * Hosts (no literales) de los endpoints del Config
+     */
+    public static List<String> hostnames(Config config) {
+        List<String> hosts = new ArrayList<>();
+        for (Peer peer : config.getPeers()) {
+            if (peer.getEndpoint().isPresent() && !isLiteral(peer.getEndpoint().get().getHost())) {
+                hosts.add(peer.getEndpoint().get().getHost());
+            }
+        }
+        return hosts;
+    }
+
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new HashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("totalResolveMs", totalResolveMs);
+        stats.put("lastResolveMs", lastResolveMs);
+        stats.put("cached", (long) cache.size());
+        return stats;
+    }
+
+    private InetAddress resolveNow(final String host) throws Exception {
+        long start = System.nanoTime();
+        Answer answer = race(host);
+        if (answer == null) {
+            throw new java.net.UnknownHostException(host);
+        }
+
+        long resolveMs = (System.nanoTime() - start) / 1_000_000;
+        long ttl = answer.ttlSeconds < 0 ? DEFAULT_TTL_SECONDS
+                : Math.max(MIN_TTL_SECONDS, Math.min(MAX_TTL_SECONDS, answer.ttlSeconds));
+        InetAddress preferred = answer.addresses.get(0);
+        synchronized (this) {
+            cache.put(host, new Entry(preferred, System.currentTimeMillis() + ttl * 1000));
+            totalResolveMs += resolveMs;
+            lastResolveMs = resolveMs;
+        }
+        return preferred;
+    }
+
+    /**
+     * Happy eyeballs: AAAA gana si llega primero o hasta RESOLUTION_DELAY_MS
+     * después de A; si no, A
+     */
+    private Answer race(final String host) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOOKUP_TIMEOUT_MS);
+        CompletionService<Answer> completion = new ExecutorCompletionService<>(executor);
+        Future<Answer> v6 = completion.submit(() -> lookup.lookup(host, FAMILY_V6));
+        Future<Answer> v4 = completion.submit(() -> lookup.lookup(host, FAMILY_V4));
+
+        Future<Answer> first = completion.poll(LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        Answer answer = null;
+        if (first == v6) {
+            answer = getQuietly(v6, 0);
+            if (answer == null) {
+                answer = getQuietly(v4, remainingMs(deadline));
+            }
+        } else if (first == v4) {
+            Answer a4 = getQuietly(v4, 0);
+            Answer a6 = getQuietly(v6, a4 != null ? RESOLUTION_DELAY_MS : remainingMs(deadline));
+            answer = a6 != null ? a6 : a4;
+        }
+        v4.cancel(true);
+        v6.cancel(true);
+        return answer;
+    }
+
+    private static long remainingMs(long deadlineNanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    private static Answer getQuietly(Future<Answer> future, long timeoutMs) {
+        try {
+            Answer answer = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return answer != null && !answer.addresses.isEmpty() ? answer : null;
+        } catch (TimeoutException e) {
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Peer withEndpoint(Peer peer, InetEndpoint endpoint) throws BadConfigException {
+        Peer.Builder builder = new Peer.Builder()
+            .setPublicKey(peer.getPublicKey())
+            .addAllowedIps(peer.getAllowedIps())
+            .setEndpoint(endpoint);
+        if (peer.getPersistentKeepalive().isPresent()) {
+            builder.setPersistentKeepalive(peer.getPersistentKeepalive().get());
+        }
+        if (peer.getPreSharedKey().isPresent()) {
+            builder.setPreSharedKey(peer.getPreSharedKey().get());
+        }
+        return builder.build();
+    }
+
+    private static InetEndpoint literalEndpoint(InetAddress address, int port) throws Exception {
+        String host = address.getHostAddress();
+        if (address instanceof Inet6Address) {
+            int scope = host.indexOf('%');
+            host = "[" + (scope >= 0 ? host.substring(0, scope) : host) + "]";
+        }
+        return InetEndpoint.parse(host + ":" + port);
+    }
+
+    /**
+     * true si el host ya es una dirección IPv4/IPv6 literal
+     */
+    public static boolean isLiteral(String host) {
+        if (host.indexOf(':') >= 0) {
+            return true;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return !host.isEmpty();
+    }
+
+    /**
+     * Lookup genérico con InetAddress: no separa familias de forma nativa ni
+     * informa TTL, así que filtra el resultado y usa el TTL por defecto
+     */
+    static final class SystemLookup implements Lookup {
+        @Override
+        public Answer lookup(String host, int family) throws Exception {
+            List<InetAddress> matching = new ArrayList<>();
+            for (InetAddress address : InetAddress.getAllByName(host)) {
+                boolean v6 = address instanceof Inet6Address;
+                if (v6 == (family == FAMILY_V6)) {
+                    matching.add(address);
+                }
+            }
+            return new Answer(Collections.unmodifiableList(matching), -1);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.nodexvpn.app.vpn;
+
+import com.wireguard.android.backend.Tunnel;
+import com.wireguard.config.Config;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * {@link TunnelBackend} en memoria, sin TUN ni red: latencias, tráfico y
+ * fallos configurables y deterministas (con un {@link Clock} manual, nada
+ * depende del tiempo real). Para probar la lógica del servicio (connect,
+ * switch, watchdog, restauración) en la JVM, y en builds de depuración para
+ * la UI en emuladores.
+ */
+public final class FakeTunnelBackend implements TunnelBackend {
+
+    /** Intervalo de rehandshake de WireGuard */
+    private static final long REKEY_MS = 120_000;
+
+    public interface Clock {
+        long nowMs();
+        void sleep(long ms) throws InterruptedException;
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nowMs() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleep(long ms) throws InterruptedException {
+            Thread.sleep(ms);
+        }
+    };
+
+    public static final class Options {
+        public long setStateLatencyMs = 40;
+        /** Desde UP hasta el primer handshake; negativo = nunca (peer caído) */
+        public long handshakeLatencyMs = 30;
+        public long rxBytesPerSec = 250_000;
+        public long txBytesPerSec = 50_000;
+    }
+
+    private static final class TunnelState {
+        Tunnel.State state = Tunnel.State.DOWN;
+        Config config;
+        long upAtMs;
+    }
+
+    private final Clock clock;
+    private volatile Options options;
+    private final Map<String, TunnelState> tunnels = new HashMap<>();
+    // Objetos Tunnel que han pasado por setState y siguen vivos: un Tunnel por connect que nadie suelta es una fuga
+    private final Map<Tunnel, Boolean> seen = new WeakHashMap<>();
+    private int failNextSetStates = 0;
+    private String failureMessage;
+    private int setStateCount = 0;
+
+    public FakeTunnelBackend(Options options, Clock clock) {
+        this.options = options;
+        this.clock = clock;
+    }
+
+    public FakeTunnelBackend() {
+        this(new Options(), SYSTEM_CLOCK);
+    }
+
+    public void setOptions(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * Las próximas {@code count} llamadas a setState fallan con {@code message}
+     */
+    public synchronized void failNextSetStates(int count, String message) {
+        failNextSetStates = count;
+        failureMessage = message;
+    }
+
+    public synchronized int getSetStateCount() {
+        return setStateCount;
+    }
+
+    /**
+     * Objetos Tunnel aún alcanzables que pasaron por setState (llamar tras un GC)
+     */
+    public synchronized int getLiveTunnelCount() {
+        return seen.size();
+    }
+
+    public synchronized Config getConfig(Tunnel tunnel) {
+        TunnelState state = tunnels.get(tunnel.getName());
+        return state != null ? state.config : null;
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.FAKE;
+    }
+
+    @Override
+    public String getVersion() {
+        return "fake";
+    }
+
+    @Override
+    public Tunnel.State setState(Tunnel tunnel, Tunnel.State state, Config config) throws Exception {
+        // La latencia va fuera del lock, como el trabajo real de GoBackend
+        clock.sleep(options.setStateLatencyMs);
+        Tunnel.State result;
+        synchronized (this) {
+            setStateCount++;
+            seen.put(tunnel, Boolean.TRUE);
+            if (failNextSetStates > 0) {
+                failNextSetStates--;
+                throw new IOException(failureMessage != null ? failureMessage : "Fallo simulado");
+            }
+            TunnelState current = tunnels.get(tunnel.getName());
+            if (current == null) {
+                current = new TunnelState();
+                tunnels.put(tunnel.getName(), current);
+            }
+            if (state == Tunnel.State.TOGGLE) {
+                state = current.state == Tunnel.State.UP ? Tunnel.State.DOWN : Tunnel.State.UP;
+            }
+            if (state == Tunnel.State.UP) {
+                if (config == null) {
+                    config = current.config;
+                }
+                if (config == null) {
+                    throw new IllegalArgumentException("Sin config para levantar el túnel");
+                }
+                // Mismo Config por referencia: nada que hacer (igual que GoBackend)
+                if (current.state != Tunnel.State.UP || current.config != config) {
+                    // Dispositivo nuevo: contadores a cero y handshake de nuevo
+                    current.config = config;
+                    current.upAtMs = clock.nowMs();
+                }
+            }
+            current.state = state;
+            result = state;
+        }
+        tunnel.onStateChange(result);
+        return result;
+    }
+
+    @Override
+    public synchronized Tunnel.State getState(Tunnel tunnel) {
+        TunnelState state = tunnels.get(tunnel.getName());
+        return state != null ? state.state : Tunnel.State.DOWN;
+    }
+
+    @Override
+    public synchronized void readTotals(Tunnel tunnel, Totals into) {
+        into.clear();
+        TunnelState state = tunnels.get(tunnel.getName());
+        if (state == null || state.state != Tunnel.State.UP) return;
+        Options current = options;
+        long elapsed = clock.nowMs() - state.upAtMs;
+        if (current.handshakeLatencyMs < 0 || elapsed < current.handshakeLatencyMs) {
+            // Sin handshake tampoco pasa tráfico
+            return;
+        }
+        long flowing = elapsed - current.handshakeLatencyMs;
+        into.rxBytes = flowing * current.rxBytesPerSec / 1000;
+        into.txBytes = flowing * current.txBytesPerSec / 1000;
+        into.latestHandshakeEpochMillis = state.upAtMs + current.handshakeLatencyMs + flowing / REKEY_MS * REKEY_MS;
+    }
+}
@@ -0,0 +1,304 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.util.Random;
+
+/**
+ * Vigilante de túneles "UP pero muertos".
+ *
+ * GoBackend sigue en UP aunque el peer no responda. El watchdog recibe las
+ * muestras del sampler (edad del último handshake y contadores rx/tx) y
+ * declara el túnel atascado si el handshake es más viejo que la ventana
+ * configurada, o si se sigue enviando tráfico sin recibir nada durante
+ * rxStallMs. Entonces reconecta: primero al mismo endpoint y luego a los
+ * servidores de respaldo, con backoff exponencial y jitter. Cada incidente
+ * se registra con los tiempos de detección y recuperación.
+ *
+ * Todo corre en un solo hilo a través de un {@link Scheduler}: en la app un
+ * Handler propio con SystemClock; en los tests de la JVM, uno manual.
+ */
+public final class HandshakeWatchdog {
+
+    // Tráfico mínimo enviado sin respuesta para contar como atasco (más que keepalives)
+    private static final long RX_STALL_MIN_TX_BYTES = 4096;
+
+    public static final class Options {
+        /** Handshake más viejo que esto = túnel atascado (WireGuard renueva cada 120s) */
+        public long staleHandshakeMs = 180_000;
+        /** Enviando sin recibir nada durante esto = túnel atascado */
+        public long rxStallMs = 30_000;
+        /** Tiempo para ver un handshake nuevo tras cada intento */
+        public long attemptTimeoutMs = 20_000;
+        public long baseBackoffMs = 1_000;
+        public long maxBackoffMs = 60_000;
+        /** Intentos contra el mismo endpoint antes de pasar a los de respaldo */
+        public int sameEndpointAttempts = 2;
+        public boolean enabled = true;
+    }
+
+    /**
+     * Acciones de recuperación (se llaman en el hilo del watchdog)
+     */
+    public interface Recovery {
+        /** Reconectar al mismo servidor */
+        void reconnect();
+
+        /** Conectar al servidor de respaldo {@code index}; false si no hay */
+        boolean failover(int index);
+
+        /** Incidente cerrado (recuperado o abandonado por stop) */
+        void onIncident(Incident incident);
+    }
+
+    public static final class Incident {
+        public final String reason;
+        public final long detectedAt;
+        public long recoveredAt = -1;
+        public int attempts = 0;
+        public String lastAction;
+
+        Incident(String reason, long detectedAt) {
+            this.reason = reason;
+            this.detectedAt = detectedAt;
+        }
+
+        public boolean isRecovered() {
+            return recoveredAt >= 0;
+        }
+
+        public long timeToRecoverMs() {
+            return isRecovered() ? recoveredAt - detectedAt : -1;
+        }
+
+        @Override
+        public String toString() {
+            return "Incident{" + reason + ", intentos=" + attempts + ", última acción=" + lastAction
+                + (isRecovered() ? ", recuperado en " + timeToRecoverMs() + "ms" : ", sin recuperar") + "}";
+        }
+    }
+
+    /**
+     * Reloj (elapsedRealtime, el mismo de las muestras) y cola de tareas del watchdog
+     */
+    interface Scheduler {
+        long now();
+        void post(Runnable task);
+        void postDelayed(Runnable task, long delayMs);
+        void remove(Runnable task);
+        void quit();
+    }
+
+    private enum Mode { IDLE, MONITORING, RECOVERING }
+
+    private final Recovery recovery;
+    private final Scheduler scheduler;
+    private final Random random = new Random();
+
+    // Estado confinado al hilo del watchdog
+    private Options options = new Options();
+    private Mode mode = Mode.IDLE;
+    private long upAt;
+    private long lastRx = -1;
+    private long lastRxChangeAt;
+    private long txAtLastRxChange;
+    private Incident incident;
+    private long attemptStartedAt;
+    private int failoverIndex;
+
+    public HandshakeWatchdog(Recovery recovery) {
+        this(recovery, handlerScheduler());
+    }
+
+    HandshakeWatchdog(Recovery recovery, Scheduler scheduler) {
+        this.recovery = recovery;
+        this.scheduler = scheduler;
+    }
+
+    private static Scheduler handlerScheduler() {
+        HandlerThread thread = new HandlerThread("NodexWatchdog", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        final Handler handler = new Handler(thread.getLooper());
+        return new Scheduler() {
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtime();
+            }
+
+            @Override
+            public void post(Runnable task) {
+                handler.post(task);
+            }
+
+            @Override
+            public void postDelayed(Runnable task, long delayMs) {
+                handler.postDelayed(task, delayMs);
+            }
+
+            @Override
+            public void remove(Runnable task) {
+                handler.removeCallbacks(task);
+            }
+
+            @Override
+            public void quit() {
+                handler.getLooper().quitSafely();
+            }
+        };
+    }
+
+    public void setOptions(final Options options) {
+        scheduler.post(() -> this.options = options);
+    }
+
+    /**
+     * Túnel arriba: vigilar (si había un incidente abierto se sigue
+     * esperando a que llegue un handshake nuevo)
+     */
+    public void onTunnelUp() {
+        scheduler.post(() -> {
+            resetBaseline();
+            if (mode != Mode.RECOVERING) {
+                mode = Mode.MONITORING;
+            }
+        });
+    }
+
+    /**
+     * Desconexión pedida por el usuario: dejar de vigilar
+     */
+    public void stop() {
+        scheduler.post(() -> {
+            scheduler.remove(attemptTimeout);
+            scheduler.remove(nextAttempt);
+            if (incident != null) {
+                VpnLog.i(Event.WATCHDOG_ABANDONED, incident);
+                recovery.onIncident(incident);
+                incident = null;
+            }
+            mode = Mode.IDLE;
+        });
+    }
+
+    public void release() {
+        stop();
+        scheduler.post(scheduler::quit);
+    }
+
+    /**
+     * Nuevas muestras del sampler [fromSeq, toSeq). Se copian aquí porque el
+     * buffer solo es válido durante la llamada.
+     */
+    public void onSamples(StatsRingBuffer buffer, long fromSeq, long toSeq) {
+        long last = toSeq - 1;
+        final long timestamp = buffer.timestampAt(last);
+        final long rx = buffer.rxBytesAt(last);
+        final long tx = buffer.txBytesAt(last);
+        final long handshakeAge = buffer.handshakeAgeAt(last);
+        scheduler.post(() -> onSample(timestamp, rx, tx, handshakeAge));
+    }
+
+    private void onSample(long now, long rx, long tx, long handshakeAge) {
+        if (mode == Mode.IDLE || !options.enabled) return;
+
+        // Contadores reiniciados (túnel recreado): nueva línea base
+        if (lastRx < 0 || rx < lastRx || tx < txAtLastRxChange) {
+            lastRx = rx;
+            lastRxChangeAt = now;
+            txAtLastRxChange = tx;
+        } else if (rx > lastRx) {
+            lastRx = rx;
+            lastRxChangeAt = now;
+            txAtLastRxChange = tx;
+        }
+
+        if (mode == Mode.RECOVERING) {
+            // Recuperado: handshake posterior al último intento
+            if (handshakeAge >= 0 && now - handshakeAge >= attemptStartedAt) {
+                recovered(scheduler.now());
+            }
+            return;
+        }
+
+        String reason = null;
+        if (handshakeAge >= 0 && handshakeAge > options.staleHandshakeMs) {
+            reason = "handshake de hace " + handshakeAge / 1000 + "s";
+        } else if (handshakeAge < 0 && now - upAt > options.staleHandshakeMs) {
+            reason = "sin handshake desde que subió el túnel";
+        } else if (now - lastRxChangeAt > options.rxStallMs && tx - txAtLastRxChange > RX_STALL_MIN_TX_BYTES) {
+            reason = "sin recibir datos en " + (now - lastRxChangeAt) / 1000 + "s ("
+                + (tx - txAtLastRxChange) + " bytes enviados)";
+        }
+        if (reason != null) {
+            detected(reason, now);
+        }
+    }
+
+    private void detected(String reason, long now) {
+        incident = new Incident(reason, now);
+        failoverIndex = 0;
+        mode = Mode.RECOVERING;
+        VpnLog.w(Event.WATCHDOG_STALLED, reason);
+        scheduler.post(nextAttempt);
+    }
+
+    private final Runnable nextAttempt = new Runnable() {
+        @Override
+        public void run() {
+            if (mode != Mode.RECOVERING || incident == null) return;
+            int attempt = incident.attempts++;
+            attemptStartedAt = scheduler.now();
+
+            if (attempt < options.sameEndpointAttempts || !recovery.failover(failoverIndex)) {
+                incident.lastAction = "reconectar";
+                VpnLog.i(Event.WATCHDOG_RECONNECT, attempt + 1);
+                recovery.reconnect();
+            } else {
+                incident.lastAction = "respaldo #" + failoverIndex;
+                VpnLog.i(Event.WATCHDOG_FAILOVER, attempt + 1, failoverIndex);
+                failoverIndex++;
+            }
+            scheduler.postDelayed(attemptTimeout, options.attemptTimeoutMs);
+        }
+    };
+
+    private final Runnable attemptTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (mode != Mode.RECOVERING || incident == null) return;
+            long delay = backoffMs(incident.attempts);
+            VpnLog.d(Event.WATCHDOG_BACKOFF, incident.attempts, delay);
+            scheduler.postDelayed(nextAttempt, delay);
+        }
+    };
+
+    /**
+     * Backoff exponencial con jitter: entre la mitad y el total del tope
+     */
+    private long backoffMs(int attempts) {
+        long cap = options.baseBackoffMs << Math.min(attempts, 20);
+        cap = Math.min(cap, options.maxBackoffMs);
+        return cap / 2 + (long) (random.nextDouble() * (cap / 2));
+    }
+
+    private void recovered(long now) {
+        scheduler.remove(attemptTimeout);
+        scheduler.remove(nextAttempt);
+        incident.recoveredAt = now;
+        VpnLog.i(Event.WATCHDOG_RECOVERED, incident);
+        recovery.onIncident(incident);
+        incident = null;
+        mode = Mode.MONITORING;
+        resetBaseline();
+    }
+
+    private void resetBaseline() {
+        upAt = scheduler.now();
+        lastRx = -1;
+    }
+}
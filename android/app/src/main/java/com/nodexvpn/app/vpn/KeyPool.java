@@ -0,0 +1,389 @@
+package com.nodexvpn.app.vpn;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+import com.wireguard.crypto.KeyPair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pares de claves Curve25519 del cliente, generados en segundo plano.
+ *
+ * Con una clave de reserva ya generada, conectar o rotar solo requiere
+ * registrar la pública en el servidor. La clave activa y las de reserva se
+ * guardan cifradas ({@link Sealer}, Android Keystore en la app) en un solo
+ * fichero que comparten la UI y el proceso :vpn: cada cambio se hace con
+ * un lock de fichero, releyendo el estado del disco.
+ *
+ * La clave activa se recuerda en memoria junto con la fecha de
+ * modificación del fichero: mientras el fichero no cambie (ni por este
+ * proceso ni por el otro) consultarla no toma el lock ni descifra.
+ */
+public final class KeyPool {
+
+    public static final int POOL_SIZE = 3;
+
+    private static final int MAGIC = 0x4E584B50; // "NXKP"
+    private static final int VERSION = 1;
+    private static final int KEY_LENGTH = 32;
+
+    /**
+     * Cifrado del fichero en reposo
+     */
+    public interface Sealer {
+        byte[] seal(byte[] plain) throws IOException;
+        byte[] open(byte[] sealed) throws IOException;
+    }
+
+    /**
+     * Clave registrada y en uso, y desde cuándo
+     */
+    public static final class Active {
+        public final KeyPair keyPair;
+        public final long createdAtMs;
+
+        Active(KeyPair keyPair, long createdAtMs) {
+            this.keyPair = keyPair;
+            this.createdAtMs = createdAtMs;
+        }
+    }
+
+    private static final class State {
+        Active active;
+        final List<KeyPair> spares = new ArrayList<>();
+    }
+
+    /**
+     * Clave activa leída o escrita con el fichero en esa fecha de modificación
+     */
+    private static final class Cached {
+        final Active active;
+        final long stamp;
+
+        Cached(Active active, long stamp) {
+            this.active = active;
+            this.stamp = stamp;
+        }
+    }
+
+    private static final ReentrantLock THREAD_LOCK = new ReentrantLock();
+
+    private static KeyPool instance;
+
+    public static synchronized KeyPool getInstance(File dir, Sealer sealer) {
+        if (instance == null) {
+            instance = new KeyPool(dir, sealer);
+        }
+        return instance;
+    }
+
+    private final File file;
+    private final File lockFile;
+    private final Sealer sealer;
+    private volatile Cached cached;
+    // Clave solo en memoria mientras el fichero o el Keystore fallan: siempre la misma
+    private Active fallback;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NodexKeyPool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public KeyPool(File dir, Sealer sealer) {
+        dir.mkdirs();
+        this.file = new File(dir, "pool.bin");
+        this.lockFile = new File(dir, "pool.lock");
+        this.sealer = sealer;
+    }
+
+    /**
+     * Clave activa (o la de memoria si el fichero falló), o null si aún no
+     * se ha usado ninguna
+     */
+    public Active active() {
+        Active active = cachedActive();
+        if (active != null) return active;
+        try (Lock lock = new Lock()) {
+            State state = read();
+            if (state.active != null) return state.active;
+        } catch (IOException e) {
+            VpnLog.w(Event.KEY_POOL_READ_FAILED, e);
+        }
+        synchronized (this) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Clave activa; la primera vez se toma una de reserva y pasa a activa.
+     * Sin almacenamiento se usa una clave en memoria, la misma en cada
+     * llamada (la pública registrada y la privada del túnel deben coincidir)
+     * y se guarda como activa cuando el fichero vuelve a funcionar.
+     */
+    public Active activeOrCreate() {
+        Active active = cachedActive();
+        if (active != null) return active;
+        synchronized (this) {
+            try (Lock lock = new Lock()) {
+                State state = read();
+                if (state.active == null) {
+                    state.active = fallback != null
+                        ? fallback
+                        : new Active(takeFrom(state), System.currentTimeMillis());
+                    write(state);
+                    refillAsync();
+                }
+                fallback = null;
+                return state.active;
+            } catch (IOException e) {
+                VpnLog.w(Event.KEY_POOL_UNAVAILABLE, e);
+                if (fallback == null) {
+                    fallback = new Active(new KeyPair(), System.currentTimeMillis());
+                }
+                return fallback;
+            }
+        }
+    }
+
+    /**
+     * Sacar una clave de reserva para rotar (si no hay, se genera ahora).
+     * No pasa a activa hasta {@link #commit}, cuando el túnel ya la usa.
+     */
+    public KeyPair take() {
+        KeyPair keyPair;
+        try (Lock lock = new Lock()) {
+            State state = read();
+            keyPair = takeFrom(state);
+            write(state);
+        } catch (IOException e) {
+            VpnLog.w(Event.KEY_POOL_UNAVAILABLE, e);
+            keyPair = new KeyPair();
+        }
+        refillAsync();
+        return keyPair;
+    }
+
+    /**
+     * Devolver a la reserva una clave de {@link #take} que no llegó a
+     * usarse (registro o cambio de túnel fallido). Se escribe en segundo plano.
+     */
+    public void giveBack(KeyPair keyPair) {
+        executor.execute(() -> {
+            try (Lock lock = new Lock()) {
+                State state = read();
+                if (state.active != null && state.active.keyPair.getPublicKey().equals(keyPair.getPublicKey())) return;
+                // Primera de la reserva; si ya estaba llena sobra la última generada
+                state.spares.add(0, keyPair);
+                while (state.spares.size() > POOL_SIZE) {
+                    state.spares.remove(state.spares.size() - 1);
+                }
+                write(state);
+            } catch (IOException e) {
+                VpnLog.w(Event.KEY_POOL_GIVE_BACK_FAILED, e);
+            }
+        });
+    }
+
+    /**
+     * La clave ya está registrada y aplicada al túnel: pasa a ser la activa
+     */
+    public void commit(KeyPair keyPair) {
+        try (Lock lock = new Lock()) {
+            State state = read();
+            state.active = new Active(keyPair, System.currentTimeMillis());
+            write(state);
+        } catch (IOException e) {
+            VpnLog.w(Event.KEY_POOL_COMMIT_FAILED, e);
+        }
+    }
+
+    /**
+     * Completar la reserva hasta {@link #POOL_SIZE} en segundo plano
+     */
+    public void refillAsync() {
+        executor.execute(() -> {
+            // Generar fuera del lock: es lo único costoso
+            int missing;
+            try (Lock lock = new Lock()) {
+                missing = POOL_SIZE - read().spares.size();
+            } catch (IOException e) {
+                VpnLog.w(Event.KEY_POOL_READ_FAILED, e);
+                return;
+            }
+            if (missing <= 0) return;
+            long start = System.nanoTime();
+            List<KeyPair> generated = new ArrayList<>(missing);
+            for (int i = 0; i < missing; i++) {
+                generated.add(new KeyPair());
+            }
+            try (Lock lock = new Lock()) {
+                State state = read();
+                for (KeyPair keyPair : generated) {
+                    if (state.spares.size() >= POOL_SIZE) break;
+                    state.spares.add(keyPair);
+                }
+                write(state);
+            } catch (IOException e) {
+                VpnLog.w(Event.KEY_POOL_WRITE_FAILED, e);
+                return;
+            }
+            VpnLog.d(Event.KEY_POOL_REFILLED, missing, (System.nanoTime() - start) / 1000);
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Clave activa recordada, o null si el fichero cambió desde entonces
+     */
+    private Active cachedActive() {
+        Cached current = cached;
+        if (current == null || current.active == null) return null;
+        return current.stamp == file.lastModified() ? current.active : null;
+    }
+
+    private static KeyPair takeFrom(State state) {
+        if (state.spares.isEmpty()) {
+            VpnLog.d(Event.KEY_POOL_EMPTY);
+            return new KeyPair();
+        }
+        return state.spares.remove(0);
+    }
+
+    /**
+     * Leer el estado del disco (con el lock tomado) y recordar la clave activa
+     */
+    private State read() throws IOException {
+        State state = readFile();
+        cached = new Cached(state.active, file.lastModified());
+        return state;
+    }
+
+    private State readFile() throws IOException {
+        State state = new State();
+        if (!file.exists()) return state;
+        byte[] sealed = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(sealed);
+        }
+        byte[] plain;
+        try {
+            plain = sealer.open(sealed);
+        } catch (IOException e) {
+            // Clave del Keystore perdida (restauración, cambio de dispositivo): se empieza de cero
+            VpnLog.w(Event.KEY_POOL_DISCARDED, e);
+            return state;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return state;
+            if (in.readBoolean()) {
+                KeyPair keyPair = readKeyPair(in);
+                state.active = new Active(keyPair, in.readLong());
+            }
+            int spares = in.readInt();
+            for (int i = 0; i < spares; i++) {
+                state.spares.add(readKeyPair(in));
+            }
+        }
+        return state;
+    }
+
+    private static KeyPair readKeyPair(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[KEY_LENGTH];
+        in.readFully(bytes);
+        try {
+            return new KeyPair(Key.fromBytes(bytes));
+        } catch (KeyFormatException e) {
+            throw new IOException("Clave inválida");
+        }
+    }
+
+    /**
+     * Escribir cifrado, con tmp + rename para no dejar nunca un fichero a medias
+     */
+    private void write(State state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeBoolean(state.active != null);
+        if (state.active != null) {
+            out.write(state.active.keyPair.getPrivateKey().getBytes());
+            out.writeLong(state.active.createdAtMs);
+        }
+        out.writeInt(state.spares.size());
+        for (KeyPair keyPair : state.spares) {
+            out.write(keyPair.getPrivateKey().getBytes());
+        }
+        out.flush();
+
+        long previous = file.lastModified();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(sealer.seal(bytes.toByteArray()));
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("No se pudo reemplazar " + file.getName());
+        }
+        // Dos escrituras en el mismo milisegundo no pueden dejar la misma fecha:
+        // la caché del otro proceso no notaría el cambio
+        if (file.lastModified() <= previous) {
+            file.setLastModified(previous + 1);
+        }
+        cached = new Cached(state.active, file.lastModified());
+    }
+
+    /**
+     * Lock exclusivo: entre hilos del proceso (un FileLock no lo es) y entre
+     * procesos (UI y :vpn)
+     */
+    private final class Lock implements AutoCloseable {
+        private final RandomAccessFile raf;
+        private final FileLock lock;
+
+        Lock() throws IOException {
+            THREAD_LOCK.lock();
+            try {
+                raf = new RandomAccessFile(lockFile, "rw");
+                try {
+                    lock = raf.getChannel().lock();
+                } catch (IOException e) {
+                    raf.close();
+                    throw e;
+                }
+            } catch (IOException | RuntimeException e) {
+                THREAD_LOCK.unlock();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lock.release();
+                raf.close();
+            } finally {
+                THREAD_LOCK.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.nodexvpn.app.vpn;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * {@link KeyPool.Sealer} con AES-256-GCM y la clave en Android Keystore:
+ * la clave de cifrado nunca sale del Keystore, solo el texto cifrado va a disco.
+ * Formato: longitud del IV (1 byte), IV, texto cifrado con el tag.
+ */
+public final class KeystoreSealer implements KeyPool.Sealer {
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String ALIAS = "nodex_key_pool";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+
+    private SecretKey key;
+
+    @Override
+    public byte[] seal(byte[] plain) throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key());
+            byte[] iv = cipher.getIV();
+            byte[] sealed = cipher.doFinal(plain);
+            return ByteBuffer.allocate(1 + iv.length + sealed.length)
+                .put((byte) iv.length)
+                .put(iv)
+                .put(sealed)
+                .array();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo cifrar: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public byte[] open(byte[] sealed) throws IOException {
+        if (sealed.length < 1 || sealed.length < 1 + (sealed[0] & 0xff)) {
+            throw new IOException("Datos cifrados truncados");
+        }
+        int ivLength = sealed[0] & 0xff;
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, sealed, 1, ivLength));
+            return cipher.doFinal(sealed, 1 + ivLength, sealed.length - 1 - ivLength);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo descifrar: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized SecretKey key() throws GeneralSecurityException, IOException {
+        if (key != null) return key;
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        KeyStore.Entry entry = keyStore.getEntry(ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            key = ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+            return key;
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+            .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+            .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+            .setKeySize(256)
+            .build());
+        key = generator.generateKey();
+        return key;
+    }
+}
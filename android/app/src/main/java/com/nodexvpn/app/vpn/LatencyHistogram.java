@@ -0,0 +1,119 @@
+package com.nodexvpn.app.vpn;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Histograma de latencias estilo HDR con cubetas log-lineales.
+ *
+ * Valores en microsegundos: exactos hasta 32µs y, por encima, 16
+ * subcubetas por potencia de 2 (error relativo ≤ 6.25%) hasta ~134s.
+ * Registrar es sin locks (un par de operaciones atómicas) y el tamaño
+ * serializado es fijo.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR = 32;
+    private static final int SUB_BUCKETS = 16;
+    private static final int MAX_MSB = 26; // 2^27µs ≈ 134s
+    static final int BUCKETS = LINEAR + (MAX_MSB - 4) * SUB_BUCKETS;
+    static final long MAX_VALUE = (1L << (MAX_MSB + 1)) - 1;
+
+    /** Bytes de {@link #writeTo}: count, sum, min, max, last y las cubetas */
+    static final int SERIALIZED_SIZE = 5 * 8 + BUCKETS * 4;
+
+    private final AtomicIntegerArray buckets = new AtomicIntegerArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+    private volatile long last = 0;
+
+    public void record(long valueUs) {
+        long value = Math.max(0, Math.min(valueUs, MAX_VALUE));
+        buckets.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        last = value;
+        long m;
+        while (value < (m = min.get()) && !min.compareAndSet(m, value)) { }
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) { }
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - 4;
+        return LINEAR + (msb - 5) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /** Valor representativo (punto medio) de la cubeta */
+    static long valueAt(int index) {
+        if (index < LINEAR) return index;
+        int k = index - LINEAR;
+        int shift = k / SUB_BUCKETS + 1;
+        long lower = (long) (SUB_BUCKETS + k % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) / 2;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMin() {
+        return count.get() > 0 ? min.get() : 0;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n > 0 ? sum.get() / n : 0;
+    }
+
+    /**
+     * Percentil (0-100) aproximado a la resolución de las cubetas
+     */
+    public long percentile(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.max(getMin(), Math.min(valueAt(i), getMax()));
+            }
+        }
+        return getMax();
+    }
+
+    void writeTo(ByteBuffer out) {
+        out.putLong(count.get());
+        out.putLong(sum.get());
+        out.putLong(min.get());
+        out.putLong(max.get());
+        out.putLong(last);
+        for (int i = 0; i < BUCKETS; i++) {
+            out.putInt(buckets.get(i));
+        }
+    }
+
+    void readFrom(ByteBuffer in) {
+        count.set(in.getLong());
+        sum.set(in.getLong());
+        min.set(in.getLong());
+        max.set(in.getLong());
+        last = in.getLong();
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, in.getInt());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.nodexvpn.app.vpn;
+
+import com.wireguard.android.backend.Backend;
+import com.wireguard.android.backend.Statistics;
+import com.wireguard.android.backend.Tunnel;
+import com.wireguard.config.Config;
+import com.wireguard.crypto.Key;
+
+/**
+ * {@link TunnelBackend} sobre un Backend de la librería WireGuard
+ * (GoBackend o WgQuickBackend)
+ */
+final class LibraryTunnelBackend implements TunnelBackend {
+
+    private final Kind kind;
+    private final Backend backend;
+    private String version;
+
+    LibraryTunnelBackend(Kind kind, Backend backend) {
+        this.kind = kind;
+        this.backend = backend;
+    }
+
+    @Override
+    public Kind getKind() {
+        return kind;
+    }
+
+    @Override
+    public synchronized String getVersion() {
+        if (version == null) {
+            try {
+                version = backend.getVersion();
+            } catch (Exception e) {
+                return "desconocida";
+            }
+        }
+        return version;
+    }
+
+    @Override
+    public Tunnel.State setState(Tunnel tunnel, Tunnel.State state, Config config) throws Exception {
+        return backend.setState(tunnel, state, config);
+    }
+
+    @Override
+    public Tunnel.State getState(Tunnel tunnel) throws Exception {
+        return backend.getState(tunnel);
+    }
+
+    @Override
+    public void readTotals(Tunnel tunnel, Totals into) throws Exception {
+        Statistics stats = backend.getStatistics(tunnel);
+        into.clear();
+        for (Key peer : stats.peers()) {
+            Statistics.PeerStats peerStats = stats.peer(peer);
+            if (peerStats == null) continue;
+            into.rxBytes += peerStats.rxBytes();
+            into.txBytes += peerStats.txBytes();
+            into.latestHandshakeEpochMillis = Math.max(into.latestHandshakeEpochMillis, peerStats.latestHandshakeEpochMillis());
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.Bundle;
+import android.os.RemoteException;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.PromiseImpl;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link SoakHarness.Target} sobre los métodos de {@link RealWireGuardModule}
+ * que usa JS: cada paso pasa por el módulo, AIDL y el servicio del proceso
+ * :vpn con el backend elegido. Mide los dos procesos; los listeners de estado
+ * registrados en el servicio y los Tunnel vivos de {@link FakeTunnelBackend}
+ * no deben crecer.
+ */
+final class ModuleSoakTarget implements SoakHarness.Target {
+
+    private static final long STEP_TIMEOUT_MS = 60000;
+
+    private interface Step {
+        void start(Promise promise);
+    }
+
+    private interface BundleCall {
+        Bundle run(IVpnControl control) throws RemoteException;
+    }
+
+    private final RealWireGuardModule module;
+    private final VpnServiceClient client;
+    private final List<ReadableMap> configs;
+    private final String backend;
+    private String previousPreference;
+
+    ModuleSoakTarget(RealWireGuardModule module, VpnServiceClient client, List<ReadableMap> configs, String backend) {
+        this.module = module;
+        this.client = client;
+        this.configs = configs;
+        this.backend = backend;
+    }
+
+    @Override
+    public void start() throws Exception {
+        Bundle previous = call(IVpnControl::getBackendInfo);
+        previousPreference = previous.getString("preference", "auto");
+        client.run(control -> control.setBackendPreference(backend));
+    }
+
+    @Override
+    public int configCount() {
+        return configs.size();
+    }
+
+    @Override
+    public void connect(int config) throws Exception {
+        await(promise -> module.connect(configs.get(config), promise));
+    }
+
+    @Override
+    public void switchServer(int config) throws Exception {
+        await(promise -> module.switchServer(configs.get(config), promise));
+    }
+
+    @Override
+    public void disconnect() throws Exception {
+        await(module::disconnect);
+        await(promise -> module.waitForStatus("disconnected", STEP_TIMEOUT_MS, promise));
+    }
+
+    @Override
+    public Map<String, SoakHarness.Usage> sample() throws Exception {
+        Map<String, SoakHarness.Usage> usage = new TreeMap<>();
+        usage.put("ui", toUsage(ProcessResources.sample()));
+        usage.put("vpn", toUsage(call(IVpnControl::getResourceUsage)));
+        return usage;
+    }
+
+    @Override
+    public void finish() {
+        if (previousPreference != null) {
+            client.run(control -> control.setBackendPreference(previousPreference));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "module/" + backend;
+    }
+
+    /**
+     * Llamar a un método del módulo y esperar su promise
+     */
+    private void await(Step step) throws InterruptedException, TimeoutException {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] error = new String[1];
+        step.start(new PromiseImpl(
+            args -> done.countDown(),
+            args -> {
+                error[0] = args.length > 0 ? String.valueOf(args[0]) : "rechazado";
+                done.countDown();
+            }));
+        if (!done.await(STEP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("sin respuesta en " + STEP_TIMEOUT_MS + "ms");
+        }
+        if (error[0] != null) {
+            throw new IllegalStateException(error[0]);
+        }
+    }
+
+    private Bundle call(BundleCall call) throws InterruptedException, TimeoutException, RemoteException {
+        CountDownLatch done = new CountDownLatch(1);
+        Bundle[] result = new Bundle[1];
+        Exception[] failure = new Exception[1];
+        client.run(control -> {
+            try {
+                result[0] = call.run(control);
+            } finally {
+                done.countDown();
+            }
+        }, error -> {
+            failure[0] = error;
+            done.countDown();
+        });
+        if (!done.await(STEP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Sin respuesta del proceso :vpn");
+        }
+        if (failure[0] != null) {
+            throw new RemoteException("Proceso :vpn: " + failure[0].getMessage());
+        }
+        return result[0] != null ? result[0] : new Bundle();
+    }
+
+    private static SoakHarness.Usage toUsage(Bundle bundle) {
+        SoakHarness.Usage usage = new SoakHarness.Usage();
+        usage.heapKb = bundle.getLong("heapKb", -1);
+        usage.nativeHeapKb = bundle.getLong("nativeHeapKb", -1);
+        usage.threads = bundle.getInt("threads", -1);
+        usage.fds = bundle.getInt("fds", -1);
+        for (String handle : new String[]{"listeners", "tunnels"}) {
+            if (bundle.containsKey(handle)) {
+                usage.handles.put(handle, bundle.getInt(handle));
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Informe para JS
+     */
+    static WritableMap toWritableMap(SoakHarness.Report report) {
+        WritableMap growth = new WritableNativeMap();
+        for (Map.Entry<String, SoakHarness.Usage> entry : report.growth.entrySet()) {
+            growth.putMap(entry.getKey(), toMap(entry.getValue()));
+        }
+
+        WritableMap latency = new WritableNativeMap();
+        latency.putMap("cycle", summary(report.cycleUs));
+        latency.putMap("connect", summary(report.connectUs));
+        latency.putMap("switch", summary(report.switchUs));
+        latency.putMap("disconnect", summary(report.disconnectUs));
+        latency.putDouble("baselineP50Us", report.baselineP50Us);
+        latency.putDouble("finalP50Us", report.finalP50Us);
+        latency.putDouble("drift", report.drift);
+
+        WritableArray series = new WritableNativeArray();
+        for (SoakHarness.Sample sample : report.samples) {
+            WritableMap item = new WritableNativeMap();
+            item.putDouble("cycle", sample.cycle);
+            item.putDouble("elapsedMs", sample.elapsedMs);
+            item.putDouble("p50Us", sample.p50Us);
+            for (Map.Entry<String, SoakHarness.Usage> entry : sample.usage.entrySet()) {
+                item.putMap(entry.getKey(), toMap(entry.getValue()));
+            }
+            series.pushMap(item);
+        }
+
+        WritableArray failures = new WritableNativeArray();
+        for (String failure : report.failures) {
+            failures.pushString(failure);
+        }
+
+        WritableMap map = new WritableNativeMap();
+        map.putBoolean("passed", report.passed());
+        map.putBoolean("cancelled", report.cancelled);
+        map.putArray("failures", failures);
+        map.putDouble("cycles", report.cycles);
+        map.putDouble("durationMs", report.durationMs);
+        map.putDouble("errors", report.errors);
+        map.putMap("growth", growth);
+        map.putMap("latency", latency);
+        map.putArray("samples", series);
+        return map;
+    }
+
+    private static WritableMap summary(LatencyHistogram histogram) {
+        WritableMap map = new WritableNativeMap();
+        map.putDouble("count", histogram.getCount());
+        map.putDouble("minUs", histogram.getMin());
+        map.putDouble("meanUs", histogram.getMean());
+        map.putDouble("p50Us", histogram.percentile(50));
+        map.putDouble("p90Us", histogram.percentile(90));
+        map.putDouble("p99Us", histogram.percentile(99));
+        map.putDouble("maxUs", histogram.getMax());
+        return map;
+    }
+
+    private static WritableMap toMap(SoakHarness.Usage usage) {
+        WritableMap map = new WritableNativeMap();
+        map.putDouble("heapKb", usage.heapKb);
+        map.putDouble("nativeHeapKb", usage.nativeHeapKb);
+        map.putInt("threads", usage.threads);
+        map.putInt("fds", usage.fds);
+        for (Map.Entry<String, Integer> handle : usage.handles.entrySet()) {
+            map.putInt(handle.getKey(), handle.getValue());
+        }
+        return map;
+    }
+}
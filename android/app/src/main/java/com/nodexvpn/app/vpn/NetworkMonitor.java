@@ -0,0 +1,202 @@
+package com.nodexvpn.app.vpn;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+/**
+ * Sigue la red física por defecto (la mejor red con INTERNET que no sea
+ * VPN) y avisa cuando el túnel debe volver a enlazarse: cambio de red
+ * (Wi-Fi ↔ móvil) o de direcciones en la misma red.
+ *
+ * Los eventos se agrupan con un debounce: un roaming que pierde y
+ * recupera la red varias veces produce un único aviso, y volver a la
+ * misma red con las mismas direcciones no produce ninguno.
+ */
+public final class NetworkMonitor {
+
+    private static final long DEFAULT_DEBOUNCE_MS = 1500;
+
+    public interface Listener {
+        /**
+         * La red cambió y ya se estabilizó. {@code outageStartedAt}
+         * (elapsedRealtime) es cuando se perdió o cambió la red anterior.
+         */
+        void onNetworkChanged(Network network, long outageStartedAt);
+    }
+
+    private final ConnectivityManager connectivity;
+    private final Listener listener;
+    private final Handler handler;
+    private final long debounceMs;
+
+    // Estado confinado al hilo del monitor
+    private boolean running = false;
+    private Network current;
+    private String currentAddresses;
+    private String appliedKey;
+    private long outageStartedAt = -1;
+    // Última red estabilizada, legible desde otros hilos
+    private volatile Network settledNetwork;
+
+    public NetworkMonitor(Context context, Listener listener) {
+        this(context, listener, DEFAULT_DEBOUNCE_MS);
+    }
+
+    public NetworkMonitor(Context context, Listener listener, long debounceMs) {
+        this.connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+        this.debounceMs = debounceMs;
+        HandlerThread thread = new HandlerThread("NodexNetworkMonitor", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Empezar a seguir la red; la red actual se toma como punto de partida
+     */
+    public void start() {
+        handler.post(() -> {
+            if (running) return;
+            running = true;
+            current = null;
+            appliedKey = null;
+            outageStartedAt = -1;
+            NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_NOT_VPN)
+                .build();
+            try {
+                // requestNetwork sigue a la red que el sistema elige para la petición
+                connectivity.requestNetwork(request, callback);
+                VpnLog.d(Event.NETWORK_TRACKING);
+            } catch (RuntimeException e) {
+                running = false;
+                VpnLog.e(Event.NETWORK_CALLBACK_FAILED, e);
+            }
+        });
+    }
+
+    public void stop() {
+        handler.post(() -> {
+            if (!running) return;
+            running = false;
+            settledNetwork = null;
+            handler.removeCallbacks(settle);
+            try {
+                connectivity.unregisterNetworkCallback(callback);
+            } catch (RuntimeException e) {
+                VpnLog.w(Event.NETWORK_UNREGISTER_FAILED, e);
+            }
+        });
+    }
+
+    /**
+     * Red física estable actual, o null si todavía no hay ninguna
+     */
+    public Network getNetwork() {
+        return settledNetwork;
+    }
+
+    public void release() {
+        stop();
+        handler.post(() -> handler.getLooper().quitSafely());
+    }
+
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(@NonNull final Network network) {
+            final long now = SystemClock.elapsedRealtime();
+            handler.post(() -> {
+                if (!running) return;
+                if (current != null && !network.equals(current) && outageStartedAt < 0) {
+                    // Cambio sin pérdida previa (make-before-break)
+                    outageStartedAt = now;
+                }
+                current = network;
+                currentAddresses = null;
+                scheduleSettle();
+            });
+        }
+
+        @Override
+        public void onLinkPropertiesChanged(@NonNull final Network network, @NonNull LinkProperties properties) {
+            final String addresses = describe(properties);
+            final long now = SystemClock.elapsedRealtime();
+            handler.post(() -> {
+                if (!running || !network.equals(current)) return;
+                if (currentAddresses != null && !currentAddresses.equals(addresses) && outageStartedAt < 0) {
+                    outageStartedAt = now;
+                }
+                currentAddresses = addresses;
+                scheduleSettle();
+            });
+        }
+
+        @Override
+        public void onLost(@NonNull final Network network) {
+            final long now = SystemClock.elapsedRealtime();
+            handler.post(() -> {
+                if (!running || !network.equals(current)) return;
+                VpnLog.d(Event.NETWORK_LOST, network);
+                current = null;
+                currentAddresses = null;
+                if (outageStartedAt < 0) outageStartedAt = now;
+                handler.removeCallbacks(settle);
+            });
+        }
+    };
+
+    private void scheduleSettle() {
+        handler.removeCallbacks(settle);
+        handler.postDelayed(settle, debounceMs);
+    }
+
+    /**
+     * La red lleva debounceMs sin cambios: avisar si no es la que ya se aplicó
+     */
+    private final Runnable settle = new Runnable() {
+        @Override
+        public void run() {
+            if (!running || current == null) return;
+            String key = current + "|" + currentAddresses;
+            if (key.equals(appliedKey)) {
+                // Se perdió y volvió la misma red: el túnel sigue valiendo
+                outageStartedAt = -1;
+                return;
+            }
+            boolean first = appliedKey == null;
+            appliedKey = key;
+            settledNetwork = current;
+            long outage = outageStartedAt;
+            outageStartedAt = -1;
+            if (first) {
+                VpnLog.d(Event.NETWORK_INITIAL, current);
+                return;
+            }
+            VpnLog.i(Event.NETWORK_CHANGED, current, currentAddresses);
+            listener.onNetworkChanged(current, outage >= 0 ? outage : SystemClock.elapsedRealtime());
+        }
+    };
+
+    private static String describe(LinkProperties properties) {
+        StringBuilder sb = new StringBuilder();
+        for (LinkAddress address : properties.getLinkAddresses()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(address.getAddress().getHostAddress());
+        }
+        return sb.toString();
+    }
+}
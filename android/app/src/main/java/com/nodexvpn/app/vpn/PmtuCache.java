@@ -0,0 +1,68 @@
+package com.nodexvpn.app.vpn;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché con TTL de resultados de {@link PmtuProber} por (servidor, red):
+ * el mismo servidor puede tener otro MTU por Wi-Fi que por datos móviles.
+ */
+public final class PmtuCache {
+
+    public static final long DEFAULT_TTL_MS = 10 * 60_000;
+    private static final int MAX_ENTRIES = 64;
+
+    private static final class Entry {
+        final PmtuProber.Result result;
+        final long measuredAtMs;
+
+        Entry(PmtuProber.Result result, long measuredAtMs) {
+            this.result = result;
+            this.measuredAtMs = measuredAtMs;
+        }
+    }
+
+    private volatile long ttlMs;
+
+    // Orden de acceso: al llenarse se descarta el menos usado
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public PmtuCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    public void setTtlMs(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    public synchronized void put(String server, String network, PmtuProber.Result result, long nowMs) {
+        entries.put(key(server, network), new Entry(result, nowMs));
+    }
+
+    /**
+     * Resultado vigente, o null si no hay o expiró
+     */
+    public synchronized PmtuProber.Result getFresh(String server, String network, long nowMs) {
+        String key = key(server, network);
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (nowMs - entry.measuredAtMs > ttlMs) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.result;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static String key(String server, String network) {
+        return server + "@" + network;
+    }
+}
@@ -0,0 +1,179 @@
+package com.nodexvpn.app.vpn;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Descubrimiento del MTU de camino hacia un endpoint con sondas UDP con DF.
+ *
+ * Busca en binario el mayor paquete IP que llega: con un puerto de eco en
+ * el servidor, una sonda cuenta si vuelve; sin eco (WireGuard descarta lo
+ * que no es un handshake), solo cuenta que el kernel la acepte, lo que
+ * refleja el MTU del enlace local y el PMTU que haya aprendido por ICMP.
+ * Java puro: el socket se configura desde fuera (DF, red física), así que
+ * se puede probar contra un eco en loopback.
+ */
+public final class PmtuProber {
+
+    /** Cabeceras externas de WireGuard: IP + UDP (8) + WireGuard (32) */
+    public static final int WG_OVERHEAD_V4 = 20 + 8 + 32;
+    public static final int WG_OVERHEAD_V6 = 40 + 8 + 32;
+    /** IPv6 exige al menos 1280 dentro del túnel */
+    public static final int MIN_TUNNEL_MTU = 1280;
+
+    /**
+     * Preparar el socket antes de sondear (DF, enlazar a la red física)
+     */
+    public interface SocketConfigurator {
+        void configure(DatagramSocket socket, boolean ipv6) throws IOException;
+    }
+
+    public static final class Options {
+        /** Tamaños de paquete IP a explorar */
+        public int minSize = 1280;
+        public int maxSize = 1500;
+        /** Envíos por tamaño antes de darlo por perdido */
+        public int attempts = 2;
+        public long timeoutMs = 400;
+        /** Puerto de eco UDP del servidor; 0 para solo comprobar el enlace local */
+        public int echoPort = 0;
+    }
+
+    public static final class Result {
+        /** Mayor paquete IP que pasa */
+        public final int pathMtu;
+        /** true si lo confirmó el eco; false si solo el enlace local */
+        public final boolean confirmed;
+        public final boolean ipv6;
+        public final int probes;
+        public final long elapsedMs;
+
+        Result(int pathMtu, boolean confirmed, boolean ipv6, int probes, long elapsedMs) {
+            this.pathMtu = pathMtu;
+            this.confirmed = confirmed;
+            this.ipv6 = ipv6;
+            this.probes = probes;
+            this.elapsedMs = elapsedMs;
+        }
+
+        /** MTU para la sección [Interface] */
+        public int tunnelMtu() {
+            return Math.max(MIN_TUNNEL_MTU, pathMtu - (ipv6 ? WG_OVERHEAD_V6 : WG_OVERHEAD_V4));
+        }
+
+        @Override
+        public String toString() {
+            return "PMTU " + pathMtu + (confirmed ? " (eco)" : " (local)") + " -> MTU túnel " + tunnelMtu()
+                + ", " + probes + " sondas en " + elapsedMs + "ms";
+        }
+    }
+
+    private final SocketConfigurator configurator;
+    private long nextId = System.nanoTime();
+
+    public PmtuProber(SocketConfigurator configurator) {
+        this.configurator = configurator;
+    }
+
+    /**
+     * Sondear hacia {@code target} (dirección ya resuelta; el puerto se
+     * ignora si hay echoPort). Bloquea hasta terminar.
+     */
+    public Result probe(InetSocketAddress target, Options options) throws IOException {
+        long start = System.nanoTime();
+        boolean ipv6 = target.getAddress() instanceof Inet6Address;
+        int headers = (ipv6 ? 40 : 20) + 8;
+        boolean echo = options.echoPort > 0;
+        InetSocketAddress destination = echo ? new InetSocketAddress(target.getAddress(), options.echoPort) : target;
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            if (configurator != null) {
+                configurator.configure(socket, ipv6);
+            }
+            socket.connect(destination);
+            socket.setSoTimeout((int) Math.max(1, options.timeoutMs));
+            byte[] receive = new byte[options.maxSize];
+            int[] probes = {0};
+
+            // Sin respuesta ni al mínimo: no hay eco, usar solo el enlace local
+            if (echo && !fits(socket, options.minSize - headers, true, options, receive, probes)) {
+                echo = false;
+            }
+
+            int low = options.minSize;
+            int high = options.maxSize;
+            if (!fits(socket, low - headers, echo, options, receive, probes)) {
+                // Ni el mínimo cabe en el enlace local: devolver el mínimo igualmente
+                return new Result(low, false, ipv6, probes[0], (System.nanoTime() - start) / 1_000_000);
+            }
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (fits(socket, mid - headers, echo, options, receive, probes)) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return new Result(low, echo, ipv6, probes[0], (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * ¿Pasa un datagrama con {@code payload} bytes de UDP?
+     */
+    private boolean fits(DatagramSocket socket, int payload, boolean echo, Options options,
+                         byte[] receive, int[] probes) throws IOException {
+        byte[] data = new byte[Math.max(8, payload)];
+        for (int attempt = 0; attempt < options.attempts; attempt++) {
+            long id = nextId++;
+            ByteBuffer.wrap(data).putLong(id);
+            probes[0]++;
+            try {
+                socket.send(new DatagramPacket(data, data.length));
+            } catch (PortUnreachableException e) {
+                // ICMP pendiente de una sonda anterior: el datagrama sí salió
+                return !echo;
+            } catch (IOException e) {
+                // EMSGSIZE: el kernel ya sabe que no cabe (MTU local o ICMP)
+                if (isTooBig(e)) return false;
+                throw e;
+            }
+            if (!echo) return true;
+            if (awaitEcho(socket, id, data.length, options.timeoutMs, receive)) return true;
+        }
+        return false;
+    }
+
+    private static boolean awaitEcho(DatagramSocket socket, long id, int length, long timeoutMs, byte[] receive)
+            throws IOException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+        DatagramPacket packet = new DatagramPacket(receive, receive.length);
+        while (true) {
+            long left = (deadline - System.nanoTime()) / 1_000_000;
+            if (left <= 0) return false;
+            socket.setSoTimeout((int) left);
+            try {
+                socket.receive(packet);
+            } catch (SocketTimeoutException | PortUnreachableException e) {
+                // Sin eco escuchando en ese puerto
+                return false;
+            }
+            // Respuestas tardías de sondas anteriores se ignoran
+            if (packet.getLength() == length && ByteBuffer.wrap(receive).getLong() == id) {
+                return true;
+            }
+            packet.setLength(receive.length);
+        }
+    }
+
+    private static boolean isTooBig(IOException e) {
+        String message = e.getMessage();
+        return message != null && (message.contains("too long") || message.contains("EMSGSIZE"));
+    }
+}
@@ -0,0 +1,79 @@
+package com.nodexvpn.app.vpn;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caché con TTL de resultados de {@link ServerProber}, para que la lista de
+ * servidores se muestre al instante con la última medición conocida.
+ */
+public final class ProbeResultCache {
+
+    public static final long DEFAULT_TTL_MS = 60_000;
+
+    private static ProbeResultCache instance;
+
+    public static synchronized ProbeResultCache getInstance() {
+        if (instance == null) {
+            instance = new ProbeResultCache(DEFAULT_TTL_MS);
+        }
+        return instance;
+    }
+
+    private static final class Entry {
+        final ServerProber.Result result;
+        final long measuredAtMs;
+
+        Entry(ServerProber.Result result, long measuredAtMs) {
+            this.result = result;
+            this.measuredAtMs = measuredAtMs;
+        }
+    }
+
+    private final long ttlMs;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public ProbeResultCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    public synchronized void put(ServerProber.Result result, long nowMs) {
+        entries.put(result.id, new Entry(result, nowMs));
+    }
+
+    /**
+     * Resultado vigente para el servidor, o null si no hay o expiró
+     */
+    public synchronized ServerProber.Result getFresh(String id, long nowMs) {
+        Entry entry = entries.get(id);
+        if (entry == null) return null;
+        if (nowMs - entry.measuredAtMs > ttlMs) {
+            entries.remove(id);
+            return null;
+        }
+        return entry.result;
+    }
+
+    /**
+     * Separar los servidores con resultado vigente de los que hay que sondear
+     */
+    public synchronized List<ServerProber.Target> partition(List<ServerProber.Target> targets,
+                                                           List<ServerProber.Result> fresh, long nowMs) {
+        List<ServerProber.Target> stale = new ArrayList<>();
+        for (ServerProber.Target target : targets) {
+            ServerProber.Result result = getFresh(target.id, nowMs);
+            if (result != null) {
+                fresh.add(result);
+            } else {
+                stale.add(target);
+            }
+        }
+        return stale;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,40 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.Bundle;
+import android.os.Debug;
+
+import java.io.File;
+
+/**
+ * Recursos del proceso actual para la prueba de resistencia: heap Java
+ * tras forzar GC (lo retenido), heap nativo, hilos y descriptores abiertos.
+ */
+public final class ProcessResources {
+
+    private ProcessResources() {
+    }
+
+    /**
+     * heapKb, heapMaxKb, nativeHeapKb, threads, fds. Fuerza GC: no llamar
+     * en caminos normales.
+     */
+    public static Bundle sample() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        System.runFinalization();
+        runtime.gc();
+
+        Bundle usage = new Bundle();
+        usage.putLong("heapKb", (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+        usage.putLong("heapMaxKb", runtime.maxMemory() / 1024);
+        usage.putLong("nativeHeapKb", Debug.getNativeHeapAllocatedSize() / 1024);
+        usage.putInt("threads", count(new File("/proc/self/task")));
+        usage.putInt("fds", count(new File("/proc/self/fd")));
+        return usage;
+    }
+
+    private static int count(File dir) {
+        String[] entries = dir.list();
+        return entries != null ? entries.length : -1;
+    }
+}
@@ -1,101 +1,306 @@
 package com.nodexvpn.app.vpn;
 
 import android.app.Activity;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.net.VpnService;
-import android.util.Log;
+import android.os.Build;
+import android.os.Bundle;
 
 import com.facebook.react.bridge.ActivityEventListener;
 import com.facebook.react.bridge.BaseActivityEventListener;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
 import com.facebook.react.bridge.WritableNativeMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import androidx.annotation.NonNull;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+
+import com.nodexvpn.app.BuildConfig;
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import com.wireguard.config.BadConfigException;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.nodexvpn.app.vpn.ConnectionStateMachine.Outcome;
+import com.nodexvpn.app.vpn.ConnectionStateMachine.Snapshot;
+import com.nodexvpn.app.vpn.ConnectionStateMachine.State;
 
 /**
  * Módulo React Native que se comunica con WireGuardVpnService
- * para manejo correcto del GoBackend dentro del VpnService
+ * para manejo correcto del GoBackend dentro del VpnService.
+ *
+ * El servicio vive en el proceso :vpn: el control va por Binder
+ * (VpnServiceClient) y las estadísticas por memoria compartida
+ * (StatsMemoryReader).
  */
 public class RealWireGuardModule extends ReactContextBaseJavaModule {
     
-    private static final String TAG = "RealWireGuardModule";
+    public static final String NAME = "RealWireGuardModule";
     private static final int VPN_REQUEST_CODE = 1001;
     
+    // Eventos emitidos a JS
+    public static final String EVENT_STATS = "WireGuardStats";
+    
+    // Puerto de la API del servidor, usado como respaldo TCP del sondeo
+    private static final int DEFAULT_PROBE_TCP_PORT = 3000;
+    
+    // Tiempo máximo de espera de connect/switchServer
+    private static final long CONNECT_TIMEOUT_MS = 30000;
+    
+    // Final del log de la UI en el diagnóstico
+    private static final int DIAGNOSTICS_LOG_BYTES = 64 * 1024;
+    
+    // Orígenes válidos de cada transición
+    private static final Set<State> FROM_ACTIVE = EnumSet.of(State.CONNECTING, State.SWITCHING, State.CONNECTED,
+            State.DISCONNECTED, State.ERROR);
+    private static final Set<State> FROM_SETTLED = EnumSet.of(State.CONNECTED, State.DISCONNECTING,
+            State.DISCONNECTED, State.ERROR);
+    private static final Set<State> FROM_NOT_DISCONNECTED = EnumSet.complementOf(EnumSet.of(State.DISCONNECTED));
+    private static final Set<State> CONNECT_TARGETS = EnumSet.of(State.CONNECTED);
+    private static final Set<State> CONNECT_FAILURES = EnumSet.of(State.ERROR, State.DISCONNECTED);
+    
     private ReactApplicationContext reactContext;
     
-    // Para manejar el resultado de permisos VPN
-    private Promise pendingVpnPromise = null;
-    private ReadableMap pendingVpnConfig = null;
+    // Config a conectar cuando el usuario acepte el diálogo de permisos VPN
+    private final AtomicReference<WireGuardConfig> pendingVpnConfig = new AtomicReference<>();
+    private volatile long permissionShownAtNanos = 0;
     
-    // Estado actual del VPN
-    private String currentStatus = "disconnected";
-    private boolean isConnected = false;
+    // Sondeo de servidores fuera del hilo del bridge
+    private final ExecutorService probeExecutor = Executors.newSingleThreadExecutor();
+    
+    // Conexión con el proceso :vpn y lector de estadísticas
+    private final VpnServiceClient serviceClient;
+    private final StatsMemoryReader statsReader;
+    private boolean uiVisible = true;
+    
+    // Configuraciones WireGuard del backend, con caché en disco
+    private final ConfigProvisioner provisioner;
+    // Claves del cliente pregeneradas: conectar solo registra la pública
+    private final KeyPool keyPool;
+    
+    // Prueba de resistencia en curso (solo debug)
+    private final AtomicReference<SoakHarness> soakHarness = new AtomicReference<>();
+    
+    // Estado actual del VPN: transiciones por CAS, esperas con timeout
+    private final ConnectionStateMachine stateMachine = new ConnectionStateMachine();
+    
+    // Última muestra de estadísticas, para las lecturas síncronas de NodexVpnTurboModule
+    private volatile long liveRxBytes = 0;
+    private volatile long liveTxBytes = 0;
+    private volatile long liveRxRate = 0;
+    private volatile long liveTxRate = 0;
+    private volatile long liveHandshakeAgeMs = -1;
+    private volatile long liveTimestamp = 0;
 
     public RealWireGuardModule(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
+        VpnLog.initialize(new File(reactContext.getFilesDir(), VpnLog.DIR_NAME), "ui", BuildConfig.DEBUG);
         
         // Registrar listener para resultados de Activities
         reactContext.addActivityEventListener(activityEventListener);
         
-        // Registrar receiver para actualizaciones de estado del VPN
-        IntentFilter filter = new IntentFilter(WireGuardVpnService.ACTION_VPN_STATUS_CHANGED);
-        LocalBroadcastManager.getInstance(reactContext).registerReceiver(vpnStatusReceiver, filter);
+        // Fases del connect medidas en este proceso (el resto en :vpn)
+        ConnectTracer.initialize(new File(reactContext.getNoBackupFilesDir(), "connect_metrics_ui.bin"));
         
-        Log.d(TAG, "✅ RealWireGuardModule inicializado con comunicación por Intent");
+        // Estado del VPN por Binder desde el proceso :vpn
+        serviceClient = new VpnServiceClient(reactContext, vpnStatusListener);
+        serviceClient.bind();
+        
+        // Estadísticas del túnel: el sampler ajusta su intervalo según la visibilidad de la UI
+        statsReader = new StatsMemoryReader(reactContext, statsListener);
+        reactContext.addLifecycleEventListener(lifecycleListener);
+        
+        provisioner = ConfigProvisioner.getInstance(new File(reactContext.getNoBackupFilesDir(), "provisioning"));
+        keyPool = KeyPool.getInstance(new File(reactContext.getNoBackupFilesDir(), "keys"), new KeystoreSealer());
+        keyPool.refillAsync();
+        
+        VpnLog.i(Event.MODULE_READY);
     }
 
     @NonNull
     @Override
     public String getName() {
-        return "RealWireGuardModule";
+        return NAME;
     }
 
+    // ---- Lecturas sin lock ni asignaciones (NodexVpnTurboModule) ----
+
+    Snapshot currentSnapshot() {
+        return stateMachine.get();
+    }
+
+    long liveRxBytes() { return liveRxBytes; }
+    long liveTxBytes() { return liveTxBytes; }
+    long liveRxRate() { return liveRxRate; }
+    long liveTxRate() { return liveTxRate; }
+    long liveHandshakeAgeMs() { return liveHandshakeAgeMs; }
+    long liveTimestamp() { return liveTimestamp; }
+
     /**
-     * Receiver para actualizaciones de estado del VPN
+     * Actualizaciones de estado del VPN (hilo Binder)
      */
-    private final BroadcastReceiver vpnStatusReceiver = new BroadcastReceiver() {
+    private final VpnServiceClient.StatusListener vpnStatusListener = new VpnServiceClient.StatusListener() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (WireGuardVpnService.ACTION_VPN_STATUS_CHANGED.equals(intent.getAction())) {
-                String status = intent.getStringExtra("status");
-                boolean connected = intent.getBooleanExtra("connected", false);
-                String message = intent.getStringExtra("message");
-                
-                Log.d(TAG, "📡 Estado VPN actualizado: " + status + " (conectado: " + connected + ")");
-                
-                currentStatus = status != null ? status : "disconnected";
-                isConnected = connected;
-                
-                // Si hay un promise pendiente (de conexión), resolverlo
-                if (pendingVpnPromise != null) {
-                    WritableMap result = new WritableNativeMap();
-                    result.putString("status", currentStatus);
-                    result.putBoolean("connected", isConnected);
-                    result.putString("message", message != null ? message : "Estado actualizado");
-                    
-                    if ("connected".equals(currentStatus)) {
-                        pendingVpnPromise.resolve(result);
-                    } else if ("error".equals(currentStatus)) {
-                        pendingVpnPromise.reject("VPN_ERROR", message != null ? message : "Error de conexión");
+        public void onStatusChanged(String status, boolean connected, String message, Bundle extras) {
+            VpnLog.d(Event.STATUS_RECEIVED, status, message, VpnLog.flag(connected));
+            
+            if (extras != null && extras.containsKey("sentAtNanos")) {
+                ConnectTracer.getInstance().record(ConnectTracer.Phase.STATUS_DELIVERY, extras.getLong("sentAtNanos"));
+                extras.remove("sentAtNanos");
+            }
+            
+            Snapshot applied;
+            if ("connected".equals(status)) {
+                // Un "connected" tardío no debe deshacer un disconnect ya pedido
+                applied = stateMachine.transition(State.CONNECTED, message, null, toMap(extras), FROM_ACTIVE);
+            } else if ("connecting".equals(status)) {
+                applied = stateMachine.transition(State.CONNECTING, message, FROM_ACTIVE);
+            } else if ("error".equals(status)) {
+                applied = stateMachine.transition(State.ERROR, message, "VPN_ERROR", null, ConnectionStateMachine.ANY);
+            } else {
+                // Un DOWN intermedio de una reconexión no cancela la conexión en curso
+                applied = stateMachine.transition(State.DISCONNECTED, message, FROM_SETTLED);
+            }
+            if (applied == null) {
+                VpnLog.d(Event.STATUS_IGNORED, status, stateMachine.get().state);
+                return;
+            }
+            updateStatsReader();
+        }
+    };
+
+    /**
+     * Esperar CONNECTED y resolver o rechazar el promise de JS.
+     * Con traceStartNanos > 0 registra la duración total del connect.
+     */
+    private void awaitConnected(long afterVersion, final long traceStartNanos, final Promise promise) {
+        stateMachine.await(CONNECT_TARGETS, CONNECT_FAILURES, afterVersion, CONNECT_TIMEOUT_MS,
+            new ConnectionStateMachine.Callback() {
+                @Override
+                public void onComplete(Outcome outcome, Snapshot snapshot) {
+                    switch (outcome) {
+                        case REACHED:
+                            if (traceStartNanos > 0) {
+                                ConnectTracer.getInstance().record(ConnectTracer.Phase.TOTAL, traceStartNanos);
+                            }
+                            promise.resolve(toWritableMap(snapshot));
+                            break;
+                        case FAILED:
+                            String code = snapshot.errorCode != null ? snapshot.errorCode
+                                : snapshot.state == State.ERROR ? "VPN_ERROR" : "CANCELLED";
+                            promise.reject(code, snapshot.message != null ? snapshot.message : "Error de conexión");
+                            break;
+                        case TIMED_OUT:
+                            promise.reject("TIMEOUT", "Sin respuesta del servicio VPN tras " + CONNECT_TIMEOUT_MS + "ms (estado: " + snapshot.state.status + ")");
+                            break;
+                        default:
+                            promise.reject("CANCELLED", "Módulo VPN destruido");
                     }
-                    
-                    pendingVpnPromise = null;
-                    pendingVpnConfig = null;
                 }
+            });
+    }
+
+    /**
+     * Leer estadísticas solo con el túnel activo y la UI visible
+     */
+    private synchronized void updateStatsReader() {
+        if (stateMachine.get().state.connected && uiVisible) {
+            statsReader.start();
+        } else {
+            statsReader.stop();
+        }
+    }
+
+    /**
+     * Emitir lotes de estadísticas a JS (ya limitados por el sampler)
+     */
+    private final TunnelStatsSampler.Listener statsListener = new TunnelStatsSampler.Listener() {
+        @Override
+        public void onStatsBatch(StatsRingBuffer buffer, long fromSeq, long toSeq) {
+            long last = toSeq - 1;
+            liveRxBytes = buffer.rxBytesAt(last);
+            liveTxBytes = buffer.txBytesAt(last);
+            liveRxRate = buffer.rxRateAt(last);
+            liveTxRate = buffer.txRateAt(last);
+            liveHandshakeAgeMs = buffer.handshakeAgeAt(last);
+            liveTimestamp = buffer.timestampAt(last);
+            if (!reactContext.hasActiveReactInstance()) {
+                return;
             }
+            WritableMap event = new WritableNativeMap();
+            event.putDouble("bytesReceived", buffer.rxBytesAt(last));
+            event.putDouble("bytesSent", buffer.txBytesAt(last));
+            event.putDouble("rxBytesPerSec", buffer.rxRateAt(last));
+            event.putDouble("txBytesPerSec", buffer.txRateAt(last));
+            event.putDouble("handshakeAgeMs", buffer.handshakeAgeAt(last));
+            event.putDouble("timestamp", buffer.timestampAt(last));
+
+            // Velocidades de todas las muestras del lote, para gráficas
+            WritableArray rxRates = new WritableNativeArray();
+            WritableArray txRates = new WritableNativeArray();
+            for (long seq = fromSeq; seq < toSeq; seq++) {
+                rxRates.pushDouble(buffer.rxRateAt(seq));
+                txRates.pushDouble(buffer.txRateAt(seq));
+            }
+            event.putArray("rxRates", rxRates);
+            event.putArray("txRates", txRates);
+
+            reactContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(EVENT_STATS, event);
         }
     };
 
+    /**
+     * Visibilidad de la app: muestreo rápido en primer plano, lento en segundo plano
+     */
+    private final LifecycleEventListener lifecycleListener = new LifecycleEventListener() {
+        @Override
+        public void onHostResume() {
+            setUiVisible(true);
+        }
+
+        @Override
+        public void onHostPause() {
+            setUiVisible(false);
+        }
+
+        @Override
+        public void onHostDestroy() {
+            setUiVisible(false);
+        }
+    };
+
+    private void setUiVisible(final boolean visible) {
+        synchronized (this) {
+            uiVisible = visible;
+        }
+        updateStatsReader();
+        serviceClient.run(control -> control.setUiVisible(visible));
+    }
+
     /**
      * Listener para manejar resultados de permisos VPN
      */
@@ -103,21 +308,22 @@ public class RealWireGuardModule extends ReactContextBaseJavaModule {
         @Override
         public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
             if (requestCode == VPN_REQUEST_CODE) {
-                Log.d(TAG, "📱 Resultado de permisos VPN: " + resultCode);
+                VpnLog.d(Event.PERMISSION_RESULT, resultCode);
                 
                 if (resultCode == Activity.RESULT_OK) {
-                    Log.d(TAG, "✅ Permisos VPN aprobados");
+                    VpnLog.i(Event.PERMISSION_GRANTED);
+                    ConnectTracer.getInstance().record(ConnectTracer.Phase.PERMISSION_DIALOG, permissionShownAtNanos);
                     // Continuar con la conexión
-                    if (pendingVpnConfig != null) {
-                        connectWithService(pendingVpnConfig);
+                    WireGuardConfig config = pendingVpnConfig.getAndSet(null);
+                    if (config != null && stateMachine.transition(State.CONNECTING, "Conectando...",
+                            EnumSet.of(State.PERMISSION_PENDING)) != null) {
+                        connectWithService(config);
                     }
                 } else {
-                    Log.d(TAG, "❌ Permisos VPN denegados");
-                    if (pendingVpnPromise != null) {
-                        pendingVpnPromise.reject("PERMISSION_DENIED", "Permisos VPN denegados por el usuario");
-                        pendingVpnPromise = null;
-                        pendingVpnConfig = null;
-                    }
+                    VpnLog.i(Event.PERMISSION_DENIED);
+                    pendingVpnConfig.set(null);
+                    stateMachine.transition(State.DISCONNECTED, "Permisos VPN denegados por el usuario",
+                        "PERMISSION_DENIED", null, EnumSet.of(State.PERMISSION_PENDING));
                 }
             }
         }
@@ -128,34 +334,59 @@ public class RealWireGuardModule extends ReactContextBaseJavaModule {
      */
     @ReactMethod
     public void connect(ReadableMap config, Promise promise) {
+        final long traceStart = ConnectTracer.now();
         try {
-            Log.d(TAG, "🚀 Iniciando conexión VPN vía WireGuardVpnService...");
+            VpnLog.i(Event.CONNECT_REQUESTED);
+
+            // Construir y validar el Config antes de tocar permisos o el servicio
+            WireGuardConfig wireGuardConfig;
+            try {
+                long buildStart = ConnectTracer.now();
+                wireGuardConfig = prepareConfig(config);
+                ConnectTracer.getInstance().record(ConnectTracer.Phase.CONFIG_BUILD, buildStart);
+            } catch (BadConfigException e) {
+                VpnLog.e(Event.CONFIG_INVALID, e);
+                promise.reject("INVALID_CONFIG", "Configuración inválida: " + e.getMessage());
+                return;
+            }
 
             // Verificar permisos VPN
+            long prepareStart = ConnectTracer.now();
             Intent vpnIntent = VpnService.prepare(reactContext);
+            ConnectTracer.getInstance().record(ConnectTracer.Phase.PREPARE, prepareStart);
             if (vpnIntent != null) {
-                Log.d(TAG, "📋 Permisos VPN requeridos - mostrando diálogo...");
+                VpnLog.d(Event.PERMISSION_REQUESTED);
                 
-                // Guardar para usar después de los permisos
-                pendingVpnPromise = promise;
-                pendingVpnConfig = config;
+                // Guardar para usar después de los permisos (la última config gana)
+                pendingVpnConfig.set(wireGuardConfig);
+                Snapshot pending = stateMachine.transition(State.PERMISSION_PENDING, "Esperando permisos VPN",
+                    ConnectionStateMachine.ANY);
+                awaitConnected(pending.version, traceStart, promise);
+                if (pending.previous == State.PERMISSION_PENDING) {
+                    // El diálogo ya está en pantalla: solo se añade otra espera
+                    return;
+                }
                 
                 // Mostrar diálogo de permisos VPN
                 Activity currentActivity = getCurrentActivity();
                 if (currentActivity != null) {
+                    permissionShownAtNanos = ConnectTracer.now();
                     currentActivity.startActivityForResult(vpnIntent, VPN_REQUEST_CODE);
                 } else {
-                    promise.reject("NO_ACTIVITY", "No se puede mostrar diálogo de permisos - actividad no disponible");
+                    pendingVpnConfig.set(null);
+                    stateMachine.transition(State.ERROR, "No se puede mostrar diálogo de permisos - actividad no disponible",
+                        "NO_ACTIVITY", null, EnumSet.of(State.PERMISSION_PENDING));
                 }
                 return;
             }
 
             // Si llegamos aquí, ya tenemos permisos
-            pendingVpnPromise = promise;
-            connectWithService(config);
+            Snapshot connecting = stateMachine.transition(State.CONNECTING, "Conectando...", ConnectionStateMachine.ANY);
+            awaitConnected(connecting.version, traceStart, promise);
+            connectWithService(wireGuardConfig);
             
         } catch (Exception e) {
-            Log.e(TAG, "❌ Error al conectar VPN: " + e.getMessage(), e);
+            VpnLog.e(Event.CONNECT_FAILED, e);
             promise.reject("CONNECTION_FAILED", "Error al conectar VPN: " + e.getMessage());
         }
     }
@@ -163,26 +394,56 @@ public class RealWireGuardModule extends ReactContextBaseJavaModule {
     /**
      * Conectar usando el servicio cuando ya tenemos permisos
      */
-    private void connectWithService(ReadableMap config) {
+    private void connectWithService(WireGuardConfig wireGuardConfig) {
         try {
-            // Construir configuración WireGuard string
-            String configString = buildWireGuardConfigString(config);
-            Log.d(TAG, "📋 Enviando configuración al servicio...");
-
-            // Iniciar WireGuardVpnService con la configuración
-            Intent serviceIntent = new Intent(reactContext, WireGuardVpnService.class);
-            serviceIntent.setAction(WireGuardVpnService.ACTION_CONNECT_WIREGUARD);
-            serviceIntent.putExtra(WireGuardVpnService.EXTRA_WIREGUARD_CONFIG, configString);
-            reactContext.startService(serviceIntent);
-            
-            Log.d(TAG, "✅ Servicio VPN iniciado - esperando confirmación...");
+            // El servicio (proceso :vpn) construye su propio Config a partir del parcel
+            final TunnelConfigParcel parcel = new TunnelConfigParcel(wireGuardConfig);
+            serviceClient.run(control -> control.connect(parcel));
+            VpnLog.d(Event.CONFIG_SENT);
             
         } catch (Exception e) {
-            Log.e(TAG, "❌ Error conectando con servicio: " + e.getMessage(), e);
-            if (pendingVpnPromise != null) {
-                pendingVpnPromise.reject("SERVICE_ERROR", "Error conectando con servicio: " + e.getMessage());
-                pendingVpnPromise = null;
+            VpnLog.e(Event.SERVICE_CALL_FAILED, e);
+            stateMachine.transition(State.ERROR, "Error conectando con servicio: " + e.getMessage(),
+                "SERVICE_ERROR", null, ConnectionStateMachine.ANY);
+        }
+    }
+
+    /**
+     * Cambiar de servidor en caliente: el servicio reconfigura el túnel
+     * activo en lugar de desconectar y volver a conectar
+     */
+    @ReactMethod
+    public void switchServer(ReadableMap config, Promise promise) {
+        try {
+            VpnLog.i(Event.SWITCH_REQUESTED);
+
+            WireGuardConfig wireGuardConfig;
+            try {
+                long buildStart = ConnectTracer.now();
+                wireGuardConfig = prepareConfig(config);
+                ConnectTracer.getInstance().record(ConnectTracer.Phase.CONFIG_BUILD, buildStart);
+            } catch (BadConfigException e) {
+                VpnLog.e(Event.CONFIG_INVALID, e);
+                promise.reject("INVALID_CONFIG", "Configuración inválida: " + e.getMessage());
+                return;
+            }
+
+            // Sin túnel activo (o sin permisos) es una conexión normal
+            Snapshot switching = VpnService.prepare(reactContext) != null ? null
+                : stateMachine.transition(State.SWITCHING, "Cambiando de servidor...",
+                    EnumSet.of(State.CONNECTED, State.SWITCHING));
+            if (switching == null) {
+                connect(config, promise);
+                return;
             }
+
+            awaitConnected(switching.version, 0, promise);
+            final TunnelConfigParcel parcel = new TunnelConfigParcel(wireGuardConfig);
+            serviceClient.run(control -> control.switchServer(parcel));
+
+        } catch (Exception e) {
+            VpnLog.e(Event.SWITCH_FAILED, e);
+            promise.reject("SWITCH_FAILED", "Error cambiando de servidor: " + e.getMessage());
         }
     }
 
@@ -192,15 +453,16 @@ public class RealWireGuardModule extends ReactContextBaseJavaModule {
     @ReactMethod
     public void disconnect(Promise promise) {
         try {
-            Log.d(TAG, "🔌 Desconectando VPN vía servicio...");
+            VpnLog.i(Event.DISCONNECT_REQUESTED);
 
-            Intent serviceIntent = new Intent(reactContext, WireGuardVpnService.class);
-            serviceIntent.setAction(WireGuardVpnService.ACTION_DISCONNECT);
-            reactContext.startService(serviceIntent);
-            
-            // Actualizar estado local
-            currentStatus = "disconnected";
-            isConnected = false;
+            // Un connect esperando permisos se cancela sin tocar el servicio
+            pendingVpnConfig.set(null);
+            if (stateMachine.transition(State.DISCONNECTED, "Conexión cancelada", "CANCELLED", null,
+                    EnumSet.of(State.PERMISSION_PENDING)) == null) {
+                stateMachine.transition(State.DISCONNECTING, "Desconectando VPN...", FROM_NOT_DISCONNECTED);
+                serviceClient.run(control -> control.disconnect());
+            }
+            updateStatsReader();
             
             WritableMap result = new WritableNativeMap();
             result.putString("status", "disconnected");
@@ -208,7 +470,7 @@ public class RealWireGuardModule extends ReactContextBaseJavaModule {
             promise.resolve(result);
             
         } catch (Exception e) {
-            Log.e(TAG, "❌ Error desconectando VPN: " + e.getMessage(), e);
+            VpnLog.e(Event.DISCONNECT_FAILED, e);
             promise.reject("DISCONNECTION_ERROR", "Error desconectando VPN: " + e.getMessage());
         }
     }
@@ -219,83 +481,696 @@ public class RealWireGuardModule extends ReactContextBaseJavaModule {
     @ReactMethod
     public void getStatus(Promise promise) {
         try {
-            WritableMap result = new WritableNativeMap();
-            result.putString("status", currentStatus);
-            result.putBoolean("connected", isConnected);
-            
-            promise.resolve(result);
+            // Lectura sin lock de la instantánea actual
+            promise.resolve(toWritableMap(stateMachine.get()));
             
         } catch (Exception e) {
-            Log.e(TAG, "❌ Error obteniendo estado: " + e.getMessage(), e);
+            VpnLog.e(Event.STATUS_READ_FAILED, e);
             promise.reject("STATUS_ERROR", "Error obteniendo estado: " + e.getMessage());
         }
     }
 
     /**
-     * Construir configuración WireGuard string
+     * Sondear servidores en paralelo (UDP al puerto WireGuard, TCP de respaldo).
+     * Los resultados vigentes salen de ProbeResultCache sin volver a sondear.
+     *
+     * servers: [{ id, address, port, tcpPort? }]
+     * options: { samples?, timeoutMs?, force? }
      */
-    private String buildWireGuardConfigString(ReadableMap config) {
-        StringBuilder configBuilder = new StringBuilder();
-        
-        // Manejar estructura anidada (Interface/Peer) o directa
-        ReadableMap interfaceConfig = null;
-        ReadableMap peerConfig = null;
-        
-        if (config.hasKey("Interface") && config.getMap("Interface") != null) {
-            interfaceConfig = config.getMap("Interface");
-            peerConfig = config.getMap("Peer");
-        } else {
-            interfaceConfig = config;
-            peerConfig = config;
+    @ReactMethod
+    public void probeServers(ReadableArray servers, ReadableMap options, Promise promise) {
+        final List<ServerProber.Target> targets = new ArrayList<>();
+        final ServerProber.Options probeOptions = new ServerProber.Options();
+        final boolean force;
+        try {
+            for (int i = 0; i < servers.size(); i++) {
+                ReadableMap server = servers.getMap(i);
+                int port = server.hasKey("port") ? server.getInt("port") : 51820;
+                int tcpPort = server.hasKey("tcpPort") ? server.getInt("tcpPort") : DEFAULT_PROBE_TCP_PORT;
+                targets.add(new ServerProber.Target(server.getString("id"), server.getString("address"), port, tcpPort));
+            }
+            if (options != null) {
+                if (options.hasKey("samples")) probeOptions.samples = options.getInt("samples");
+                if (options.hasKey("timeoutMs")) probeOptions.timeoutMs = options.getInt("timeoutMs");
+            }
+            force = options != null && options.hasKey("force") && options.getBoolean("force");
+        } catch (Exception e) {
+            promise.reject("INVALID_ARGS", "Lista de servidores inválida: " + e.getMessage());
+            return;
         }
-        
-        // Sección [Interface]
-        configBuilder.append("[Interface]\n");
-        
-        if (interfaceConfig.hasKey("PrivateKey")) {
-            configBuilder.append("PrivateKey = ").append(interfaceConfig.getString("PrivateKey")).append("\n");
+
+        probeExecutor.execute(() -> {
+            try {
+                ProbeResultCache cache = ProbeResultCache.getInstance();
+                long now = System.currentTimeMillis();
+                List<ServerProber.Result> results = new ArrayList<>();
+                List<ServerProber.Target> toProbe = force ? targets : cache.partition(targets, results, now);
+
+                if (!toProbe.isEmpty()) {
+                    long start = System.nanoTime();
+                    List<ServerProber.Result> probed = new ServerProber().probe(toProbe, probeOptions);
+                    long done = System.currentTimeMillis();
+                    for (ServerProber.Result result : probed) {
+                        cache.put(result, done);
+                    }
+                    results.addAll(probed);
+                    VpnLog.d(Event.PROBE_DONE, toProbe.size(), (System.nanoTime() - start) / 1_000_000);
+                }
+
+                WritableArray array = new WritableNativeArray();
+                for (ServerProber.Result result : results) {
+                    array.pushMap(toWritableMap(result));
+                }
+                promise.resolve(array);
+            } catch (Exception e) {
+                VpnLog.e(Event.PROBE_FAILED, e);
+                promise.reject("PROBE_FAILED", "Error sondeando servidores: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Resolver en segundo plano los endpoints de los servidores favoritos
+     */
+    @ReactMethod
+    public void prefetchEndpoints(ReadableArray hosts) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < hosts.size(); i++) {
+            String host = hosts.getString(i);
+            // Aceptar "host:puerto"
+            int colon = host.lastIndexOf(':');
+            list.add(colon > 0 && host.indexOf(':') == colon ? host.substring(0, colon) : host);
         }
-        
-        if (interfaceConfig.hasKey("Address")) {
-            configBuilder.append("Address = ").append(interfaceConfig.getString("Address")).append("\n");
+        // La caché DNS que usa el túnel es la del proceso :vpn
+        serviceClient.run(control -> control.prefetchEndpoints(list));
+    }
+
+    /**
+     * Configuración WireGuard (texto) del servidor, desde la caché si la hay.
+     * Con clientKey se registra la clave pública del pool y la configuración
+     * llega sin PrivateKey: la privada se añade aquí al conectar y no pasa por JS.
+     * options: { allowStale?: true, force?: false, clientKey?: true }
+     * Resuelve { config, etag, source: network|not_modified|cache|stale, fetchedAt, expiresAt, clientKey, requestMs }
+     */
+    @ReactMethod
+    public void fetchWireGuardConfig(String host, ReadableMap options, final Promise promise) {
+        boolean allowStale = options == null || !options.hasKey("allowStale") || options.getBoolean("allowStale");
+        boolean force = options != null && options.hasKey("force") && options.getBoolean("force");
+        boolean clientKey = options == null || !options.hasKey("clientKey") || options.getBoolean("clientKey");
+        final String publicKey = clientKey ? keyPool.activeOrCreate().keyPair.getPublicKey().toBase64() : null;
+        provisioner.get(host, publicKey, allowStale, force, new ConfigProvisioner.Callback() {
+            @Override
+            public void onResult(ConfigProvisioner.Result result) {
+                boolean registered = publicKey != null && !result.hasPrivateKey();
+                if (registered && result.requestNanos > 0) {
+                    ConnectTracer.getInstance().recordNanos(ConnectTracer.Phase.KEY_REGISTRATION, result.requestNanos);
+                }
+                WritableMap map = new WritableNativeMap();
+                map.putString("config", result.config);
+                if (result.etag != null) {
+                    map.putString("etag", result.etag);
+                }
+                map.putString("source", result.source.name().toLowerCase());
+                map.putDouble("fetchedAt", result.fetchedAtMs);
+                map.putDouble("expiresAt", result.expiresAtMs);
+                map.putBoolean("clientKey", registered);
+                map.putDouble("requestMs", result.requestNanos / 1_000_000.0);
+                promise.resolve(map);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                promise.reject("PROVISIONING_FAILED", e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Precargar la configuración de los topN servidores más usados de la
+     * lista. Solo con el VPN quieto: no compite con un connect en curso.
+     */
+    @ReactMethod
+    public void prefetchWireGuardConfigs(ReadableArray hosts, int topN) {
+        State state = stateMachine.get().state;
+        if (state != State.DISCONNECTED && state != State.CONNECTED && state != State.ERROR) {
+            VpnLog.d(Event.PREFETCH_SKIPPED, state);
+            return;
         }
-        
-        if (interfaceConfig.hasKey("DNS")) {
-            configBuilder.append("DNS = ").append(interfaceConfig.getString("DNS")).append("\n");
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < hosts.size(); i++) {
+            list.add(hosts.getString(i));
         }
-        
-        // Sección [Peer]
-        configBuilder.append("\n[Peer]\n");
-        
-        if (peerConfig.hasKey("PublicKey")) {
-            configBuilder.append("PublicKey = ").append(peerConfig.getString("PublicKey")).append("\n");
+        provisioner.prefetch(list, keyPool.activeOrCreate().keyPair.getPublicKey().toBase64(), topN);
+    }
+
+    @ReactMethod
+    public void clearProvisioningCache() {
+        provisioner.clear();
+    }
+
+    /**
+     * Histogramas por fase del connect (µs): fases de la UI más las del
+     * proceso :vpn. Persisten entre sesiones.
+     */
+    @ReactMethod
+    public void getConnectMetrics(final Promise promise) {
+        final WritableMap result = new WritableNativeMap();
+        for (Map.Entry<ConnectTracer.Phase, ConnectTracer.Summary> entry : ConnectTracer.getInstance().summary().entrySet()) {
+            ConnectTracer.Summary summary = entry.getValue();
+            WritableMap phase = new WritableNativeMap();
+            phase.putDouble("count", summary.count);
+            phase.putDouble("minUs", summary.minUs);
+            phase.putDouble("meanUs", summary.meanUs);
+            phase.putDouble("p50Us", summary.p50Us);
+            phase.putDouble("p90Us", summary.p90Us);
+            phase.putDouble("p99Us", summary.p99Us);
+            phase.putDouble("maxUs", summary.maxUs);
+            phase.putDouble("lastUs", summary.lastUs);
+            result.putMap(entry.getKey().name(), phase);
         }
-        
-        if (peerConfig.hasKey("Endpoint")) {
-            configBuilder.append("Endpoint = ").append(peerConfig.getString("Endpoint")).append("\n");
+        serviceClient.run(control -> {
+            Bundle remote = control.getConnectMetrics();
+            for (String name : remote.keySet()) {
+                Bundle summary = remote.getBundle(name);
+                WritableMap phase = new WritableNativeMap();
+                for (String key : summary.keySet()) {
+                    phase.putDouble(key, summary.getLong(key));
+                }
+                result.putMap(name, phase);
+            }
+            promise.resolve(result);
+        }, rejectOn(promise));
+    }
+
+    /**
+     * Historial de uso persistente entre fromMs y toMs, por "hour" o "day".
+     * Resuelve con [{startMs, rxBytes, txBytes, servers: {servidor: {rxBytes, txBytes}}}]
+     */
+    @ReactMethod
+    public void getUsageHistory(double fromMs, double toMs, String granularity, final Promise promise) {
+        serviceClient.run(control -> {
+            Bundle history = control.getUsageHistory((long) fromMs, (long) toMs, granularity);
+            WritableArray result = new WritableNativeArray();
+            ArrayList<Bundle> buckets = history.getParcelableArrayList("buckets");
+            if (buckets != null) {
+                for (Bundle bucket : buckets) {
+                    WritableMap item = new WritableNativeMap();
+                    item.putDouble("startMs", bucket.getLong("startMs"));
+                    item.putDouble("rxBytes", bucket.getLong("rxBytes"));
+                    item.putDouble("txBytes", bucket.getLong("txBytes"));
+                    WritableMap servers = new WritableNativeMap();
+                    Bundle perServer = bucket.getBundle("servers");
+                    if (perServer != null) {
+                        for (String server : perServer.keySet()) {
+                            long[] totals = perServer.getLongArray(server);
+                            WritableMap usage = new WritableNativeMap();
+                            usage.putDouble("rxBytes", totals[0]);
+                            usage.putDouble("txBytes", totals[1]);
+                            servers.putMap(server, usage);
+                        }
+                    }
+                    item.putMap("servers", servers);
+                    result.pushMap(item);
+                }
+            }
+            promise.resolve(result);
+        }, rejectOn(promise));
+    }
+
+    /**
+     * Tiempos de resolución DNS acumulados (del proceso :vpn)
+     */
+    @ReactMethod
+    public void getDnsStats(final Promise promise) {
+        serviceClient.run(control -> {
+            Bundle stats = control.getDnsStats();
+            WritableMap result = new WritableNativeMap();
+            for (String key : stats.keySet()) {
+                result.putDouble(key, stats.getLong(key));
+            }
+            promise.resolve(result);
+        }, rejectOn(promise));
+    }
+
+    /**
+     * Servidores de respaldo para el watchdog, en orden de preferencia.
+     * Resuelve con el número de configuraciones válidas enviadas.
+     */
+    @ReactMethod
+    public void setFailoverServers(ReadableArray configs, final Promise promise) {
+        final List<TunnelConfigParcel> parcels = new ArrayList<>();
+        for (int i = 0; i < configs.size(); i++) {
+            try {
+                parcels.add(new TunnelConfigParcel(prepareConfig(configs.getMap(i))));
+            } catch (BadConfigException e) {
+                VpnLog.w(Event.FAILOVER_SERVER_IGNORED, e);
+            }
+        }
+        serviceClient.run(control -> {
+            control.setFailoverServers(parcels);
+            promise.resolve(parcels.size());
+        }, rejectOn(promise));
+    }
+
+    /**
+     * Ajustar el watchdog de handshake (claves omitidas: valor por defecto)
+     */
+    @ReactMethod
+    public void configureWatchdog(ReadableMap options) {
+        final Bundle bundle = new Bundle();
+        if (options.hasKey("enabled")) {
+            bundle.putBoolean("enabled", options.getBoolean("enabled"));
+        }
+        for (String key : new String[] {"staleHandshakeMs", "rxStallMs", "attemptTimeoutMs", "baseBackoffMs", "maxBackoffMs"}) {
+            if (options.hasKey(key)) {
+                bundle.putLong(key, (long) options.getDouble(key));
+            }
+        }
+        if (options.hasKey("sameEndpointAttempts")) {
+            bundle.putInt("sameEndpointAttempts", options.getInt("sameEndpointAttempts"));
+        }
+        serviceClient.run(control -> control.configureWatchdog(bundle));
+    }
+
+    /**
+     * Ajustar el descubrimiento de MTU de camino (claves omitidas: sin cambios)
+     */
+    @ReactMethod
+    public void configureMtuDiscovery(ReadableMap options) {
+        final Bundle bundle = new Bundle();
+        if (options.hasKey("enabled")) {
+            bundle.putBoolean("enabled", options.getBoolean("enabled"));
+        }
+        if (options.hasKey("echoPort")) {
+            bundle.putInt("echoPort", options.getInt("echoPort"));
+        }
+        if (options.hasKey("ttlMs")) {
+            bundle.putLong("ttlMs", (long) options.getDouble("ttlMs"));
+        }
+        serviceClient.run(control -> control.configureMtuDiscovery(bundle));
+    }
+
+    /**
+     * Rotación de la clave del cliente en el proceso :vpn (por defecto cada 24h)
+     * options: { enabled?, intervalMs? }
+     */
+    @ReactMethod
+    public void configureKeyRotation(ReadableMap options) {
+        final Bundle bundle = new Bundle();
+        if (options.hasKey("enabled")) {
+            bundle.putBoolean("enabled", options.getBoolean("enabled"));
+        }
+        if (options.hasKey("intervalMs")) {
+            bundle.putLong("intervalMs", (long) options.getDouble("intervalMs"));
+        }
+        serviceClient.run(control -> control.configureKeyRotation(bundle));
+    }
+
+    /**
+     * Backend del túnel: "auto" (kernel si hay módulo y root, si no Go),
+     * "go", "kernel" o "fake" (solo debug). Se aplica en el próximo connect.
+     */
+    @ReactMethod
+    public void setBackendPreference(String preference) {
+        serviceClient.run(control -> control.setBackendPreference(preference));
+    }
+
+    /**
+     * Backend en uso y por qué se eligió. kind/version/reason solo tras el primer connect.
+     */
+    @ReactMethod
+    public void getBackendInfo(final Promise promise) {
+        serviceClient.run(control -> {
+            Bundle info = control.getBackendInfo();
+            WritableMap result = new WritableNativeMap();
+            result.putString("preference", info.getString("preference"));
+            if (info.containsKey("kind")) {
+                result.putString("kind", info.getString("kind"));
+                result.putString("version", info.getString("version"));
+                result.putBoolean("kernelSupport", info.getBoolean("kernelSupport"));
+                result.putBoolean("rootAvailable", info.getBoolean("rootAvailable"));
+                result.putString("reason", info.getString("reason"));
+                result.putDouble("selectMs", info.getLong("selectMs"));
+            }
+            promise.resolve(result);
+        }, rejectOn(promise));
+    }
+
+    /**
+     * Nivel del log en ambos procesos: "debug", "info", "warn", "error" o "none"
+     */
+    @ReactMethod
+    public void setLogLevel(String level) {
+        final int parsed;
+        switch (level != null ? level.toLowerCase() : "") {
+            case "debug": parsed = VpnLog.DEBUG; break;
+            case "info": parsed = VpnLog.INFO; break;
+            case "warn": parsed = VpnLog.WARN; break;
+            case "error": parsed = VpnLog.ERROR; break;
+            case "none": parsed = VpnLog.NONE; break;
+            default:
+                VpnLog.w(Event.LOG_LEVEL, level, (long) VpnLog.getLevel());
+                return;
+        }
+        VpnLog.setLevel(parsed);
+        VpnLog.w(Event.LOG_LEVEL, parsed);
+        serviceClient.run(control -> control.setLogLevel(parsed));
+    }
+
+    /**
+     * Informe de diagnóstico para adjuntar a un reporte: app, dispositivo,
+     * estado, métricas de connect, backend y el final del log de los dos
+     * procesos, con las claves redactadas. Resuelve con {path, bytes} del
+     * .json.gz en la caché (se conservan los tres últimos).
+     */
+    @ReactMethod
+    public void exportDiagnostics(final Promise promise) {
+        serviceClient.run(control -> {
+            final Bundle remote = control.exportDiagnostics();
+            probeExecutor.execute(() -> {
+                try {
+                    JSONObject report = new JSONObject();
+                    report.put("generatedAt", System.currentTimeMillis());
+
+                    JSONObject app = new JSONObject();
+                    app.put("version", BuildConfig.VERSION_NAME);
+                    app.put("versionCode", BuildConfig.VERSION_CODE);
+                    app.put("debug", BuildConfig.DEBUG);
+                    app.put("logLevel", VpnLog.getLevel());
+                    report.put("app", app);
+
+                    JSONObject device = new JSONObject();
+                    device.put("manufacturer", Build.MANUFACTURER);
+                    device.put("model", Build.MODEL);
+                    device.put("sdk", Build.VERSION.SDK_INT);
+                    device.put("release", Build.VERSION.RELEASE);
+                    report.put("device", device);
+
+                    Snapshot snapshot = stateMachine.get();
+                    JSONObject state = new JSONObject();
+                    state.put("state", snapshot.state.name().toLowerCase());
+                    state.put("previous", snapshot.previous != null ? snapshot.previous.name().toLowerCase() : JSONObject.NULL);
+                    state.put("message", snapshot.message);
+                    state.put("errorCode", snapshot.errorCode);
+                    state.put("since", snapshot.timestampMs);
+                    report.put("state", state);
+
+                    JSONObject uiMetrics = new JSONObject();
+                    for (Map.Entry<ConnectTracer.Phase, ConnectTracer.Summary> entry
+                            : ConnectTracer.getInstance().summary().entrySet()) {
+                        ConnectTracer.Summary summary = entry.getValue();
+                        JSONObject phase = new JSONObject();
+                        phase.put("count", summary.count);
+                        phase.put("p50Us", summary.p50Us);
+                        phase.put("p90Us", summary.p90Us);
+                        phase.put("p99Us", summary.p99Us);
+                        phase.put("maxUs", summary.maxUs);
+                        uiMetrics.put(entry.getKey().name(), phase);
+                    }
+                    report.put("uiConnectMetrics", uiMetrics);
+
+                    report.put("vpn", DiagnosticsExporter.toJson(remote));
+                    report.put("uiLog", VpnLog.tail(DIAGNOSTICS_LOG_BYTES));
+
+                    File file = DiagnosticsExporter.write(
+                        new File(reactContext.getCacheDir(), DiagnosticsExporter.DIR_NAME), report);
+                    WritableMap result = new WritableNativeMap();
+                    result.putString("path", file.getAbsolutePath());
+                    result.putDouble("bytes", file.length());
+                    promise.resolve(result);
+                } catch (Exception e) {
+                    VpnLog.e(Event.DIAGNOSTICS_FAILED, e);
+                    promise.reject("DIAGNOSTICS_FAILED", "Error generando el diagnóstico: " + e.getMessage());
+                }
+            });
+        }, rejectOn(promise));
+    }
+
+    /**
+     * Prueba de resistencia (solo debug): ciclos connect/switch/disconnect
+     * por este módulo y el servicio, con seguimiento de heap, hilos, fds y
+     * latencia. Resuelve con el informe ({passed, failures, growth, latency,
+     * samples}); no rechaza por superar umbrales, solo si no puede empezar.
+     */
+    @ReactMethod
+    public void runSoakTest(ReadableMap options, final Promise promise) {
+        if (!BuildConfig.DEBUG) {
+            promise.reject("NOT_AVAILABLE", "La prueba de resistencia solo existe en builds de depuración");
+            return;
+        }
+        if (VpnService.prepare(reactContext) != null) {
+            promise.reject("PERMISSION_REQUIRED", "Concede el permiso VPN antes de la prueba");
+            return;
+        }
+        State state = stateMachine.get().state;
+        if (state != State.DISCONNECTED && state != State.ERROR) {
+            promise.reject("BUSY", "Desconecta el VPN antes de la prueba (estado: " + state.status + ")");
+            return;
+        }
+        ReadableArray configs = options.hasKey("configs") ? options.getArray("configs") : null;
+        if (configs == null || configs.size() == 0) {
+            promise.reject("INVALID_ARGS", "Se necesita al menos una config");
+            return;
+        }
+
+        List<ReadableMap> soakConfigs = new ArrayList<>();
+        for (int i = 0; i < configs.size(); i++) {
+            soakConfigs.add(configs.getMap(i));
+        }
+        String backend = options.hasKey("backend") ? options.getString("backend") : "fake";
+        SoakHarness.Options soakOptions = new SoakHarness.Options();
+        if (options.hasKey("cycles")) soakOptions.cycles = Math.max(0, options.getInt("cycles"));
+        if (options.hasKey("durationMs")) soakOptions.durationMs = (long) options.getDouble("durationMs");
+        if (options.hasKey("warmupCycles")) soakOptions.warmupCycles = Math.max(1, options.getInt("warmupCycles"));
+        if (options.hasKey("sampleEvery")) soakOptions.sampleEvery = Math.max(1, options.getInt("sampleEvery"));
+        if (options.hasKey("switchesPerCycle")) soakOptions.switchesPerCycle = Math.max(0, options.getInt("switchesPerCycle"));
+        if (options.hasKey("pauseMs")) soakOptions.pauseMs = (long) options.getDouble("pauseMs");
+        if (options.hasKey("maxHeapGrowthKb")) soakOptions.maxHeapGrowthKb = (long) options.getDouble("maxHeapGrowthKb");
+        if (options.hasKey("maxNativeHeapGrowthKb")) soakOptions.maxNativeHeapGrowthKb = (long) options.getDouble("maxNativeHeapGrowthKb");
+        if (options.hasKey("maxThreadGrowth")) soakOptions.maxThreadGrowth = options.getInt("maxThreadGrowth");
+        if (options.hasKey("maxFdGrowth")) soakOptions.maxFdGrowth = options.getInt("maxFdGrowth");
+        if (options.hasKey("maxLatencyDrift")) soakOptions.maxLatencyDrift = options.getDouble("maxLatencyDrift");
+        if (options.hasKey("maxErrors")) soakOptions.maxErrors = options.getInt("maxErrors");
+        if (soakOptions.cycles == 0 && soakOptions.durationMs <= 0) {
+            promise.reject("INVALID_ARGS", "Indica cycles o durationMs");
+            return;
         }
+
+        final SoakHarness harness = new SoakHarness(new ModuleSoakTarget(this, serviceClient, soakConfigs, backend), soakOptions);
+        if (!soakHarness.compareAndSet(null, harness)) {
+            promise.reject("BUSY", "Ya hay una prueba de resistencia en curso");
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                promise.resolve(ModuleSoakTarget.toWritableMap(harness.run()));
+            } catch (Exception e) {
+                VpnLog.e(Event.SOAK_FAILED, e);
+                promise.reject("SOAK_FAILED", e.getMessage());
+            } finally {
+                soakHarness.set(null);
+            }
+        }, "NodexSoak");
+        thread.start();
+    }
+
+    /**
+     * Parar la prueba de resistencia tras el ciclo en curso (resuelve con cancelled)
+     */
+    @ReactMethod
+    public void stopSoakTest() {
+        SoakHarness harness = soakHarness.get();
+        if (harness != null) {
+            harness.cancel();
+        }
+    }
+
+    /**
+     * Esperar a que el VPN llegue a un estado ("connected", "disconnected"...).
+     * Resuelve al instante si ya está en él.
+     */
+    @ReactMethod
+    public void waitForStatus(String status, double timeoutMs, final Promise promise) {
+        final State target;
+        try {
+            target = State.parse(status);
+        } catch (IllegalArgumentException e) {
+            promise.reject("INVALID_ARGS", e.getMessage());
+            return;
+        }
+        stateMachine.await(EnumSet.of(target), EnumSet.noneOf(State.class), -1, (long) timeoutMs,
+            new ConnectionStateMachine.Callback() {
+                @Override
+                public void onComplete(Outcome outcome, Snapshot snapshot) {
+                    if (outcome == Outcome.REACHED) {
+                        promise.resolve(toWritableMap(snapshot));
+                    } else if (outcome == Outcome.TIMED_OUT) {
+                        promise.reject("TIMEOUT", "Estado '" + status + "' no alcanzado (actual: " + snapshot.state.status + ")");
+                    } else {
+                        promise.reject("CANCELLED", "Módulo VPN destruido");
+                    }
+                }
+            });
+    }
+
+    /**
+     * Rechazar el promise si la llamada al proceso :vpn falla o no llega a hacerse
+     */
+    private static VpnServiceClient.ErrorHandler rejectOn(Promise promise) {
+        return error -> promise.reject("SERVICE_ERROR", "Servicio VPN no disponible: " + error.getMessage());
+    }
+
+    private static WritableMap toWritableMap(Snapshot snapshot) {
+        WritableMap result = new WritableNativeMap();
+        result.putString("status", snapshot.state.status);
+        result.putString("state", snapshot.state.name().toLowerCase());
+        result.putBoolean("connected", snapshot.state.connected);
+        result.putString("message", snapshot.message != null ? snapshot.message : "Estado actualizado");
+        result.putDouble("version", snapshot.version);
+        result.putDouble("since", snapshot.timestampMs);
         
-        if (peerConfig.hasKey("AllowedIPs")) {
-            configBuilder.append("AllowedIPs = ").append(peerConfig.getString("AllowedIPs")).append("\n");
-        } else {
-            configBuilder.append("AllowedIPs = 0.0.0.0/0, ::/0\n");
+        // Resultado de un cambio de servidor en caliente
+        for (Map.Entry<String, Object> entry : snapshot.extras.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Number) {
+                result.putDouble(entry.getKey(), ((Number) value).doubleValue());
+            } else if (value != null) {
+                result.putString(entry.getKey(), value.toString());
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Object> toMap(Bundle extras) {
+        if (extras == null) return null;
+        Map<String, Object> map = new HashMap<>();
+        for (String key : extras.keySet()) {
+            map.put(key, extras.get(key));
         }
+        return map;
+    }
+
+    private static WritableMap toWritableMap(ServerProber.Result result) {
+        WritableMap map = new WritableNativeMap();
+        map.putString("id", result.id);
+        map.putBoolean("reachable", result.isReachable());
+        map.putString("method", result.method.name().toLowerCase());
+        map.putDouble("minMs", result.minMs);
+        map.putDouble("medianMs", result.medianMs);
+        map.putDouble("p95Ms", result.p95Ms);
+        map.putDouble("loss", result.loss());
+        map.putInt("sent", result.sent);
+        map.putInt("received", result.received);
+        if (result.error != null) {
+            map.putString("error", result.error);
+        }
+        return map;
+    }
+
+    /**
+     * Requeridos por NativeEventEmitter
+     */
+    @ReactMethod
+    public void addListener(String eventName) {
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
+    }
+
+    /**
+     * Leer la configuración de JS y validarla antes de enviarla al servicio
+     * (que la vuelve a construir en su proceso, con su propia ConfigCache)
+     */
+    private WireGuardConfig prepareConfig(ReadableMap config) throws BadConfigException {
+        WireGuardConfig wireGuardConfig = readConfig(config);
+        if (wireGuardConfig.getPrivateKey() == null) {
+            // Configuración registrada con la clave del cliente
+            wireGuardConfig.setPrivateKey(keyPool.activeOrCreate().keyPair.getPrivateKey().toBase64());
+        }
+        ConfigCache.getInstance().getOrBuild(wireGuardConfig);
+        return wireGuardConfig;
+    }
+
+    /**
+     * Convertir el ReadableMap en WireGuardConfig
+     */
+    static WireGuardConfig readConfig(ReadableMap config) {
+        // Manejar estructura anidada (Interface/Peer) o directa
+        ReadableMap interfaceConfig = config;
+        ReadableMap peerConfig = config;
         
-        if (peerConfig.hasKey("PersistentKeepalive")) {
-            configBuilder.append("PersistentKeepalive = ").append(peerConfig.getString("PersistentKeepalive")).append("\n");
+        if (config.hasKey("Interface") && config.getMap("Interface") != null) {
+            interfaceConfig = config.getMap("Interface");
+            if (config.hasKey("Peer") && config.getMap("Peer") != null) {
+                peerConfig = config.getMap("Peer");
+            }
         }
         
-        return configBuilder.toString();
+        WireGuardConfig result = new WireGuardConfig();
+        result.setPrivateKey(optString(interfaceConfig, "PrivateKey"));
+        result.setInterfaceAddress(optString(interfaceConfig, "Address"));
+        result.setDns(optString(interfaceConfig, "DNS"));
+        result.setMtu(optNumberString(interfaceConfig, "MTU"));
+        result.setPublicKey(optString(peerConfig, "PublicKey"));
+        result.setEndpoint(optString(peerConfig, "Endpoint"));
+        result.setAllowedIPs(optString(peerConfig, "AllowedIPs"));
+        result.setPersistentKeepalive(optString(peerConfig, "PersistentKeepalive"));
+        
+        // Split tunneling
+        result.setIncludedApplications(optList(interfaceConfig, "IncludedApplications"));
+        result.setExcludedApplications(optList(interfaceConfig, "ExcludedApplications"));
+        result.setExcludedIPs(optList(peerConfig, "ExcludedIPs"));
+        result.setBypassLan(peerConfig.hasKey("BypassLan") && !peerConfig.isNull("BypassLan")
+                && peerConfig.getBoolean("BypassLan"));
+        return result;
+    }
+
+    private static String optString(ReadableMap map, String key) {
+        return map.hasKey(key) && !map.isNull(key) ? map.getString(key) : null;
+    }
+
+    /**
+     * Número o texto de JS como texto (MTU = 1380 o "1380")
+     */
+    private static String optNumberString(ReadableMap map, String key) {
+        if (!map.hasKey(key) || map.isNull(key)) return null;
+        if (map.getType(key) == ReadableType.Number) {
+            return String.valueOf(map.getInt(key));
+        }
+        return map.getString(key);
+    }
+
+    /**
+     * Lista como "a, b" o array de JS; null si está vacía
+     */
+    private static String optList(ReadableMap map, String key) {
+        if (!map.hasKey(key) || map.isNull(key)) return null;
+        if (map.getType(key) != ReadableType.Array) {
+            String value = map.getString(key);
+            return value != null && !value.trim().isEmpty() ? value : null;
+        }
+        ReadableArray array = map.getArray(key);
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            items.add(array.getString(i));
+        }
+        return items.isEmpty() ? null : RouteCompiler.join(items);
     }
 
     @Override
     public void onCatalystInstanceDestroy() {
         super.onCatalystInstanceDestroy();
-        // Desregistrar receiver
+        reactContext.removeLifecycleEventListener(lifecycleListener);
+        probeExecutor.shutdownNow();
+        VpnLog.flushNow();
+        stateMachine.shutdown();
+        statsReader.release();
+        // Desenlazar del proceso :vpn (el túnel sigue activo)
         try {
-            LocalBroadcastManager.getInstance(reactContext).unregisterReceiver(vpnStatusReceiver);
+            serviceClient.unbind();
         } catch (Exception e) {
-            Log.w(TAG, "Error unregistering receiver: " + e.getMessage());
+            VpnLog.w(Event.UNBIND_FAILED, e);
         }
     }
 } 
\ No newline at end of file
@@ -1,25 +1,55 @@
 package com.nodexvpn.app.vpn;
 
-import com.facebook.react.ReactPackage;
+import com.facebook.react.BaseReactPackage;
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.uimanager.ViewManager;
+import com.facebook.react.module.model.ReactModuleInfo;
+import com.facebook.react.module.model.ReactModuleInfoProvider;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import com.nodexvpn.app.BuildConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registra el módulo legacy (RealWireGuardModule) y NodexVpnTurbo, que es
+ * TurboModule con la nueva arquitectura. Los dos comparten la misma
+ * instancia del módulo legacy, dueña del estado.
+ */
+public class RealWireGuardPackage extends BaseReactPackage {
+
+    private RealWireGuardModule legacyModule;
 
-public class RealWireGuardPackage implements ReactPackage {
-    
     @Override
-    public List<NativeModule> createNativeModules(ReactApplicationContext reactContext) {
-        List<NativeModule> modules = new ArrayList<>();
-        modules.add(new RealWireGuardModule(reactContext));
-        return modules;
+    public NativeModule getModule(String name, ReactApplicationContext reactContext) {
+        if (RealWireGuardModule.NAME.equals(name)) {
+            return legacyModule(reactContext);
+        }
+        if (NodexVpnTurboModule.NAME.equals(name)) {
+            return new NodexVpnTurboModule(reactContext, legacyModule(reactContext));
+        }
+        return null;
+    }
+
+    private synchronized RealWireGuardModule legacyModule(ReactApplicationContext reactContext) {
+        // Un reload crea un contexto nuevo: el módulo anterior ya fue invalidado
+        if (legacyModule == null || legacyModule.getReactApplicationContext() != reactContext) {
+            legacyModule = new RealWireGuardModule(reactContext);
+        }
+        return legacyModule;
     }
 
     @Override
-    public List<ViewManager> createViewManagers(ReactApplicationContext reactContext) {
-        return Collections.emptyList();
+    public ReactModuleInfoProvider getReactModuleInfoProvider() {
+        return () -> {
+            Map<String, ReactModuleInfo> modules = new HashMap<>();
+            modules.put(RealWireGuardModule.NAME, new ReactModuleInfo(
+                RealWireGuardModule.NAME, RealWireGuardModule.class.getName(),
+                false, false, false, false));
+            modules.put(NodexVpnTurboModule.NAME, new ReactModuleInfo(
+                NodexVpnTurboModule.NAME, NodexVpnTurboModule.class.getName(),
+                false, false, false, BuildConfig.IS_NEW_ARCHITECTURE_ENABLED));
+            return modules;
+        };
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,331 @@
+package com.nodexvpn.app.vpn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compilador de rutas para AllowedIPs: "todo lo incluido menos estas
+ * redes" expresado como el conjunto mínimo de CIDRs.
+ *
+ * Usa un trie binario de prefijos por familia (32 bits IPv4, 128 IPv6):
+ * se marcan los prefijos incluidos, se restan los excluidos partiendo los
+ * nodos necesarios y al final se fusionan los hermanos completos, así que
+ * el resultado no tiene solapes ni pares agregables. Java puro, sin DNS.
+ */
+public final class RouteCompiler {
+
+    /** Redes locales que no deben ir por el túnel (RFC 1918, link-local, ULA, multicast) */
+    public static final List<String> LAN_ROUTES = Collections.unmodifiableList(Arrays.asList(
+        "10.0.0.0/8",
+        "172.16.0.0/12",
+        "192.168.0.0/16",
+        "169.254.0.0/16",
+        "224.0.0.0/4",
+        "fc00::/7",
+        "fe80::/10",
+        "ff00::/8"
+    ));
+
+    private static final class Node {
+        Node zero;
+        Node one;
+        boolean full;
+    }
+
+    /**
+     * CIDR que no se pudo interpretar; {@link #getValue} es el texto recibido
+     */
+    public static final class InvalidRouteException extends IllegalArgumentException {
+        private final String value;
+
+        InvalidRouteException(String message, String value) {
+            super(message + ": " + value);
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private RouteCompiler() {
+    }
+
+    /**
+     * {@code included} menos {@code excluded}, como lista mínima de CIDRs
+     * (primero IPv4, luego IPv6). Lanza {@link InvalidRouteException} con el
+     * CIDR que no es válido.
+     */
+    public static List<String> compile(Collection<String> included, Collection<String> excluded) {
+        Node v4 = new Node();
+        Node v6 = new Node();
+        for (String cidr : included) {
+            Prefix prefix = Prefix.parse(cidr);
+            add(prefix.v6 ? v6 : v4, prefix);
+        }
+        for (String cidr : excluded) {
+            Prefix prefix = Prefix.parse(cidr);
+            remove(prefix.v6 ? v6 : v4, prefix);
+        }
+        normalize(v4);
+        normalize(v6);
+
+        List<String> result = new ArrayList<>();
+        emit(v4, new byte[4], 0, result);
+        emit(v6, new byte[16], 0, result);
+        return result;
+    }
+
+    /**
+     * Separar una lista "a, b, c" (como la de AllowedIPs)
+     */
+    public static List<String> split(String list) {
+        List<String> result = new ArrayList<>();
+        if (list == null) return result;
+        for (String item : list.split(",")) {
+            String trimmed = item.trim();
+            if (!trimmed.isEmpty()) result.add(trimmed);
+        }
+        return result;
+    }
+
+    public static String join(List<String> items) {
+        StringBuilder sb = new StringBuilder();
+        for (String item : items) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(item);
+        }
+        return sb.toString();
+    }
+
+    private static void add(Node root, Prefix prefix) {
+        Node node = root;
+        for (int bit = 0; bit < prefix.length; bit++) {
+            // Ya cubierto por un prefijo más corto
+            if (node.full) return;
+            if (prefix.bit(bit) == 0) {
+                if (node.zero == null) node.zero = new Node();
+                node = node.zero;
+            } else {
+                if (node.one == null) node.one = new Node();
+                node = node.one;
+            }
+        }
+        node.full = true;
+        node.zero = null;
+        node.one = null;
+    }
+
+    private static void remove(Node root, Prefix prefix) {
+        if (prefix.length == 0) {
+            root.full = false;
+            root.zero = null;
+            root.one = null;
+            return;
+        }
+        Node node = root;
+        for (int bit = 0; bit < prefix.length - 1; bit++) {
+            if (node.full) split(node);
+            node = prefix.bit(bit) == 0 ? node.zero : node.one;
+            if (node == null) return;
+        }
+        if (node.full) split(node);
+        if (prefix.bit(prefix.length - 1) == 0) {
+            node.zero = null;
+        } else {
+            node.one = null;
+        }
+    }
+
+    /** Un nodo completo pasa a dos hijos completos */
+    private static void split(Node node) {
+        node.full = false;
+        node.zero = new Node();
+        node.zero.full = true;
+        node.one = new Node();
+        node.one.full = true;
+    }
+
+    /**
+     * Podar ramas vacías y fusionar hermanos completos. Devuelve si el nodo
+     * quedó con algo.
+     */
+    private static boolean normalize(Node node) {
+        if (node.full) return true;
+        boolean zero = node.zero != null && normalize(node.zero);
+        boolean one = node.one != null && normalize(node.one);
+        if (!zero) node.zero = null;
+        if (!one) node.one = null;
+        if (zero && one && node.zero.full && node.one.full) {
+            node.full = true;
+            node.zero = null;
+            node.one = null;
+        }
+        return zero || one || node.full;
+    }
+
+    private static void emit(Node node, byte[] address, int depth, List<String> out) {
+        if (node.full) {
+            out.add(format(address, depth));
+            return;
+        }
+        if (node.zero != null) {
+            emit(node.zero, address, depth + 1, out);
+        }
+        if (node.one != null) {
+            int index = depth / 8;
+            byte mask = (byte) (0x80 >>> (depth % 8));
+            address[index] |= mask;
+            emit(node.one, address, depth + 1, out);
+            address[index] &= (byte) ~mask;
+        }
+    }
+
+    private static String format(byte[] address, int length) {
+        StringBuilder sb = new StringBuilder();
+        if (address.length == 4) {
+            for (int i = 0; i < 4; i++) {
+                if (i > 0) sb.append('.');
+                sb.append(address[i] & 0xff);
+            }
+        } else {
+            appendIpv6(sb, address);
+        }
+        return sb.append('/').append(length).toString();
+    }
+
+    /** IPv6 con la racha de ceros más larga comprimida a "::" */
+    private static void appendIpv6(StringBuilder sb, byte[] address) {
+        int[] groups = new int[8];
+        for (int i = 0; i < 8; i++) {
+            groups[i] = ((address[2 * i] & 0xff) << 8) | (address[2 * i + 1] & 0xff);
+        }
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; i++) {
+            int j = i;
+            while (j < 8 && groups[j] == 0) j++;
+            if (j - i > bestLength) {
+                bestStart = i;
+                bestLength = j - i;
+            }
+            i = Math.max(i, j);
+        }
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') sb.append(':');
+            sb.append(Integer.toHexString(groups[i]));
+        }
+    }
+
+    /**
+     * Prefijo parseado sin DNS. Los bits por debajo de la longitud se ignoran.
+     */
+    static final class Prefix {
+        final byte[] address;
+        final int length;
+        final boolean v6;
+
+        private Prefix(byte[] address, int length) {
+            this.address = address;
+            this.length = length;
+            this.v6 = address.length == 16;
+        }
+
+        int bit(int index) {
+            return (address[index / 8] >>> (7 - index % 8)) & 1;
+        }
+
+        static Prefix parse(String cidr) {
+            String text = cidr.trim();
+            int slash = text.indexOf('/');
+            String host = slash >= 0 ? text.substring(0, slash) : text;
+            byte[] address = host.indexOf(':') >= 0 ? parseIpv6(host, cidr) : parseIpv4(host, cidr);
+            int max = address.length * 8;
+            int length = max;
+            if (slash >= 0) {
+                try {
+                    length = Integer.parseInt(text.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    throw new InvalidRouteException("Prefijo inválido", cidr);
+                }
+            }
+            if (length < 0 || length > max) {
+                throw new InvalidRouteException("Prefijo inválido", cidr);
+            }
+            return new Prefix(address, length);
+        }
+
+        private static byte[] parseIpv4(String host, String cidr) {
+            String[] parts = host.split("\\.", -1);
+            if (parts.length != 4) throw new InvalidRouteException("IPv4 inválida", cidr);
+            byte[] out = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                int value;
+                try {
+                    value = Integer.parseInt(parts[i]);
+                } catch (NumberFormatException e) {
+                    throw new InvalidRouteException("IPv4 inválida", cidr);
+                }
+                if (value < 0 || value > 255 || parts[i].isEmpty()) {
+                    throw new InvalidRouteException("IPv4 inválida", cidr);
+                }
+                out[i] = (byte) value;
+            }
+            return out;
+        }
+
+        private static byte[] parseIpv6(String host, String cidr) {
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            int doubleColon = host.indexOf("::");
+            if (doubleColon >= 0 && host.indexOf("::", doubleColon + 1) >= 0) {
+                throw new InvalidRouteException("IPv6 inválida", cidr);
+            }
+            String head = doubleColon >= 0 ? host.substring(0, doubleColon) : host;
+            String tail = doubleColon >= 0 ? host.substring(doubleColon + 2) : "";
+            int[] headGroups = groups(head, cidr);
+            int[] tailGroups = groups(tail, cidr);
+            int total = headGroups.length + tailGroups.length;
+            if (doubleColon < 0 ? total != 8 : total > 7) {
+                throw new InvalidRouteException("IPv6 inválida", cidr);
+            }
+            byte[] out = new byte[16];
+            for (int i = 0; i < headGroups.length; i++) {
+                out[2 * i] = (byte) (headGroups[i] >>> 8);
+                out[2 * i + 1] = (byte) headGroups[i];
+            }
+            int offset = 8 - tailGroups.length;
+            for (int i = 0; i < tailGroups.length; i++) {
+                out[2 * (offset + i)] = (byte) (tailGroups[i] >>> 8);
+                out[2 * (offset + i) + 1] = (byte) tailGroups[i];
+            }
+            return out;
+        }
+
+        private static int[] groups(String part, String cidr) {
+            if (part.isEmpty()) return new int[0];
+            String[] items = part.split(":", -1);
+            int[] out = new int[items.length];
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].isEmpty() || items[i].length() > 4) {
+                    throw new InvalidRouteException("IPv6 inválida", cidr);
+                }
+                try {
+                    out[i] = Integer.parseInt(items[i], 16);
+                } catch (NumberFormatException e) {
+                    throw new InvalidRouteException("IPv6 inválida", cidr);
+                }
+            }
+            return out;
+        }
+    }
+}
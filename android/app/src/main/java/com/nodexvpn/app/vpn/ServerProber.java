@@ -0,0 +1,298 @@
+package com.nodexvpn.app.vpn;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Motor de sondeo de servidores con NIO no bloqueante.
+ *
+ * Sondea muchos servidores a la vez desde un único Selector. Cada servidor
+ * recibe varias muestras secuenciales: primero UDP al puerto de WireGuard
+ * (cuenta cualquier respuesta, incluido un ICMP port unreachable) y, si el
+ * servidor nunca responde por UDP (WireGuard descarta paquetes que no son
+ * handshakes), un connect TCP como respaldo. Sin dependencias de Android,
+ * así que se puede probar contra servidores de prueba en loopback.
+ */
+public final class ServerProber {
+
+    public enum Method { UDP, TCP, NONE }
+
+    public static final class Target {
+        public final String id;
+        public final String host;
+        public final int udpPort;
+        public final int tcpPort;
+
+        /**
+         * @param tcpPort puerto para el respaldo TCP, o 0 para no usarlo
+         */
+        public Target(String id, String host, int udpPort, int tcpPort) {
+            this.id = id;
+            this.host = host;
+            this.udpPort = udpPort;
+            this.tcpPort = tcpPort;
+        }
+    }
+
+    public static final class Options {
+        public int samples = 3;
+        public long timeoutMs = 1000;
+        public long sampleIntervalMs = 50;
+        public int maxInFlight = 32;
+        public boolean udp = true;
+    }
+
+    public static final class Result {
+        public final String id;
+        public final Method method;
+        public final int sent;
+        public final int received;
+        public final double minMs;
+        public final double medianMs;
+        public final double p95Ms;
+        public final String error;
+
+        Result(String id, Method method, int sent, long[] rttNanos, int received, String error) {
+            this.id = id;
+            this.method = method;
+            this.sent = sent;
+            this.received = received;
+            this.error = error;
+            if (received > 0) {
+                long[] sorted = Arrays.copyOf(rttNanos, received);
+                Arrays.sort(sorted);
+                this.minMs = sorted[0] / 1e6;
+                this.medianMs = percentile(sorted, 0.50) / 1e6;
+                this.p95Ms = percentile(sorted, 0.95) / 1e6;
+            } else {
+                this.minMs = -1;
+                this.medianMs = -1;
+                this.p95Ms = -1;
+            }
+        }
+
+        public boolean isReachable() {
+            return received > 0;
+        }
+
+        /** Fracción de muestras perdidas (0..1) */
+        public double loss() {
+            return sent > 0 ? 1.0 - (double) received / sent : 1.0;
+        }
+
+        private static long percentile(long[] sorted, double q) {
+            int rank = (int) Math.ceil(q * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+        }
+    }
+
+    private static final byte[] UDP_PAYLOAD = "NODEXPRB".getBytes();
+
+    /**
+     * Estado de sondeo de un servidor
+     */
+    private static final class Probe {
+        final Target target;
+        final long[] rtts;
+        InetAddress address;
+        Method method;
+        boolean udpAnswered = false;
+        int sent = 0;
+        int received = 0;
+        SelectableChannel channel;
+        long sentAt;
+        long deadline;
+        long nextStartAt;
+        String error;
+
+        Probe(Target target, int samples, boolean udp) {
+            this.target = target;
+            this.rtts = new long[samples];
+            this.method = udp && target.udpPort > 0 ? Method.UDP
+                    : target.tcpPort > 0 ? Method.TCP : Method.NONE;
+        }
+
+        boolean inFlight() {
+            return channel != null;
+        }
+    }
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1500);
+
+    /**
+     * Sondear todos los servidores; bloquea hasta que terminan todas las muestras
+     */
+    public List<Result> probe(List<Target> targets, Options options) throws IOException {
+        List<Probe> probes = new ArrayList<>(targets.size());
+        for (Target target : targets) {
+            Probe probe = new Probe(target, options.samples, options.udp);
+            try {
+                probe.address = InetAddress.getByName(target.host);
+            } catch (UnknownHostException e) {
+                probe.method = Method.NONE;
+                probe.error = "dns";
+            }
+            probes.add(probe);
+        }
+
+        long timeoutNanos = options.timeoutMs * 1_000_000L;
+        long intervalNanos = options.sampleIntervalMs * 1_000_000L;
+
+        try (Selector selector = Selector.open()) {
+            while (true) {
+                long now = System.nanoTime();
+                int inFlight = 0;
+                boolean pending = false;
+                long wakeAt = Long.MAX_VALUE;
+
+                for (Probe probe : probes) {
+                    if (probe.inFlight()) {
+                        if (now >= probe.deadline) {
+                            onTimeout(probe, now + intervalNanos);
+                        } else {
+                            inFlight++;
+                            wakeAt = Math.min(wakeAt, probe.deadline);
+                        }
+                    }
+                }
+
+                for (Probe probe : probes) {
+                    if (probe.method == Method.NONE || probe.sent >= options.samples) {
+                        if (probe.inFlight()) pending = true;
+                        continue;
+                    }
+                    pending = true;
+                    if (probe.inFlight()) continue;
+                    if (now < probe.nextStartAt) {
+                        wakeAt = Math.min(wakeAt, probe.nextStartAt);
+                    } else if (inFlight < options.maxInFlight) {
+                        startSample(selector, probe, now, timeoutNanos, intervalNanos);
+                        if (probe.inFlight()) {
+                            inFlight++;
+                            wakeAt = Math.min(wakeAt, probe.deadline);
+                        }
+                    }
+                }
+
+                if (!pending) break;
+
+                long waitMs = wakeAt == Long.MAX_VALUE ? 1
+                        : Math.max(1, (wakeAt - System.nanoTime() + 999_999) / 1_000_000);
+                selector.select(waitMs);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    onReady((Probe) key.attachment(), key, System.nanoTime() + intervalNanos);
+                }
+            }
+        }
+
+        List<Result> results = new ArrayList<>(probes.size());
+        for (Probe probe : probes) {
+            Method method = probe.received > 0 ? probe.method : Method.NONE;
+            results.add(new Result(probe.target.id, method, probe.sent, probe.rtts, probe.received, probe.error));
+        }
+        return results;
+    }
+
+    private void startSample(Selector selector, Probe probe, long now, long timeoutNanos, long intervalNanos) {
+        try {
+            if (probe.method == Method.UDP) {
+                DatagramChannel channel = DatagramChannel.open();
+                probe.channel = channel;
+                channel.configureBlocking(false);
+                channel.connect(new InetSocketAddress(probe.address, probe.target.udpPort));
+                probe.sentAt = System.nanoTime();
+                channel.write(ByteBuffer.wrap(UDP_PAYLOAD));
+                channel.register(selector, SelectionKey.OP_READ, probe);
+            } else {
+                SocketChannel channel = SocketChannel.open();
+                probe.channel = channel;
+                channel.configureBlocking(false);
+                probe.sentAt = System.nanoTime();
+                if (channel.connect(new InetSocketAddress(probe.address, probe.target.tcpPort))) {
+                    // Conexión inmediata (loopback)
+                    probe.sent++;
+                    recordSample(probe, System.nanoTime(), now + intervalNanos);
+                    return;
+                }
+                channel.register(selector, SelectionKey.OP_CONNECT, probe);
+            }
+            probe.sent++;
+            probe.deadline = probe.sentAt + timeoutNanos;
+        } catch (IOException e) {
+            probe.sent++;
+            probe.error = e.getClass().getSimpleName();
+            closeChannel(probe);
+            probe.nextStartAt = now + intervalNanos;
+        }
+    }
+
+    private void onReady(Probe probe, SelectionKey key, long nextStartAt) {
+        long now = System.nanoTime();
+        try {
+            if (key.isReadable()) {
+                readBuffer.clear();
+                ((DatagramChannel) key.channel()).read(readBuffer);
+                probe.udpAnswered = true;
+            } else if (key.isConnectable()) {
+                ((SocketChannel) key.channel()).finishConnect();
+            }
+            recordSample(probe, now, nextStartAt);
+        } catch (PortUnreachableException e) {
+            // ICMP port unreachable: el host respondió, el RTT es válido
+            probe.udpAnswered = true;
+            recordSample(probe, now, nextStartAt);
+        } catch (java.net.ConnectException e) {
+            // RST: el host respondió aunque el puerto esté cerrado
+            recordSample(probe, now, nextStartAt);
+        } catch (IOException e) {
+            probe.error = e.getClass().getSimpleName();
+            closeChannel(probe);
+            probe.nextStartAt = nextStartAt;
+        }
+    }
+
+    private void onTimeout(Probe probe, long nextStartAt) {
+        closeChannel(probe);
+        probe.nextStartAt = nextStartAt;
+        // Sin ninguna respuesta UDP: pasar a TCP y empezar de nuevo las muestras
+        if (probe.method == Method.UDP && !probe.udpAnswered && probe.target.tcpPort > 0) {
+            probe.method = Method.TCP;
+            probe.sent = 0;
+            probe.received = 0;
+            probe.nextStartAt = 0;
+        }
+    }
+
+    private void recordSample(Probe probe, long now, long nextStartAt) {
+        probe.rtts[probe.received++] = now - probe.sentAt;
+        closeChannel(probe);
+        probe.nextStartAt = nextStartAt;
+    }
+
+    private static void closeChannel(Probe probe) {
+        if (probe.channel != null) {
+            try {
+                probe.channel.close();
+            } catch (IOException ignored) {
+            }
+            probe.channel = null;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.nodexvpn.app.vpn;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prueba de resistencia: miles de ciclos connect / switch / disconnect sobre
+ * un {@link Target}. En el dispositivo es {@link ModuleSoakTarget}: los
+ * mismos métodos de {@link RealWireGuardModule} que usa JS y el servicio,
+ * normalmente sobre {@link FakeTunnelBackend}; en la JVM, el
+ * {@link TunnelSession} del servicio.
+ *
+ * Tras el calentamiento toma una línea base de cada proceso (heap tras GC,
+ * heap nativo, hilos, descriptores y objetos que no deben crecer, como
+ * listeners Binder o Tunnel vivos) y de la latencia por ciclo; vuelve a medir
+ * cada {@code sampleEvery} ciclos y al final falla si algo creció más que su
+ * umbral. Para sesiones de días (kioscos) se usa {@code durationMs} y las
+ * muestras se compactan.
+ */
+public final class SoakHarness {
+
+    private static final int MAX_SAMPLES = 400;
+    private static final int MAX_CONSECUTIVE_ERRORS = 5;
+    // El heap retenido es el mínimo de las últimas muestras: una sola puede pillar basura viva
+    private static final int HEAP_FLOOR_SAMPLES = 3;
+
+    public static final class Options {
+        /** 0 = sin límite de ciclos (usar durationMs) */
+        public int cycles = 1000;
+        public long durationMs = 0;
+        public int warmupCycles = 20;
+        public int sampleEvery = 50;
+        public int switchesPerCycle = 1;
+        public long pauseMs = 0;
+
+        public long maxHeapGrowthKb = 4096;
+        public long maxNativeHeapGrowthKb = 8192;
+        public int maxThreadGrowth = 2;
+        public int maxFdGrowth = 4;
+        public double maxLatencyDrift = 1.5;
+        public int maxErrors = 0;
+    }
+
+    /**
+     * Lo que se ejercita. Cada paso bloquea hasta terminar y lanza si falla.
+     */
+    public interface Target {
+        /** Antes del primer ciclo */
+        void start() throws Exception;
+
+        int configCount();
+
+        void connect(int config) throws Exception;
+
+        void switchServer(int config) throws Exception;
+
+        /** Desconectar y esperar a que el túnel quede "disconnected" */
+        void disconnect() throws Exception;
+
+        /** Recursos de cada proceso ("ui", "vpn"...) tras forzar GC */
+        Map<String, Usage> sample() throws Exception;
+
+        /** Tras el último ciclo, también si la prueba se abortó */
+        void finish() throws Exception;
+    }
+
+    /**
+     * Recursos de un proceso; -1 si no se pudo medir
+     */
+    public static final class Usage {
+        public long heapKb = -1;
+        public long nativeHeapKb = -1;
+        public int threads = -1;
+        public int fds = -1;
+        /** Objetos que no deben crecer de un ciclo a otro (listeners, receivers, Tunnel vivos) */
+        public final Map<String, Integer> handles = new TreeMap<>();
+    }
+
+    public static final class Sample {
+        public final long cycle;
+        public final long elapsedMs;
+        public final Map<String, Usage> usage;
+        public final long p50Us;
+
+        Sample(long cycle, long elapsedMs, Map<String, Usage> usage, long p50Us) {
+            this.cycle = cycle;
+            this.elapsedMs = elapsedMs;
+            this.usage = usage;
+            this.p50Us = p50Us;
+        }
+    }
+
+    public static final class Report {
+        public final List<String> failures = new ArrayList<>();
+        public boolean cancelled;
+        public long cycles;
+        public long durationMs;
+        public long errors;
+        /** Crecimiento por proceso desde la línea base (heap: mínimo de las últimas muestras) */
+        public final Map<String, Usage> growth = new TreeMap<>();
+        public LatencyHistogram cycleUs;
+        public LatencyHistogram connectUs;
+        public LatencyHistogram switchUs;
+        public LatencyHistogram disconnectUs;
+        public long baselineP50Us;
+        public long finalP50Us;
+        public double drift;
+        public List<Sample> samples;
+
+        public boolean passed() {
+            return failures.isEmpty();
+        }
+    }
+
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private final Target target;
+    private final Options options;
+    private final LatencyHistogram connectUs = new LatencyHistogram();
+    private final LatencyHistogram switchUs = new LatencyHistogram();
+    private final LatencyHistogram disconnectUs = new LatencyHistogram();
+    private final LatencyHistogram cycleUs = new LatencyHistogram();
+    private final List<Sample> samples = new ArrayList<>();
+    private volatile boolean cancelled = false;
+    private long errors = 0;
+    private String lastError;
+
+    public SoakHarness(Target target, Options options) {
+        this.target = target;
+        this.options = options;
+    }
+
+    /**
+     * Terminar tras el ciclo en curso; el informe marca cancelled
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Ejecutar la prueba (bloquea: llamar desde un hilo propio)
+     */
+    public Report run() throws Exception {
+        target.start();
+        VpnLog.i(Event.SOAK_START, target, options.cycles);
+
+        long start = System.currentTimeMillis();
+        long cycle = 0;
+        int consecutiveErrors = 0;
+        LatencyHistogram window = new LatencyHistogram();
+        Sample baseline = null;
+        long baselineP50 = 0;
+        try {
+            while (!cancelled && consecutiveErrors < MAX_CONSECUTIVE_ERRORS) {
+                long elapsed = System.currentTimeMillis() - start;
+                if (options.cycles > 0 && cycle >= options.warmupCycles + options.cycles) break;
+                if (options.durationMs > 0 && elapsed >= options.durationMs) break;
+
+                boolean ok = runCycle(cycle, window);
+                consecutiveErrors = ok ? 0 : consecutiveErrors + 1;
+                cycle++;
+
+                if (cycle == options.warmupCycles) {
+                    // Cachés, pools e hilos ya calentados: desde aquí todo crecimiento cuenta
+                    baseline = sample(cycle, start, 0);
+                    samples.add(baseline);
+                    window = new LatencyHistogram();
+                } else if (cycle > options.warmupCycles && (cycle - options.warmupCycles) % options.sampleEvery == 0) {
+                    if (baselineP50 == 0) baselineP50 = window.percentile(50);
+                    samples.add(sample(cycle, start, window.percentile(50)));
+                    window = new LatencyHistogram();
+                    compact();
+                }
+                if (options.pauseMs > 0) Thread.sleep(options.pauseMs);
+            }
+        } finally {
+            target.finish();
+        }
+
+        if (baseline == null) {
+            throw new IllegalStateException("La prueba terminó antes del calentamiento (" + cycle + " ciclos)"
+                + (lastError != null ? ": " + lastError : ""));
+        }
+        Sample last = samples.get(samples.size() - 1);
+        if (last.cycle != cycle && window.getCount() > 0) {
+            last = sample(cycle, start, window.percentile(50));
+            samples.add(last);
+        }
+        return report(baseline, last, baselineP50, cycle - options.warmupCycles, System.currentTimeMillis() - start,
+            consecutiveErrors >= MAX_CONSECUTIVE_ERRORS);
+    }
+
+    private boolean runCycle(long cycle, LatencyHistogram window) throws InterruptedException {
+        int configs = target.configCount();
+        long cycleStart = System.nanoTime();
+        boolean ok = step("connect", connectUs, () -> target.connect(0));
+        for (int i = 1; ok && i <= options.switchesPerCycle; i++) {
+            int next = (int) ((cycle * options.switchesPerCycle + i) % configs);
+            ok = step("switch", switchUs, () -> target.switchServer(next));
+        }
+        boolean disconnected = step("disconnect", disconnectUs, target::disconnect);
+        if (ok && disconnected) {
+            long us = (System.nanoTime() - cycleStart) / 1000;
+            cycleUs.record(us);
+            window.record(us);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean step(String name, LatencyHistogram histogram, Step step) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            step.run();
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            errors++;
+            lastError = name + ": " + e.getMessage();
+            VpnLog.w(Event.SOAK_STEP_FAILED, lastError);
+            return false;
+        }
+        histogram.record((System.nanoTime() - start) / 1000);
+        return true;
+    }
+
+    private Sample sample(long cycle, long start, long p50Us) throws Exception {
+        Map<String, Usage> usage = target.sample();
+        Sample sample = new Sample(cycle, System.currentTimeMillis() - start, usage, p50Us);
+        VpnLog.d(Event.SOAK_CYCLE, cycle, p50Us);
+        for (Map.Entry<String, Usage> entry : usage.entrySet()) {
+            Usage process = entry.getValue();
+            VpnLog.d(Event.SOAK_SAMPLE, entry.getKey(), process.heapKb, process.threads, process.fds);
+        }
+        return sample;
+    }
+
+    /**
+     * Con demasiadas muestras se queda una de cada dos, sin tocar la línea base
+     */
+    private void compact() {
+        if (samples.size() <= MAX_SAMPLES) return;
+        List<Sample> kept = new ArrayList<>(samples.size() / 2 + 2);
+        kept.add(samples.get(0));
+        for (int i = 1; i < samples.size(); i++) {
+            if (i % 2 == 0 || i == samples.size() - 1) kept.add(samples.get(i));
+        }
+        samples.clear();
+        samples.addAll(kept);
+    }
+
+    private Report report(Sample baseline, Sample last, long baselineP50, long cycles, long elapsedMs,
+                          boolean aborted) {
+        Report report = new Report();
+        List<String> failures = report.failures;
+        for (Map.Entry<String, Usage> entry : baseline.usage.entrySet()) {
+            String process = entry.getKey();
+            Usage before = entry.getValue();
+            Usage after = last.usage.get(process);
+            if (after == null) continue;
+
+            Usage delta = new Usage();
+            delta.heapKb = heapFloor(process) - before.heapKb;
+            delta.nativeHeapKb = after.nativeHeapKb - before.nativeHeapKb;
+            delta.threads = after.threads - before.threads;
+            delta.fds = after.fds - before.fds;
+            report.growth.put(process, delta);
+
+            check(failures, process + " heap", delta.heapKb, options.maxHeapGrowthKb, "KB");
+            if (before.nativeHeapKb >= 0) {
+                check(failures, process + " heap nativo", delta.nativeHeapKb, options.maxNativeHeapGrowthKb, "KB");
+            }
+            check(failures, process + " hilos", delta.threads, options.maxThreadGrowth, "");
+            if (before.fds >= 0) {
+                check(failures, process + " fds", delta.fds, options.maxFdGrowth, "");
+            }
+            for (Map.Entry<String, Integer> handle : before.handles.entrySet()) {
+                Integer now = after.handles.get(handle.getKey());
+                if (now == null) continue;
+                int growth = now - handle.getValue();
+                delta.handles.put(handle.getKey(), growth);
+                check(failures, process + " " + handle.getKey(), growth, 0, "");
+            }
+        }
+
+        double drift = baselineP50 > 0 ? (double) last.p50Us / baselineP50 : 1.0;
+        if (drift > options.maxLatencyDrift) {
+            failures.add(String.format("latencia por ciclo x%.2f (máximo x%.2f)", drift, options.maxLatencyDrift));
+        }
+        if (errors > options.maxErrors) {
+            failures.add(errors + " pasos fallidos (máximo " + options.maxErrors + "), último: " + lastError);
+        }
+        if (aborted) {
+            failures.add("abortada tras " + MAX_CONSECUTIVE_ERRORS + " ciclos fallidos seguidos");
+        }
+
+        report.cancelled = cancelled;
+        report.cycles = cycles;
+        report.durationMs = elapsedMs;
+        report.errors = errors;
+        report.cycleUs = cycleUs;
+        report.connectUs = connectUs;
+        report.switchUs = switchUs;
+        report.disconnectUs = disconnectUs;
+        report.baselineP50Us = baselineP50;
+        report.finalP50Us = last.p50Us;
+        report.drift = drift;
+        report.samples = new ArrayList<>(samples);
+
+        if (failures.isEmpty()) {
+            VpnLog.i(Event.SOAK_PASSED, cycles, elapsedMs / 1000);
+        } else {
+            VpnLog.e(Event.SOAK_FAILED, failures);
+        }
+        return report;
+    }
+
+    private long heapFloor(String process) {
+        long floor = Long.MAX_VALUE;
+        for (int i = Math.max(1, samples.size() - HEAP_FLOOR_SAMPLES); i < samples.size(); i++) {
+            Usage usage = samples.get(i).usage.get(process);
+            if (usage != null) floor = Math.min(floor, usage.heapKb);
+        }
+        return floor != Long.MAX_VALUE ? floor : samples.get(0).usage.get(process).heapKb;
+    }
+
+    private static void check(List<String> failures, String what, long growth, long max, String unit) {
+        if (growth > max) {
+            failures.add(what + " +" + growth + unit + " (máximo +" + max + unit + ")");
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.nodexvpn.app.vpn;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Lector de {@link StatsSharedMemory} en el proceso de la UI.
+ *
+ * Mientras está activo lee la región compartida al ritmo de emisión del
+ * sampler y entrega las muestras nuevas al listener con la misma firma que
+ * {@link TunnelStatsSampler.Listener}, sin IPC por muestra.
+ */
+public final class StatsMemoryReader {
+
+    private static final int BUFFER_CAPACITY = 64;
+
+    private final File path;
+    private final TunnelStatsSampler.Listener listener;
+    private final StatsRingBuffer buffer = new StatsRingBuffer(BUFFER_CAPACITY);
+    private final Handler handler;
+
+    // Confinado al hilo del lector
+    private StatsSharedMemory memory;
+    private long readCount = 0;
+    private boolean running = false;
+
+    public StatsMemoryReader(Context context, TunnelStatsSampler.Listener listener) {
+        this.path = new File(context.getNoBackupFilesDir(), StatsSharedMemory.FILE_NAME);
+        this.listener = listener;
+        HandlerThread thread = new HandlerThread("NodexStatsReader", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    public void start() {
+        handler.post(() -> {
+            if (running) return;
+            running = true;
+            handler.post(pollTask);
+        });
+    }
+
+    public void stop() {
+        handler.post(() -> {
+            running = false;
+            handler.removeCallbacks(pollTask);
+        });
+    }
+
+    public void release() {
+        handler.post(() -> {
+            running = false;
+            handler.removeCallbacks(pollTask);
+            if (memory != null) {
+                try {
+                    memory.close();
+                } catch (IOException ignored) {
+                }
+                memory = null;
+            }
+            handler.getLooper().quitSafely();
+        });
+    }
+
+    private final Runnable pollTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) return;
+            if (memory == null) {
+                try {
+                    memory = StatsSharedMemory.open(path);
+                } catch (IOException e) {
+                    VpnLog.w(Event.STATS_MEMORY_OPEN_FAILED, e);
+                }
+            }
+            if (memory != null) {
+                long from = buffer.endSeq();
+                readCount = memory.read(readCount, buffer);
+                long to = buffer.endSeq();
+                if (to > from) {
+                    listener.onStatsBatch(buffer, Math.max(from, buffer.startSeq()), to);
+                }
+            }
+            handler.postDelayed(this, TunnelStatsSampler.MIN_EMIT_INTERVAL_MS);
+        }
+    };
+}
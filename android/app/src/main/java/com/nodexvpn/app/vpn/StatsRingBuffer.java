@@ -0,0 +1,85 @@
+package com.nodexvpn.app.vpn;
+
+/**
+ * Buffer circular de tamaño fijo con las muestras de estadísticas del túnel.
+ *
+ * Cada columna es un arreglo primitivo, así que agregar una muestra no
+ * reserva memoria. Las muestras se identifican por un número de secuencia
+ * monotónico; solo se conservan las últimas {@link #capacity()}.
+ */
+public final class StatsRingBuffer {
+
+    private final int mask;
+    private final long[] timestampMs;
+    private final long[] rxBytes;
+    private final long[] txBytes;
+    private final long[] rxBytesPerSec;
+    private final long[] txBytesPerSec;
+    private final long[] handshakeAgeMs;
+
+    // Secuencia de la próxima muestra a escribir
+    private long nextSeq = 0;
+
+    public StatsRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("La capacidad debe ser potencia de 2: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.timestampMs = new long[capacity];
+        this.rxBytes = new long[capacity];
+        this.txBytes = new long[capacity];
+        this.rxBytesPerSec = new long[capacity];
+        this.txBytesPerSec = new long[capacity];
+        this.handshakeAgeMs = new long[capacity];
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Agregar una muestra; sobrescribe la más antigua si el buffer está lleno
+     */
+    public long add(long timestamp, long rx, long tx, long rxRate, long txRate, long handshakeAge) {
+        int i = (int) (nextSeq & mask);
+        timestampMs[i] = timestamp;
+        rxBytes[i] = rx;
+        txBytes[i] = tx;
+        rxBytesPerSec[i] = rxRate;
+        txBytesPerSec[i] = txRate;
+        handshakeAgeMs[i] = handshakeAge;
+        return nextSeq++;
+    }
+
+    /** Secuencia de la próxima muestra (exclusiva) */
+    public long endSeq() {
+        return nextSeq;
+    }
+
+    /** Secuencia más antigua que todavía está en el buffer */
+    public long startSeq() {
+        return Math.max(0, nextSeq - capacity());
+    }
+
+    public boolean isEmpty() {
+        return nextSeq == 0;
+    }
+
+    public void clear() {
+        nextSeq = 0;
+    }
+
+    public long timestampAt(long seq) { return timestampMs[index(seq)]; }
+    public long rxBytesAt(long seq) { return rxBytes[index(seq)]; }
+    public long txBytesAt(long seq) { return txBytes[index(seq)]; }
+    public long rxRateAt(long seq) { return rxBytesPerSec[index(seq)]; }
+    public long txRateAt(long seq) { return txBytesPerSec[index(seq)]; }
+    public long handshakeAgeAt(long seq) { return handshakeAgeMs[index(seq)]; }
+
+    private int index(long seq) {
+        if (seq < startSeq() || seq >= nextSeq) {
+            throw new IndexOutOfBoundsException("Muestra fuera del buffer: " + seq);
+        }
+        return (int) (seq & mask);
+    }
+}
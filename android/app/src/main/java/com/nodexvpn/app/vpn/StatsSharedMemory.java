@@ -0,0 +1,232 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Región de memoria compartida (archivo mapeado) con las últimas muestras
+ * de estadísticas del túnel.
+ *
+ * El proceso :vpn escribe cada lote del sampler; la UI lo lee sin ninguna
+ * llamada IPC por muestra. La consistencia se garantiza con un seqlock:
+ * el escritor deja la secuencia impar mientras escribe y el lector reintenta
+ * si la secuencia cambió durante la lectura. Los accesos al buffer son
+ * normales (no volátiles), así que el orden lo fijan barreras explícitas:
+ * StoreStore tras marcar la secuencia impar y antes de publicarla par en el
+ * escritor; LoadLoad tras leer la secuencia y antes de releerla en el lector.
+ *
+ * Formato (little endian):
+ * <pre>
+ *  0  int  magic
+ *  4  int  versión
+ *  8  long secuencia del seqlock (par = estable)
+ * 16  long total de muestras escritas
+ * 32  anillo de RING muestras x 6 longs
+ *     (timestamp, rx, tx, rxRate, txRate, handshakeAge)
+ * </pre>
+ */
+public final class StatsSharedMemory implements Closeable {
+
+    public static final String FILE_NAME = "tunnel_stats.shm";
+
+    private static final int MAGIC = 0x4e585354; // "NXST"
+    private static final int VERSION = 1;
+    private static final int RING = 16;
+    private static final int FIELDS = 6;
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_SEQ = 8;
+    private static final int OFF_COUNT = 16;
+    private static final int OFF_RING = 32;
+    private static final int SIZE = OFF_RING + RING * FIELDS * 8;
+    private static final int MAX_READ_ATTEMPTS = 8;
+
+    // Barreras del seqlock: VarHandle (API 33+), si no Unsafe, si no un CAS (barrera completa en ART)
+    private static final boolean VAR_HANDLE_FENCES = Build.VERSION.SDK_INT >= 33;
+    private static final Object UNSAFE;
+    private static final Method UNSAFE_LOAD_FENCE;
+    private static final Method UNSAFE_STORE_FENCE;
+    private static final AtomicInteger FALLBACK_FENCE = new AtomicInteger();
+
+    static {
+        Object unsafe = null;
+        Method loadFence = null;
+        Method storeFence = null;
+        if (!VAR_HANDLE_FENCES) {
+            try {
+                Class<?> type = Class.forName("sun.misc.Unsafe");
+                Field field = type.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                loadFence = type.getMethod("loadFence");
+                storeFence = type.getMethod("storeFence");
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                unsafe = null;
+            }
+        }
+        UNSAFE = unsafe;
+        UNSAFE_LOAD_FENCE = unsafe != null ? loadFence : null;
+        UNSAFE_STORE_FENCE = unsafe != null ? storeFence : null;
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final long[] scratch = new long[RING * FIELDS];
+
+    private StatsSharedMemory(RandomAccessFile file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Abrir (y crear si hace falta) la región
+     */
+    public static StatsSharedMemory open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            if (file.length() < SIZE) {
+                file.setLength(SIZE);
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            return new StatsSharedMemory(file, buffer);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Inicializar la cabecera (solo el escritor, al arrancar el servicio)
+     */
+    public synchronized void reset() {
+        buffer.putLong(OFF_SEQ, buffer.getLong(OFF_SEQ) | 1);
+        storeFence();
+        buffer.putInt(OFF_MAGIC, MAGIC);
+        buffer.putInt(OFF_VERSION, VERSION);
+        buffer.putLong(OFF_COUNT, 0);
+        storeFence();
+        buffer.putLong(OFF_SEQ, (buffer.getLong(OFF_SEQ) | 1) + 1);
+    }
+
+    /**
+     * Publicar las muestras [fromSeq, toSeq) del buffer del sampler
+     */
+    public synchronized void publish(StatsRingBuffer samples, long fromSeq, long toSeq) {
+        long seq = buffer.getLong(OFF_SEQ) + 1;
+        buffer.putLong(OFF_SEQ, seq);
+        // Los datos no se adelantan a la secuencia impar
+        storeFence();
+
+        long count = buffer.getLong(OFF_COUNT);
+        for (long s = Math.max(fromSeq, toSeq - RING); s < toSeq; s++) {
+            int base = OFF_RING + (int) (count % RING) * FIELDS * 8;
+            buffer.putLong(base, samples.timestampAt(s));
+            buffer.putLong(base + 8, samples.rxBytesAt(s));
+            buffer.putLong(base + 16, samples.txBytesAt(s));
+            buffer.putLong(base + 24, samples.rxRateAt(s));
+            buffer.putLong(base + 32, samples.txRateAt(s));
+            buffer.putLong(base + 40, samples.handshakeAgeAt(s));
+            count++;
+        }
+        buffer.putLong(OFF_COUNT, count);
+
+        // Ni se retrasan tras la secuencia par
+        storeFence();
+        buffer.putLong(OFF_SEQ, seq + 1);
+    }
+
+    /**
+     * Copiar a {@code into} las muestras escritas desde {@code sinceCount}.
+     * Devuelve el nuevo total para la próxima lectura (o sinceCount si no
+     * se pudo obtener una lectura consistente).
+     */
+    public long read(long sinceCount, StatsRingBuffer into) {
+        if (buffer.getInt(OFF_MAGIC) != MAGIC || buffer.getInt(OFF_VERSION) != VERSION) {
+            return sinceCount;
+        }
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            long seqBefore = buffer.getLong(OFF_SEQ);
+            if ((seqBefore & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            // Los datos no se leen antes que la secuencia
+            loadFence();
+
+            long count = buffer.getLong(OFF_COUNT);
+            // La región se reinició (servicio recreado): empezar de cero
+            long since = count < sinceCount ? 0 : sinceCount;
+            long from = Math.max(since, count - RING);
+            int n = (int) (count - from);
+            for (int i = 0; i < n; i++) {
+                int base = OFF_RING + (int) ((from + i) % RING) * FIELDS * 8;
+                for (int f = 0; f < FIELDS; f++) {
+                    scratch[i * FIELDS + f] = buffer.getLong(base + f * 8);
+                }
+            }
+
+            // Ni después de releerla: si no, una copia rota pasaría la validación
+            loadFence();
+            if (buffer.getLong(OFF_SEQ) != seqBefore) {
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                int b = i * FIELDS;
+                into.add(scratch[b], scratch[b + 1], scratch[b + 2], scratch[b + 3], scratch[b + 4], scratch[b + 5]);
+            }
+            return count;
+        }
+        return sinceCount;
+    }
+
+    /**
+     * LoadLoad (y LoadStore): las lecturas anteriores no pasan a las posteriores
+     */
+    private static void loadFence() {
+        if (VAR_HANDLE_FENCES) {
+            VarHandle.acquireFence();
+        } else if (UNSAFE != null) {
+            invoke(UNSAFE_LOAD_FENCE);
+        } else {
+            FALLBACK_FENCE.incrementAndGet();
+        }
+    }
+
+    /**
+     * StoreStore (y LoadStore): las escrituras anteriores no pasan a las posteriores
+     */
+    private static void storeFence() {
+        if (VAR_HANDLE_FENCES) {
+            VarHandle.releaseFence();
+        } else if (UNSAFE != null) {
+            invoke(UNSAFE_STORE_FENCE);
+        } else {
+            FALLBACK_FENCE.incrementAndGet();
+        }
+    }
+
+    private static void invoke(Method fence) {
+        try {
+            fence.invoke(UNSAFE);
+        } catch (ReflectiveOperationException e) {
+            FALLBACK_FENCE.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,48 @@
+package com.nodexvpn.app.vpn;
+
+import com.wireguard.android.backend.Tunnel;
+import com.wireguard.config.Config;
+
+/**
+ * Backend del túnel que usa {@link WireGuardVpnService}.
+ *
+ * Implementaciones: GoBackend (userspace, siempre disponible), WgQuickBackend
+ * (módulo WireGuard del kernel, con root) y {@link FakeTunnelBackend} en
+ * memoria. La elección la hace {@link TunnelBackends}.
+ */
+public interface TunnelBackend {
+
+    enum Kind { GO, KERNEL, FAKE }
+
+    /**
+     * Contadores sumados de todos los peers. El sampler reutiliza la misma
+     * instancia en cada muestra.
+     */
+    final class Totals {
+        public long rxBytes;
+        public long txBytes;
+        /** 0 si aún no hubo handshake */
+        public long latestHandshakeEpochMillis;
+
+        public void clear() {
+            rxBytes = 0;
+            txBytes = 0;
+            latestHandshakeEpochMillis = 0;
+        }
+    }
+
+    Kind getKind();
+
+    /** Versión del backend, para logs y diagnóstico */
+    String getVersion();
+
+    /**
+     * Aplicar estado y config. Con UP y el túnel ya arriba, reconfigura
+     * sobre el mismo túnel (un Config idéntico por referencia se ignora).
+     */
+    Tunnel.State setState(Tunnel tunnel, Tunnel.State state, Config config) throws Exception;
+
+    Tunnel.State getState(Tunnel tunnel) throws Exception;
+
+    void readTotals(Tunnel tunnel, Totals into) throws Exception;
+}
@@ -0,0 +1,96 @@
+package com.nodexvpn.app.vpn;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+import com.wireguard.android.backend.GoBackend;
+import com.wireguard.android.backend.WgQuickBackend;
+import com.wireguard.android.util.RootShell;
+import com.wireguard.android.util.ToolsInstaller;
+
+/**
+ * Detección de capacidades y elección del {@link TunnelBackend}.
+ *
+ * En automático se usa el módulo WireGuard del kernel si existe y hay root
+ * (WgQuickBackend: sin copias entre kernel y userspace, bastante más rápido)
+ * y si no GoBackend. Se llama desde el hilo de control del túnel: comprobar
+ * root lanza {@code su} y puede tardar.
+ */
+public final class TunnelBackends {
+
+    public enum Preference {
+        AUTO, GO, KERNEL, FAKE;
+
+        public static Preference parse(String value) {
+            if (value == null) return AUTO;
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return AUTO;
+            }
+        }
+    }
+
+    public static final class Selection {
+        public final TunnelBackend backend;
+        public final Preference preference;
+        public final boolean kernelSupport;
+        public final boolean rootAvailable;
+        public final String reason;
+        public final long selectMs;
+
+        Selection(TunnelBackend backend, Preference preference, boolean kernelSupport, boolean rootAvailable,
+                  String reason, long selectMs) {
+            this.backend = backend;
+            this.preference = preference;
+            this.kernelSupport = kernelSupport;
+            this.rootAvailable = rootAvailable;
+            this.reason = reason;
+            this.selectMs = selectMs;
+        }
+    }
+
+    private TunnelBackends() {
+    }
+
+    public static Selection select(Context context, Preference preference) {
+        long start = SystemClock.elapsedRealtime();
+        if (preference == Preference.FAKE) {
+            return log(new Selection(new FakeTunnelBackend(), preference, false, false,
+                "backend simulado solicitado", SystemClock.elapsedRealtime() - start));
+        }
+
+        boolean kernelSupport = WgQuickBackend.hasKernelSupport();
+        boolean rootAvailable = false;
+        String reason;
+        if (preference == Preference.GO) {
+            reason = "GoBackend solicitado";
+        } else if (!kernelSupport) {
+            reason = "sin módulo WireGuard en el kernel";
+        } else {
+            RootShell rootShell = new RootShell(context);
+            try {
+                rootShell.start();
+                rootAvailable = true;
+                ToolsInstaller toolsInstaller = new ToolsInstaller(context, rootShell);
+                toolsInstaller.ensureToolsAvailable();
+                TunnelBackend kernel = new LibraryTunnelBackend(TunnelBackend.Kind.KERNEL,
+                    new WgQuickBackend(context, rootShell, toolsInstaller));
+                return log(new Selection(kernel, preference, true, true, "módulo del kernel y root disponibles",
+                    SystemClock.elapsedRealtime() - start));
+            } catch (Exception e) {
+                reason = (rootAvailable ? "herramientas wg no disponibles: " : "sin root: ") + e.getMessage();
+            }
+        }
+        TunnelBackend go = new LibraryTunnelBackend(TunnelBackend.Kind.GO, new GoBackend(context));
+        return log(new Selection(go, preference, kernelSupport, rootAvailable, reason,
+            SystemClock.elapsedRealtime() - start));
+    }
+
+    private static Selection log(Selection selection) {
+        VpnLog.i(Event.BACKEND_SELECTED, selection.backend.getKind(), selection.reason,
+            VpnLog.flag(selection.rootAvailable), selection.selectMs);
+        return selection;
+    }
+}
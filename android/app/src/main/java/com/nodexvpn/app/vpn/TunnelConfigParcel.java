@@ -0,0 +1,79 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * {@link WireGuardConfig} serializable por Binder, para pasar la
+ * configuración de la UI al proceso :vpn.
+ */
+public final class TunnelConfigParcel implements Parcelable {
+
+    private final WireGuardConfig config;
+    // Momento de la petición en la UI (System.nanoTime, común a ambos procesos)
+    private final long requestedAtNanos;
+
+    public TunnelConfigParcel(WireGuardConfig config) {
+        this.config = config;
+        this.requestedAtNanos = ConnectTracer.now();
+    }
+
+    public WireGuardConfig getConfig() {
+        return config;
+    }
+
+    public long getRequestedAtNanos() {
+        return requestedAtNanos;
+    }
+
+    private TunnelConfigParcel(Parcel in) {
+        config = new WireGuardConfig();
+        config.setPrivateKey(in.readString());
+        config.setInterfaceAddress(in.readString());
+        config.setDns(in.readString());
+        config.setPublicKey(in.readString());
+        config.setEndpoint(in.readString());
+        config.setAllowedIPs(in.readString());
+        config.setPersistentKeepalive(in.readString());
+        config.setIncludedApplications(in.readString());
+        config.setExcludedApplications(in.readString());
+        config.setExcludedIPs(in.readString());
+        config.setBypassLan(in.readInt() != 0);
+        config.setMtu(in.readString());
+        requestedAtNanos = in.readLong();
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeString(config.getPrivateKey());
+        out.writeString(config.getInterfaceAddress());
+        out.writeString(config.getDns());
+        out.writeString(config.getPublicKey());
+        out.writeString(config.getEndpoint());
+        out.writeString(config.getAllowedIPs());
+        out.writeString(config.getPersistentKeepalive());
+        out.writeString(config.getIncludedApplications());
+        out.writeString(config.getExcludedApplications());
+        out.writeString(config.getExcludedIPs());
+        out.writeInt(config.isBypassLan() ? 1 : 0);
+        out.writeString(config.getMtu());
+        out.writeLong(requestedAtNanos);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<TunnelConfigParcel> CREATOR = new Creator<TunnelConfigParcel>() {
+        @Override
+        public TunnelConfigParcel createFromParcel(Parcel in) {
+            return new TunnelConfigParcel(in);
+        }
+
+        @Override
+        public TunnelConfigParcel[] newArray(int size) {
+            return new TunnelConfigParcel[size];
+        }
+    };
+}
@@ -0,0 +1,248 @@
+package com.nodexvpn.app.vpn;
+
+import com.wireguard.config.Config;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Bucle de control del túnel con un único hilo dueño.
+ *
+ * Los comandos CONNECT/SWITCH/DISCONNECT/STOP se encolan y se ejecutan fuera del
+ * hilo principal del servicio. Solo se guarda el último comando pendiente:
+ * una ráfaga (conectar A, conectar B, desconectar) se reduce a desconectar,
+ * y los comandos descartados se reportan como COALESCED. Un comando nuevo
+ * marca como cancelado al CONNECT o SWITCH en curso; {@code setState} no se puede
+ * interrumpir, pero el executor descarta el resultado al terminar.
+ *
+ * REBIND (re-enlazar tras un cambio de red) es de menor prioridad: no
+ * cancela nada y se descarta si ya hay otro comando pendiente, que de todos
+ * modos se ejecutará sobre la red nueva.
+ */
+public final class TunnelController {
+
+    public enum Type { CONNECT, SWITCH, REBIND, DISCONNECT, STOP }
+
+    public enum Outcome { SUCCEEDED, FAILED, CANCELLED, COALESCED }
+
+    /**
+     * Operaciones reales sobre el túnel; se llaman siempre desde el hilo de control
+     */
+    public interface Executor {
+        void connect(Command command) throws Exception;
+        void switchServer(Command command) throws Exception;
+        void rebind(Command command) throws Exception;
+        void disconnect() throws Exception;
+        void stop();
+    }
+
+    public interface Listener {
+        void onCommandFinished(Command command, Outcome outcome, Throwable error);
+    }
+
+    public static final class Command {
+        private final Type type;
+        private final Config config;
+        private final long submittedAtNanos = System.nanoTime();
+        private volatile long startedAtNanos = 0;
+        private volatile long finishedAtNanos = 0;
+        private volatile boolean cancelled = false;
+
+        private Command(Type type, Config config) {
+            this.type = type;
+            this.config = config;
+        }
+
+        public static Command connect(Config config) {
+            return new Command(Type.CONNECT, config);
+        }
+
+        public static Command switchServer(Config config) {
+            return new Command(Type.SWITCH, config);
+        }
+
+        public static Command rebind(Config config) {
+            return new Command(Type.REBIND, config);
+        }
+
+        public static Command disconnect() {
+            return new Command(Type.DISCONNECT, null);
+        }
+
+        public static Command stop() {
+            return new Command(Type.STOP, null);
+        }
+
+        public Type getType() { return type; }
+        public Config getConfig() { return config; }
+        public boolean isCancelled() { return cancelled; }
+        public long getSubmittedAtNanos() { return submittedAtNanos; }
+        public long getStartedAtNanos() { return startedAtNanos; }
+
+        /**
+         * Lanzar CancellationException si un comando posterior lo reemplazó
+         */
+        public void throwIfCancelled() {
+            if (cancelled) {
+                throw new CancellationException(type + " reemplazado por un comando posterior");
+            }
+        }
+
+        /** Tiempo en cola antes de ejecutarse */
+        public long queueLatencyMs() {
+            long start = startedAtNanos != 0 ? startedAtNanos : finishedAtNanos;
+            return start != 0 ? (start - submittedAtNanos) / 1_000_000 : 0;
+        }
+
+        /** Tiempo total desde que se encoló hasta que terminó */
+        public long totalLatencyMs() {
+            return finishedAtNanos != 0 ? (finishedAtNanos - submittedAtNanos) / 1_000_000 : 0;
+        }
+    }
+
+    private final Executor executor;
+    private final Listener listener;
+    private final Object lock = new Object();
+    private final Thread thread;
+
+    // Protegidos por lock
+    private Command pending = null;
+    private Command inFlight = null;
+    private boolean shutdown = false;
+
+    public TunnelController(Executor executor, Listener listener) {
+        this.executor = executor;
+        this.listener = listener;
+        this.thread = new Thread(this::loop, "NodexTunnelControl");
+        this.thread.start();
+    }
+
+    /**
+     * Encolar un comando; reemplaza al pendiente y cancela un CONNECT/SWITCH/REBIND en curso
+     */
+    public void submit(Command command) {
+        Command superseded;
+        synchronized (lock) {
+            if (shutdown || (command.type == Type.REBIND && pending != null)) {
+                superseded = command;
+            } else {
+                superseded = pending;
+                pending = command;
+                if (command.type != Type.REBIND && inFlight != null && inFlight.type != Type.DISCONNECT
+                        && inFlight.type != Type.STOP) {
+                    inFlight.cancelled = true;
+                }
+                lock.notifyAll();
+            }
+        }
+        if (superseded != null) {
+            superseded.cancelled = true;
+            finish(superseded, Outcome.COALESCED, null);
+        }
+    }
+
+    /**
+     * Terminar el bucle después de ejecutar el comando pendiente, si lo hay
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * El comando en curso ya fue reemplazado por otro: lo que produzca
+     * (p. ej. el UP de su setState) no debe publicarse
+     */
+    public boolean isInFlightCancelled() {
+        synchronized (lock) {
+            return inFlight != null && inFlight.cancelled;
+        }
+    }
+
+    public boolean isIdle() {
+        synchronized (lock) {
+            return pending == null && inFlight == null;
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            Command command;
+            synchronized (lock) {
+                while (pending == null && !shutdown) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending == null) {
+                    return;
+                }
+                command = pending;
+                pending = null;
+                inFlight = command;
+            }
+
+            command.startedAtNanos = System.nanoTime();
+            Outcome outcome = Outcome.SUCCEEDED;
+            Throwable error = null;
+            try {
+                switch (command.type) {
+                    case CONNECT:
+                        command.throwIfCancelled();
+                        executor.connect(command);
+                        break;
+                    case SWITCH:
+                        command.throwIfCancelled();
+                        executor.switchServer(command);
+                        break;
+                    case REBIND:
+                        command.throwIfCancelled();
+                        executor.rebind(command);
+                        break;
+                    case DISCONNECT:
+                        executor.disconnect();
+                        break;
+                    case STOP:
+                        // STOP es terminal: aunque falle el disconnect, el servicio debe pararse
+                        try {
+                            executor.disconnect();
+                        } finally {
+                            executor.stop();
+                        }
+                        break;
+                }
+            } catch (CancellationException e) {
+                outcome = Outcome.CANCELLED;
+            } catch (Exception e) {
+                outcome = Outcome.FAILED;
+                error = e;
+            }
+
+            Command dropped = null;
+            synchronized (lock) {
+                inFlight = null;
+                if (command.type == Type.STOP) {
+                    // STOP es terminal: lo que llegó mientras tanto se descarta
+                    shutdown = true;
+                    dropped = pending;
+                    pending = null;
+                }
+            }
+            finish(command, outcome, error);
+            if (dropped != null) {
+                dropped.cancelled = true;
+                finish(dropped, Outcome.COALESCED, null);
+            }
+        }
+    }
+
+    private void finish(Command command, Outcome outcome, Throwable error) {
+        command.finishedAtNanos = System.nanoTime();
+        if (listener != null) {
+            listener.onCommandFinished(command, outcome, error);
+        }
+    }
+}
@@ -0,0 +1,743 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import com.wireguard.android.backend.Tunnel;
+import com.wireguard.config.BadConfigException;
+import com.wireguard.config.Config;
+import com.wireguard.crypto.KeyPair;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * El túnel del servicio :vpn sobre un {@link TunnelBackend}: connect,
+ * cambio de servidor, re-enlace, desconexión, restauración desde la
+ * instantánea y los cambios de estado del Tunnel.
+ *
+ * Lo que depende de Android (notificación, sampler, red, permiso, MTU de
+ * camino, Binder) lo pone {@link WireGuardVpnService} como {@link Host}, así
+ * que esta clase se prueba en la JVM sobre {@link FakeTunnelBackend}.
+ */
+public final class TunnelSession implements TunnelController.Executor, TunnelController.Listener,
+        HandshakeWatchdog.Recovery {
+
+    private static final long SWITCH_HANDSHAKE_TIMEOUT_MS = 5000;
+    private static final long SWITCH_HANDSHAKE_POLL_MS = 25;
+
+    /**
+     * La parte Android del servicio. Se llama desde el hilo de control salvo
+     * {@link #onStatus}, que también llega desde el watchdog.
+     */
+    public interface Host {
+        /** Backend para el próximo túnel (elegido o confirmado ahora; la detección puede lanzar) */
+        TunnelBackend backend() throws Exception;
+
+        /** MTU medido para este servidor y esta red; sin medida, el de {@code fallback} */
+        Config withDiscoveredMtu(Config requested, Config resolved, Config fallback) throws BadConfigException;
+
+        void scheduleMtuDiscovery(Config requested, Config applied);
+
+        /** Muestrear el túnel; {@code listener} (puede ser null) avisa del primer handshake */
+        void startSampling(TunnelBackend backend, Tunnel tunnel, TunnelStatsSampler.HandshakeListener listener);
+
+        void stopSampling();
+
+        void startNetworkMonitor();
+
+        void stopNetworkMonitor();
+
+        /** Permiso de VPN ya concedido (VpnService.prepare) */
+        boolean hasVpnPermission();
+
+        /** Notificación en primer plano; {@code newSession} reinicia sus contadores */
+        void showNotification(String endpoint, boolean newSession);
+
+        void hideNotification();
+
+        /** STOP o nada que restaurar: el servicio puede terminar */
+        void stopService();
+
+        void onStatus(String status, boolean connected, String message, Bundle extras);
+
+        void onCommandFinished(TunnelController.Command command, TunnelController.Outcome outcome, Throwable error);
+
+        /** La clave rotada ya está en el túnel: pasa a ser la activa */
+        void onKeyRotated(KeyPair key);
+
+        /** La rotación no llegó a aplicarse: la clave vuelve a la reserva */
+        void onRotationDropped(KeyPair key);
+
+        /** Túnel bajado a petición: momento de escribir lo pendiente */
+        void onDisconnected();
+
+        /** Incidente del watchdog cerrado: recuperado o abandonado */
+        void onIncident(HandshakeWatchdog.Incident incident);
+    }
+
+    /**
+     * Hora (epoch, la de los handshakes), elapsedRealtime y espera; manual en los tests
+     */
+    interface Clock {
+        long epochMs();
+        long elapsedMs();
+        void sleep(long ms) throws InterruptedException;
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long epochMs() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedMs() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void sleep(long ms) throws InterruptedException {
+            Thread.sleep(ms);
+        }
+    };
+
+    private final Host host;
+    private final File snapshotFile;
+    private final Executor snapshotWriter;
+    private final Clock clock;
+    private final HandshakeWatchdog watchdog;
+    private final TunnelController controller;
+
+    private TunnelBackend backend;
+    private Config currentConfig;
+    private volatile boolean isConnected = false;
+
+    // Durante un cambio de servidor GoBackend baja y sube el túnel; esos
+    // cambios de estado intermedios no se reportan a la UI
+    private volatile boolean switching = false;
+
+    // Reconexión automática del watchdog en curso: mismo criterio que switching
+    private volatile boolean recovering = false;
+
+    // DOWN pedido por disconnect, que ya informa a la UI
+    private volatile boolean disconnecting = false;
+
+    // Config pedido (sin resolver DNS) del túnel activo y servidores de respaldo
+    private volatile Config requestedConfig;
+    private volatile List<Config> failoverConfigs = Collections.emptyList();
+
+    private volatile long handoverStartedAt = -1;
+    private volatile long restoreStartedAt = -1;
+    private volatile ConnectTracer.Phase restorePhase = ConnectTracer.Phase.RESTORE;
+
+    // Rotación de clave en curso (un SWITCH con la clave nueva)
+    private volatile TunnelController.Command rotationCommand;
+    private volatile KeyPair rotationKey;
+
+    // Un único túnel durante toda la vida del servicio
+    private final Tunnel tunnel = new Tunnel() {
+        @Override
+        public String getName() {
+            return "NodexVPN_Real";
+        }
+
+        @Override
+        public void onStateChange(State newState) {
+            VpnLog.i(Event.TUNNEL_STATE, newState);
+            if (switching || recovering) {
+                return;
+            }
+            if (newState == State.UP && controller.isInFlightCancelled()) {
+                // El comando siguiente decide el estado final: no anunciar un túnel que se va a bajar
+                VpnLog.d(Event.CONNECT_SUPERSEDED);
+                return;
+            }
+
+            boolean connected = (newState == State.UP);
+            if (!connected && disconnecting) {
+                return;
+            }
+            String status = connected ? "connected" : "disconnected";
+
+            isConnected = connected;
+            if (!connected) {
+                host.stopSampling();
+                watchdog.stop();
+                host.stopNetworkMonitor();
+                // Bajó sin que lo pidiéramos (revocado u otra VPN): no restaurar
+                saveSnapshot(requestedConfig, false);
+                host.hideNotification();
+            }
+            host.onStatus(status, connected, "Estado del túnel: " + newState, null);
+        }
+    };
+
+    public TunnelSession(Host host, File snapshotFile, Executor snapshotWriter) {
+        this(host, snapshotFile, snapshotWriter, SYSTEM_CLOCK, null);
+    }
+
+    /**
+     * {@code scheduler} null: el watchdog usa su propio HandlerThread
+     */
+    TunnelSession(Host host, File snapshotFile, Executor snapshotWriter, Clock clock,
+                  HandshakeWatchdog.Scheduler scheduler) {
+        this.host = host;
+        this.snapshotFile = snapshotFile;
+        this.snapshotWriter = snapshotWriter;
+        this.clock = clock;
+        this.watchdog = scheduler != null ? new HandshakeWatchdog(this, scheduler) : new HandshakeWatchdog(this);
+        this.controller = new TunnelController(this, this);
+    }
+
+    public void submit(TunnelController.Command command) {
+        controller.submit(command);
+    }
+
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    public boolean isIdle() {
+        return controller.isIdle();
+    }
+
+    public Config getRequestedConfig() {
+        return requestedConfig;
+    }
+
+    Tunnel getTunnel() {
+        return tunnel;
+    }
+
+    public void setFailoverConfigs(List<Config> configs) {
+        failoverConfigs = Collections.unmodifiableList(configs);
+    }
+
+    public void setWatchdogOptions(HandshakeWatchdog.Options options) {
+        watchdog.setOptions(options);
+    }
+
+    /**
+     * Muestras del sampler para el watchdog
+     */
+    public void onSamples(StatsRingBuffer buffer, long fromSeq, long toSeq) {
+        watchdog.onSamples(buffer, fromSeq, toSeq);
+    }
+
+    /**
+     * Red física cambiada (ya estable): re-enlazar el túnel activo
+     */
+    public void onNetworkChanged(long outageStartedAt) {
+        Config config = requestedConfig;
+        if (!isConnected || config == null) return;
+        if (handoverStartedAt < 0) {
+            handoverStartedAt = outageStartedAt;
+        }
+        controller.submit(TunnelController.Command.rebind(config));
+    }
+
+    /**
+     * El usuario revocó el permiso o activó otra VPN
+     */
+    public void onRevoke() {
+        saveSnapshot(requestedConfig, false);
+        controller.submit(TunnelController.Command.disconnect());
+    }
+
+    public boolean isRotating() {
+        return rotationCommand != null;
+    }
+
+    /**
+     * Aplicar {@code rotated} (misma config con la clave nueva ya registrada)
+     * sobre el túnel activo
+     */
+    public void submitRotation(Config rotated, KeyPair key) {
+        TunnelController.Command command = TunnelController.Command.switchServer(rotated);
+        rotationKey = key;
+        rotationCommand = command;
+        controller.submit(command);
+    }
+
+    /**
+     * Bajar el túnel en el hilo de control, terminar el bucle y soltar el watchdog
+     */
+    public void release() {
+        controller.submit(TunnelController.Command.disconnect());
+        controller.shutdown();
+        watchdog.release();
+    }
+
+    /**
+     * Levantar el túnel con la última configuración buena, sin esperar a
+     * React Native. {@code force}: Always-on o el tile piden el túnel aunque
+     * el usuario lo hubiera dejado desconectado. El tiempo hasta UP se
+     * registra en {@code phase} desde {@code originElapsed}. Devuelve si se
+     * encoló el connect.
+     */
+    public boolean restore(String reason, boolean force, ConnectTracer.Phase phase, long originElapsed) {
+        if (restoreStartedAt >= 0) {
+            VpnLog.i(Event.RESTORE_SKIPPED, reason, "ya en curso");
+            return false;
+        }
+        TunnelSnapshot snapshot = TunnelSnapshot.read(snapshotFile);
+        if (snapshot == null || (!snapshot.wantConnected && !force)) {
+            VpnLog.i(Event.RESTORE_SKIPPED, reason, "nada que restaurar");
+            if (!isConnected && controller.isIdle()) {
+                host.hideNotification();
+                host.stopService();
+            }
+            return false;
+        }
+        if (isConnected) {
+            VpnLog.i(Event.RESTORE_SKIPPED, reason, "túnel ya activo");
+            return false;
+        }
+        if (!host.hasVpnPermission()) {
+            VpnLog.w(Event.RESTORE_NO_PERMISSION, reason);
+            saveSnapshot(snapshot.config, false);
+            host.hideNotification();
+            host.stopService();
+            return false;
+        }
+        restorePhase = phase;
+        restoreStartedAt = originElapsed;
+        VpnLog.i(Event.RESTORE_START, reason, (clock.epochMs() - snapshot.savedAtMs) / 1000);
+        host.showNotification(WireGuardConfig.extractEndpoint(snapshot.config), false);
+        controller.submit(TunnelController.Command.connect(snapshot.config));
+        return true;
+    }
+
+    /**
+     * Guardar la instantánea fuera del hilo de control
+     */
+    private void saveSnapshot(final Config config, final boolean wantConnected) {
+        if (config == null) return;
+        snapshotWriter.execute(() -> {
+            try {
+                TunnelSnapshot.write(snapshotFile, config, wantConnected);
+            } catch (IOException e) {
+                VpnLog.w(Event.SNAPSHOT_SAVE_FAILED, e);
+            }
+        });
+    }
+
+    // ---- HandshakeWatchdog.Recovery ----
+
+    @Override
+    public void reconnect() {
+        Config config = requestedConfig;
+        if (config == null) return;
+        // La dirección cacheada puede ser la que dejó de responder
+        for (String host : EndpointResolver.hostnames(config)) {
+            EndpointResolver.getInstance().invalidate(host);
+        }
+        startRecovery(config, "Reconectando...");
+    }
+
+    @Override
+    public boolean failover(int index) {
+        List<Config> candidates = failoverConfigs;
+        if (index >= candidates.size()) return false;
+        startRecovery(candidates.get(index), "Cambiando a servidor de respaldo...");
+        return true;
+    }
+
+    @Override
+    public void onIncident(HandshakeWatchdog.Incident incident) {
+        recovering = false;
+        host.onIncident(incident);
+    }
+
+    private void startRecovery(Config config, String message) {
+        recovering = true;
+        host.onStatus("connecting", false, message, null);
+        // Con una dirección literal el Config resuelto sería el mismo y GoBackend no recrearía el dispositivo
+        controller.submit(TunnelController.Command.connect(fresh(config)));
+    }
+
+    // ---- TunnelController.Listener ----
+
+    @Override
+    public void onCommandFinished(TunnelController.Command command, TunnelController.Outcome outcome, Throwable error) {
+        if (command == rotationCommand && outcome != TunnelController.Outcome.SUCCEEDED) {
+            // La clave nueva no llegó al túnel (o la reemplazó otro comando): sigue la anterior
+            dropRotation();
+        }
+        host.onCommandFinished(command, outcome, error);
+    }
+
+    private void dropRotation() {
+        KeyPair key = rotationKey;
+        rotationCommand = null;
+        rotationKey = null;
+        if (key != null) {
+            host.onRotationDropped(key);
+        }
+    }
+
+    // ---- TunnelController.Executor (hilo de control) ----
+
+    /**
+     * Conectar con el backend elegido
+     */
+    @Override
+    public void connect(TunnelController.Command command) throws Exception {
+        Config wireGuardConfig = command.getConfig();
+        final ConnectTracer tracer = ConnectTracer.getInstance();
+        tracer.recordNanos(ConnectTracer.Phase.QUEUE, command.getStartedAtNanos() - command.getSubmittedAtNanos());
+        try {
+            try {
+                backend = host.backend();
+            } catch (Exception e) {
+                VpnLog.e(Event.BACKEND_INIT_FAILED, e);
+                host.onStatus("error", false, "Backend no inicializado: " + e.getMessage(), null);
+                throw e;
+            }
+            VpnLog.i(Event.CONNECT_START, backend.getKind());
+
+            // Endpoints a dirección literal: setState no resuelve DNS
+            long phaseStart = ConnectTracer.now();
+            Config resolved = host.withDiscoveredMtu(wireGuardConfig, resolveEndpoints(wireGuardConfig), null);
+            tracer.record(ConnectTracer.Phase.DNS_RESOLVE, phaseStart);
+
+            phaseStart = ConnectTracer.now();
+            Tunnel.State state;
+            try {
+                state = backend.setState(tunnel, Tunnel.State.UP, resolved);
+            } catch (Exception e) {
+                if (resolved == wireGuardConfig) {
+                    throw e;
+                }
+                // La dirección cacheada puede estar obsoleta: resolver de nuevo el hostname
+                VpnLog.w(Event.CONNECT_RETRY_RESOLVE, e);
+                for (String host : EndpointResolver.hostnames(wireGuardConfig)) {
+                    EndpointResolver.getInstance().invalidate(host);
+                }
+                command.throwIfCancelled();
+                resolved = host.withDiscoveredMtu(wireGuardConfig, resolveEndpoints(wireGuardConfig), null);
+                state = backend.setState(tunnel, Tunnel.State.UP, resolved);
+            }
+            currentConfig = resolved;
+            requestedConfig = wireGuardConfig;
+            tracer.record(ConnectTracer.Phase.SET_STATE, phaseStart);
+            final long upAtEpochMillis = clock.epochMs();
+
+            VpnLog.d(Event.SET_STATE_DONE, state);
+
+            // Si llegó otro comando mientras tanto, él decide el estado final
+            command.throwIfCancelled();
+
+            if (state == Tunnel.State.UP) {
+                isConnected = true;
+                host.showNotification(WireGuardConfig.extractEndpoint(wireGuardConfig), true);
+
+                // Empezar a muestrear estadísticas del túnel (y medir el primer handshake)
+                host.startSampling(backend, tunnel, handshakeEpochMillis -> {
+                    // Puede haber ocurrido ya durante setState: cuenta como 0
+                    long waitedMs = Math.max(0, handshakeEpochMillis - upAtEpochMillis);
+                    tracer.recordNanos(ConnectTracer.Phase.FIRST_HANDSHAKE, waitedMs * 1_000_000);
+                });
+
+                watchdog.onTunnelUp();
+                host.startNetworkMonitor();
+                saveSnapshot(wireGuardConfig, true);
+                host.scheduleMtuDiscovery(wireGuardConfig, resolved);
+
+                long restoreStart = restoreStartedAt;
+                if (restoreStart >= 0) {
+                    restoreStartedAt = -1;
+                    long restoreMs = clock.elapsedMs() - restoreStart;
+                    tracer.recordNanos(restorePhase, restoreMs * 1_000_000);
+                    VpnLog.i(Event.TUNNEL_RESTORED, restorePhase, restoreMs);
+                }
+                if (recovering) {
+                    // El watchdog confirma la recuperación cuando llegue un handshake
+                    VpnLog.d(Event.TUNNEL_UP_AGAIN);
+                    return;
+                }
+
+                // Reemplazado mientras se arrancaban sampler y watchdog: no publicar
+                command.throwIfCancelled();
+                tracer.record(ConnectTracer.Phase.SERVICE_TOTAL, command.getSubmittedAtNanos());
+                Bundle trace = new Bundle();
+                trace.putLong("sentAtNanos", ConnectTracer.now());
+                host.onStatus("connected", true, "VPN conectado exitosamente", trace);
+                VpnLog.i(Event.CONNECTED);
+
+            } else {
+                VpnLog.w(Event.CONNECT_UNEXPECTED_STATE, state);
+                host.onStatus("connecting", false, "Conectando... Estado: " + state, null);
+            }
+
+        } catch (CancellationException e) {
+            VpnLog.d(Event.CONNECT_SUPERSEDED);
+            restoreStartedAt = -1;
+            throw e;
+        } catch (Exception e) {
+            VpnLog.e(Event.CONNECT_FAILED, e);
+            restoreStartedAt = -1;
+            if (!recovering) {
+                // En una recuperación el watchdog programa el siguiente intento
+                host.onStatus("error", false, "Error de conexión: " + e.getMessage(), null);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Cambiar de servidor sobre el mismo túnel, sin desconectar, sin
+     * stopForeground y sin recrear el Tunnel
+     */
+    @Override
+    public void switchServer(TunnelController.Command command) throws Exception {
+        if (!isConnected || currentConfig == null) {
+            if (command == rotationCommand) {
+                VpnLog.d(Event.KEY_ROTATION_DROPPED);
+                dropRotation();
+                return;
+            }
+            VpnLog.i(Event.SWITCH_AS_CONNECT);
+            connect(command);
+            return;
+        }
+
+        // Sin medida para el servidor nuevo se mantiene el MTU actual: la red es la misma
+        Config next = host.withDiscoveredMtu(command.getConfig(), resolveEndpoints(command.getConfig()), currentConfig);
+        ConfigDiff.Kind kind = ConfigDiff.compare(currentConfig, next);
+        if (kind == ConfigDiff.Kind.NONE) {
+            VpnLog.d(Event.SWITCH_NOOP);
+            sendSwitchResult(kind, 0, 0, next, "Servidor cambiado");
+            return;
+        }
+
+        Config applied = ConfigDiff.merge(currentConfig, next, kind);
+        VpnLog.i(Event.SWITCH_START, kind);
+
+        long switchStartEpoch = clock.epochMs();
+        long start = clock.elapsedMs();
+        Tunnel.State state;
+        switching = true;
+        try {
+            state = backend.setState(tunnel, Tunnel.State.UP, applied);
+        } catch (Exception e) {
+            VpnLog.e(Event.SWITCH_FAILED, e);
+            isConnected = false;
+            currentConfig = null;
+            host.stopSampling();
+            host.hideNotification();
+            host.onStatus("error", false, "Error cambiando de servidor: " + e.getMessage(), null);
+            throw e;
+        } finally {
+            switching = false;
+        }
+        long setStateMs = clock.elapsedMs() - start;
+        currentConfig = applied;
+        requestedConfig = command.getConfig();
+        saveSnapshot(requestedConfig, true);
+        boolean rotation = command == rotationCommand;
+
+        command.throwIfCancelled();
+        if (state != Tunnel.State.UP) {
+            isConnected = false;
+            host.onStatus("error", false, "Estado inesperado tras cambiar de servidor: " + state, null);
+            throw new IllegalStateException("Estado tras cambio: " + state);
+        }
+
+        // El tráfico vuelve a fluir con el primer handshake contra el nuevo peer
+        long blackholeMs = waitForHandshake(command, switchStartEpoch, start);
+        if (rotation) {
+            // Un cambio del usuario llegado durante la espera vuelve a aplicar la clave activa
+            command.throwIfCancelled();
+            // El túnel ya usa la clave nueva (registrada): pasa a ser la activa
+            host.onKeyRotated(rotationKey);
+            rotationCommand = null;
+            rotationKey = null;
+        }
+
+        // El contador del túnel nuevo arranca de cero; el sampler lo trata como reinicio
+        host.startSampling(backend, tunnel, null);
+        host.showNotification(WireGuardConfig.extractEndpoint(applied), false);
+        if (rotation) {
+            ConnectTracer.getInstance().recordNanos(ConnectTracer.Phase.ROTATION_OUTAGE, blackholeMs * 1_000_000);
+        }
+        sendSwitchResult(kind, setStateMs, blackholeMs, applied, rotation ? "Clave rotada" : "Servidor cambiado");
+        host.scheduleMtuDiscovery(requestedConfig, applied);
+        VpnLog.i(rotation ? Event.KEY_ROTATED : Event.SWITCH_DONE, setStateMs, blackholeMs);
+    }
+
+    /**
+     * Re-enlazar el túnel tras un cambio de red: resolver de nuevo los
+     * endpoints y volver a aplicar el config sobre el mismo túnel, sin pasar
+     * por "disconnected" ni quitar la notificación. GoBackend no permite
+     * cambiar el socket en caliente, así que setState con un Config nuevo
+     * recrea el dispositivo y arranca un handshake inmediato.
+     */
+    @Override
+    public void rebind(TunnelController.Command command) throws Exception {
+        long outageStartedAt = handoverStartedAt;
+        handoverStartedAt = -1;
+        if (!isConnected || currentConfig == null) {
+            VpnLog.d(Event.REBIND_NOOP);
+            return;
+        }
+
+        Config requested = command.getConfig();
+        for (String host : EndpointResolver.hostnames(requested)) {
+            EndpointResolver.getInstance().invalidate(host);
+        }
+        // Instancia nueva: GoBackend ignora setState con el mismo Config
+        Config fresh = fresh(host.withDiscoveredMtu(requested, resolveEndpoints(requested), null));
+
+        ConnectTracer tracer = ConnectTracer.getInstance();
+        long rebindStartEpoch = clock.epochMs();
+        long start = clock.elapsedMs();
+        long phaseStart = ConnectTracer.now();
+        switching = true;
+        try {
+            backend.setState(tunnel, Tunnel.State.UP, fresh);
+        } catch (Exception e) {
+            VpnLog.e(Event.REBIND_FAILED, e);
+            isConnected = false;
+            currentConfig = null;
+            host.stopSampling();
+            host.hideNotification();
+            host.onStatus("error", false, "Error tras cambiar de red: " + e.getMessage(), null);
+            throw e;
+        } finally {
+            switching = false;
+        }
+        currentConfig = fresh;
+        tracer.record(ConnectTracer.Phase.REBIND, phaseStart);
+        command.throwIfCancelled();
+
+        long handshakeMs = waitForHandshake(command, rebindStartEpoch, start);
+        host.startSampling(backend, tunnel, null);
+        watchdog.onTunnelUp();
+
+        Bundle extras = new Bundle();
+        extras.putString("endpoint", WireGuardConfig.extractEndpoint(fresh));
+        fresh.getInterface().getMtu().ifPresent(mtu -> extras.putInt("mtu", mtu));
+        host.scheduleMtuDiscovery(requested, fresh);
+        if (outageStartedAt < 0) {
+            // Re-aplicado por un MTU nuevo, no por un cambio de red
+            VpnLog.d(Event.REBIND_MTU, (long) fresh.getInterface().getMtu().orElse(0));
+            host.onStatus("connected", true, "Túnel reconfigurado", extras);
+            return;
+        }
+        if (handshakeMs >= 0) {
+            long outageMs = clock.elapsedMs() - outageStartedAt;
+            tracer.recordNanos(ConnectTracer.Phase.HANDOVER_OUTAGE, outageMs * 1_000_000);
+            extras.putLong("handoverOutageMs", outageMs);
+            VpnLog.i(Event.REBIND_DONE, handshakeMs, outageMs);
+        } else {
+            // Sin handshake todavía: si no llega, el watchdog se encarga
+            VpnLog.w(Event.REBIND_NO_HANDSHAKE, SWITCH_HANDSHAKE_TIMEOUT_MS);
+        }
+        host.onStatus("connected", true, "Red cambiada", extras);
+    }
+
+    @Override
+    public void disconnect() throws Exception {
+        try {
+            VpnLog.d(Event.DISCONNECT_START);
+            host.stopSampling();
+            watchdog.stop();
+            host.stopNetworkMonitor();
+            recovering = false;
+
+            if (backend != null && currentConfig != null) {
+                disconnecting = true;
+                try {
+                    Tunnel.State state = backend.setState(tunnel, Tunnel.State.DOWN, null);
+                    VpnLog.i(Event.DISCONNECTED, state);
+                } finally {
+                    disconnecting = false;
+                }
+            }
+
+            isConnected = false;
+            currentConfig = null;
+            // Se conserva el config para Always-on, pero sin restaurar solo
+            saveSnapshot(requestedConfig, false);
+            requestedConfig = null;
+            host.onDisconnected();
+
+            host.hideNotification();
+            host.onStatus("disconnected", false, "VPN desconectado", null);
+
+        } catch (Exception e) {
+            VpnLog.e(Event.DISCONNECT_FAILED, e);
+            host.onStatus("error", false, "Error desconectando: " + e.getMessage(), null);
+            throw e;
+        }
+    }
+
+    @Override
+    public void stop() {
+        host.stopService();
+    }
+
+    /**
+     * Mismo config en otra instancia
+     */
+    private static Config fresh(Config config) {
+        return new Config.Builder()
+            .setInterface(config.getInterface())
+            .addPeers(config.getPeers())
+            .build();
+    }
+
+    /**
+     * Reescribir endpoints con hostname a direcciones literales (caché DNS)
+     */
+    private Config resolveEndpoints(Config config) throws Exception {
+        long start = clock.elapsedMs();
+        Config resolved = EndpointResolver.getInstance().rewrite(config);
+        if (resolved != config) {
+            VpnLog.d(Event.ENDPOINTS_RESOLVED, clock.elapsedMs() - start);
+        }
+        return resolved;
+    }
+
+    /**
+     * Esperar el primer handshake posterior al cambio. Devuelve los ms
+     * desde el inicio del cambio, o -1 si no llegó dentro del límite.
+     */
+    private long waitForHandshake(TunnelController.Command command, long sinceEpochMillis, long startElapsed) {
+        long deadline = startElapsed + SWITCH_HANDSHAKE_TIMEOUT_MS;
+        TunnelBackend.Totals totals = new TunnelBackend.Totals();
+        while (clock.elapsedMs() < deadline && !command.isCancelled()) {
+            try {
+                backend.readTotals(tunnel, totals);
+                if (totals.latestHandshakeEpochMillis >= sinceEpochMillis) {
+                    return clock.elapsedMs() - startElapsed;
+                }
+                clock.sleep(SWITCH_HANDSHAKE_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                VpnLog.w(Event.HANDSHAKE_READ_FAILED, e);
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private void sendSwitchResult(ConfigDiff.Kind kind, long setStateMs, long blackholeMs, Config config, String message) {
+        Bundle extras = new Bundle();
+        extras.putString("switchKind", kind.name());
+        extras.putLong("switchSetStateMs", setStateMs);
+        extras.putLong("switchBlackholeMs", blackholeMs);
+        extras.putString("endpoint", WireGuardConfig.extractEndpoint(config));
+        host.onStatus("connected", true, message, extras);
+    }
+}
@@ -0,0 +1,236 @@
+package com.nodexvpn.app.vpn;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+import com.wireguard.config.BadConfigException;
+import com.wireguard.config.Config;
+import com.wireguard.config.InetAddresses;
+import com.wireguard.config.InetEndpoint;
+import com.wireguard.config.InetNetwork;
+import com.wireguard.config.Interface;
+import com.wireguard.config.ParseException;
+import com.wireguard.config.Peer;
+import com.wireguard.crypto.Key;
+import com.wireguard.crypto.KeyFormatException;
+import com.wireguard.crypto.KeyPair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Última configuración buena del túnel, guardada en binario para poder
+ * levantarlo sin React Native (reinicio del proceso :vpn, arranque del
+ * dispositivo o Always-on VPN).
+ *
+ * Formato v1: cabecera (magic, versión, flags, fecha), el Config con las
+ * claves en crudo y las direcciones como texto, y un CRC32 al final. Se
+ * escribe en un temporal con fsync y se renombra, así que un corte a mitad
+ * deja la versión anterior intacta.
+ */
+public final class TunnelSnapshot {
+
+    public static final String FILE_NAME = "tunnel_snapshot.bin";
+
+    private static final int MAGIC = 0x4e58534e; // "NXSN"
+    private static final int VERSION = 1;
+    private static final int FLAG_CONNECTED = 1;
+    private static final int KEY_LENGTH = 32;
+    private static final int MAX_SIZE = 64 * 1024;
+
+    /** Config pedido (endpoints con hostname, sin resolver) */
+    public final Config config;
+    /** El usuario quería el túnel activo cuando se guardó */
+    public final boolean wantConnected;
+    public final long savedAtMs;
+
+    private TunnelSnapshot(Config config, boolean wantConnected, long savedAtMs) {
+        this.config = config;
+        this.wantConnected = wantConnected;
+        this.savedAtMs = savedAtMs;
+    }
+
+    /**
+     * Guardar de forma atómica
+     */
+    public static void write(File file, Config config, boolean wantConnected) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(wantConnected ? FLAG_CONNECTED : 0);
+        out.writeLong(System.currentTimeMillis());
+        writeConfig(out, config);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("No se pudo reemplazar " + file.getName());
+        }
+    }
+
+    /**
+     * Leer la instantánea; null si no existe o no es válida
+     */
+    public static TunnelSnapshot read(File file) {
+        long length = file.length();
+        if (length <= 0 || length > MAX_SIZE) return null;
+        byte[] data = new byte[(int) length];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) return null;
+                read += n;
+            }
+        } catch (IOException e) {
+            VpnLog.w(Event.SNAPSHOT_READ_FAILED, e);
+            return null;
+        }
+        if (data.length < 8) return null;
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                VpnLog.w(Event.SNAPSHOT_IGNORED, "formato desconocido");
+                return null;
+            }
+            int flags = in.readInt();
+            long savedAt = in.readLong();
+            Config config = readConfig(in);
+            if (in.readLong() != crc.getValue()) {
+                VpnLog.w(Event.SNAPSHOT_IGNORED, "CRC");
+                return null;
+            }
+            return new TunnelSnapshot(config, (flags & FLAG_CONNECTED) != 0, savedAt);
+        } catch (IOException | BadConfigException | ParseException | KeyFormatException e) {
+            VpnLog.w(Event.SNAPSHOT_INVALID, e);
+            return null;
+        }
+    }
+
+    private static void writeConfig(DataOutputStream out, Config config) throws IOException {
+        Interface iface = config.getInterface();
+        out.write(iface.getKeyPair().getPrivateKey().getBytes());
+        List<String> addresses = new ArrayList<>();
+        for (InetNetwork network : iface.getAddresses()) {
+            addresses.add(network.toString());
+        }
+        writeStrings(out, addresses);
+        List<String> dns = new ArrayList<>();
+        for (InetAddress address : iface.getDnsServers()) {
+            dns.add(address.getHostAddress());
+        }
+        writeStrings(out, dns);
+        writeStrings(out, iface.getDnsSearchDomains());
+        out.writeInt(iface.getMtu().orElse(0));
+        out.writeInt(iface.getListenPort().orElse(0));
+        writeStrings(out, iface.getIncludedApplications());
+        writeStrings(out, iface.getExcludedApplications());
+
+        out.writeShort(config.getPeers().size());
+        for (Peer peer : config.getPeers()) {
+            out.write(peer.getPublicKey().getBytes());
+            Optional<Key> psk = peer.getPreSharedKey();
+            out.writeBoolean(psk.isPresent());
+            if (psk.isPresent()) {
+                out.write(psk.get().getBytes());
+            }
+            Optional<InetEndpoint> endpoint = peer.getEndpoint();
+            out.writeUTF(endpoint.isPresent() ? endpoint.get().getHost() : "");
+            out.writeShort(endpoint.isPresent() ? endpoint.get().getPort() : 0);
+            List<String> allowed = new ArrayList<>();
+            for (InetNetwork network : peer.getAllowedIps()) {
+                allowed.add(network.toString());
+            }
+            writeStrings(out, allowed);
+            out.writeShort(peer.getPersistentKeepalive().orElse(0));
+        }
+    }
+
+    private static Config readConfig(DataInputStream in)
+            throws IOException, BadConfigException, ParseException, KeyFormatException {
+        Interface.Builder iface = new Interface.Builder();
+        iface.setKeyPair(new KeyPair(Key.fromBytes(readKey(in))));
+        for (String address : readStrings(in)) {
+            iface.addAddress(InetNetwork.parse(address));
+        }
+        for (String dns : readStrings(in)) {
+            iface.addDnsServer(InetAddresses.parse(dns));
+        }
+        for (String domain : readStrings(in)) {
+            iface.addDnsSearchDomain(domain);
+        }
+        int mtu = in.readInt();
+        if (mtu > 0) iface.setMtu(mtu);
+        int listenPort = in.readInt();
+        if (listenPort > 0) iface.setListenPort(listenPort);
+        iface.includeApplications(readStrings(in));
+        iface.excludeApplications(readStrings(in));
+
+        Config.Builder config = new Config.Builder().setInterface(iface.build());
+        int peers = in.readUnsignedShort();
+        for (int i = 0; i < peers; i++) {
+            Peer.Builder peer = new Peer.Builder();
+            peer.setPublicKey(Key.fromBytes(readKey(in)));
+            if (in.readBoolean()) {
+                peer.setPreSharedKey(Key.fromBytes(readKey(in)));
+            }
+            String host = in.readUTF();
+            int port = in.readUnsignedShort();
+            if (!host.isEmpty()) {
+                String literal = host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+                peer.setEndpoint(InetEndpoint.parse(literal + ":" + port));
+            }
+            for (String allowed : readStrings(in)) {
+                peer.addAllowedIp(InetNetwork.parse(allowed));
+            }
+            int keepalive = in.readUnsignedShort();
+            if (keepalive > 0) peer.setPersistentKeepalive(keepalive);
+            config.addPeer(peer.build());
+        }
+        return config.build();
+    }
+
+    private static byte[] readKey(DataInputStream in) throws IOException {
+        byte[] key = new byte[KEY_LENGTH];
+        in.readFully(key);
+        return key;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> items) throws IOException {
+        out.writeShort(items.size());
+        for (String item : items) {
+            out.writeUTF(item);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<String> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(in.readUTF());
+        }
+        return items;
+    }
+}
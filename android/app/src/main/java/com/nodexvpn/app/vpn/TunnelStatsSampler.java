@@ -0,0 +1,218 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+import com.wireguard.android.backend.Tunnel;
+
+/**
+ * Muestreador de estadísticas del túnel.
+ *
+ * Consulta {@link TunnelBackend#readTotals} en un hilo propio con un
+ * intervalo adaptativo (rápido con la UI visible, intermedio con la pantalla
+ * encendida para la notificación, lento con la pantalla apagada, detenido
+ * sin túnel), calcula deltas y velocidades en un
+ * {@link StatsRingBuffer} y entrega lotes al listener como máximo una vez
+ * por intervalo de emisión. Todo el estado lo toca solo el hilo del sampler.
+ */
+public final class TunnelStatsSampler {
+
+    public static final long FOREGROUND_INTERVAL_MS = 1000;
+    public static final long SCREEN_ON_INTERVAL_MS = 3000;
+    public static final long BACKGROUND_INTERVAL_MS = 15000;
+    public static final long MIN_EMIT_INTERVAL_MS = 1000;
+    private static final int BUFFER_CAPACITY = 64;
+
+    /**
+     * Recibe lotes de muestras en el hilo del sampler. Las secuencias
+     * [fromSeq, toSeq) son válidas solo durante la llamada.
+     */
+    public interface Listener {
+        void onStatsBatch(StatsRingBuffer buffer, long fromSeq, long toSeq);
+    }
+
+    /**
+     * Primer handshake visto desde attach (hilo del sampler)
+     */
+    public interface HandshakeListener {
+        void onFirstHandshake(long handshakeEpochMillis);
+    }
+
+    private static TunnelStatsSampler instance;
+
+    public static synchronized TunnelStatsSampler getInstance() {
+        if (instance == null) {
+            instance = new TunnelStatsSampler();
+        }
+        return instance;
+    }
+
+    private final StatsRingBuffer buffer = new StatsRingBuffer(BUFFER_CAPACITY);
+    private final Handler handler;
+
+    // Estado confinado al hilo del sampler
+    private TunnelBackend backend;
+    private Tunnel tunnel;
+    private final TunnelBackend.Totals totals = new TunnelBackend.Totals();
+    private Listener listener;
+    private HandshakeListener handshakeListener;
+    private boolean foreground = true;
+    private boolean screenOn = true;
+    private boolean scheduled = false;
+    private long lastSampleAt = -1;
+    private long lastRx = 0;
+    private long lastTx = 0;
+    private long lastEmitAt = 0;
+    private long nextEmitSeq = 0;
+
+    private TunnelStatsSampler() {
+        HandlerThread thread = new HandlerThread("NodexStatsSampler", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Empezar a muestrear un túnel activo
+     */
+    public void attach(final TunnelBackend backend, final Tunnel tunnel) {
+        attach(backend, tunnel, null);
+    }
+
+    /**
+     * Igual que {@link #attach(TunnelBackend, Tunnel)} avisando una sola vez del
+     * primer handshake (la hora exacta sale del propio backend)
+     */
+    public void attach(final TunnelBackend backend, final Tunnel tunnel, final HandshakeListener handshakeListener) {
+        handler.post(() -> {
+            this.backend = backend;
+            this.tunnel = tunnel;
+            this.handshakeListener = handshakeListener;
+            buffer.clear();
+            lastSampleAt = -1;
+            nextEmitSeq = 0;
+            reschedule(0);
+        });
+    }
+
+    /**
+     * Dejar de muestrear (túnel abajo)
+     */
+    public void detach() {
+        handler.post(() -> {
+            backend = null;
+            tunnel = null;
+            handshakeListener = null;
+            cancel();
+        });
+    }
+
+    public void setListener(final Listener listener) {
+        handler.post(() -> this.listener = listener);
+    }
+
+    /**
+     * Indicar si la UI está visible para ajustar el intervalo
+     */
+    public void setForeground(final boolean foreground) {
+        handler.post(() -> {
+            if (this.foreground == foreground) return;
+            this.foreground = foreground;
+            // Al volver a primer plano, muestrear enseguida
+            if (tunnel != null) reschedule(foreground ? 0 : currentInterval());
+        });
+    }
+
+    /**
+     * Indicar si la pantalla está encendida (la notificación muestra la velocidad)
+     */
+    public void setScreenOn(final boolean screenOn) {
+        handler.post(() -> {
+            if (this.screenOn == screenOn) return;
+            this.screenOn = screenOn;
+            if (tunnel != null) reschedule(screenOn ? 0 : currentInterval());
+        });
+    }
+
+    private final Runnable sampleTask = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            if (backend == null || tunnel == null) return;
+            sampleOnce();
+            reschedule(currentInterval());
+        }
+    };
+
+    private void sampleOnce() {
+        try {
+            backend.readTotals(tunnel, totals);
+        } catch (Exception e) {
+            VpnLog.w(Event.STATS_READ_FAILED, e);
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        long rx = totals.rxBytes;
+        long tx = totals.txBytes;
+        long latestHandshake = totals.latestHandshakeEpochMillis;
+
+        long rxRate = 0;
+        long txRate = 0;
+        if (lastSampleAt >= 0 && now > lastSampleAt) {
+            long dt = now - lastSampleAt;
+            // Si el contador se reinició (túnel recreado), el delta es el valor actual
+            long rxDelta = rx >= lastRx ? rx - lastRx : rx;
+            long txDelta = tx >= lastTx ? tx - lastTx : tx;
+            rxRate = rxDelta * 1000 / dt;
+            txRate = txDelta * 1000 / dt;
+        }
+        long handshakeAge = latestHandshake > 0 ? System.currentTimeMillis() - latestHandshake : -1;
+
+        buffer.add(now, rx, tx, rxRate, txRate, handshakeAge);
+        if (latestHandshake > 0 && handshakeListener != null) {
+            HandshakeListener first = handshakeListener;
+            handshakeListener = null;
+            first.onFirstHandshake(latestHandshake);
+        }
+        lastSampleAt = now;
+        lastRx = rx;
+        lastTx = tx;
+
+        maybeEmit(now);
+    }
+
+    private void maybeEmit(long now) {
+        if (listener == null || now - lastEmitAt < MIN_EMIT_INTERVAL_MS) return;
+        long from = Math.max(nextEmitSeq, buffer.startSeq());
+        long to = buffer.endSeq();
+        if (from >= to) return;
+        try {
+            listener.onStatsBatch(buffer, from, to);
+        } catch (Exception e) {
+            VpnLog.w(Event.STATS_LISTENER_FAILED, e);
+        }
+        nextEmitSeq = to;
+        lastEmitAt = now;
+    }
+
+    private long currentInterval() {
+        if (foreground) return FOREGROUND_INTERVAL_MS;
+        return screenOn ? SCREEN_ON_INTERVAL_MS : BACKGROUND_INTERVAL_MS;
+    }
+
+    private void reschedule(long delayMs) {
+        cancel();
+        handler.postDelayed(sampleTask, delayMs);
+        scheduled = true;
+    }
+
+    private void cancel() {
+        if (scheduled) {
+            handler.removeCallbacks(sampleTask);
+            scheduled = false;
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package com.nodexvpn.app.vpn;
+
+import android.os.SystemClock;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Contabilidad persistente del tráfico del túnel, por hora y por día
+ * (con desglose por servidor).
+ *
+ * Los rollups viven en memoria en ranuras de tamaño fijo indexadas por
+ * hora/día, así que una consulta cuesta lo mismo con una semana de historial
+ * que con dos años. Lo nuevo se acumula en memoria y se añade una vez por
+ * minuto a un log binario append-only (registros con CRC32); al abrir se
+ * reproduce el log y se recorta una cola cortada. Cuando el log pasa de
+ * {@link #MAX_LOG_BYTES} se compacta: los rollups se escriben de forma
+ * atómica y el log empieza de cero con una generación nueva, de modo que un
+ * corte a mitad de compactar nunca cuenta dos veces el mismo tráfico.
+ */
+public final class UsageStore {
+
+    public static final String DIR_NAME = "usage";
+    private static final String LOG_FILE = "usage.log";
+    private static final String ROLLUP_FILE = "usage_rollup.bin";
+
+    private static final int LOG_MAGIC = 0x4e58554c; // "NXUL"
+    private static final int ROLLUP_MAGIC = 0x4e585552; // "NXUR"
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER_BYTES = 4 + 4 + 8;
+    private static final byte RECORD_SERVER = 1;
+    private static final byte RECORD_USAGE = 2;
+    private static final int USAGE_RECORD_BYTES = 1 + 4 + 4 + 8 + 8 + 4;
+
+    public static final long HOUR_MS = 3_600_000L;
+    public static final long DAY_MS = 24 * HOUR_MS;
+    /** Retención: 60 días por hora y 2 años por día */
+    public static final int HOURLY_SLOTS = 60 * 24;
+    public static final int DAILY_SLOTS = 730;
+    public static final long FLUSH_INTERVAL_MS = 60_000;
+    /** Tamaño del log a partir del cual se compacta */
+    public static final long MAX_LOG_BYTES = 256 * 1024;
+    private static final int MAX_ROLLUP_BYTES = 8 * 1024 * 1024;
+    /** Servidores distintos; los que no caben se cuentan como "other" */
+    private static final int MAX_SERVERS = 1000;
+    private static final int OTHER_SERVER = 0;
+    private static final String OTHER_NAME = "other";
+    /** Bytes UTF-8 de un nombre de servidor: lo que cabe en el registro del log */
+    static final int MAX_NAME_BYTES = 255;
+
+    public enum Granularity {
+        HOUR, DAY;
+
+        public static Granularity parse(String value) {
+            return "hour".equalsIgnoreCase(value) ? HOUR : DAY;
+        }
+    }
+
+    public static final class Bucket {
+        /** Inicio de la hora (UTC) o del día local, en epoch ms */
+        public final long startMs;
+        public final long rxBytes;
+        public final long txBytes;
+        /** Servidor -> {rx, tx}; solo con DAY */
+        public final Map<String, long[]> byServer;
+
+        Bucket(long startMs, long rxBytes, long txBytes, Map<String, long[]> byServer) {
+            this.startMs = startMs;
+            this.rxBytes = rxBytes;
+            this.txBytes = txBytes;
+            this.byServer = byServer;
+        }
+    }
+
+    private static final class DaySlot {
+        long day = Long.MIN_VALUE;
+        long rx;
+        long tx;
+        final Map<Integer, long[]> servers = new HashMap<>();
+
+        void reset(long day) {
+            this.day = day;
+            rx = 0;
+            tx = 0;
+            servers.clear();
+        }
+    }
+
+    private final File logFile;
+    private final File rollupFile;
+    private final TimeZone zone = TimeZone.getDefault();
+    private final ScheduledExecutorService writer =
+        Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "NodexUsageStore"));
+
+    // Rollups y diccionario: protegidos por this
+    private final long[] hourIndex = new long[HOURLY_SLOTS];
+    private final long[] hourRx = new long[HOURLY_SLOTS];
+    private final long[] hourTx = new long[HOURLY_SLOTS];
+    private final DaySlot[] days = new DaySlot[DAILY_SLOTS];
+    private final Map<String, Integer> serverIds = new HashMap<>();
+    private final List<String> serverNames = new ArrayList<>();
+    // Pendiente de escribir: (hora, servidor) -> {rx, tx}, y servidores nuevos
+    private final Map<Long, long[]> pending = new LinkedHashMap<>();
+    private final List<Integer> pendingServers = new ArrayList<>();
+
+    // Log: protegido por ioLock (solo el hilo writer en la práctica)
+    private final Object ioLock = new Object();
+    private long generation;
+    private long logBytes;
+
+    // Estado del hilo del sampler
+    private long lastRx = 0;
+    private long lastTx = 0;
+
+    private UsageStore(File dir) {
+        this.logFile = new File(dir, LOG_FILE);
+        this.rollupFile = new File(dir, ROLLUP_FILE);
+        Arrays.fill(hourIndex, Long.MIN_VALUE);
+        for (int i = 0; i < days.length; i++) {
+            days[i] = new DaySlot();
+        }
+        serverNames.add(OTHER_NAME);
+        serverIds.put(OTHER_NAME, OTHER_SERVER);
+    }
+
+    /**
+     * Cargar rollups y log de {@code dir} y empezar a escribir en segundo plano
+     */
+    public static UsageStore open(File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            VpnLog.w(Event.USAGE_DIR_FAILED, dir);
+        }
+        UsageStore store = new UsageStore(dir);
+        long start = SystemClock.elapsedRealtime();
+        long covered = store.loadRollups();
+        synchronized (store.ioLock) {
+            store.replayLog(covered);
+        }
+        VpnLog.d(Event.USAGE_LOADED, SystemClock.elapsedRealtime() - start);
+        store.writer.scheduleWithFixedDelay(store::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        return store;
+    }
+
+    /**
+     * Lote del sampler: los contadores del túnel son acumulados, aquí se
+     * pasan a deltas. Se llama en el hilo del sampler.
+     */
+    public void onSamples(StatsRingBuffer buffer, long fromSeq, long toSeq, String server) {
+        long nowEpoch = System.currentTimeMillis();
+        long nowElapsed = SystemClock.elapsedRealtime();
+        for (long seq = fromSeq; seq < toSeq; seq++) {
+            long rx = buffer.rxBytesAt(seq);
+            long tx = buffer.txBytesAt(seq);
+            // Si el contador se reinició (túnel recreado), el delta es el valor actual
+            long rxDelta = rx >= lastRx ? rx - lastRx : rx;
+            long txDelta = tx >= lastTx ? tx - lastTx : tx;
+            lastRx = rx;
+            lastTx = tx;
+            if (rxDelta > 0 || txDelta > 0) {
+                record(nowEpoch - (nowElapsed - buffer.timestampAt(seq)), server, rxDelta, txDelta);
+            }
+        }
+    }
+
+    /**
+     * Sumar tráfico; visible enseguida en las consultas, escrito en el próximo flush
+     */
+    public synchronized void record(long epochMs, String server, long rxBytes, long txBytes) {
+        int id = serverId(server);
+        long hour = Math.floorDiv(epochMs, HOUR_MS);
+        add(hour, id, rxBytes, txBytes);
+        long key = hour * 1024 + id;
+        long[] totals = pending.get(key);
+        if (totals == null) {
+            totals = new long[2];
+            pending.put(key, totals);
+        }
+        totals[0] += rxBytes;
+        totals[1] += txBytes;
+    }
+
+    /**
+     * Buckets con tráfico en [fromMs, toMs). El coste depende del rango
+     * (acotado por la retención), no de la longitud del historial.
+     */
+    public synchronized List<Bucket> getHistory(long fromMs, long toMs, Granularity granularity) {
+        List<Bucket> result = new ArrayList<>();
+        if (toMs <= fromMs) return result;
+        if (granularity == Granularity.HOUR) {
+            long last = Math.floorDiv(toMs - 1, HOUR_MS);
+            long first = Math.max(Math.floorDiv(fromMs, HOUR_MS), last - HOURLY_SLOTS + 1);
+            for (long hour = first; hour <= last; hour++) {
+                int slot = (int) Math.floorMod(hour, (long) HOURLY_SLOTS);
+                if (hourIndex[slot] != hour) continue;
+                result.add(new Bucket(hour * HOUR_MS, hourRx[slot], hourTx[slot], Collections.emptyMap()));
+            }
+        } else {
+            long last = dayOf(toMs - 1);
+            long first = Math.max(dayOf(fromMs), last - DAILY_SLOTS + 1);
+            for (long day = first; day <= last; day++) {
+                DaySlot slot = days[(int) Math.floorMod(day, (long) DAILY_SLOTS)];
+                if (slot.day != day) continue;
+                Map<String, long[]> byServer = new HashMap<>();
+                for (Map.Entry<Integer, long[]> entry : slot.servers.entrySet()) {
+                    byServer.put(serverNames.get(entry.getKey()), entry.getValue().clone());
+                }
+                result.add(new Bucket(dayStart(day), slot.rx, slot.tx, byServer));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Escribir lo pendiente sin esperar al próximo flush (p. ej. al desconectar)
+     */
+    public void flushAsync() {
+        try {
+            writer.execute(this::flush);
+        } catch (RuntimeException e) {
+            // Ya cerrado
+        }
+    }
+
+    /**
+     * Escribir lo pendiente y parar el hilo de escritura
+     */
+    public void close() {
+        flushAsync();
+        writer.shutdown();
+    }
+
+    private int serverId(String server) {
+        // Recortado aquí y no al escribir: memoria, log y rollups usan el mismo nombre
+        String name = server != null ? truncate(server) : OTHER_NAME;
+        Integer id = serverIds.get(name);
+        if (id != null) return id;
+        if (serverNames.size() >= MAX_SERVERS) return OTHER_SERVER;
+        int newId = serverNames.size();
+        serverNames.add(name);
+        serverIds.put(name, newId);
+        pendingServers.add(newId);
+        return newId;
+    }
+
+    /** Los primeros MAX_NAME_BYTES bytes UTF-8 sin partir un carácter */
+    static String truncate(String name) {
+        if (name.length() <= MAX_NAME_BYTES / 3) return name;
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_NAME_BYTES) return name;
+        int end = MAX_NAME_BYTES;
+        // bytes[end] es el primero que se corta: retroceder si es continuación
+        while (end > 0 && (bytes[end] & 0xc0) == 0x80) end--;
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private void add(long hour, int serverId, long rx, long tx) {
+        int slot = (int) Math.floorMod(hour, (long) HOURLY_SLOTS);
+        // Más viejo que la retención por hora: solo cuenta en el día
+        if (hour >= hourIndex[slot]) {
+            if (hourIndex[slot] != hour) {
+                hourIndex[slot] = hour;
+                hourRx[slot] = 0;
+                hourTx[slot] = 0;
+            }
+            hourRx[slot] += rx;
+            hourTx[slot] += tx;
+        }
+
+        long day = dayOf(hour * HOUR_MS);
+        DaySlot daySlot = days[(int) Math.floorMod(day, (long) DAILY_SLOTS)];
+        if (daySlot.day != day) {
+            if (day < daySlot.day) return;
+            daySlot.reset(day);
+        }
+        daySlot.rx += rx;
+        daySlot.tx += tx;
+        long[] perServer = daySlot.servers.get(serverId);
+        if (perServer == null) {
+            perServer = new long[2];
+            daySlot.servers.put(serverId, perServer);
+        }
+        perServer[0] += rx;
+        perServer[1] += tx;
+    }
+
+    /** Día local (según la zona horaria al abrir) */
+    private long dayOf(long epochMs) {
+        return Math.floorDiv(epochMs + zone.getOffset(epochMs), DAY_MS);
+    }
+
+    private long dayStart(long day) {
+        long utcMidnight = day * DAY_MS;
+        return utcMidnight - zone.getOffset(utcMidnight);
+    }
+
+    // ---- Escritura ----
+
+    void flush() {
+        byte[] chunk;
+        synchronized (this) {
+            if (pending.isEmpty() && pendingServers.isEmpty()) return;
+            chunk = encodePending();
+            pending.clear();
+            pendingServers.clear();
+        }
+        synchronized (ioLock) {
+            try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+                out.write(chunk);
+                out.getFD().sync();
+                logBytes += chunk.length;
+            } catch (IOException e) {
+                VpnLog.e(Event.USAGE_WRITE_FAILED, e);
+                return;
+            }
+            if (logBytes > MAX_LOG_BYTES) {
+                compact();
+            }
+        }
+    }
+
+    private byte[] encodePending() {
+        ByteBuffer buffer = ByteBuffer.allocate(pendingServers.size() * 512 + pending.size() * USAGE_RECORD_BYTES);
+        CRC32 crc = new CRC32();
+        for (int id : pendingServers) {
+            byte[] name = serverNames.get(id).getBytes(StandardCharsets.UTF_8);
+            int start = buffer.position();
+            buffer.put(RECORD_SERVER).putInt(id).put((byte) name.length).put(name);
+            putCrc(buffer, start, crc);
+        }
+        for (Map.Entry<Long, long[]> entry : pending.entrySet()) {
+            long key = entry.getKey();
+            int start = buffer.position();
+            buffer.put(RECORD_USAGE)
+                .putInt((int) Math.floorDiv(key, 1024L))
+                .putInt((int) Math.floorMod(key, 1024L))
+                .putLong(entry.getValue()[0])
+                .putLong(entry.getValue()[1]);
+            putCrc(buffer, start, crc);
+        }
+        byte[] chunk = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(chunk);
+        return chunk;
+    }
+
+    private static void putCrc(ByteBuffer buffer, int start, CRC32 crc) {
+        crc.reset();
+        crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Guardar los rollups (que ya incluyen lo pendiente) y empezar un log
+     * nuevo. Con ioLock tomado.
+     */
+    void compact() {
+        byte[] rollups;
+        long covered;
+        synchronized (this) {
+            covered = generation;
+            rollups = encodeRollups(covered);
+            // Lo pendiente ya está en los rollups: no debe ir al log nuevo
+            pending.clear();
+            pendingServers.clear();
+        }
+        try {
+            writeAtomically(rollupFile, rollups);
+            startLog(covered + 1);
+            VpnLog.d(Event.USAGE_COMPACTED, rollups.length);
+        } catch (IOException e) {
+            VpnLog.e(Event.USAGE_COMPACT_FAILED, e);
+        }
+    }
+
+    private void startLog(long newGeneration) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES);
+        header.putInt(LOG_MAGIC).putInt(VERSION).putLong(newGeneration);
+        writeAtomically(logFile, header.array());
+        generation = newGeneration;
+        logBytes = LOG_HEADER_BYTES;
+    }
+
+    private byte[] encodeRollups(long covered) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(ROLLUP_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(covered);
+            out.writeInt(serverNames.size());
+            for (String name : serverNames) {
+                out.writeUTF(name);
+            }
+            int hours = 0;
+            for (long index : hourIndex) {
+                if (index != Long.MIN_VALUE) hours++;
+            }
+            out.writeInt(hours);
+            for (int i = 0; i < HOURLY_SLOTS; i++) {
+                if (hourIndex[i] == Long.MIN_VALUE) continue;
+                out.writeLong(hourIndex[i]);
+                out.writeLong(hourRx[i]);
+                out.writeLong(hourTx[i]);
+            }
+            int dayCount = 0;
+            for (DaySlot slot : days) {
+                if (slot.day != Long.MIN_VALUE) dayCount++;
+            }
+            out.writeInt(dayCount);
+            for (DaySlot slot : days) {
+                if (slot.day == Long.MIN_VALUE) continue;
+                out.writeLong(slot.day);
+                out.writeLong(slot.rx);
+                out.writeLong(slot.tx);
+                out.writeInt(slot.servers.size());
+                for (Map.Entry<Integer, long[]> entry : slot.servers.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeLong(entry.getValue()[0]);
+                    out.writeLong(entry.getValue()[1]);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream no lanza
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeAtomically(File file, byte[] data) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            stream.write(data);
+            stream.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("No se pudo reemplazar " + file.getName());
+        }
+    }
+
+    // ---- Carga ----
+
+    /**
+     * Cargar los rollups compactados; devuelve la generación de log que ya
+     * incluyen, o -1 si no hay
+     */
+    private long loadRollups() {
+        byte[] data = readFile(rollupFile, MAX_ROLLUP_BYTES);
+        if (data == null || data.length < 8) return -1;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != ROLLUP_MAGIC || in.readInt() != VERSION) {
+                VpnLog.w(Event.USAGE_ROLLUPS_IGNORED, "formato desconocido");
+                return -1;
+            }
+            if (ByteBuffer.wrap(data, data.length - 8, 8).getLong() != crc.getValue()) {
+                VpnLog.w(Event.USAGE_ROLLUPS_IGNORED, "CRC");
+                return -1;
+            }
+            long covered = in.readLong();
+            int servers = in.readInt();
+            serverNames.clear();
+            serverIds.clear();
+            for (int i = 0; i < servers; i++) {
+                // Rollups de versiones que guardaban el nombre entero
+                String name = truncate(in.readUTF());
+                serverNames.add(name);
+                serverIds.put(name, i);
+            }
+            int hours = in.readInt();
+            for (int i = 0; i < hours; i++) {
+                long hour = in.readLong();
+                int slot = (int) Math.floorMod(hour, (long) HOURLY_SLOTS);
+                hourIndex[slot] = hour;
+                hourRx[slot] = in.readLong();
+                hourTx[slot] = in.readLong();
+            }
+            int dayCount = in.readInt();
+            for (int i = 0; i < dayCount; i++) {
+                long day = in.readLong();
+                DaySlot slot = days[(int) Math.floorMod(day, (long) DAILY_SLOTS)];
+                slot.reset(day);
+                slot.rx = in.readLong();
+                slot.tx = in.readLong();
+                int entries = in.readInt();
+                for (int j = 0; j < entries; j++) {
+                    slot.servers.put(in.readInt(), new long[] {in.readLong(), in.readLong()});
+                }
+            }
+            generation = covered;
+            return covered;
+        } catch (IOException e) {
+            VpnLog.w(Event.USAGE_ROLLUPS_INVALID, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Reproducir el log posterior a los rollups y recortar una cola cortada
+     */
+    private void replayLog(long covered) {
+        byte[] data = readFile(logFile, MAX_ROLLUP_BYTES);
+        ByteBuffer buffer = data != null ? ByteBuffer.wrap(data) : null;
+        if (buffer == null || data.length < LOG_HEADER_BYTES
+                || buffer.getInt() != LOG_MAGIC || buffer.getInt() != VERSION) {
+            resetLog(covered);
+            return;
+        }
+        long logGeneration = buffer.getLong();
+        if (logGeneration <= covered) {
+            // Compactación interrumpida: los rollups ya incluyen este log
+            resetLog(covered);
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+        int records = 0;
+        int valid = buffer.position();
+        synchronized (this) {
+            while (buffer.remaining() > 0) {
+                int start = buffer.position();
+                try {
+                    byte type = buffer.get();
+                    int id;
+                    long hour = 0;
+                    long rx = 0;
+                    long tx = 0;
+                    String name = null;
+                    if (type == RECORD_SERVER) {
+                        id = buffer.getInt();
+                        byte[] raw = new byte[buffer.get() & 0xff];
+                        buffer.get(raw);
+                        name = new String(raw, StandardCharsets.UTF_8);
+                    } else if (type == RECORD_USAGE) {
+                        hour = buffer.getInt();
+                        id = buffer.getInt();
+                        rx = buffer.getLong();
+                        tx = buffer.getLong();
+                    } else {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(data, start, buffer.position() - start);
+                    if (buffer.getInt() != (int) crc.getValue()) break;
+
+                    if (name != null) {
+                        // Los ids se asignan en orden; uno fuera de orden es basura
+                        if (id != serverNames.size()) break;
+                        serverNames.add(name);
+                        serverIds.put(name, id);
+                    } else {
+                        if (id < 0 || id >= serverNames.size()) break;
+                        add(hour, id, rx, tx);
+                    }
+                    records++;
+                    valid = buffer.position();
+                } catch (BufferUnderflowException e) {
+                    break;
+                }
+            }
+        }
+        generation = logGeneration;
+        logBytes = valid;
+        if (valid < data.length) {
+            VpnLog.w(Event.USAGE_LOG_TRUNCATED, data.length - valid);
+            try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+                file.setLength(valid);
+            } catch (IOException e) {
+                VpnLog.e(Event.USAGE_LOG_TRIM_FAILED, e);
+            }
+        }
+        VpnLog.d(Event.USAGE_REPLAYED, records, logGeneration);
+        if (logBytes > MAX_LOG_BYTES) {
+            compact();
+        }
+    }
+
+    private void resetLog(long covered) {
+        try {
+            startLog(Math.max(covered, generation) + 1);
+        } catch (IOException e) {
+            VpnLog.e(Event.USAGE_LOG_CREATE_FAILED, e);
+        }
+    }
+
+    private static byte[] readFile(File file, int maxSize) {
+        long length = file.length();
+        if (length <= 0 || length > maxSize) return null;
+        byte[] data = new byte[(int) length];
+        try (InputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) return null;
+                read += n;
+            }
+            return data;
+        } catch (IOException e) {
+            VpnLog.w(Event.USAGE_READ_FAILED, file.getName(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,652 @@
+package com.nodexvpn.app.vpn;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Log estructurado del VPN: un {@link Event} y hasta tres campos numéricos,
+ * más un detalle y un extra opcionales (objetos ya existentes: enums,
+ * mensajes, excepciones).
+ *
+ * Con el nivel desactivado una llamada vuelve en la primera línea, sin
+ * construir strings ni asignar memoria (no hay varargs ni boxing). Activado,
+ * el registro se copia a un buffer circular preasignado; el texto se forma
+ * en el hilo "NodexLog", que lo escribe cada pocos segundos en un fichero
+ * acotado (con una rotación) y, si se pidió, a logcat. Las claves WireGuard
+ * (base64 o hex de 32 bytes) se redactan al formatear.
+ */
+public final class VpnLog {
+
+    private static final String TAG = "NodexVpn";
+
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int NONE = 7;
+
+    public static final String DIR_NAME = "logs";
+
+    private static final int CAPACITY = 2048; // potencia de 2
+    private static final int MASK = CAPACITY - 1;
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static final long MAX_FILE_BYTES = 256 * 1024;
+
+    // Claves de 32 bytes: base64 (44 caracteres con '=') o hex (64)
+    private static final Pattern BASE64_KEY =
+        Pattern.compile("(?<![A-Za-z0-9+/])[A-Za-z0-9+/]{42}[AEIMQUYcgkosw048]=(?![A-Za-z0-9+/=])");
+    private static final Pattern HEX_KEY = Pattern.compile("(?<![0-9a-fA-F])[0-9a-fA-F]{64}(?![0-9a-fA-F])");
+
+    /**
+     * Eventos: emoji para logcat, nombre del detalle y de los campos
+     */
+    public enum Event {
+        // Configuración
+        CONFIG_PARSE("🧾", null, "chars"),
+        CONFIG_PARSED("🧾", null),
+        CONFIG_PARSE_FAILED("❌", "error"),
+        CONFIG_INVALID("❌", "error"),
+        CONFIG_READ_FAILED("❌", "error"),
+        CONFIG_NOT_CACHED("⚠️", "key"),
+        CONFIG_SENT("📋", null),
+
+        // Servicio
+        SERVICE_CREATED("🚀", null),
+        SERVICE_DESTROYED("🔚", null),
+        ACTION_RECEIVED("🔄", "action"),
+        COMMAND_DONE("⏱️", "command", "queueMs", "totalMs"),
+        NOTIFICATION_STARTED("📱", null),
+        STATUS_SENT("📡", "status", "connected"),
+        STATS_MEMORY_FAILED("❌", "error"),
+        VPN_REVOKED("🚫", null),
+        SERVICE_CALL_FAILED("❌", "error"),
+        UNBIND_FAILED("⚠️", "error"),
+        NOTIFICATION_UPDATE_FAILED("⚠️", "error"),
+
+        // Ajustes enviados desde JS
+        FAILOVER_SERVERS("🔀", null, "count"),
+        FAILOVER_SERVER_IGNORED("⚠️", "error"),
+        PMTU_CONFIGURED("📏", null, "enabled", "echoPort"),
+        KEY_ROTATION_CONFIGURED("🔑", null, "enabled", "intervalMin"),
+        BACKEND_PREFERENCE("🧩", "preference"),
+        LOG_LEVEL("📝", "invalid", "level"),
+
+        // Restauración en frío
+        RESTORE_SKIPPED("♻️", "reason"),
+        RESTORE_NO_PERMISSION("⚠️", "reason"),
+        RESTORE_START("♻️", "reason", "savedAgoSec"),
+        SNAPSHOT_SAVE_FAILED("⚠️", "error"),
+        SNAPSHOT_READ_FAILED("⚠️", "error"),
+        SNAPSHOT_IGNORED("⚠️", "reason"),
+        SNAPSHOT_INVALID("⚠️", "error"),
+        BOOT_IDLE("💤", "action"),
+        BOOT_RESTORE("♻️", "action"),
+        TILE_DISCONNECT("🔌", null),
+        TILE_NO_PERMISSION("🔐", null),
+        TILE_NO_CONFIG("📋", null),
+        TILE_QUICK_CONNECT("⚡", null),
+
+        // Connect
+        CONNECT_REQUESTED("🚀", null),
+        PERMISSION_REQUESTED("📋", null),
+        PERMISSION_RESULT("📱", null, "resultCode"),
+        PERMISSION_GRANTED("✅", null),
+        PERMISSION_DENIED("❌", null),
+        BACKEND_INIT_FAILED("❌", "error"),
+        BACKEND_SELECTED("🧩", "backend", "root", "ms"),
+        CONNECT_START("🚀", "backend"),
+        CONNECT_RETRY_RESOLVE("⚠️", "error"),
+        ENDPOINTS_RESOLVED("🌐", null, "ms"),
+        SET_STATE_DONE("✅", "state"),
+        TUNNEL_STATE("🔄", "state"),
+        TUNNEL_RESTORED("♻️", "phase", "ms"),
+        TUNNEL_UP_AGAIN("🔁", null),
+        CONNECTED("🎉", null),
+        CONNECT_UNEXPECTED_STATE("⚠️", "state"),
+        CONNECT_SUPERSEDED("↩️", null),
+        CONNECT_FAILED("❌", "error"),
+        HANDSHAKE_READ_FAILED("⚠️", "error"),
+        CONNECT_METRICS_READ_FAILED("⚠️", "error"),
+        CONNECT_METRICS_SAVE_FAILED("⚠️", "error"),
+        CONNECT_METRICS_REPLACE_FAILED("⚠️", "file"),
+
+        // Cambio de servidor, re-enlace y rotación de clave
+        SWITCH_REQUESTED("🔀", null),
+        SWITCH_AS_CONNECT("🔀", null),
+        SWITCH_NOOP("🔀", null),
+        SWITCH_START("🔀", "kind"),
+        SWITCH_DONE("✅", null, "setStateMs", "blackholeMs"),
+        SWITCH_FAILED("❌", "error"),
+        REBIND_NOOP("📶", null),
+        REBIND_MTU("📏", null, "mtu"),
+        REBIND_DONE("✅", null, "handshakeMs", "outageMs"),
+        REBIND_NO_HANDSHAKE("⚠️", null, "timeoutMs"),
+        REBIND_FAILED("❌", "error"),
+        PMTU_RESULT("📏", "server"),
+        PMTU_FAILED("⚠️", "server"),
+        KEY_ROTATING("🔑", null, "registrationMs"),
+        KEY_ROTATED("✅", null, "setStateMs", "blackholeMs"),
+        KEY_ROTATION_DROPPED("🔑", null),
+        KEY_REGISTRATION_FAILED("⚠️", "error"),
+        KEY_REGISTRATION_UNSUPPORTED("⚠️", null),
+        KEY_CONFIG_INVALID("❌", "error"),
+
+        // Pool de claves
+        KEY_POOL_REFILLED("🔑", null, "count", "us"),
+        KEY_POOL_EMPTY("🔑", null),
+        KEY_POOL_READ_FAILED("⚠️", "error"),
+        KEY_POOL_UNAVAILABLE("⚠️", "error"),
+        KEY_POOL_WRITE_FAILED("⚠️", "error"),
+        KEY_POOL_COMMIT_FAILED("⚠️", "error"),
+        KEY_POOL_GIVE_BACK_FAILED("⚠️", "error"),
+        KEY_POOL_DISCARDED("⚠️", "error"),
+
+        // Red y watchdog del handshake
+        NETWORK_TRACKING("📶", null),
+        NETWORK_INITIAL("📶", "network"),
+        NETWORK_CHANGED("🔀", "network"),
+        NETWORK_LOST("📵", "network"),
+        NETWORK_CALLBACK_FAILED("❌", "error"),
+        NETWORK_UNREGISTER_FAILED("⚠️", "error"),
+        WATCHDOG_STALLED("🚨", "reason"),
+        WATCHDOG_RECONNECT("🔁", null, "attempt"),
+        WATCHDOG_FAILOVER("🔀", null, "attempt", "backup"),
+        WATCHDOG_BACKOFF("⏳", null, "attempts", "delayMs"),
+        WATCHDOG_RECOVERED("✅", "incident"),
+        WATCHDOG_ABANDONED("⏹️", "incident"),
+
+        // Disconnect
+        DISCONNECT_REQUESTED("🔌", null),
+        DISCONNECT_START("🔌", null),
+        DISCONNECTED("✅", "state"),
+        DISCONNECT_FAILED("❌", "error"),
+
+        // Enlace con el proceso :vpn
+        CLIENT_BOUND("🔗", null),
+        CLIENT_BIND_FAILED("❌", null),
+        CLIENT_LISTENER_FAILED("⚠️", "error"),
+        CLIENT_SERVICE_DISCONNECTED("⚠️", null),
+        CLIENT_BINDING_DIED("⚠️", null),
+
+        // Módulo de React Native
+        MODULE_READY("✅", null),
+        STATUS_RECEIVED("📡", "status", "connected"),
+        STATUS_IGNORED("⏭️", "status"),
+        STATUS_READ_FAILED("❌", "error"),
+        PROBE_DONE("📶", null, "servers", "ms"),
+        PROBE_FAILED("❌", "error"),
+        PREFETCH_SKIPPED("⏭️", "state"),
+        SOAK_START("🧪", "target", "cycles"),
+        SOAK_CYCLE("🧪", null, "cycle", "p50Us"),
+        SOAK_SAMPLE("🧪", "process", "heapKb", "threads", "fds"),
+        SOAK_STEP_FAILED("⚠️", "error"),
+        SOAK_PASSED("✅", null, "cycles", "seconds"),
+        SOAK_FAILED("❌", "error"),
+        DIAGNOSTICS_FAILED("❌", "error"),
+
+        // Aprovisionamiento de configuración
+        PROVISION_DOWNLOADED("📋", "host", "ms"),
+        PROVISION_NOT_MODIFIED("📋", "host", "ms"),
+        PROVISION_PREFETCHED("📥", null, "count", "ms"),
+        PROVISION_PREFETCH_FAILED("⚠️", "host"),
+        PROVISION_REVALIDATE_FAILED("⚠️", "host"),
+        PROVISION_CACHE_UNREADABLE("⚠️", "host"),
+        PROVISION_STORE_FAILED("⚠️", "host"),
+        PROVISION_CLIENT_ID_FAILED("⚠️", "error"),
+
+        // Estadísticas e historial de uso
+        STATS_READ_FAILED("⚠️", "error"),
+        STATS_LISTENER_FAILED("⚠️", "error"),
+        STATS_MEMORY_OPEN_FAILED("⚠️", "error"),
+        USAGE_LOADED("📊", null, "ms"),
+        USAGE_REPLAYED("📊", null, "records", "generation"),
+        USAGE_COMPACTED("🗜️", null, "bytes"),
+        USAGE_DIR_FAILED("⚠️", "dir"),
+        USAGE_READ_FAILED("⚠️", "file"),
+        USAGE_ROLLUPS_IGNORED("⚠️", "reason"),
+        USAGE_ROLLUPS_INVALID("⚠️", "error"),
+        USAGE_LOG_TRUNCATED("⚠️", null, "bytes"),
+        USAGE_LOG_TRIM_FAILED("❌", "error"),
+        USAGE_LOG_CREATE_FAILED("❌", "error"),
+        USAGE_WRITE_FAILED("❌", "error"),
+        USAGE_COMPACT_FAILED("❌", "error");
+
+        final String emoji;
+        final String detail;
+        final String[] fields;
+
+        Event(String emoji, String detail, String... fields) {
+            this.emoji = emoji;
+            this.detail = detail;
+            this.fields = fields;
+        }
+    }
+
+    // Buffer circular en arrays paralelos: escribir no asigna
+    private static final long[] times = new long[CAPACITY];
+    private static final byte[] levels = new byte[CAPACITY];
+    private static final Event[] events = new Event[CAPACITY];
+    private static final Object[] details = new Object[CAPACITY];
+    private static final Object[] extras = new Object[CAPACITY];
+    private static final long[] fieldA = new long[CAPACITY];
+    private static final long[] fieldB = new long[CAPACITY];
+    private static final long[] fieldC = new long[CAPACITY];
+    private static final long[] threads = new long[CAPACITY];
+    private static long written = 0;
+    private static long flushed = 0;
+
+    private static volatile int level = INFO;
+    private static volatile boolean logcat = false;
+    private static File file;
+    private static ScheduledExecutorService executor;
+
+    private VpnLog() {
+    }
+
+    /**
+     * Fichero de este proceso (vpn-ui.log, vpn-vpn.log). En builds de
+     * depuración nivel DEBUG y volcado a logcat; en release INFO (ciclo de
+     * vida, comandos y sus resultados, avisos y errores) y solo el fichero.
+     * Antes de llamarlo los registros solo quedan en memoria.
+     */
+    public static synchronized void initialize(File dir, String process, boolean debugBuild) {
+        if (executor != null) return;
+        dir.mkdirs();
+        file = new File(dir, "vpn-" + process + ".log");
+        logcat = debugBuild;
+        level = debugBuild ? DEBUG : INFO;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "NodexLog");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(VpnLog::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void setLevel(int newLevel) {
+        level = Math.max(DEBUG, Math.min(NONE, newLevel));
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static boolean isLoggable(int atLevel) {
+        return atLevel >= level;
+    }
+
+    /** Campo booleano como 1/0 */
+    public static long flag(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    // ---- DEBUG ----
+
+    public static void d(Event event) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, null, null, 0, 0, 0);
+    }
+
+    public static void d(Event event, long a) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, null, null, a, 0, 0);
+    }
+
+    public static void d(Event event, long a, long b) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, null, null, a, b, 0);
+    }
+
+    public static void d(Event event, long a, long b, long c) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, null, null, a, b, c);
+    }
+
+    public static void d(Event event, Object detail) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, detail, null, 0, 0, 0);
+    }
+
+    public static void d(Event event, Object detail, long a) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, detail, null, a, 0, 0);
+    }
+
+    public static void d(Event event, Object detail, long a, long b) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, detail, null, a, b, 0);
+    }
+
+    public static void d(Event event, Object detail, long a, long b, long c) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, detail, null, a, b, c);
+    }
+
+    public static void d(Event event, Object detail, Object extra) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, detail, extra, 0, 0, 0);
+    }
+
+    public static void d(Event event, Object detail, Object extra, long a) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, detail, extra, a, 0, 0);
+    }
+
+    public static void d(Event event, Object detail, Object extra, long a, long b) {
+        if (DEBUG < level) return;
+        append(DEBUG, event, detail, extra, a, b, 0);
+    }
+
+    // ---- INFO: ciclo de vida y resultado de los comandos, lo que queda en release ----
+
+    public static void i(Event event) {
+        if (INFO < level) return;
+        append(INFO, event, null, null, 0, 0, 0);
+    }
+
+    public static void i(Event event, long a) {
+        if (INFO < level) return;
+        append(INFO, event, null, null, a, 0, 0);
+    }
+
+    public static void i(Event event, long a, long b) {
+        if (INFO < level) return;
+        append(INFO, event, null, null, a, b, 0);
+    }
+
+    public static void i(Event event, Object detail) {
+        if (INFO < level) return;
+        append(INFO, event, detail, null, 0, 0, 0);
+    }
+
+    public static void i(Event event, Object detail, long a) {
+        if (INFO < level) return;
+        append(INFO, event, detail, null, a, 0, 0);
+    }
+
+    public static void i(Event event, Object detail, Object extra) {
+        if (INFO < level) return;
+        append(INFO, event, detail, extra, 0, 0, 0);
+    }
+
+    public static void i(Event event, Object detail, Object extra, long a) {
+        if (INFO < level) return;
+        append(INFO, event, detail, extra, a, 0, 0);
+    }
+
+    public static void i(Event event, Object detail, Object extra, long a, long b) {
+        if (INFO < level) return;
+        append(INFO, event, detail, extra, a, b, 0);
+    }
+
+    // ---- WARN ----
+
+    public static void w(Event event) {
+        if (WARN < level) return;
+        append(WARN, event, null, null, 0, 0, 0);
+    }
+
+    public static void w(Event event, long a) {
+        if (WARN < level) return;
+        append(WARN, event, null, null, a, 0, 0);
+    }
+
+    public static void w(Event event, Object detail) {
+        if (WARN < level) return;
+        append(WARN, event, detail, null, 0, 0, 0);
+    }
+
+    public static void w(Event event, Object detail, long a) {
+        if (WARN < level) return;
+        append(WARN, event, detail, null, a, 0, 0);
+    }
+
+    public static void w(Event event, Object detail, Object extra) {
+        if (WARN < level) return;
+        append(WARN, event, detail, extra, 0, 0, 0);
+    }
+
+    // ---- ERROR ----
+
+    public static void e(Event event) {
+        if (ERROR < level) return;
+        append(ERROR, event, null, null, 0, 0, 0);
+    }
+
+    public static void e(Event event, Object detail) {
+        if (ERROR < level) return;
+        append(ERROR, event, detail, null, 0, 0, 0);
+    }
+
+    public static void e(Event event, Object detail, Object extra) {
+        if (ERROR < level) return;
+        append(ERROR, event, detail, extra, 0, 0, 0);
+    }
+
+    private static void append(int recordLevel, Event event, Object detail, Object extra, long a, long b, long c) {
+        long now = System.currentTimeMillis();
+        long thread = Thread.currentThread().getId();
+        boolean flushSoon;
+        synchronized (VpnLog.class) {
+            int i = (int) (written & MASK);
+            times[i] = now;
+            levels[i] = (byte) recordLevel;
+            events[i] = event;
+            details[i] = detail;
+            extras[i] = extra;
+            fieldA[i] = a;
+            fieldB[i] = b;
+            fieldC[i] = c;
+            threads[i] = thread;
+            written++;
+            flushSoon = written - flushed == CAPACITY / 2;
+        }
+        if (logcat) {
+            // Solo en builds de depuración: aquí sí se construye el texto
+            Log.println(recordLevel, TAG, redact(format(event, detail, extra, a, b, c, true)));
+        }
+        if (flushSoon) {
+            ScheduledExecutorService current = executor;
+            if (current != null) current.execute(VpnLog::flush);
+        }
+    }
+
+    /**
+     * Escribir lo pendiente y esperar (diagnóstico, cierre del servicio)
+     */
+    public static void flushNow() {
+        ScheduledExecutorService current;
+        synchronized (VpnLog.class) {
+            current = executor;
+        }
+        if (current == null) return;
+        try {
+            current.submit(VpnLog::flush).get(2, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            Log.w(TAG, "No se pudo volcar el log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hasta maxBytes del final del log de este proceso (rotación incluida),
+     * ya redactado
+     */
+    public static String tail(int maxBytes) {
+        flushNow();
+        File current;
+        synchronized (VpnLog.class) {
+            current = file;
+        }
+        if (current == null) return "";
+        File rotated = new File(current.getPath() + ".1");
+        long available = current.length() + rotated.length();
+        long skip = Math.max(0, available - maxBytes);
+        StringBuilder out = new StringBuilder((int) Math.min(available, maxBytes));
+        for (File part : new File[]{rotated, current}) {
+            long length = part.length();
+            if (length == 0) continue;
+            if (skip >= length) {
+                skip -= length;
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(part, "r")) {
+                byte[] bytes = new byte[(int) (length - skip)];
+                raf.seek(skip);
+                raf.readFully(bytes);
+                out.append(new String(bytes, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Log.w(TAG, "No se pudo leer " + part.getName() + ": " + e.getMessage());
+            }
+            skip = 0;
+        }
+        // Sin la primera línea, probablemente cortada
+        int firstLine = available > maxBytes ? out.indexOf("\n") + 1 : 0;
+        return out.substring(firstLine);
+    }
+
+    private static void flush() {
+        File target;
+        long from;
+        long to;
+        long lost;
+        synchronized (VpnLog.class) {
+            target = file;
+            to = written;
+            from = Math.max(flushed, written - CAPACITY);
+            lost = from - flushed;
+        }
+        if (target == null || from == to) {
+            synchronized (VpnLog.class) {
+                flushed = to;
+            }
+            return;
+        }
+
+        SimpleDateFormat time = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        StringBuilder text = new StringBuilder((int) (to - from) * 96);
+        if (lost > 0) {
+            appendDropped(text, time, lost);
+        }
+        for (long seq = from; seq < to; seq++) {
+            int i = (int) (seq & MASK);
+            long skipped;
+            long recordTime = 0;
+            int recordLevel = 0;
+            Event event = null;
+            Object detail = null;
+            Object extra = null;
+            long a = 0;
+            long b = 0;
+            long c = 0;
+            long thread = 0;
+            synchronized (VpnLog.class) {
+                // Sobrescrito mientras se formateaba: saltar al más antiguo que queda
+                skipped = Math.min(written - CAPACITY, to) - seq;
+                if (skipped <= 0) {
+                    recordTime = times[i];
+                    recordLevel = levels[i];
+                    event = events[i];
+                    detail = details[i];
+                    extra = extras[i];
+                    a = fieldA[i];
+                    b = fieldB[i];
+                    c = fieldC[i];
+                    thread = threads[i];
+                    details[i] = null;
+                    extras[i] = null;
+                }
+            }
+            if (skipped > 0) {
+                appendDropped(text, time, skipped);
+                seq += skipped - 1;
+                continue;
+            }
+            text.append(time.format(new Date(recordTime)))
+                .append(' ').append(levelName(recordLevel))
+                .append(' ').append(thread)
+                .append(' ').append(format(event, detail, extra, a, b, c, false))
+                .append('\n');
+        }
+        synchronized (VpnLog.class) {
+            flushed = to;
+        }
+
+        try {
+            if (target.length() > MAX_FILE_BYTES) {
+                File rotated = new File(target.getPath() + ".1");
+                rotated.delete();
+                target.renameTo(rotated);
+            }
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(target, true), StandardCharsets.UTF_8)) {
+                writer.write(redact(text.toString()));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "No se pudo escribir el log: " + e.getMessage());
+        }
+    }
+
+    private static void appendDropped(StringBuilder text, SimpleDateFormat time, long count) {
+        text.append(time.format(new Date())).append(" W ").append("LOG_DROPPED count=").append(count).append('\n');
+    }
+
+    private static String format(Event event, Object detail, Object extra, long a, long b, long c, boolean emoji) {
+        StringBuilder line = new StringBuilder(64);
+        if (emoji) line.append(event.emoji).append(' ');
+        line.append(event.name());
+        if (detail != null) {
+            line.append(' ').append(event.detail != null ? event.detail : "detail").append('=');
+            appendValue(line, detail);
+        }
+        long[] values = {a, b, c};
+        for (int f = 0; f < event.fields.length && f < values.length; f++) {
+            line.append(' ').append(event.fields[f]).append('=').append(values[f]);
+        }
+        if (extra != null) {
+            line.append(' ');
+            appendValue(line, extra);
+        }
+        return line.toString();
+    }
+
+    private static void appendValue(StringBuilder line, Object value) {
+        if (value instanceof Throwable) {
+            Throwable error = (Throwable) value;
+            line.append(error.getClass().getSimpleName());
+            if (error.getMessage() != null) line.append(": ").append(error.getMessage());
+        } else {
+            line.append(value);
+        }
+    }
+
+    private static String levelName(int recordLevel) {
+        switch (recordLevel) {
+            case DEBUG: return "D";
+            case INFO: return "I";
+            case WARN: return "W";
+            default: return "E";
+        }
+    }
+
+    /**
+     * Quitar claves WireGuard de un texto
+     */
+    public static String redact(String text) {
+        String redacted = BASE64_KEY.matcher(text).replaceAll("[clave]");
+        return HEX_KEY.matcher(redacted).replaceAll("[clave]");
+    }
+}
@@ -0,0 +1,191 @@
+package com.nodexvpn.app.vpn;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import androidx.core.app.NotificationCompat;
+
+import com.nodexvpn.app.MainActivity;
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+/**
+ * Notificación persistente del túnel con velocidad en vivo.
+ *
+ * Un solo Builder y un solo PendingIntent para toda la vida del servicio.
+ * La duración de la sesión la cuenta el propio sistema (cronómetro), así
+ * que solo hay que publicar cuando cambia el texto de velocidad, como
+ * mucho cada {@link #MIN_UPDATE_INTERVAL_MS} y nunca con la pantalla
+ * apagada: cada notify redibuja la barra de estado del sistema.
+ */
+public final class VpnNotifier {
+
+    public static final long MIN_UPDATE_INTERVAL_MS = 3000;
+
+    private final Context context;
+    private final int notificationId;
+    private final NotificationManager manager;
+    private final NotificationCompat.Builder builder;
+    private final StringBuilder text = new StringBuilder(48);
+
+    // Protegido por this (hilo de control y hilo del sampler)
+    private boolean active = false;
+    private boolean sessionStarted = false;
+    private String shownText;
+    private long lastNotifyAt = -MIN_UPDATE_INTERVAL_MS;
+    private volatile boolean screenOn;
+
+    public VpnNotifier(Context context, String channelId, int notificationId) {
+        this.context = context;
+        this.notificationId = notificationId;
+        this.manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        Intent notificationIntent = new Intent(context, MainActivity.class);
+        notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            context, 0, notificationIntent,
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0
+        );
+        this.builder = new NotificationCompat.Builder(context, channelId)
+            .setContentTitle("🔒 NodeX VPN Activo")
+            .setSmallIcon(android.R.drawable.ic_lock_lock)
+            .setContentIntent(pendingIntent)
+            .setOngoing(true)
+            .setAutoCancel(false)
+            .setOnlyAlertOnce(true)
+            .setPriority(NotificationCompat.PRIORITY_LOW)
+            .setCategory(NotificationCompat.CATEGORY_SERVICE);
+
+        PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        screenOn = power == null || power.isInteractive();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        context.registerReceiver(screenReceiver, filter);
+        TunnelStatsSampler.getInstance().setScreenOn(screenOn);
+    }
+
+    /**
+     * Notificación para startForeground con el servidor actual; sin sesión
+     * iniciada muestra solo el estado
+     */
+    public synchronized Notification show(String server) {
+        active = true;
+        shownText = null;
+        String connectionInfo = "Túnel WireGuard activo";
+        if (server != null && !server.isEmpty()) {
+            connectionInfo = "Conectado a " + server;
+        }
+        builder.setContentText(connectionInfo)
+            .setSubText(server != null && !server.isEmpty() ? server : "WireGuard Real - Toca para gestionar");
+        return builder.build();
+    }
+
+    /**
+     * Túnel arriba: el cronómetro de la notificación cuenta desde aquí.
+     * Cambios de servidor o de red no reinician la sesión.
+     */
+    public synchronized void startSession() {
+        if (sessionStarted) return;
+        sessionStarted = true;
+        builder.setWhen(System.currentTimeMillis())
+            .setShowWhen(true)
+            .setUsesChronometer(true);
+    }
+
+    /**
+     * Túnel abajo: no volver a publicar hasta el próximo show()
+     */
+    public synchronized void stop() {
+        active = false;
+        sessionStarted = false;
+        shownText = null;
+        builder.setUsesChronometer(false).setShowWhen(false);
+    }
+
+    /**
+     * Lote del sampler: publicar la última velocidad si cambió el texto
+     */
+    public void onSamples(StatsRingBuffer buffer, long fromSeq, long toSeq) {
+        if (!screenOn || toSeq <= fromSeq) return;
+        long last = toSeq - 1;
+        update(buffer.rxRateAt(last), buffer.txRateAt(last));
+    }
+
+    private synchronized void update(long rxRate, long txRate) {
+        if (!active || !sessionStarted) return;
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastNotifyAt < MIN_UPDATE_INTERVAL_MS) return;
+
+        text.setLength(0);
+        text.append("↓ ");
+        appendRate(text, rxRate);
+        text.append("   ↑ ");
+        appendRate(text, txRate);
+        if (shownText != null && shownText.contentEquals(text)) return;
+
+        shownText = text.toString();
+        builder.setContentText(shownText);
+        lastNotifyAt = now;
+        try {
+            manager.notify(notificationId, builder.build());
+        } catch (RuntimeException e) {
+            VpnLog.w(Event.NOTIFICATION_UPDATE_FAILED, e);
+        }
+    }
+
+    /**
+     * Velocidad legible con dos cifras como mucho, para que el texto (y
+     * con él la notificación) no cambie por ruido
+     */
+    static void appendRate(StringBuilder out, long bytesPerSec) {
+        if (bytesPerSec < 1024) {
+            out.append(bytesPerSec < 0 ? 0 : bytesPerSec).append(" B/s");
+            return;
+        }
+        long tenths;
+        String unit;
+        if (bytesPerSec < 1024 * 1024) {
+            tenths = bytesPerSec * 10 / 1024;
+            unit = " KB/s";
+        } else {
+            tenths = bytesPerSec * 10 / (1024 * 1024);
+            unit = " MB/s";
+        }
+        if (tenths >= 100) {
+            out.append(tenths / 10);
+        } else {
+            out.append(tenths / 10).append('.').append(tenths % 10);
+        }
+        out.append(unit);
+    }
+
+    public void release() {
+        try {
+            context.unregisterReceiver(screenReceiver);
+        } catch (IllegalArgumentException e) {
+            // No estaba registrado
+        }
+    }
+
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            screenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+            TunnelStatsSampler.getInstance().setScreenOn(screenOn);
+            if (screenOn) {
+                // Al encender, publicar la próxima muestra sin esperar al intervalo
+                synchronized (VpnNotifier.this) {
+                    lastNotifyAt = -MIN_UPDATE_INTERVAL_MS;
+                }
+            }
+        }
+    };
+}
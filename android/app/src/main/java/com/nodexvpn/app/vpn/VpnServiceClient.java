@@ -0,0 +1,209 @@
+package com.nodexvpn.app.vpn;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conexión Binder con WireGuardVpnService (proceso :vpn).
+ *
+ * Las llamadas hechas antes de que el servicio quede enlazado se encolan y
+ * se ejecutan al conectar. Si el proceso :vpn muere, se notifica como
+ * desconexión y Android vuelve a enlazar solo (BIND_AUTO_CREATE).
+ *
+ * Una llamada con {@link ErrorHandler} siempre termina: con la respuesta
+ * del servicio o con el error (fallo del Binder, enlace imposible, proceso
+ * muerto, desenlazado antes de ejecutarse).
+ */
+public final class VpnServiceClient {
+
+    public interface StatusListener {
+        void onStatusChanged(String status, boolean connected, String message, Bundle extras);
+    }
+
+    public interface Call {
+        void run(IVpnControl control) throws RemoteException;
+    }
+
+    public interface ErrorHandler {
+        void onError(Exception error);
+    }
+
+    private static final class Queued {
+        final Call call;
+        final ErrorHandler onError;
+
+        Queued(Call call, ErrorHandler onError) {
+            this.call = call;
+            this.onError = onError;
+        }
+    }
+
+    private final Context context;
+    private final StatusListener statusListener;
+    private final List<Queued> queued = new ArrayList<>();
+    private IVpnControl control;
+    private boolean bound = false;
+
+    public VpnServiceClient(Context context, StatusListener statusListener) {
+        this.context = context.getApplicationContext();
+        this.statusListener = statusListener;
+    }
+
+    private final IVpnStatusListener.Stub remoteListener = new IVpnStatusListener.Stub() {
+        @Override
+        public void onStatusChanged(String status, boolean connected, String message, Bundle extras) {
+            statusListener.onStatusChanged(status, connected, message, extras);
+        }
+    };
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            IVpnControl connected = IVpnControl.Stub.asInterface(service);
+            List<Queued> pending;
+            synchronized (VpnServiceClient.this) {
+                control = connected;
+                pending = new ArrayList<>(queued);
+                queued.clear();
+            }
+            VpnLog.i(Event.CLIENT_BOUND);
+            try {
+                connected.registerListener(remoteListener);
+            } catch (RemoteException e) {
+                VpnLog.w(Event.CLIENT_LISTENER_FAILED, e);
+            }
+            for (Queued item : pending) {
+                invoke(connected, item);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            synchronized (VpnServiceClient.this) {
+                control = null;
+            }
+            VpnLog.w(Event.CLIENT_SERVICE_DISCONNECTED);
+            // El proceso :vpn murió: lo que estuviera en curso no va a terminar
+            failQueued(new RemoteException("Servicio VPN detenido"));
+            statusListener.onStatusChanged("error", false, "Servicio VPN detenido", null);
+        }
+
+        @Override
+        public void onBindingDied(ComponentName name) {
+            // Android ya no reconecta esta conexión: enlazar de nuevo
+            VpnLog.w(Event.CLIENT_BINDING_DIED);
+            synchronized (VpnServiceClient.this) {
+                control = null;
+                bound = false;
+            }
+            context.unbindService(this);
+            failQueued(new RemoteException("Enlace con el servicio VPN perdido"));
+            bind();
+        }
+
+        @Override
+        public void onNullBinding(ComponentName name) {
+            failQueued(new RemoteException("El servicio VPN rechazó el enlace"));
+        }
+    };
+
+    public void bind() {
+        boolean failed;
+        synchronized (this) {
+            if (bound) return;
+            Intent intent = new Intent(context, WireGuardVpnService.class);
+            intent.setAction(WireGuardVpnService.ACTION_BIND_CONTROL);
+            bound = context.bindService(intent, connection, Context.BIND_AUTO_CREATE);
+            failed = !bound;
+        }
+        if (failed) {
+            VpnLog.e(Event.CLIENT_BIND_FAILED);
+            // Nadie va a ejecutar lo encolado
+            failQueued(new IllegalStateException("No se pudo enlazar con el servicio VPN"));
+        }
+    }
+
+    public void unbind() {
+        IVpnControl current;
+        synchronized (this) {
+            if (!bound) return;
+            bound = false;
+            current = control;
+            control = null;
+        }
+        failQueued(new IllegalStateException("Desenlazado del servicio VPN"));
+        if (current != null) {
+            try {
+                current.unregisterListener(remoteListener);
+            } catch (RemoteException ignored) {
+            }
+        }
+        context.unbindService(connection);
+    }
+
+    /**
+     * Ejecutar ahora si hay conexión, si no al enlazar. Un fallo se publica
+     * como estado "error".
+     */
+    public void run(Call call) {
+        run(call, null);
+    }
+
+    /**
+     * Como {@link #run(Call)}, pero un fallo va a onError (p. ej. para
+     * rechazar un promise) en lugar de publicarse como estado
+     */
+    public void run(Call call, ErrorHandler onError) {
+        Queued item = new Queued(call, onError);
+        IVpnControl current;
+        synchronized (this) {
+            current = control;
+            if (current == null) {
+                queued.add(item);
+            }
+        }
+        if (current == null) {
+            bind();
+            return;
+        }
+        invoke(current, item);
+    }
+
+    private void invoke(IVpnControl target, Queued item) {
+        try {
+            item.call.run(target);
+        } catch (RemoteException | RuntimeException e) {
+            VpnLog.e(Event.SERVICE_CALL_FAILED, e);
+            fail(item, e);
+        }
+    }
+
+    private void failQueued(Exception error) {
+        List<Queued> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(queued);
+            queued.clear();
+        }
+        for (Queued item : failed) {
+            fail(item, error);
+        }
+    }
+
+    private void fail(Queued item, Exception error) {
+        if (item.onError != null) {
+            item.onError.onError(error);
+        } else {
+            statusListener.onStatusChanged("error", false, "Error llamando al servicio VPN: " + error.getMessage(), null);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.nodexvpn.app.vpn;
+
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.net.VpnService;
+import android.os.Build;
+import android.os.SystemClock;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.content.ContextCompat;
+
+import com.nodexvpn.app.BuildConfig;
+import com.nodexvpn.app.MainActivity;
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.io.File;
+
+/**
+ * Tile de Ajustes rápidos: conecta o desconecta hablando directamente con
+ * WireGuardVpnService (mismo proceso :vpn), sin arrancar React Native.
+ * Conecta con la última configuración buena (TunnelSnapshot).
+ */
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class VpnTileService extends TileService {
+
+    /**
+     * Pedir al sistema que refresque el tile (tras un cambio de estado)
+     */
+    public static void requestUpdate(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+        try {
+            TileService.requestListeningState(context, new ComponentName(context, VpnTileService.class));
+        } catch (RuntimeException e) {
+            // El tile no está añadido o el sistema lo rechazó: nada que refrescar
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Proceso :vpn, quizá sin el servicio: el tile escribe en el mismo log
+        VpnLog.initialize(new File(getFilesDir(), VpnLog.DIR_NAME), "vpn", BuildConfig.DEBUG);
+    }
+
+    @Override
+    public void onStartListening() {
+        updateTile();
+    }
+
+    @Override
+    public void onClick() {
+        String status = WireGuardVpnService.getCurrentStatus();
+        if ("connected".equals(status) || "connecting".equals(status)) {
+            VpnLog.i(Event.TILE_DISCONNECT);
+            startService(new Intent(this, WireGuardVpnService.class)
+                .setAction(WireGuardVpnService.ACTION_DISCONNECT));
+            return;
+        }
+
+        // El diálogo de permiso necesita una actividad: abrir la app solo en ese caso
+        if (VpnService.prepare(this) != null) {
+            VpnLog.i(Event.TILE_NO_PERMISSION);
+            openApp();
+            return;
+        }
+
+        // Sin conexión previa no hay servidor que usar: elegirlo en la app
+        if (TunnelSnapshot.read(new File(getNoBackupFilesDir(), TunnelSnapshot.FILE_NAME)) == null) {
+            VpnLog.i(Event.TILE_NO_CONFIG);
+            openApp();
+            return;
+        }
+
+        VpnLog.i(Event.TILE_QUICK_CONNECT);
+        Intent intent = new Intent(this, WireGuardVpnService.class)
+            .setAction(WireGuardVpnService.ACTION_QUICK_CONNECT)
+            .putExtra(WireGuardVpnService.EXTRA_ORIGIN, WireGuardVpnService.ORIGIN_TILE)
+            .putExtra(WireGuardVpnService.EXTRA_REQUESTED_AT, SystemClock.elapsedRealtime());
+        ContextCompat.startForegroundService(this, intent);
+        showState(Tile.STATE_ACTIVE, "Conectando...");
+    }
+
+    private void openApp() {
+        Intent intent = new Intent(this, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            // Con targetSdk 34+ la versión con Intent lanza UnsupportedOperationException
+            startActivityAndCollapse(PendingIntent.getActivity(this, 0, intent, PendingIntent.FLAG_IMMUTABLE));
+        } else {
+            startActivityAndCollapse(intent);
+        }
+    }
+
+    private void updateTile() {
+        String status = WireGuardVpnService.getCurrentStatus();
+        if ("connected".equals(status)) {
+            showState(Tile.STATE_ACTIVE, "Conectado");
+        } else if ("connecting".equals(status)) {
+            showState(Tile.STATE_ACTIVE, "Conectando...");
+        } else {
+            showState(Tile.STATE_INACTIVE, null);
+        }
+    }
+
+    private void showState(int state, String subtitle) {
+        Tile tile = getQsTile();
+        if (tile == null) return;
+        tile.setState(state);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            tile.setSubtitle(subtitle);
+        }
+        tile.updateTile();
+    }
+}
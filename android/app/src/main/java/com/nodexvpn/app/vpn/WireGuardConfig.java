@@ -1,29 +1,48 @@
 package com.nodexvpn.app.vpn;
 
-import android.util.Log;
 import org.json.JSONObject;
 import org.json.JSONException;
 
+import com.wireguard.config.BadConfigException;
+import com.wireguard.config.Config;
+import com.wireguard.config.Interface;
+import com.wireguard.config.Peer;
+import com.nodexvpn.app.vpn.VpnLog.Event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
 public class WireGuardConfig {
-    private static final String TAG = "WireGuardConfig";
+    
+    // Rutas por defecto cuando el servidor no envía AllowedIPs
+    public static final String DEFAULT_ALLOWED_IPS = "0.0.0.0/0, ::/0";
     
     private String interfaceAddress;
     private String privateKey;
     private String dns;
+    private String mtu;
     private String publicKey;
     private String endpoint;
     private String allowedIPs;
     private String persistentKeepalive;
+    
+    // Split tunneling: apps (listas "a, b") y redes fuera del túnel
+    private String includedApplications;
+    private String excludedApplications;
+    private String excludedIPs;
+    private boolean bypassLan;
 
     public WireGuardConfig() {
-        Log.d(TAG, "WireGuardConfig created");
     }
 
     public static WireGuardConfig fromJson(String configJson) {
         WireGuardConfig config = new WireGuardConfig();
         
         try {
-            Log.d(TAG, "Parsing config JSON: " + configJson);
+            // Solo el tamaño: el JSON lleva la clave privada
+            VpnLog.d(Event.CONFIG_PARSE, configJson.length());
             JSONObject json = new JSONObject(configJson);
             
             // Parse Interface section
@@ -38,6 +57,15 @@ public class WireGuardConfig {
                 if (interfaceObj.has("DNS")) {
                     config.setDns(interfaceObj.getString("DNS"));
                 }
+                if (interfaceObj.has("MTU")) {
+                    config.setMtu(interfaceObj.getString("MTU"));
+                }
+                if (interfaceObj.has("IncludedApplications")) {
+                    config.setIncludedApplications(interfaceObj.getString("IncludedApplications"));
+                }
+                if (interfaceObj.has("ExcludedApplications")) {
+                    config.setExcludedApplications(interfaceObj.getString("ExcludedApplications"));
+                }
             }
             
             // Parse Peer section
@@ -55,12 +83,16 @@ public class WireGuardConfig {
                 if (peerObj.has("PersistentKeepalive")) {
                     config.setPersistentKeepalive(peerObj.getString("PersistentKeepalive"));
                 }
+                if (peerObj.has("ExcludedIPs")) {
+                    config.setExcludedIPs(peerObj.getString("ExcludedIPs"));
+                }
+                config.setBypassLan(peerObj.optBoolean("BypassLan", false));
             }
             
-            Log.d(TAG, "Config parsed successfully");
+            VpnLog.d(Event.CONFIG_PARSED);
             
         } catch (JSONException e) {
-            Log.e(TAG, "Error parsing config JSON", e);
+            VpnLog.e(Event.CONFIG_PARSE_FAILED, e);
         }
         
         return config;
@@ -73,16 +105,136 @@ public class WireGuardConfig {
         if (privateKey != null) sb.append("PrivateKey = ").append(privateKey).append("\n");
         if (interfaceAddress != null) sb.append("Address = ").append(interfaceAddress).append("\n");
         if (dns != null) sb.append("DNS = ").append(dns).append("\n");
+        if (mtu != null) sb.append("MTU = ").append(mtu).append("\n");
+        if (includedApplications != null) sb.append("IncludedApplications = ").append(includedApplications).append("\n");
+        if (excludedApplications != null) sb.append("ExcludedApplications = ").append(excludedApplications).append("\n");
         
         sb.append("\n[Peer]\n");
         if (publicKey != null) sb.append("PublicKey = ").append(publicKey).append("\n");
         if (endpoint != null) sb.append("Endpoint = ").append(endpoint).append("\n");
-        if (allowedIPs != null) sb.append("AllowedIPs = ").append(allowedIPs).append("\n");
+        String routes = effectiveAllowedIPs();
+        if (routes != null) sb.append("AllowedIPs = ").append(routes).append("\n");
         if (persistentKeepalive != null) sb.append("PersistentKeepalive = ").append(persistentKeepalive).append("\n");
         
         return sb.toString();
     }
 
+    /**
+     * Extraer endpoint de la configuración para mostrar en notificación
+     */
+    public static String extractEndpoint(Config config) {
+        for (Peer peer : config.getPeers()) {
+            if (peer.getEndpoint().isPresent()) {
+                return peer.getEndpoint().get().toString();
+            }
+        }
+        return "Servidor VPN";
+    }
+
+    /**
+     * Construir el Config de WireGuard directamente con los builders de la
+     * librería, sin pasar por texto. Los errores de validación salen aquí.
+     */
+    public Config toConfig() throws BadConfigException {
+        Interface.Builder interfaceBuilder = new Interface.Builder();
+        if (privateKey != null) interfaceBuilder.parsePrivateKey(privateKey);
+        if (interfaceAddress != null) interfaceBuilder.parseAddresses(interfaceAddress);
+        if (dns != null) interfaceBuilder.parseDnsServers(dns);
+        if (mtu != null) interfaceBuilder.parseMtu(mtu);
+        if (includedApplications != null) interfaceBuilder.includeApplications(RouteCompiler.split(includedApplications));
+        if (excludedApplications != null) interfaceBuilder.excludeApplications(RouteCompiler.split(excludedApplications));
+
+        Peer.Builder peerBuilder = new Peer.Builder();
+        if (publicKey != null) peerBuilder.parsePublicKey(publicKey);
+        if (endpoint != null) peerBuilder.parseEndpoint(endpoint);
+        String routes;
+        try {
+            routes = effectiveAllowedIPs();
+        } catch (RouteCompiler.InvalidRouteException e) {
+            // El CIDR que falló puede venir de AllowedIPs o de las exclusiones
+            throw new BadConfigException(BadConfigException.Section.PEER, BadConfigException.Location.ALLOWED_IPS,
+                BadConfigException.Reason.INVALID_VALUE, e.getValue());
+        }
+        peerBuilder.parseAllowedIPs(routes != null ? routes : DEFAULT_ALLOWED_IPS);
+        if (persistentKeepalive != null) peerBuilder.parsePersistentKeepalive(persistentKeepalive);
+
+        return new Config.Builder()
+            .setInterface(interfaceBuilder.build())
+            .addPeer(peerBuilder.build())
+            .build();
+    }
+
+    /**
+     * AllowedIPs a instalar: los del servidor (o la ruta por defecto) menos
+     * la LAN y las redes excluidas, compilados a la lista mínima de CIDRs.
+     * Los servidores DNS se mantienen dentro del túnel aunque sean privados.
+     * Null si el servidor no envió AllowedIPs y no hay exclusiones.
+     */
+    public String effectiveAllowedIPs() {
+        if (!bypassLan && excludedIPs == null) {
+            return allowedIPs;
+        }
+        List<String> included = RouteCompiler.split(allowedIPs != null ? allowedIPs : DEFAULT_ALLOWED_IPS);
+        List<String> excluded = new ArrayList<>(RouteCompiler.split(excludedIPs));
+        if (bypassLan) {
+            excluded.addAll(RouteCompiler.LAN_ROUTES);
+        }
+        List<String> routes = RouteCompiler.compile(included, excluded);
+        // Segunda pasada para fusionar los DNS con lo ya incluido
+        List<String> dnsRoutes = new ArrayList<>();
+        for (String server : RouteCompiler.split(dns)) {
+            if (EndpointResolver.isLiteral(server)) {
+                dnsRoutes.add(server + (server.indexOf(':') >= 0 ? "/128" : "/32"));
+            }
+        }
+        if (!dnsRoutes.isEmpty()) {
+            routes.addAll(dnsRoutes);
+            routes = RouteCompiler.compile(routes, Collections.<String>emptyList());
+        }
+        return RouteCompiler.join(routes);
+    }
+
+    /**
+     * Clave de caché: servidor + huella de las claves y el resto de campos
+     */
+    public String cacheKey() {
+        String server = endpoint != null ? endpoint : publicKey;
+        return server + "#" + Long.toHexString(fingerprint());
+    }
+
+    /**
+     * Huella FNV-1a de 64 bits sobre todos los campos
+     */
+    public long fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, privateKey);
+        hash = fnv(hash, publicKey);
+        hash = fnv(hash, interfaceAddress);
+        hash = fnv(hash, dns);
+        hash = fnv(hash, mtu);
+        hash = fnv(hash, endpoint);
+        hash = fnv(hash, allowedIPs);
+        hash = fnv(hash, persistentKeepalive);
+        hash = fnv(hash, includedApplications);
+        hash = fnv(hash, excludedApplications);
+        hash = fnv(hash, excludedIPs);
+        hash = fnv(hash, bypassLan ? "1" : "0");
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        // Separador para que ("ab", "c") y ("a", "bc") no colisionen
+        hash ^= 0xff;
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
     // Getters and Setters
     public String getInterfaceAddress() { return interfaceAddress; }
     public void setInterfaceAddress(String interfaceAddress) { this.interfaceAddress = interfaceAddress; }
@@ -93,6 +245,9 @@ public class WireGuardConfig {
     public String getDns() { return dns; }
     public void setDns(String dns) { this.dns = dns; }
 
+    public String getMtu() { return mtu; }
+    public void setMtu(String mtu) { this.mtu = mtu; }
+
     public String getPublicKey() { return publicKey; }
     public void setPublicKey(String publicKey) { this.publicKey = publicKey; }
 
@@ -105,13 +260,55 @@ public class WireGuardConfig {
     public String getPersistentKeepalive() { return persistentKeepalive; }
     public void setPersistentKeepalive(String persistentKeepalive) { this.persistentKeepalive = persistentKeepalive; }
 
+    public String getIncludedApplications() { return includedApplications; }
+    public void setIncludedApplications(String includedApplications) { this.includedApplications = includedApplications; }
+
+    public String getExcludedApplications() { return excludedApplications; }
+    public void setExcludedApplications(String excludedApplications) { this.excludedApplications = excludedApplications; }
+
+    public String getExcludedIPs() { return excludedIPs; }
+    public void setExcludedIPs(String excludedIPs) { this.excludedIPs = excludedIPs; }
+
+    public boolean isBypassLan() { return bypassLan; }
+    public void setBypassLan(boolean bypassLan) { this.bypassLan = bypassLan; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WireGuardConfig)) return false;
+        WireGuardConfig that = (WireGuardConfig) o;
+        return Objects.equals(interfaceAddress, that.interfaceAddress)
+                && Objects.equals(privateKey, that.privateKey)
+                && Objects.equals(dns, that.dns)
+                && Objects.equals(mtu, that.mtu)
+                && Objects.equals(publicKey, that.publicKey)
+                && Objects.equals(endpoint, that.endpoint)
+                && Objects.equals(allowedIPs, that.allowedIPs)
+                && Objects.equals(persistentKeepalive, that.persistentKeepalive)
+                && Objects.equals(includedApplications, that.includedApplications)
+                && Objects.equals(excludedApplications, that.excludedApplications)
+                && Objects.equals(excludedIPs, that.excludedIPs)
+                && bypassLan == that.bypassLan;
+    }
+
+    @Override
+    public int hashCode() {
+        long f = fingerprint();
+        return (int) (f ^ (f >>> 32));
+    }
+
     @Override
     public String toString() {
         return "WireGuardConfig{" +
                 "interfaceAddress='" + interfaceAddress + '\'' +
                 ", dns='" + dns + '\'' +
+                ", mtu='" + mtu + '\'' +
                 ", endpoint='" + endpoint + '\'' +
                 ", allowedIPs='" + allowedIPs + '\'' +
+                ", excludedIPs='" + excludedIPs + '\'' +
+                ", bypassLan=" + bypassLan +
+                ", includedApplications='" + includedApplications + '\'' +
+                ", excludedApplications='" + excludedApplications + '\'' +
                 '}';
     }
 } 
\ No newline at end of file
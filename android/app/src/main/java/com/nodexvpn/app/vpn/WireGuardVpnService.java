@@ -1,258 +1,876 @@
 package com.nodexvpn.app.vpn;
 
-import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.Intent;
+import android.net.Network;
 import android.net.VpnService;
 import android.os.Build;
-import android.util.Log;
-import androidx.core.app.NotificationCompat;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteCallbackList;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
 
-import com.nodexvpn.app.MainActivity;
+import com.nodexvpn.app.BuildConfig;
+import com.nodexvpn.app.vpn.VpnLog.Event;
 
 // ✅ IMPORTAR: Librería oficial WireGuard para VpnService
-import com.wireguard.android.backend.GoBackend;
 import com.wireguard.android.backend.Tunnel;
 import com.wireguard.config.Config;
 import com.wireguard.config.BadConfigException;
+import com.wireguard.config.InetEndpoint;
+import com.wireguard.config.Interface;
+import com.wireguard.config.Peer;
+import com.wireguard.crypto.KeyPair;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Servicio VPN que maneja correctamente el GoBackend de WireGuard
- * dentro del contexto del VpnService (arquitectura correcta)
+ * dentro del contexto del VpnService (arquitectura correcta).
+ *
+ * Corre en su propio proceso (:vpn) para que las pausas de GC o un crash
+ * de JS no tiren el túnel. La UI lo controla por Binder (IVpnControl) y
+ * lee las estadísticas de StatsSharedMemory.
  */
 public class WireGuardVpnService extends VpnService {
-    private static final String TAG = "WireGuardVpnService";
     private static final String CHANNEL_ID = "VPN_CHANNEL";
     private static final int NOTIFICATION_ID = 1;
+    // Final del log de :vpn que se incluye en el diagnóstico (el Binder admite ~1MB)
+    private static final int DIAGNOSTICS_LOG_BYTES = 96 * 1024;
+    // MTU que aplica GoBackend cuando la Interface no lo fija
+    private static final int GO_BACKEND_DEFAULT_MTU = 1280;
+    // Después del debounce de NetworkMonitor, para medir ya con la red estable
+    private static final long PMTU_PROBE_DELAY_MS = 2000;
+    // Rotación de la clave del cliente (NODEX_PROTOCOL_SPEC: cada 24h)
+    private static final long KEY_ROTATION_INTERVAL_MS = 24 * 60 * 60_000L;
+    private static final long KEY_ROTATION_MAX_CHECK_MS = 60 * 60_000L;
+    private static final long KEY_ROTATION_MIN_CHECK_MS = 60_000L;
     
     // Acciones del servicio
     public static final String ACTION_CONNECT_WIREGUARD = "CONNECT_WIREGUARD";
+    public static final String ACTION_SWITCH_SERVER = "SWITCH_SERVER";
     public static final String ACTION_DISCONNECT = "DISCONNECT";
     public static final String ACTION_START_FOREGROUND = "start_foreground_notification";
     public static final String ACTION_STOP = "stop";
+    public static final String ACTION_RESTORE = "com.nodexvpn.app.RESTORE_TUNNEL";
+    public static final String ACTION_QUICK_CONNECT = "com.nodexvpn.app.QUICK_CONNECT";
+    public static final String ACTION_BIND_CONTROL = "com.nodexvpn.app.BIND_VPN_CONTROL";
     
     // Extras
     public static final String EXTRA_WIREGUARD_CONFIG = "WIREGUARD_CONFIG";
+    public static final String EXTRA_CONFIG_KEY = "WIREGUARD_CONFIG_KEY";
+    public static final String EXTRA_TUNNEL_CONFIG = "TUNNEL_CONFIG";
+    public static final String EXTRA_ORIGIN = "ORIGIN";
+    public static final String EXTRA_REQUESTED_AT = "REQUESTED_AT";
     
-    // Broadcast para comunicación con React Native
-    public static final String ACTION_VPN_STATUS_CHANGED = "com.nodexvpn.app.VPN_STATUS_CHANGED";
+    // Orígenes de ACTION_QUICK_CONNECT
+    public static final String ORIGIN_TILE = "tile";
+    public static final String ORIGIN_BOOT = "boot";
+    
+    // Estado visible para el tile (mismo proceso)
+    private static volatile String currentStatus = "disconnected";
+    
+    public static String getCurrentStatus() {
+        return currentStatus;
+    }
+
+    // Backend del túnel (kernel, GoBackend o simulado), elegido en el primer connect
+    private TunnelBackend backend;
+    private volatile TunnelBackends.Selection backendSelection;
+    private volatile TunnelBackends.Preference backendPreference = TunnelBackends.Preference.AUTO;
+
+    // Túnel, comandos y watchdog; aquí queda lo que depende de Android
+    private TunnelSession session;
+    
+    // Listeners de estado en otros procesos y último estado enviado
+    private final RemoteCallbackList<IVpnStatusListener> statusListeners = new RemoteCallbackList<>();
+    private volatile String lastStatus = "disconnected";
+    private volatile String lastMessage = null;
+    
+    // Estadísticas publicadas a la UI sin IPC por muestra
+    private StatsSharedMemory statsMemory;
+    
+    // Cambios de red física: re-enlazar el túnel sin reconectar
+    private NetworkMonitor networkMonitor;
+    private AndroidDnsLookup dnsLookup;
+    
+    // Escribe la última configuración buena, para levantar el túnel sin la UI
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(r -> new Thread(r, "NodexSnapshotWriter"));
+
+    // Descubrimiento de MTU de camino por servidor y red
+    private final PmtuCache pmtuCache = new PmtuCache(PmtuCache.DEFAULT_TTL_MS);
+    private final ScheduledExecutorService pmtuExecutor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "NodexPmtu"));
+    private volatile boolean pmtuEnabled = true;
+    private volatile int pmtuEchoPort = 0;
+
+    // Historial de uso persistente (por hora, día y servidor)
+    private UsageStore usageStore;
 
-    // ✅ GoBackend manejado correctamente dentro del VpnService
-    private GoBackend goBackend;
-    private Tunnel currentTunnel;
-    private boolean isConnected = false;
+    // Notificación con velocidad en vivo
+    private VpnNotifier notifier;
+
+    // Rotación de la clave del cliente sobre el túnel activo
+    private KeyPool keyPool;
+    private ConfigProvisioner provisioner;
+    private final ScheduledExecutorService keyRotationExecutor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "NodexKeyRotation"));
+    private ScheduledFuture<?> keyRotationTask;
+    private volatile boolean keyRotationEnabled = true;
+    private volatile long keyRotationIntervalMs = KEY_ROTATION_INTERVAL_MS;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        Log.d(TAG, "🚀 WireGuardVpnService creado");
+        VpnLog.initialize(new File(getFilesDir(), VpnLog.DIR_NAME), "vpn", BuildConfig.DEBUG);
+        VpnLog.i(Event.SERVICE_CREATED);
+        
+        dnsLookup = new AndroidDnsLookup();
+        EndpointResolver.initialize(dnsLookup);
+        ConnectTracer.initialize(new File(getNoBackupFilesDir(), "connect_metrics_vpn.bin"));
+        session = new TunnelSession(sessionHost, new File(getNoBackupFilesDir(), TunnelSnapshot.FILE_NAME), snapshotWriter);
+        networkMonitor = new NetworkMonitor(this, networkListener);
+        usageStore = UsageStore.open(new File(getNoBackupFilesDir(), UsageStore.DIR_NAME));
+        notifier = new VpnNotifier(this, CHANNEL_ID, NOTIFICATION_ID);
+        keyPool = KeyPool.getInstance(new File(getNoBackupFilesDir(), "keys"), new KeystoreSealer());
+        provisioner = ConfigProvisioner.getInstance(new File(getNoBackupFilesDir(), "provisioning"));
+        scheduleKeyRotation();
         
-        // ✅ Inicializar GoBackend dentro del VpnService (CORRECTO)
         try {
-            this.goBackend = new GoBackend(this);
-            Log.d(TAG, "✅ GoBackend inicializado correctamente dentro del VpnService");
-        } catch (Exception e) {
-            Log.e(TAG, "❌ Error inicializando GoBackend: " + e.getMessage(), e);
-            sendStatusUpdate("error", false, "Error inicializando GoBackend: " + e.getMessage());
+            statsMemory = StatsSharedMemory.open(new File(getNoBackupFilesDir(), StatsSharedMemory.FILE_NAME));
+            statsMemory.reset();
+        } catch (IOException e) {
+            VpnLog.e(Event.STATS_MEMORY_FAILED, e);
         }
+        TunnelStatsSampler.getInstance().setListener(statsPublisher);
     }
 
-    @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
-        if (intent != null) {
-            String action = intent.getAction();
-            Log.d(TAG, "🔄 Acción recibida: " + action);
-            
-            if (ACTION_CONNECT_WIREGUARD.equals(action)) {
-                String configString = intent.getStringExtra(EXTRA_WIREGUARD_CONFIG);
-                if (configString != null) {
-                    connectWireGuard(configString);
+    /**
+     * Publicar cada lote del sampler en la memoria compartida y pasarlo al
+     * watchdog, a la notificación y a la contabilidad de uso
+     */
+    private final TunnelStatsSampler.Listener statsPublisher = new TunnelStatsSampler.Listener() {
+        @Override
+        public void onStatsBatch(StatsRingBuffer buffer, long fromSeq, long toSeq) {
+            if (statsMemory != null) {
+                statsMemory.publish(buffer, fromSeq, toSeq);
+            }
+            session.onSamples(buffer, fromSeq, toSeq);
+            notifier.onSamples(buffer, fromSeq, toSeq);
+            Config config = session.getRequestedConfig();
+            usageStore.onSamples(buffer, fromSeq, toSeq, config != null ? WireGuardConfig.extractEndpoint(config) : null);
+        }
+    };
+
+    /**
+     * Red física cambiada (ya estable): re-enlazar el túnel activo
+     */
+    private final NetworkMonitor.Listener networkListener = new NetworkMonitor.Listener() {
+        @Override
+        public void onNetworkChanged(Network network, long outageStartedAt) {
+            // DNS por la red física nueva, no por el túnel que quedó colgado
+            dnsLookup.setNetwork(network);
+            session.onNetworkChanged(outageStartedAt);
+        }
+    };
+
+    /**
+     * Interfaz Binder para la UI (otro proceso)
+     */
+    private final IVpnControl.Stub controlBinder = new IVpnControl.Stub() {
+        @Override
+        public void connect(TunnelConfigParcel config) {
+            ConnectTracer.getInstance().record(ConnectTracer.Phase.IPC_DELIVERY, config.getRequestedAtNanos());
+            ensureStarted();
+            session.submit(TunnelController.Command.connect(buildConfig(config)));
+        }
+
+        @Override
+        public void switchServer(TunnelConfigParcel config) {
+            ensureStarted();
+            session.submit(TunnelController.Command.switchServer(buildConfig(config)));
+        }
+
+        @Override
+        public void disconnect() {
+            session.submit(TunnelController.Command.disconnect());
+        }
+
+        @Override
+        public Bundle getStatus() {
+            Bundle status = new Bundle();
+            status.putString("status", lastStatus);
+            status.putBoolean("connected", session.isConnected());
+            status.putString("message", lastMessage);
+            return status;
+        }
+
+        @Override
+        public void registerListener(IVpnStatusListener listener) throws RemoteException {
+            statusListeners.register(listener);
+            // Estado actual para el listener recién registrado
+            listener.onStatusChanged(lastStatus, session.isConnected(), lastMessage, null);
+        }
+
+        @Override
+        public void unregisterListener(IVpnStatusListener listener) {
+            statusListeners.unregister(listener);
+        }
+
+        @Override
+        public void setUiVisible(boolean visible) {
+            TunnelStatsSampler.getInstance().setForeground(visible);
+        }
+
+        @Override
+        public void prefetchEndpoints(List<String> hosts) {
+            EndpointResolver.getInstance().prefetch(hosts);
+        }
+
+        @Override
+        public Bundle getConnectMetrics() {
+            Bundle metrics = new Bundle();
+            for (java.util.Map.Entry<ConnectTracer.Phase, ConnectTracer.Summary> entry
+                    : ConnectTracer.getInstance().summary().entrySet()) {
+                ConnectTracer.Summary summary = entry.getValue();
+                Bundle phase = new Bundle();
+                phase.putLong("count", summary.count);
+                phase.putLong("minUs", summary.minUs);
+                phase.putLong("meanUs", summary.meanUs);
+                phase.putLong("p50Us", summary.p50Us);
+                phase.putLong("p90Us", summary.p90Us);
+                phase.putLong("p99Us", summary.p99Us);
+                phase.putLong("maxUs", summary.maxUs);
+                phase.putLong("lastUs", summary.lastUs);
+                metrics.putBundle(entry.getKey().name(), phase);
+            }
+            return metrics;
+        }
+
+        @Override
+        public void setFailoverServers(List<TunnelConfigParcel> configs) {
+            List<Config> built = new ArrayList<>();
+            if (configs != null) {
+                for (TunnelConfigParcel parcel : configs) {
+                    try {
+                        built.add(buildConfig(parcel));
+                    } catch (IllegalArgumentException e) {
+                        VpnLog.w(Event.FAILOVER_SERVER_IGNORED, e);
+                    }
                 }
-            } else if (ACTION_DISCONNECT.equals(action)) {
-                disconnectWireGuard();
-            } else if (ACTION_START_FOREGROUND.equals(action)) {
-                String endpoint = intent.getStringExtra("config_endpoint");
-                startForegroundNotificationOnly(endpoint);
-            } else if (ACTION_STOP.equals(action)) {
-                disconnectWireGuard();
-                stopSelf();
             }
+            session.setFailoverConfigs(built);
+            VpnLog.d(Event.FAILOVER_SERVERS, built.size());
+        }
+
+        @Override
+        public void configureWatchdog(Bundle options) {
+            HandshakeWatchdog.Options parsed = new HandshakeWatchdog.Options();
+            parsed.enabled = options.getBoolean("enabled", parsed.enabled);
+            parsed.staleHandshakeMs = options.getLong("staleHandshakeMs", parsed.staleHandshakeMs);
+            parsed.rxStallMs = options.getLong("rxStallMs", parsed.rxStallMs);
+            parsed.attemptTimeoutMs = options.getLong("attemptTimeoutMs", parsed.attemptTimeoutMs);
+            parsed.baseBackoffMs = options.getLong("baseBackoffMs", parsed.baseBackoffMs);
+            parsed.maxBackoffMs = options.getLong("maxBackoffMs", parsed.maxBackoffMs);
+            parsed.sameEndpointAttempts = options.getInt("sameEndpointAttempts", parsed.sameEndpointAttempts);
+            session.setWatchdogOptions(parsed);
         }
-        return START_STICKY;
-    }
+
+        @Override
+        public void configureMtuDiscovery(Bundle options) {
+            pmtuEnabled = options.getBoolean("enabled", pmtuEnabled);
+            pmtuEchoPort = options.getInt("echoPort", pmtuEchoPort);
+            if (options.containsKey("ttlMs")) {
+                pmtuCache.setTtlMs(options.getLong("ttlMs"));
+            }
+            if (!pmtuEnabled) {
+                pmtuCache.clear();
+            }
+            VpnLog.d(Event.PMTU_CONFIGURED, VpnLog.flag(pmtuEnabled), pmtuEchoPort);
+        }
+
+        @Override
+        public void configureKeyRotation(Bundle options) {
+            keyRotationEnabled = options.getBoolean("enabled", keyRotationEnabled);
+            if (options.containsKey("intervalMs")) {
+                keyRotationIntervalMs = Math.max(KEY_ROTATION_MIN_CHECK_MS, options.getLong("intervalMs"));
+            }
+            scheduleKeyRotation();
+            VpnLog.d(Event.KEY_ROTATION_CONFIGURED, VpnLog.flag(keyRotationEnabled), keyRotationIntervalMs / 60_000);
+        }
+
+        @Override
+        public Bundle getUsageHistory(long fromMs, long toMs, String granularity) {
+            ArrayList<Bundle> buckets = new ArrayList<>();
+            for (UsageStore.Bucket bucket : usageStore.getHistory(fromMs, toMs, UsageStore.Granularity.parse(granularity))) {
+                Bundle item = new Bundle();
+                item.putLong("startMs", bucket.startMs);
+                item.putLong("rxBytes", bucket.rxBytes);
+                item.putLong("txBytes", bucket.txBytes);
+                Bundle servers = new Bundle();
+                for (java.util.Map.Entry<String, long[]> entry : bucket.byServer.entrySet()) {
+                    servers.putLongArray(entry.getKey(), entry.getValue());
+                }
+                item.putBundle("servers", servers);
+                buckets.add(item);
+            }
+            Bundle result = new Bundle();
+            result.putParcelableArrayList("buckets", buckets);
+            return result;
+        }
+
+        @Override
+        public void setBackendPreference(String preference) {
+            // Se aplica en el próximo connect sin túnel activo
+            TunnelBackends.Preference parsed = TunnelBackends.Preference.parse(preference);
+            // El backend simulado solo en builds de depuración
+            if (parsed == TunnelBackends.Preference.FAKE && !BuildConfig.DEBUG) {
+                parsed = TunnelBackends.Preference.AUTO;
+            }
+            backendPreference = parsed;
+            VpnLog.i(Event.BACKEND_PREFERENCE, backendPreference);
+        }
+
+        @Override
+        public void setLogLevel(int level) {
+            VpnLog.setLevel(level);
+            VpnLog.w(Event.LOG_LEVEL, level);
+        }
+
+        @Override
+        public Bundle exportDiagnostics() {
+            Bundle diagnostics = new Bundle();
+            diagnostics.putString("log", VpnLog.tail(DIAGNOSTICS_LOG_BYTES));
+            diagnostics.putBundle("backend", getBackendInfo());
+            diagnostics.putBundle("connectMetrics", getConnectMetrics());
+            diagnostics.putBundle("dnsStats", getDnsStats());
+            return diagnostics;
+        }
+
+        @Override
+        public Bundle getResourceUsage() {
+            Bundle usage = ProcessResources.sample();
+            usage.putInt("listeners", statusListeners.getRegisteredCallbackCount());
+            TunnelBackend current = backend;
+            if (current instanceof FakeTunnelBackend) {
+                usage.putInt("tunnels", ((FakeTunnelBackend) current).getLiveTunnelCount());
+            }
+            return usage;
+        }
+
+        @Override
+        public Bundle getBackendInfo() {
+            Bundle info = new Bundle();
+            info.putString("preference", backendPreference.name().toLowerCase());
+            TunnelBackends.Selection selection = backendSelection;
+            if (selection != null) {
+                info.putString("kind", selection.backend.getKind().name().toLowerCase());
+                info.putString("version", selection.backend.getVersion());
+                info.putBoolean("kernelSupport", selection.kernelSupport);
+                info.putBoolean("rootAvailable", selection.rootAvailable);
+                info.putString("reason", selection.reason);
+                info.putLong("selectMs", selection.selectMs);
+            }
+            return info;
+        }
+
+        @Override
+        public Bundle getDnsStats() {
+            Bundle stats = new Bundle();
+            for (java.util.Map.Entry<String, Long> entry : EndpointResolver.getInstance().getStats().entrySet()) {
+                stats.putLong(entry.getKey(), entry.getValue());
+            }
+            return stats;
+        }
+    };
 
     /**
-     * Conectar usando GoBackend REAL dentro del VpnService
+     * Config construido y validado en este proceso (con su propia ConfigCache)
      */
-    private void connectWireGuard(String configString) {
+    private Config buildConfig(TunnelConfigParcel parcel) {
         try {
-            Log.d(TAG, "🚀 Conectando WireGuard con GoBackend...");
-            
-            if (goBackend == null) {
-                Log.e(TAG, "❌ GoBackend no inicializado");
-                sendStatusUpdate("error", false, "GoBackend no inicializado");
-                return;
+            Config config = ConfigCache.getInstance().getOrBuild(parcel.getConfig());
+            EndpointResolver.getInstance().prefetch(EndpointResolver.hostnames(config));
+            return config;
+        } catch (BadConfigException e) {
+            throw new IllegalArgumentException("Configuración inválida: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pasar a servicio iniciado para sobrevivir a que la UI se desenlace
+     */
+    private void ensureStarted() {
+        startService(new Intent(this, WireGuardVpnService.class));
+    }
+
+    /**
+     * Lo que TunnelSession necesita de Android: backend, MTU de camino,
+     * sampler, red, notificación, claves y listeners de estado
+     */
+    private final TunnelSession.Host sessionHost = new TunnelSession.Host() {
+        @Override
+        public TunnelBackend backend() {
+            return ensureBackend();
+        }
+
+        @Override
+        public Config withDiscoveredMtu(Config requested, Config resolved, Config fallback) throws BadConfigException {
+            return WireGuardVpnService.this.withDiscoveredMtu(requested, resolved, fallback);
+        }
+
+        @Override
+        public void scheduleMtuDiscovery(Config requested, Config applied) {
+            WireGuardVpnService.this.scheduleMtuDiscovery(requested, applied);
+        }
+
+        @Override
+        public void startSampling(TunnelBackend backend, Tunnel tunnel, TunnelStatsSampler.HandshakeListener listener) {
+            TunnelStatsSampler.getInstance().attach(backend, tunnel, listener);
+        }
+
+        @Override
+        public void stopSampling() {
+            TunnelStatsSampler.getInstance().detach();
+        }
+
+        @Override
+        public void startNetworkMonitor() {
+            networkMonitor.start();
+        }
+
+        @Override
+        public void stopNetworkMonitor() {
+            networkMonitor.stop();
+        }
+
+        @Override
+        public boolean hasVpnPermission() {
+            return VpnService.prepare(WireGuardVpnService.this) == null;
+        }
+
+        @Override
+        public void showNotification(String endpoint, boolean newSession) {
+            if (newSession) {
+                notifier.startSession();
             }
+            startForegroundNotificationOnly(endpoint);
+        }
 
-            // Parsear configuración usando librería oficial
-            InputStream configStream = new ByteArrayInputStream(configString.getBytes(StandardCharsets.UTF_8));
-            Config wireGuardConfig = Config.parse(configStream);
-            
-            Log.d(TAG, "✅ Configuración WireGuard parseada exitosamente");
+        @Override
+        public void hideNotification() {
+            stopForegroundNotification();
+        }
 
-            // Crear túnel
-            currentTunnel = new Tunnel() {
-                @Override
-                public String getName() {
-                    return "NodexVPN_Real";
-                }
+        @Override
+        public void stopService() {
+            stopSelf();
+        }
 
-                @Override
-                public void onStateChange(State newState) {
-                    Log.d(TAG, "🔄 Estado del túnel cambió: " + newState);
-                    
-                    boolean connected = (newState == State.UP);
-                    String status = connected ? "connected" : "disconnected";
-                    
-                    isConnected = connected;
-                    sendStatusUpdate(status, connected, "Estado del túnel: " + newState);
-                }
-            };
+        @Override
+        public void onStatus(String status, boolean connected, String message, Bundle extras) {
+            sendStatusUpdate(status, connected, message, extras);
+        }
 
-            // ✅ Establecer conexión usando GoBackend dentro del VpnService (CORRECTO)
-            Log.d(TAG, "🔗 Estableciendo túnel con GoBackend...");
-            Tunnel.State state = goBackend.setState(currentTunnel, Tunnel.State.UP, wireGuardConfig);
-            
-            Log.d(TAG, "✅ GoBackend.setState() exitoso! Estado: " + state);
-            
-            if (state == Tunnel.State.UP) {
-                isConnected = true;
-                
-                // Extraer endpoint para la notificación
-                String endpoint = extractEndpoint(configString);
-                startForegroundNotificationOnly(endpoint);
-                
-                sendStatusUpdate("connected", true, "VPN conectado exitosamente");
-                Log.d(TAG, "🎉 VPN REAL conectado exitosamente!");
-                
+        @Override
+        public void onCommandFinished(TunnelController.Command command, TunnelController.Outcome outcome, Throwable error) {
+            // Latencia y resultado de cada comando
+            VpnLog.i(Event.COMMAND_DONE, command.getType(), error != null ? error : outcome,
+                    command.queueLatencyMs(), command.totalLatencyMs());
+        }
+
+        @Override
+        public void onKeyRotated(KeyPair key) {
+            keyPool.commit(key);
+        }
+
+        @Override
+        public void onRotationDropped(KeyPair key) {
+            keyPool.giveBack(key);
+        }
+
+        @Override
+        public void onDisconnected() {
+            usageStore.flushAsync();
+        }
+
+        @Override
+        public void onIncident(HandshakeWatchdog.Incident incident) {
+            if (!incident.isRecovered()) return;
+            Bundle extras = new Bundle();
+            extras.putString("recoveryReason", incident.reason);
+            extras.putLong("recoveredAfterMs", incident.timeToRecoverMs());
+            extras.putInt("recoveryAttempts", incident.attempts);
+            extras.putString("recoveryAction", incident.lastAction);
+            extras.putString("endpoint", WireGuardConfig.extractEndpoint(session.getRequestedConfig()));
+            sendStatusUpdate("connected", true, "Conexión recuperada", extras);
+        }
+    };
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            // Reiniciado por START_STICKY tras morir el proceso
+            restoreFromSnapshot("reinicio del servicio", false, ConnectTracer.Phase.RESTORE, -1);
+            return START_STICKY;
+        }
+        String action = intent.getAction();
+        VpnLog.i(Event.ACTION_RECEIVED, action);
+        
+        if (ACTION_CONNECT_WIREGUARD.equals(action)) {
+            Config config = resolveConfig(intent);
+            if (config != null) {
+                session.submit(TunnelController.Command.connect(config));
+            }
+        } else if (ACTION_SWITCH_SERVER.equals(action)) {
+            Config config = resolveConfig(intent);
+            if (config != null) {
+                session.submit(TunnelController.Command.switchServer(config));
+            }
+        } else if (ACTION_DISCONNECT.equals(action)) {
+            session.submit(TunnelController.Command.disconnect());
+        } else if (ACTION_START_FOREGROUND.equals(action)) {
+            String endpoint = intent.getStringExtra("config_endpoint");
+            startForegroundNotificationOnly(endpoint);
+        } else if (ACTION_STOP.equals(action)) {
+            session.submit(TunnelController.Command.stop());
+        } else if (ACTION_RESTORE.equals(action) || SERVICE_INTERFACE.equals(action)) {
+            // Always-on VPN (directo o vía GoBackend): llega con startForegroundService
+            startForegroundNotificationOnly(null);
+            restoreFromSnapshot("Always-on VPN", true, ConnectTracer.Phase.RESTORE, -1);
+        } else if (ACTION_QUICK_CONNECT.equals(action)) {
+            // Tile o arranque del dispositivo: también llega con startForegroundService
+            startForegroundNotificationOnly(null);
+            if (ORIGIN_TILE.equals(intent.getStringExtra(EXTRA_ORIGIN))) {
+                long requestedAt = intent.getLongExtra(EXTRA_REQUESTED_AT, SystemClock.elapsedRealtime());
+                restoreFromSnapshot("tile", true, ConnectTracer.Phase.QUICK_CONNECT, requestedAt);
             } else {
-                Log.w(TAG, "⚠️ Estado inesperado después de conectar: " + state);
-                sendStatusUpdate("connecting", false, "Conectando... Estado: " + state);
+                restoreFromSnapshot("arranque del dispositivo", false, ConnectTracer.Phase.RESTORE, -1);
+            }
+        }
+        return START_STICKY;
+    }
+
+    /**
+     * Levantar el túnel con la última configuración buena, sin esperar a
+     * React Native. {@code force}: Always-on o el tile piden el túnel aunque
+     * el usuario lo hubiera dejado desconectado. El tiempo hasta UP se
+     * registra en {@code phase} desde {@code originElapsed} (-1: desde que
+     * arrancó el proceso, si es un arranque en frío).
+     */
+    private void restoreFromSnapshot(String reason, boolean force, ConnectTracer.Phase phase, long originElapsed) {
+        if (originElapsed < 0) {
+            // Desde que arrancó el proceso, si es un arranque en frío
+            long startedAt = SystemClock.elapsedRealtime();
+            long processStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? Process.getStartElapsedRealtime() : startedAt;
+            originElapsed = startedAt - processStart < 60_000 ? processStart : startedAt;
+        }
+        session.restore(reason, force, phase, originElapsed);
+    }
+
+    /**
+     * El usuario revocó el permiso o activó otra VPN
+     */
+    @Override
+    public void onRevoke() {
+        VpnLog.w(Event.VPN_REVOKED);
+        session.onRevoke();
+    }
+
+    /**
+     * Obtener el Config del intent: TunnelConfigParcel, clave de ConfigCache
+     * (mismo proceso) o, si no, texto wg-quick como antes
+     */
+    private Config resolveConfig(Intent intent) {
+        TunnelConfigParcel parcel = intent.getParcelableExtra(EXTRA_TUNNEL_CONFIG);
+        if (parcel != null) {
+            try {
+                return buildConfig(parcel);
+            } catch (IllegalArgumentException e) {
+                VpnLog.e(Event.CONFIG_INVALID, e);
+                sendStatusUpdate("error", false, e.getMessage());
+                return null;
             }
+        }
+
+        String configKey = intent.getStringExtra(EXTRA_CONFIG_KEY);
+        if (configKey != null) {
+            Config cached = ConfigCache.getInstance().get(configKey);
+            if (cached != null) {
+                return cached;
+            }
+            VpnLog.w(Event.CONFIG_NOT_CACHED, configKey);
+        }
 
+        String configString = intent.getStringExtra(EXTRA_WIREGUARD_CONFIG);
+        if (configString == null) {
+            sendStatusUpdate("error", false, "Configuración no disponible");
+            return null;
+        }
+        try {
+            InputStream configStream = new ByteArrayInputStream(configString.getBytes(StandardCharsets.UTF_8));
+            return Config.parse(configStream);
         } catch (BadConfigException e) {
-            Log.e(TAG, "❌ Configuración WireGuard inválida: " + e.getMessage(), e);
+            VpnLog.e(Event.CONFIG_INVALID, e);
             sendStatusUpdate("error", false, "Configuración inválida: " + e.getMessage());
         } catch (Exception e) {
-            Log.e(TAG, "❌ Error conectando WireGuard: " + e.getMessage(), e);
-            sendStatusUpdate("error", false, "Error de conexión: " + e.getMessage());
+            VpnLog.e(Event.CONFIG_READ_FAILED, e);
+            sendStatusUpdate("error", false, "Error leyendo configuración: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Elegir el backend si aún no hay uno, o si cambió la preferencia y no
+     * hay túnel activo. Hilo de TunnelController (la detección puede lanzar su).
+     */
+    private TunnelBackend ensureBackend() {
+        TunnelBackends.Selection selection = backendSelection;
+        if (backend != null && (session.isConnected() || selection.preference == backendPreference)) {
+            return backend;
         }
+        selection = TunnelBackends.select(this, backendPreference);
+        backend = selection.backend;
+        backendSelection = selection;
+        return backend;
     }
 
     /**
-     * Desconectar WireGuard
+     * Aplicar el MTU medido para este servidor y esta red, salvo que el
+     * config ya fije uno. Sin medida se usa el de {@code fallback}, si hay.
      */
-    private void disconnectWireGuard() {
+    private Config withDiscoveredMtu(Config requested, Config resolved, Config fallback) throws BadConfigException {
+        Interface iface = resolved.getInterface();
+        if (!pmtuEnabled || requested.getInterface().getMtu().isPresent()) {
+            return resolved;
+        }
+        PmtuProber.Result result = pmtuCache.getFresh(WireGuardConfig.extractEndpoint(requested),
+            networkKey(networkMonitor.getNetwork()), SystemClock.elapsedRealtime());
+        int mtu = result != null ? result.tunnelMtu()
+            : fallback != null ? fallback.getInterface().getMtu().orElse(0) : 0;
+        if (mtu <= 0 || iface.getMtu().orElse(0) == mtu) {
+            return resolved;
+        }
+        Interface.Builder builder = interfaceBuilder(iface)
+            .setKeyPair(iface.getKeyPair())
+            .addAddresses(iface.getAddresses())
+            .setMtu(mtu);
+        return new Config.Builder()
+            .setInterface(builder.build())
+            .addPeers(resolved.getPeers())
+            .build();
+    }
+
+    /**
+     * Builder con DNS, aplicaciones y puerto de {@code iface}; clave,
+     * direcciones y MTU los pone quien lo usa
+     */
+    private static Interface.Builder interfaceBuilder(Interface iface) {
+        Interface.Builder builder = new Interface.Builder()
+            .addDnsServers(iface.getDnsServers())
+            .includeApplications(iface.getIncludedApplications())
+            .excludeApplications(iface.getExcludedApplications());
+        for (String domain : iface.getDnsSearchDomains()) {
+            builder.addDnsSearchDomain(domain);
+        }
+        if (iface.getListenPort().isPresent()) {
+            builder.setListenPort(iface.getListenPort().get());
+        }
+        return builder;
+    }
+
+    /**
+     * Programar la comprobación periódica de la edad de la clave activa
+     */
+    private synchronized void scheduleKeyRotation() {
+        if (keyRotationTask != null) {
+            keyRotationTask.cancel(false);
+            keyRotationTask = null;
+        }
+        if (!keyRotationEnabled) return;
+        long period = Math.max(KEY_ROTATION_MIN_CHECK_MS, Math.min(KEY_ROTATION_MAX_CHECK_MS, keyRotationIntervalMs / 4));
+        keyRotationTask = keyRotationExecutor.scheduleWithFixedDelay(this::maybeRotateKey, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rotar la clave del cliente si el túnel la usa y ya cumplió el intervalo.
+     * Con una clave del servidor (backend sin registro de claves) no se rota.
+     */
+    private void maybeRotateKey() {
+        Config requested = session.getRequestedConfig();
+        if (!session.isConnected() || requested == null || !session.isIdle() || session.isRotating()) return;
+        KeyPool.Active active = keyPool.active();
+        if (active == null || !requested.getInterface().getKeyPair().getPublicKey().equals(active.keyPair.getPublicKey())) {
+            return;
+        }
+        if (System.currentTimeMillis() - active.createdAtMs < keyRotationIntervalMs) return;
+
+        String host = null;
+        for (Peer peer : requested.getPeers()) {
+            if (peer.getEndpoint().isPresent()) {
+                host = peer.getEndpoint().get().getHost();
+                break;
+            }
+        }
+        if (host == null) return;
+
+        // Registrar primero: hasta que el servidor conozca la clave nueva, el túnel sigue con la anterior
+        KeyPair next = keyPool.take();
+        long start = ConnectTracer.now();
+        ConfigProvisioner.Result result;
         try {
-            Log.d(TAG, "🔌 Desconectando WireGuard...");
+            result = provisioner.register(host, next.getPublicKey().toBase64());
+        } catch (IOException e) {
+            VpnLog.w(Event.KEY_REGISTRATION_FAILED, e);
+            keyPool.giveBack(next);
+            return;
+        }
+        ConnectTracer.getInstance().record(ConnectTracer.Phase.ROTATION_REGISTRATION, start);
+        if (result.hasPrivateKey()) {
+            VpnLog.w(Event.KEY_REGISTRATION_UNSUPPORTED);
+            keyPool.giveBack(next);
+            return;
+        }
 
-            if (goBackend != null && currentTunnel != null) {
-                Tunnel.State state = goBackend.setState(currentTunnel, Tunnel.State.DOWN, null);
-                Log.d(TAG, "✅ VPN desconectado. Estado: " + state);
+        Config rotated;
+        try {
+            Interface iface = requested.getInterface();
+            Interface.Builder builder = interfaceBuilder(iface).setKeyPair(next);
+            // El servidor puede asignar otra dirección a la clave nueva
+            String addresses = ConfigProvisioner.value(result.config, "Address");
+            if (addresses != null) {
+                builder.parseAddresses(addresses);
+            } else {
+                builder.addAddresses(iface.getAddresses());
             }
+            if (iface.getMtu().isPresent()) {
+                builder.setMtu(iface.getMtu().get());
+            }
+            rotated = new Config.Builder()
+                .setInterface(builder.build())
+                .addPeers(requested.getPeers())
+                .build();
+        } catch (BadConfigException e) {
+            VpnLog.e(Event.KEY_CONFIG_INVALID, e);
+            keyPool.giveBack(next);
+            return;
+        }
 
-            isConnected = false;
-            currentTunnel = null;
-            
-            stopForeground(true);
-            sendStatusUpdate("disconnected", false, "VPN desconectado");
-            
-        } catch (Exception e) {
-            Log.e(TAG, "❌ Error desconectando: " + e.getMessage(), e);
-            sendStatusUpdate("error", false, "Error desconectando: " + e.getMessage());
+        if (!session.isConnected() || session.getRequestedConfig() != requested) {
+            keyPool.giveBack(next);
+            return;
         }
+        // Cambio de [Interface] sobre el mismo túnel: sin pasar por "disconnected"
+        VpnLog.d(Event.KEY_ROTATING, (ConnectTracer.now() - start) / 1_000_000);
+        session.submitRotation(rotated, next);
     }
 
     /**
-     * Extraer endpoint de la configuración para mostrar en notificación
+     * Medir el MTU de camino hacia el endpoint aplicado (fuera del túnel,
+     * por la red física) si no hay una medida vigente. Si el MTU bueno no
+     * es el aplicado, se re-aplica el túnel con un REBIND.
      */
-    private String extractEndpoint(String configString) {
-        try {
-            String[] lines = configString.split("\n");
-            for (String line : lines) {
-                line = line.trim();
-                if (line.startsWith("Endpoint = ")) {
-                    return line.substring(11);
-                }
+    private void scheduleMtuDiscovery(final Config requested, final Config applied) {
+        if (!pmtuEnabled || requested.getInterface().getMtu().isPresent()) return;
+        InetEndpoint endpoint = null;
+        for (Peer peer : applied.getPeers()) {
+            if (peer.getEndpoint().isPresent()) {
+                endpoint = peer.getEndpoint().get();
+                break;
             }
-        } catch (Exception e) {
-            Log.w(TAG, "Error extrayendo endpoint: " + e.getMessage());
         }
-        return "Servidor VPN";
+        if (endpoint == null) return;
+
+        final String server = WireGuardConfig.extractEndpoint(requested);
+        // El endpoint aplicado ya es una dirección literal: no hay DNS aquí
+        final InetSocketAddress target = new InetSocketAddress(endpoint.getHost(), endpoint.getPort());
+        final int appliedMtu = applied.getInterface().getMtu().orElse(GO_BACKEND_DEFAULT_MTU);
+        final PmtuProber.Options options = new PmtuProber.Options();
+        options.echoPort = pmtuEchoPort;
+        pmtuExecutor.schedule(() -> {
+            if (!session.isConnected() || session.getRequestedConfig() != requested) return;
+            Network network = networkMonitor.getNetwork();
+            String networkKey = networkKey(network);
+            // Una medida vigente que no llegó a aplicarse (la red aún no era estable) también cuenta
+            PmtuProber.Result result = pmtuCache.getFresh(server, networkKey, SystemClock.elapsedRealtime());
+            if (result == null) {
+                try {
+                    result = new PmtuProber(new AndroidPmtuSocket(WireGuardVpnService.this, network)).probe(target, options);
+                } catch (IOException | RuntimeException e) {
+                    VpnLog.w(Event.PMTU_FAILED, server, e);
+                    return;
+                }
+                pmtuCache.put(server, networkKey, result, SystemClock.elapsedRealtime());
+                VpnLog.d(Event.PMTU_RESULT, server, result);
+            }
+            if (result.tunnelMtu() != appliedMtu && session.isConnected() && session.getRequestedConfig() == requested) {
+                session.submit(TunnelController.Command.rebind(requested));
+            }
+        }, PMTU_PROBE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static String networkKey(Network network) {
+        return network != null ? network.toString() : "default";
     }
 
     /**
      * Enviar actualización de estado a React Native
      */
     private void sendStatusUpdate(String status, boolean connected, String message) {
-        Intent broadcast = new Intent(ACTION_VPN_STATUS_CHANGED);
-        broadcast.putExtra("status", status);
-        broadcast.putExtra("connected", connected);
-        broadcast.putExtra("message", message);
+        sendStatusUpdate(status, connected, message, null);
+    }
+
+    private void sendStatusUpdate(String status, boolean connected, String message, Bundle extras) {
+        lastStatus = status;
+        lastMessage = message;
+        currentStatus = status;
+        VpnTileService.requestUpdate(this);
         
-        LocalBroadcastManager.getInstance(this).sendBroadcast(broadcast);
-        Log.d(TAG, "📡 Estado enviado: " + status + " (" + connected + ") - " + message);
+        synchronized (statusListeners) {
+            int count = statusListeners.beginBroadcast();
+            try {
+                for (int i = 0; i < count; i++) {
+                    try {
+                        statusListeners.getBroadcastItem(i).onStatusChanged(status, connected, message, extras);
+                    } catch (RemoteException e) {
+                        // El proceso del listener murió; RemoteCallbackList lo quita solo
+                    }
+                }
+            } finally {
+                statusListeners.finishBroadcast();
+            }
+        }
+        VpnLog.i(Event.STATUS_SENT, status, message, VpnLog.flag(connected));
     }
 
     /**
      * Iniciar notificación persistente
      */
     private void startForegroundNotificationOnly(String endpoint) {
-        Log.d(TAG, "📱 Iniciando notificación persistente...");
-        
         createNotificationChannel();
-        Notification notification = createVpnNotification(endpoint);
-        startForeground(NOTIFICATION_ID, notification);
-        
-        Log.d(TAG, "✅ Notificación persistente iniciada");
+        startForeground(NOTIFICATION_ID, notifier.show(endpoint));
+        VpnLog.d(Event.NOTIFICATION_STARTED);
     }
 
     /**
-     * Crear notificación para VPN
+     * Quitar la notificación y dejar de actualizarla
      */
-    private Notification createVpnNotification(String endpoint) {
-        Intent notificationIntent = new Intent(this, MainActivity.class);
-        notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        
-        PendingIntent pendingIntent = PendingIntent.getActivity(
-            this, 0, notificationIntent, 
-            Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0
-        );
-
-        String connectionInfo = "Túnel WireGuard activo";
-        if (endpoint != null && !endpoint.isEmpty()) {
-            connectionInfo = "Conectado a " + endpoint;
-        }
-
-        return new NotificationCompat.Builder(this, CHANNEL_ID)
-            .setContentTitle("🔒 NodeX VPN Activo")
-            .setContentText(connectionInfo)
-            .setSubText("WireGuard Real - Toca para gestionar")
-            .setSmallIcon(android.R.drawable.ic_lock_lock)
-            .setContentIntent(pendingIntent)
-            .setOngoing(true)
-            .setAutoCancel(false)
-            .setShowWhen(true)
-            .setPriority(NotificationCompat.PRIORITY_LOW)
-            .setCategory(NotificationCompat.CATEGORY_SERVICE)
-            .build();
+    private void stopForegroundNotification() {
+        notifier.stop();
+        stopForeground(true);
     }
 
     /**
@@ -277,12 +895,26 @@ public class WireGuardVpnService extends VpnService {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        Log.d(TAG, "🔚 WireGuardVpnService destruido");
-        disconnectWireGuard();
+        VpnLog.i(Event.SERVICE_DESTROYED);
+        // Bajar el túnel en el hilo de control y terminar el bucle
+        session.release();
+        statusListeners.kill();
+        TunnelStatsSampler.getInstance().setListener(null);
+        networkMonitor.release();
+        snapshotWriter.shutdown();
+        pmtuExecutor.shutdownNow();
+        keyRotationExecutor.shutdownNow();
+        usageStore.close();
+        notifier.release();
+        VpnLog.flushNow();
     }
 
     @Override
-    public android.os.IBinder onBind(Intent intent) {
-        return null;
+    public IBinder onBind(Intent intent) {
+        // El sistema enlaza con la acción de VpnService; la UI con la de control
+        if (intent != null && ACTION_BIND_CONTROL.equals(intent.getAction())) {
+            return controlBinder;
+        }
+        return super.onBind(intent);
     }
 } 
\ No newline at end of file
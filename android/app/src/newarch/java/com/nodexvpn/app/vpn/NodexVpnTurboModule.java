@@ -0,0 +1,79 @@
+package com.nodexvpn.app.vpn;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Módulo VPN para la nueva arquitectura (TurboModule generado desde
+ * src/specs/NativeNodexVpnTurbo.ts).
+ *
+ * Las lecturas se sirven por JSI desde campos volátiles del módulo legacy:
+ * sin Promise, sin WritableMap y sin saltar de hilo. Las operaciones
+ * asíncronas delegan en {@link RealWireGuardModule}, que sigue siendo el
+ * dueño del estado y de la conexión con el proceso :vpn.
+ */
+public class NodexVpnTurboModule extends NativeNodexVpnTurboSpec {
+
+    private final RealWireGuardModule legacy;
+
+    public NodexVpnTurboModule(ReactApplicationContext reactContext, RealWireGuardModule legacy) {
+        super(reactContext);
+        this.legacy = legacy;
+    }
+
+    @Override
+    public double getStateCode() {
+        return legacy.currentSnapshot().state.ordinal();
+    }
+
+    @Override
+    public double getStateVersion() {
+        return legacy.currentSnapshot().version;
+    }
+
+    @Override
+    public double getRxBytes() {
+        return legacy.liveRxBytes();
+    }
+
+    @Override
+    public double getTxBytes() {
+        return legacy.liveTxBytes();
+    }
+
+    @Override
+    public double getRxBytesPerSec() {
+        return legacy.liveRxRate();
+    }
+
+    @Override
+    public double getTxBytesPerSec() {
+        return legacy.liveTxRate();
+    }
+
+    @Override
+    public double getHandshakeAgeMs() {
+        return legacy.liveHandshakeAgeMs();
+    }
+
+    @Override
+    public double getStatsTimestamp() {
+        return legacy.liveTimestamp();
+    }
+
+    @Override
+    public void connect(ReadableMap config, Promise promise) {
+        legacy.connect(config, promise);
+    }
+
+    @Override
+    public void switchServer(ReadableMap config, Promise promise) {
+        legacy.switchServer(config, promise);
+    }
+
+    @Override
+    public void disconnect(Promise promise) {
+        legacy.disconnect(promise);
+    }
+}
@@ -0,0 +1,87 @@
+package com.nodexvpn.app.vpn;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Misma API que la versión TurboModule (src/newarch) para la arquitectura
+ * antigua: las lecturas son métodos síncronos del bridge, así que el JS
+ * no cambia al migrar.
+ */
+public class NodexVpnTurboModule extends ReactContextBaseJavaModule {
+
+    public static final String NAME = "NodexVpnTurbo";
+
+    private final RealWireGuardModule legacy;
+
+    public NodexVpnTurboModule(ReactApplicationContext reactContext, RealWireGuardModule legacy) {
+        super(reactContext);
+        this.legacy = legacy;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public double getStateCode() {
+        return legacy.currentSnapshot().state.ordinal();
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public double getStateVersion() {
+        return legacy.currentSnapshot().version;
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public double getRxBytes() {
+        return legacy.liveRxBytes();
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public double getTxBytes() {
+        return legacy.liveTxBytes();
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public double getRxBytesPerSec() {
+        return legacy.liveRxRate();
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public double getTxBytesPerSec() {
+        return legacy.liveTxRate();
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public double getHandshakeAgeMs() {
+        return legacy.liveHandshakeAgeMs();
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public double getStatsTimestamp() {
+        return legacy.liveTimestamp();
+    }
+
+    @ReactMethod
+    public void connect(ReadableMap config, Promise promise) {
+        legacy.connect(config, promise);
+    }
+
+    @ReactMethod
+    public void switchServer(ReadableMap config, Promise promise) {
+        legacy.switchServer(config, promise);
+    }
+
+    @ReactMethod
+    public void disconnect(Promise promise) {
+        legacy.disconnect(promise);
+    }
+}
@@ -0,0 +1,479 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConfigProvisioner contra un servidor HTTP en loopback: ETag y 304,
+ * peticiones compartidas, stale-while-revalidate, Cache-Control, caché en
+ * disco y entradas por clave pública.
+ */
+public class ConfigProvisionerTest {
+
+    private static final String HOST = "srv1";
+    private static final String KEY_A = "clientKeyA";
+    private static final String KEY_B = "clientKeyB";
+
+    private HttpServer server;
+    private String urlFormat;
+    private File dir;
+    private final List<ConfigProvisioner> provisioners = new ArrayList<>();
+
+    // Respuesta del servidor, ajustable por test
+    private volatile String config = config("10.0.0.2/32");
+    private volatile String etag = "\"v1\"";
+    private volatile String cacheControl = "max-age=3600";
+    private volatile int status = 200;
+    private volatile long delayMs = 0;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+    private static final class Request {
+        final String path;
+        final String ifNoneMatch;
+        final JSONObject body;
+
+        Request(String path, String ifNoneMatch, JSONObject body) {
+            this.path = path;
+            this.ifNoneMatch = ifNoneMatch;
+            this.body = body;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("provisioning").toFile();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        urlFormat = "http://127.0.0.1:" + server.getAddress().getPort() + "/%s/wireguard-config";
+    }
+
+    @After
+    public void tearDown() {
+        for (ConfigProvisioner provisioner : provisioners) {
+            provisioner.shutdown();
+        }
+        server.stop(0);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void firstGetDownloadsAndSecondIsServedFromCache() throws Exception {
+        ConfigProvisioner provisioner = provisioner();
+
+        ConfigProvisioner.Result first = get(provisioner, HOST, null, false, false);
+        ConfigProvisioner.Result second = get(provisioner, HOST, null, false, false);
+
+        assertEquals(ConfigProvisioner.Source.NETWORK, first.source);
+        assertEquals(config, first.config);
+        assertEquals("\"v1\"", first.etag);
+        assertTrue(first.requestNanos > 0);
+        assertEquals(ConfigProvisioner.Source.CACHE, second.source);
+        assertEquals(0, second.requestNanos);
+        assertEquals(1, provisioner.requestCount());
+        assertEquals("/srv1/wireguard-config", requests.get(0).path);
+        assertNull(requests.get(0).ifNoneMatch);
+    }
+
+    @Test
+    public void expiredEntryIsRevalidatedWithEtagAndRenewedOn304() throws Exception {
+        cacheControl = "max-age=0";
+        ConfigProvisioner provisioner = provisioner();
+        ConfigProvisioner.Result first = get(provisioner, HOST, null, false, false);
+
+        // El servidor ya no mandaría el cuerpo: solo vale el 304
+        cacheControl = "max-age=3600";
+        ConfigProvisioner.Result second = get(provisioner, HOST, null, false, false);
+
+        assertEquals(ConfigProvisioner.Source.NOT_MODIFIED, second.source);
+        assertEquals("\"v1\"", requests.get(1).ifNoneMatch);
+        assertEquals(first.config, second.config);
+        assertEquals("\"v1\"", second.etag);
+        assertTrue(second.expiresAtMs > System.currentTimeMillis() + 3000_000);
+        assertEquals(2, provisioner.requestCount());
+        assertEquals(1, provisioner.notModifiedCount());
+
+        // Renovada por el 304: la siguiente sale de la caché
+        assertEquals(ConfigProvisioner.Source.CACHE, get(provisioner, HOST, null, false, false).source);
+        assertEquals(2, provisioner.requestCount());
+    }
+
+    @Test
+    public void changedEtagReplacesTheConfig() throws Exception {
+        cacheControl = "max-age=0";
+        ConfigProvisioner provisioner = provisioner();
+        get(provisioner, HOST, null, false, false);
+
+        config = config("10.0.0.9/32");
+        etag = "\"v2\"";
+        ConfigProvisioner.Result second = get(provisioner, HOST, null, false, false);
+
+        assertEquals(ConfigProvisioner.Source.NETWORK, second.source);
+        assertEquals("10.0.0.9/32", ConfigProvisioner.value(second.config, "Address"));
+        assertEquals("\"v2\"", second.etag);
+        assertEquals(0, provisioner.notModifiedCount());
+    }
+
+    @Test
+    public void forceSkipsTheFreshCache() throws Exception {
+        ConfigProvisioner provisioner = provisioner();
+        get(provisioner, HOST, null, false, false);
+
+        ConfigProvisioner.Result forced = get(provisioner, HOST, null, false, true);
+
+        assertEquals(ConfigProvisioner.Source.NOT_MODIFIED, forced.source);
+        assertEquals(2, provisioner.requestCount());
+    }
+
+    @Test
+    public void concurrentGetsAndPrefetchShareOneRequest() throws Exception {
+        delayMs = 300;
+        ConfigProvisioner provisioner = provisioner();
+
+        provisioner.prefetch(Arrays.asList(HOST), KEY_A, 1);
+        List<CompletableFuture<ConfigProvisioner.Result>> gets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            gets.add(getAsync(provisioner, HOST, KEY_A, false, false));
+        }
+        for (CompletableFuture<ConfigProvisioner.Result> future : gets) {
+            ConfigProvisioner.Result result = future.get(5, TimeUnit.SECONDS);
+            assertEquals(config, result.config);
+        }
+
+        assertEquals(1, provisioner.requestCount());
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void staleEntryIsReturnedAtOnceAndRevalidatedInBackground() throws Exception {
+        cacheControl = "max-age=0";
+        ConfigProvisioner provisioner = provisioner();
+        ConfigProvisioner.Result first = get(provisioner, HOST, null, false, false);
+
+        config = config("10.0.0.7/32");
+        etag = "\"v2\"";
+        delayMs = 200;
+        long start = System.nanoTime();
+        ConfigProvisioner.Result stale = get(provisioner, HOST, null, true, false);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // La caducada sale sin esperar al servidor
+        assertEquals(ConfigProvisioner.Source.STALE, stale.source);
+        assertEquals(first.config, stale.config);
+        assertTrue("tardó " + elapsedMs, elapsedMs < 150);
+
+        awaitRequests(provisioner, 2);
+        // La revalidación deja la nueva en caché (otra vez caducada por max-age=0)
+        long deadline = System.currentTimeMillis() + 5000;
+        ConfigProvisioner.Result next;
+        do {
+            next = get(provisioner, HOST, null, true, false);
+            if (!next.config.equals(first.config)) break;
+            Thread.sleep(20);
+        } while (System.currentTimeMillis() < deadline);
+        assertEquals("10.0.0.7/32", ConfigProvisioner.value(next.config, "Address"));
+        assertEquals("\"v1\"", requests.get(1).ifNoneMatch);
+    }
+
+    @Test
+    public void staleEntryWithoutAllowStaleWaitsForTheServer() throws Exception {
+        cacheControl = "max-age=0";
+        ConfigProvisioner provisioner = provisioner();
+        get(provisioner, HOST, null, false, false);
+
+        ConfigProvisioner.Result result = get(provisioner, HOST, null, false, false);
+
+        assertEquals(ConfigProvisioner.Source.NOT_MODIFIED, result.source);
+        assertEquals(2, provisioner.requestCount());
+    }
+
+    @Test
+    public void noStoreAlwaysRevalidates() throws Exception {
+        cacheControl = "no-store";
+        ConfigProvisioner provisioner = provisioner();
+
+        get(provisioner, HOST, null, false, false);
+        get(provisioner, HOST, null, false, false);
+        get(provisioner, HOST, null, false, false);
+
+        assertEquals(3, provisioner.requestCount());
+    }
+
+    @Test
+    public void maxAgeParsing() {
+        assertEquals(ConfigProvisioner.DEFAULT_TTL_MS, ConfigProvisioner.maxAgeMs(null));
+        assertEquals(ConfigProvisioner.DEFAULT_TTL_MS, ConfigProvisioner.maxAgeMs("public"));
+        assertEquals(120_000, ConfigProvisioner.maxAgeMs("max-age=120"));
+        assertEquals(5_000, ConfigProvisioner.maxAgeMs("public, Max-Age=5"));
+        assertEquals(0, ConfigProvisioner.maxAgeMs("max-age=0"));
+        assertEquals(0, ConfigProvisioner.maxAgeMs("max-age=-5"));
+        assertEquals(0, ConfigProvisioner.maxAgeMs("no-store"));
+        assertEquals(0, ConfigProvisioner.maxAgeMs("no-cache, max-age=60"));
+        assertEquals(ConfigProvisioner.DEFAULT_TTL_MS, ConfigProvisioner.maxAgeMs("max-age=abc"));
+    }
+
+    @Test
+    public void maxAgeFromTheResponseSetsTheExpiry() throws Exception {
+        cacheControl = "private, max-age=60";
+        ConfigProvisioner provisioner = provisioner();
+
+        ConfigProvisioner.Result result = get(provisioner, HOST, null, false, false);
+
+        assertEquals(60_000, result.expiresAtMs - result.fetchedAtMs);
+    }
+
+    @Test
+    public void diskCacheIsReloadedByANewInstance() throws Exception {
+        ConfigProvisioner first = provisioner();
+        ConfigProvisioner.Result fetched = get(first, HOST, KEY_A, false, false);
+        first.shutdown();
+
+        server.stop(0);
+        ConfigProvisioner second = provisioner();
+        ConfigProvisioner.Result cached = get(second, HOST, KEY_A, false, false);
+
+        assertEquals(ConfigProvisioner.Source.CACHE, cached.source);
+        assertEquals(fetched.config, cached.config);
+        assertEquals(fetched.etag, cached.etag);
+        assertEquals(fetched.expiresAtMs, cached.expiresAtMs);
+        assertEquals(0, second.requestCount());
+    }
+
+    @Test
+    public void clientIdIsStableAcrossInstances() throws Exception {
+        get(provisioner(), HOST, null, false, true);
+        get(provisioner(), HOST, null, false, true);
+
+        String userId = requests.get(0).body.getString("userId");
+        assertTrue(userId.startsWith("mobile-user-"));
+        assertEquals(userId, requests.get(1).body.getString("userId"));
+    }
+
+    @Test
+    public void unreadableDiskCacheIsDiscarded() throws Exception {
+        try (OutputStream out = new FileOutputStream(new File(dir, "cfg_" + HOST))) {
+            out.write("basura".getBytes(StandardCharsets.UTF_8));
+        }
+        ConfigProvisioner provisioner = provisioner();
+
+        ConfigProvisioner.Result result = get(provisioner, HOST, null, false, false);
+
+        assertEquals(ConfigProvisioner.Source.NETWORK, result.source);
+        assertNull(requests.get(0).ifNoneMatch);
+        // Reescrita con el formato correcto
+        assertEquals(ConfigProvisioner.Source.CACHE, get(provisioner(), HOST, null, false, false).source);
+    }
+
+    @Test
+    public void clearDropsMemoryAndDisk() throws Exception {
+        ConfigProvisioner provisioner = provisioner();
+        get(provisioner, HOST, null, false, false);
+
+        provisioner.clear();
+
+        assertEquals(ConfigProvisioner.Source.NETWORK, get(provisioner, HOST, null, false, false).source);
+        assertEquals(2, provisioner.requestCount());
+    }
+
+    @Test
+    public void cacheEntryIsKeyedByPublicKey() throws Exception {
+        ConfigProvisioner provisioner = provisioner();
+
+        ConfigProvisioner.Result withA = get(provisioner, HOST, KEY_A, false, false);
+        assertEquals(KEY_A, requests.get(0).body.getString("publicKey"));
+        assertEquals(ConfigProvisioner.Source.CACHE, get(provisioner, HOST, KEY_A, false, false).source);
+
+        // Otra clave no reutiliza la entrada ni su ETag
+        ConfigProvisioner.Result withB = get(provisioner, HOST, KEY_B, false, false);
+        assertEquals(ConfigProvisioner.Source.NETWORK, withB.source);
+        assertEquals(KEY_B, requests.get(1).body.getString("publicKey"));
+        assertNull(requests.get(1).ifNoneMatch);
+
+        // Sin clave: el servidor elige, tampoco vale la entrada de B
+        assertEquals(ConfigProvisioner.Source.NETWORK, get(provisioner, HOST, null, false, false).source);
+        assertTrue(!requests.get(2).body.has("publicKey"));
+        assertEquals(3, provisioner.requestCount());
+        assertEquals(withA.config, withB.config);
+    }
+
+    @Test
+    public void registerAlwaysAsksTheServer() throws Exception {
+        ConfigProvisioner provisioner = provisioner();
+        get(provisioner, HOST, KEY_A, false, false);
+
+        ConfigProvisioner.Result registered = provisioner.register(HOST, KEY_B);
+
+        assertEquals(ConfigProvisioner.Source.NETWORK, registered.source);
+        assertEquals(KEY_B, requests.get(1).body.getString("publicKey"));
+        // La entrada pasa a ser la de la clave nueva
+        assertEquals(ConfigProvisioner.Source.CACHE, get(provisioner, HOST, KEY_B, false, false).source);
+        assertEquals(2, provisioner.requestCount());
+    }
+
+    @Test
+    public void serverErrorIsReported() throws Exception {
+        status = 500;
+        ConfigProvisioner provisioner = provisioner();
+
+        try {
+            get(provisioner, HOST, null, false, false);
+            fail("sin error");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("500"));
+        }
+        assertEquals(0, dir.listFiles((d, name) -> name.startsWith("cfg_")).length);
+    }
+
+    @Test
+    public void extractConfigAcceptsEveryKnownShape() throws Exception {
+        assertEquals("A", ConfigProvisioner.extractConfig("{\"success\":true,\"data\":{\"config\":\"A\"}}"));
+        assertEquals("B", ConfigProvisioner.extractConfig("{\"success\":true,\"config\":\"B\"}"));
+        assertEquals("C", ConfigProvisioner.extractConfig("{\"success\":true,\"data\":\"C\"}"));
+        for (String bad : Arrays.asList("{\"success\":false,\"error\":\"x\"}", "{\"success\":true}",
+                "{\"success\":true,\"config\":\"  \"}", "no es json")) {
+            try {
+                ConfigProvisioner.extractConfig(bad);
+                fail("aceptó " + bad);
+            } catch (IOException expected) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void valueFindsKeysCaseInsensitively() {
+        String text = "[Interface]\nprivatekey = abc\nAddress = 10.0.0.2/32\nDNS =\n";
+        assertEquals("abc", ConfigProvisioner.value(text, "PrivateKey"));
+        assertEquals("10.0.0.2/32", ConfigProvisioner.value(text, "Address"));
+        assertNull(ConfigProvisioner.value(text, "DNS"));
+        assertNull(ConfigProvisioner.value(text, "MTU"));
+    }
+
+    private ConfigProvisioner provisioner() {
+        ConfigProvisioner provisioner = new ConfigProvisioner(dir, urlFormat);
+        provisioners.add(provisioner);
+        return provisioner;
+    }
+
+    private static ConfigProvisioner.Result get(ConfigProvisioner provisioner, String host, String publicKey,
+                                                boolean allowStale, boolean force) throws Exception {
+        try {
+            return getAsync(provisioner, host, publicKey, allowStale, force).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static CompletableFuture<ConfigProvisioner.Result> getAsync(ConfigProvisioner provisioner, String host,
+                                                                        String publicKey, boolean allowStale,
+                                                                        boolean force) {
+        CompletableFuture<ConfigProvisioner.Result> future = new CompletableFuture<>();
+        provisioner.get(host, publicKey, allowStale, force, new ConfigProvisioner.Callback() {
+            @Override
+            public void onResult(ConfigProvisioner.Result result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private static void awaitRequests(ConfigProvisioner provisioner, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (provisioner.requestCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, provisioner.requestCount());
+    }
+
+    private static String config(String address) {
+        return "[Interface]\nAddress = " + address + "\nDNS = 1.1.1.1\n\n[Peer]\nPublicKey = server\n"
+            + "AllowedIPs = 0.0.0.0/0\nEndpoint = 127.0.0.1:51820\n";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            JSONObject body = new JSONObject(new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8));
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            requests.add(new Request(exchange.getRequestURI().getPath(), ifNoneMatch, body));
+            if (delayMs > 0) Thread.sleep(delayMs);
+
+            String currentEtag = etag;
+            if (currentEtag != null) exchange.getResponseHeaders().set("ETag", currentEtag);
+            exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            if (currentEtag != null && currentEtag.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            JSONObject data = new JSONObject().put("config", config);
+            byte[] response = new JSONObject().put("success", true).put("data", data).toString()
+                .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (Exception e) {
+            exchange.sendResponseHeaders(599, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.nodexvpn.app.vpn.ConnectTracer.Phase;
+import com.nodexvpn.app.vpn.ConnectTracer.Summary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Archivo de ConnectTracer: los histogramas sobreviven a un reinicio y a
+ * una versión con más fases, incluidos los archivos de la versión 1.
+ */
+public class ConnectTracerTest {
+
+    private static final int MAGIC = 0x4e58434d;
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tracer").toFile();
+        file = new File(dir, "connect_metrics_vpn.bin");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void histogramsSurviveARestart() throws Exception {
+        ConnectTracer tracer = new ConnectTracer(file);
+        tracer.recordNanos(Phase.SET_STATE, 120_000_000);
+        tracer.recordNanos(Phase.SET_STATE, 80_000_000);
+        tracer.recordNanos(Phase.ROTATION_OUTAGE, 3_000_000);
+
+        Map<Phase, Summary> loaded = awaitSaved(2);
+        assertEquals(2, loaded.get(Phase.SET_STATE).count);
+        assertEquals(120_000, loaded.get(Phase.SET_STATE).maxUs);
+        assertEquals(1, loaded.get(Phase.ROTATION_OUTAGE).count);
+    }
+
+    @Test
+    public void versionOneFileIsMigratedByPhaseName() throws Exception {
+        // Archivo de la primera versión: 11 fases, sin nombres
+        LatencyHistogram setState = new LatencyHistogram();
+        setState.record(95_000);
+        LatencyHistogram total = new LatencyHistogram();
+        total.record(400_000);
+        total.record(500_000);
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 11 * LatencyHistogram.SERIALIZED_SIZE);
+        buffer.putInt(MAGIC).putInt(1).putInt(11).putInt(0);
+        for (int i = 0; i < 11; i++) {
+            (i == 4 ? total : i == 8 ? setState : new LatencyHistogram()).writeTo(buffer);
+        }
+        Files.write(file.toPath(), buffer.array());
+
+        ConnectTracer tracer = new ConnectTracer(file);
+        tracer.load();
+
+        Map<Phase, Summary> summary = tracer.summary();
+        assertEquals(2, summary.size());
+        assertEquals(1, summary.get(Phase.SET_STATE).count);
+        assertEquals(2, summary.get(Phase.TOTAL).count);
+
+        // Al guardar pasa al formato nuevo sin perder nada
+        tracer.recordNanos(Phase.KEY_REGISTRATION, 7_000_000);
+        Map<Phase, Summary> loaded = awaitSaved(3);
+        assertEquals(1, loaded.get(Phase.SET_STATE).count);
+        assertEquals(2, loaded.get(Phase.TOTAL).count);
+        assertEquals(1, loaded.get(Phase.KEY_REGISTRATION).count);
+    }
+
+    @Test
+    public void unknownPhasesAreSkipped() throws Exception {
+        LatencyHistogram queue = new LatencyHistogram();
+        queue.record(1_500);
+        LatencyHistogram gone = new LatencyHistogram();
+        gone.record(9_000);
+        byte[] goneName = "REMOVED_PHASE".getBytes(StandardCharsets.UTF_8);
+        byte[] queueName = "QUEUE".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 2 * (2 + LatencyHistogram.SERIALIZED_SIZE)
+            + goneName.length + queueName.length);
+        buffer.putInt(MAGIC).putInt(2).putInt(2).putInt(0);
+        buffer.putShort((short) goneName.length).put(goneName);
+        gone.writeTo(buffer);
+        buffer.putShort((short) queueName.length).put(queueName);
+        queue.writeTo(buffer);
+        Files.write(file.toPath(), buffer.array());
+
+        ConnectTracer tracer = new ConnectTracer(file);
+        tracer.load();
+
+        Map<Phase, Summary> summary = tracer.summary();
+        assertEquals(1, summary.size());
+        assertEquals(1_500, summary.get(Phase.QUEUE).lastUs);
+    }
+
+    @Test
+    public void truncatedFileLoadsNothing() throws Exception {
+        ConnectTracer tracer = new ConnectTracer(file);
+        tracer.recordNanos(Phase.QUEUE, 2_000_000);
+        awaitSaved(1);
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        byte[] truncated = new byte[data.length - 100];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        Files.write(file.toPath(), truncated);
+
+        ConnectTracer reloaded = new ConnectTracer(file);
+        reloaded.load();
+        assertTrue(reloaded.summary().isEmpty());
+    }
+
+    /** El guardado es asíncrono: esperar a que un proceso nuevo vea {@code phases} fases */
+    private Map<Phase, Summary> awaitSaved(int phases) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            ConnectTracer reloaded = new ConnectTracer(file);
+            reloaded.load();
+            Map<Phase, Summary> summary = reloaded.summary();
+            if (summary.size() == phases) return summary;
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("sin guardar: " + summary.keySet());
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,884 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+
+import com.wireguard.android.backend.Tunnel;
+import com.wireguard.config.Config;
+import com.wireguard.config.InetNetwork;
+import com.wireguard.config.Interface;
+import com.wireguard.config.Peer;
+import com.wireguard.crypto.KeyPair;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connect, cambio de servidor, re-enlace, rotación, watchdog y restauración
+ * desde la instantánea: el {@link TunnelSession} del servicio sobre
+ * {@link FakeTunnelBackend}, sin TUN ni red.
+ *
+ * {@link TestHost} pone lo que en el servicio depende de Android. Backend,
+ * sesión, watchdog y muestras comparten un reloj manual, así que nada espera
+ * tiempo real salvo el test de ráfagas.
+ */
+public class FakeTunnelBackendTest {
+
+    private File dir;
+    private final List<TestHost> hosts = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tunnel").toFile();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        for (TestHost host : hosts) {
+            host.release();
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    // ---- Backend ----
+
+    @Test
+    public void trafficFlowsOnlyAfterTheHandshake() throws Exception {
+        ManualClock clock = new ManualClock();
+        FakeTunnelBackend backend = new FakeTunnelBackend(options(30), clock);
+        TestTunnel tunnel = new TestTunnel();
+        TunnelBackend.Totals totals = new TunnelBackend.Totals();
+
+        backend.setState(tunnel, Tunnel.State.UP, config("198.51.100.1"));
+        long upAt = clock.nowMs();
+        backend.readTotals(tunnel, totals);
+        assertEquals(0, totals.latestHandshakeEpochMillis);
+        assertEquals(0, totals.rxBytes);
+
+        clock.advance(1030);
+        backend.readTotals(tunnel, totals);
+        assertEquals(upAt + 30, totals.latestHandshakeEpochMillis);
+        assertEquals(250_000, totals.rxBytes);
+        assertEquals(50_000, totals.txBytes);
+
+        // Rehandshake cada 120 s
+        clock.advance(120_000);
+        backend.readTotals(tunnel, totals);
+        assertEquals(upAt + 30 + 120_000, totals.latestHandshakeEpochMillis);
+    }
+
+    @Test
+    public void sameConfigInstanceKeepsTheDevice() throws Exception {
+        ManualClock clock = new ManualClock();
+        FakeTunnelBackend backend = new FakeTunnelBackend(options(30), clock);
+        TestTunnel tunnel = new TestTunnel();
+        Config config = config("198.51.100.1");
+        TunnelBackend.Totals totals = new TunnelBackend.Totals();
+
+        backend.setState(tunnel, Tunnel.State.UP, config);
+        clock.advance(2000);
+        backend.setState(tunnel, Tunnel.State.UP, config);
+        backend.readTotals(tunnel, totals);
+        long rx = totals.rxBytes;
+        assertTrue(rx > 0);
+
+        // Otra instancia (aunque igual): dispositivo nuevo, contadores a cero
+        backend.setState(tunnel, Tunnel.State.UP, copy(config));
+        backend.readTotals(tunnel, totals);
+        assertEquals(0, totals.rxBytes);
+        assertEquals(3, backend.getSetStateCount());
+    }
+
+    @Test
+    public void deadPeerNeverHandshakes() throws Exception {
+        ManualClock clock = new ManualClock();
+        FakeTunnelBackend backend = new FakeTunnelBackend(options(-1), clock);
+        TestTunnel tunnel = new TestTunnel();
+        TunnelBackend.Totals totals = new TunnelBackend.Totals();
+
+        backend.setState(tunnel, Tunnel.State.UP, config("198.51.100.1"));
+        clock.advance(600_000);
+        backend.readTotals(tunnel, totals);
+
+        assertEquals(0, totals.latestHandshakeEpochMillis);
+        assertEquals(0, totals.txBytes);
+        assertEquals(Tunnel.State.UP, backend.getState(tunnel));
+    }
+
+    // ---- Connect, switch, rebind ----
+
+    @Test
+    public void connectBringsTheTunnelUpAndSavesTheSnapshot() throws Exception {
+        TestHost host = host(options(30));
+        Config config = config("198.51.100.1");
+
+        host.submitAndWait(TunnelController.Command.connect(config));
+
+        assertEquals(TunnelController.Outcome.SUCCEEDED, host.lastOutcome());
+        assertTrue(host.session.isConnected());
+        assertEquals(Tunnel.State.UP, host.backend.getState(host.session.getTunnel()));
+        assertEquals("198.51.100.1", endpointHost(host.backend.getConfig(host.session.getTunnel())));
+        assertEquals("connected", host.lastStatus());
+        assertEquals("VPN conectado exitosamente", host.lastMessage());
+        host.clock.advance(1000);
+        assertTrue(host.totals().latestHandshakeEpochMillis > 0);
+
+        TunnelSnapshot snapshot = TunnelSnapshot.read(host.snapshotFile);
+        assertNotNull(snapshot);
+        assertTrue(snapshot.wantConnected);
+    }
+
+    @Test
+    public void switchReconfiguresTheSameTunnelWithoutGoingDown() throws Exception {
+        TestHost host = host(options(30));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+        host.clock.advance(5000);
+        assertTrue(host.totals().rxBytes > 0);
+        long switchedAt = host.clock.nowMs();
+
+        host.submitAndWait(TunnelController.Command.switchServer(config("203.0.113.7")));
+
+        assertEquals(TunnelController.Outcome.SUCCEEDED, host.lastOutcome());
+        assertEquals(0, host.count("disconnected"));
+        assertEquals("Servidor cambiado", host.lastMessage());
+        assertEquals("203.0.113.7", endpointHost(host.backend.getConfig(host.session.getTunnel())));
+        assertEquals(2, host.backend.getSetStateCount());
+        // El switch espera el primer handshake contra el peer nuevo
+        assertTrue(host.totals().latestHandshakeEpochMillis >= switchedAt);
+        assertEquals("203.0.113.7", endpointHost(TunnelSnapshot.read(host.snapshotFile).config));
+    }
+
+    @Test
+    public void switchWhileDisconnectedConnects() throws Exception {
+        TestHost host = host(options(30));
+
+        host.submitAndWait(TunnelController.Command.switchServer(config("203.0.113.7")));
+
+        assertTrue(host.session.isConnected());
+        assertEquals(Tunnel.State.UP, host.backend.getState(host.session.getTunnel()));
+        assertEquals("connected", host.lastStatus());
+    }
+
+    @Test
+    public void rebindReappliesTheServerOnAFreshDevice() throws Exception {
+        TestHost host = host(options(30));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+        Config before = host.backend.getConfig(host.session.getTunnel());
+        host.clock.advance(10_000);
+        long rx = host.totals().rxBytes;
+        long reboundAt = host.clock.nowMs();
+
+        host.submitAndWait(TunnelController.Command.rebind(host.session.getRequestedConfig()));
+
+        Config after = host.backend.getConfig(host.session.getTunnel());
+        assertNotSame(before, after);
+        assertEquals("198.51.100.1", endpointHost(after));
+        // Dispositivo nuevo: contadores desde cero y handshake tras el re-enlace
+        assertTrue(host.totals().rxBytes < rx);
+        assertTrue(host.totals().latestHandshakeEpochMillis >= reboundAt);
+        assertEquals(0, host.count("disconnected"));
+        assertEquals("Túnel reconfigurado", host.lastMessage());
+    }
+
+    @Test
+    public void networkChangeRebindsAndReportsTheHandover() throws Exception {
+        TestHost host = host(options(30));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+        host.clock.advance(10_000);
+
+        host.session.onNetworkChanged(host.clock.nowMs() - 500);
+        host.awaitIdle();
+
+        assertEquals(TunnelController.Type.REBIND, host.lastCommand().getType());
+        assertEquals("Red cambiada", host.lastMessage());
+        assertEquals(2, host.backend.getSetStateCount());
+    }
+
+    @Test
+    public void rebindWhileDisconnectedDoesNothing() throws Exception {
+        TestHost host = host(options(30));
+
+        host.submitAndWait(TunnelController.Command.rebind(config("198.51.100.1")));
+
+        assertEquals(TunnelController.Outcome.SUCCEEDED, host.lastOutcome());
+        assertEquals(0, host.backend.getSetStateCount());
+    }
+
+    @Test
+    public void failedSetStateIsReportedAndTheNextConnectWorks() throws Exception {
+        TestHost host = host(options(30));
+        host.backend.failNextSetStates(1, "sin TUN");
+
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+
+        assertEquals(TunnelController.Outcome.FAILED, host.lastOutcome());
+        assertEquals("sin TUN", host.lastError().getMessage());
+        assertEquals("error", host.lastStatus());
+        assertFalse(host.session.isConnected());
+        assertEquals(Tunnel.State.DOWN, host.backend.getState(host.session.getTunnel()));
+
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+        assertEquals(TunnelController.Outcome.SUCCEEDED, host.lastOutcome());
+        assertTrue(host.session.isConnected());
+    }
+
+    @Test
+    public void requestedDisconnectIsReportedOnce() throws Exception {
+        TestHost host = host(options(30));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+
+        host.submitAndWait(TunnelController.Command.disconnect());
+
+        assertEquals(1, host.count("disconnected"));
+        assertEquals("VPN desconectado", host.lastMessage());
+        assertFalse(host.session.isConnected());
+        assertFalse(host.sampling);
+        assertFalse(host.notificationShown);
+        assertFalse(TunnelSnapshot.read(host.snapshotFile).wantConnected);
+    }
+
+    @Test
+    public void burstOfCommandsEndsWithTheLastOne() throws Exception {
+        // Reloj real: el setState lento tiene que solaparse con los submit
+        FakeTunnelBackend.Options slow = options(30);
+        slow.setStateLatencyMs = 200;
+        TestHost host = host(new FakeTunnelBackend(slow, FakeTunnelBackend.SYSTEM_CLOCK), new ManualClock());
+        TunnelController.Command first = TunnelController.Command.connect(config("198.51.100.1"));
+        TunnelController.Command second = TunnelController.Command.connect(config("198.51.100.2"));
+        TunnelController.Command third = TunnelController.Command.switchServer(config("198.51.100.3"));
+        TunnelController.Command last = TunnelController.Command.disconnect();
+
+        host.session.submit(first);
+        host.awaitStarted(first);
+        host.session.submit(second);
+        host.session.submit(third);
+        host.session.submit(last);
+        host.awaitIdle();
+
+        assertEquals(TunnelController.Outcome.CANCELLED, host.outcomeOf(first));
+        assertEquals(TunnelController.Outcome.COALESCED, host.outcomeOf(second));
+        assertEquals(TunnelController.Outcome.COALESCED, host.outcomeOf(third));
+        assertEquals(TunnelController.Outcome.SUCCEEDED, host.outcomeOf(last));
+        // El CONNECT cancelado llegó a subir el túnel, pero no se publicó
+        assertEquals(0, host.count("connected"));
+        assertFalse(host.session.isConnected());
+        assertEquals(Tunnel.State.DOWN, host.backend.getState(host.session.getTunnel()));
+        assertEquals(2, host.backend.getSetStateCount());
+    }
+
+    // ---- Rotación de clave ----
+
+    @Test
+    public void rotatedKeyIsCommittedOnceTheTunnelUsesIt() throws Exception {
+        TestHost host = host(options(30));
+        Config config = config("198.51.100.1");
+        host.submitAndWait(TunnelController.Command.connect(config));
+        KeyPair next = new KeyPair();
+
+        host.session.submitRotation(withKey(config, next), next);
+        host.awaitIdle();
+
+        assertEquals(Collections.singletonList(next), host.rotated);
+        assertTrue(host.dropped.isEmpty());
+        assertFalse(host.session.isRotating());
+        assertEquals("Clave rotada", host.lastMessage());
+        assertEquals(next.getPublicKey().toBase64(), host.backend.getConfig(host.session.getTunnel())
+            .getInterface().getKeyPair().getPublicKey().toBase64());
+    }
+
+    @Test
+    public void rotationWithoutATunnelGivesTheKeyBack() throws Exception {
+        TestHost host = host(options(30));
+        KeyPair next = new KeyPair();
+
+        host.session.submitRotation(withKey(config("198.51.100.1"), next), next);
+        host.awaitIdle();
+
+        assertEquals(Collections.singletonList(next), host.dropped);
+        assertTrue(host.rotated.isEmpty());
+        assertFalse(host.session.isRotating());
+        assertEquals(0, host.backend.getSetStateCount());
+    }
+
+    // ---- Watchdog ----
+
+    @Test
+    public void watchdogReconnectsWhenThePeerComesBack() throws Exception {
+        TestHost host = host(options(-1));
+        // El peer vuelve justo cuando el watchdog reconecta
+        host.onReconnect = () -> host.backend.setOptions(options(30));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+
+        host.runUntilIncident(300_000);
+
+        HandshakeWatchdog.Incident incident = host.incidents.get(0);
+        assertTrue(incident.toString(), incident.isRecovered());
+        assertEquals(1, incident.attempts);
+        assertEquals("reconectar", incident.lastAction);
+        assertTrue(incident.reason, incident.reason.contains("sin handshake"));
+        assertTrue(incident.timeToRecoverMs() >= 0);
+        assertEquals(2, host.backend.getSetStateCount());
+        assertEquals("198.51.100.1", endpointHost(host.backend.getConfig(host.session.getTunnel())));
+        // La reconexión no pasa por "disconnected"
+        assertEquals(0, host.count("disconnected"));
+    }
+
+    @Test
+    public void watchdogFailsOverAfterTheSameEndpointAttempts() throws Exception {
+        TestHost host = host(options(-1));
+        host.session.setFailoverConfigs(Collections.singletonList(config("203.0.113.9")));
+        // Solo el servidor de respaldo responde
+        host.onFailover = () -> host.backend.setOptions(options(30));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+
+        host.runUntilIncident(400_000);
+
+        HandshakeWatchdog.Incident incident = host.incidents.get(0);
+        assertTrue(incident.toString(), incident.isRecovered());
+        assertEquals(3, incident.attempts);
+        assertEquals("respaldo #0", incident.lastAction);
+        assertEquals("203.0.113.9", endpointHost(host.backend.getConfig(host.session.getTunnel())));
+        // Connect inicial, dos reconexiones y el respaldo
+        assertEquals(4, host.backend.getSetStateCount());
+    }
+
+    @Test
+    public void watchdogKeepsRetryingWithoutBackups() throws Exception {
+        TestHost host = host(options(-1));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+
+        long upAt = host.clock.nowMs();
+
+        host.runFor(900_000);
+
+        assertTrue(host.incidents.isEmpty());
+        List<Long> reconnects = host.reconnects;
+        assertTrue("reconexiones " + reconnects.size(), reconnects.size() >= 6);
+        assertTrue(reconnects.get(0) - upAt >= 180_000);
+        assertEquals(1 + reconnects.size(), host.backend.getSetStateCount());
+        // Tras el intento n: attemptTimeoutMs más un backoff con jitter entre la
+        // mitad y el total de min(1 s << n, 60 s); las muestras van de segundo en segundo
+        for (int n = 1; n < reconnects.size(); n++) {
+            long gap = reconnects.get(n) - reconnects.get(n - 1);
+            long cap = Math.min(1000L << n, 60_000);
+            assertTrue("espera " + gap + " tras el intento " + n,
+                gap >= 20_000 + cap / 2 - 1000 && gap <= 20_000 + cap + 1000);
+        }
+    }
+
+    @Test
+    public void disconnectAbandonsTheOpenIncident() throws Exception {
+        TestHost host = host(options(-1));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+        host.runFor(185_000);
+        assertEquals(2, host.backend.getSetStateCount());
+
+        host.submitAndWait(TunnelController.Command.disconnect());
+        host.scheduler.runDue();
+
+        assertEquals(1, host.incidents.size());
+        assertFalse(host.incidents.get(0).isRecovered());
+        // Parado: ya no hay más intentos
+        host.runFor(60_000);
+        assertEquals(3, host.backend.getSetStateCount());
+    }
+
+    @Test
+    public void healthyTunnelRaisesNoIncident() throws Exception {
+        TestHost host = host(options(30));
+        host.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+
+        host.runFor(600_000);
+
+        assertTrue(host.incidents.isEmpty());
+        assertEquals(1, host.backend.getSetStateCount());
+    }
+
+    // ---- Restauración ----
+
+    @Test
+    public void snapshotRestoresTheTunnelInANewProcess() throws Exception {
+        TestHost first = host(options(30));
+        Config config = config("198.51.100.1");
+        first.submitAndWait(TunnelController.Command.connect(config));
+
+        // Proceso :vpn nuevo: otro backend, mismo directorio
+        TestHost second = host(options(30));
+        assertTrue(second.restore());
+
+        Config restored = second.backend.getConfig(second.session.getTunnel());
+        assertEquals(Tunnel.State.UP, second.backend.getState(second.session.getTunnel()));
+        assertEquals("198.51.100.1", endpointHost(restored));
+        assertEquals(51820, restored.getPeers().get(0).getEndpoint().get().getPort());
+        assertEquals(config.getInterface().getKeyPair().getPrivateKey().toBase64(),
+            restored.getInterface().getKeyPair().getPrivateKey().toBase64());
+        assertEquals(config.getPeers().get(0).getPublicKey().toBase64(),
+            restored.getPeers().get(0).getPublicKey().toBase64());
+        assertEquals(addresses(config.getInterface().getAddresses()), addresses(restored.getInterface().getAddresses()));
+        assertEquals(addresses(config.getPeers().get(0).getAllowedIps()),
+            addresses(restored.getPeers().get(0).getAllowedIps()));
+        assertEquals(Integer.valueOf(1380), restored.getInterface().getMtu().get());
+        assertEquals(Integer.valueOf(25), restored.getPeers().get(0).getPersistentKeepalive().get());
+    }
+
+    @Test
+    public void snapshotAfterDisconnectDoesNotRestore() throws Exception {
+        TestHost first = host(options(30));
+        first.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+        first.submitAndWait(TunnelController.Command.disconnect());
+
+        TestHost second = host(options(30));
+
+        assertFalse(second.restore());
+        assertEquals(0, second.backend.getSetStateCount());
+        // Nada que restaurar: el servicio se para
+        assertTrue(second.stopped);
+    }
+
+    @Test
+    public void corruptSnapshotIsIgnored() throws Exception {
+        TestHost first = host(options(30));
+        first.submitAndWait(TunnelController.Command.connect(config("198.51.100.1")));
+        try (RandomAccessFile raf = new RandomAccessFile(first.snapshotFile, "rw")) {
+            raf.seek(raf.length() / 2);
+            int value = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(value ^ 0xff);
+        }
+
+        assertNull(TunnelSnapshot.read(first.snapshotFile));
+        assertFalse(host(options(30)).restore());
+    }
+
+    @Test
+    public void missingSnapshotIsNull() {
+        assertNull(TunnelSnapshot.read(new File(dir, "no-existe")));
+    }
+
+    // ---- Soporte ----
+
+    private TestHost host(FakeTunnelBackend.Options options) {
+        ManualClock clock = new ManualClock();
+        return host(new FakeTunnelBackend(options, clock), clock);
+    }
+
+    private TestHost host(FakeTunnelBackend backend, ManualClock clock) {
+        TestHost host = new TestHost(backend, clock, new File(dir, TunnelSnapshot.FILE_NAME));
+        hosts.add(host);
+        return host;
+    }
+
+    static FakeTunnelBackend.Options options(long handshakeLatencyMs) {
+        FakeTunnelBackend.Options options = new FakeTunnelBackend.Options();
+        options.handshakeLatencyMs = handshakeLatencyMs;
+        return options;
+    }
+
+    static Config config(String endpoint) throws Exception {
+        Interface iface = new Interface.Builder()
+            .setKeyPair(new KeyPair())
+            .parseAddresses("10.8.0.2/32")
+            .setMtu(1380)
+            .build();
+        Peer peer = new Peer.Builder()
+            .setPublicKey(new KeyPair().getPublicKey())
+            .parseEndpoint(endpoint + ":51820")
+            .parseAllowedIPs("0.0.0.0/0")
+            .setPersistentKeepalive(25)
+            .build();
+        return new Config.Builder().setInterface(iface).addPeer(peer).build();
+    }
+
+    /** Misma configuración en otra instancia, como tras resolver endpoints */
+    private static Config copy(Config config) {
+        return new Config.Builder().setInterface(config.getInterface()).addPeers(config.getPeers()).build();
+    }
+
+    /** La misma configuración con otra clave del cliente, como la arma la rotación */
+    private static Config withKey(Config config, KeyPair key) throws Exception {
+        Interface iface = new Interface.Builder()
+            .setKeyPair(key)
+            .addAddresses(config.getInterface().getAddresses())
+            .setMtu(config.getInterface().getMtu().get())
+            .build();
+        return new Config.Builder().setInterface(iface).addPeers(config.getPeers()).build();
+    }
+
+    private static String endpointHost(Config config) {
+        return config.getPeers().get(0).getEndpoint().get().getHost();
+    }
+
+    private static List<String> addresses(Iterable<InetNetwork> networks) {
+        List<String> out = new ArrayList<>();
+        for (InetNetwork network : networks) {
+            out.add(network.toString());
+        }
+        return out;
+    }
+
+    /** Un solo reloj para el backend y la sesión: epoch y elapsed avanzan juntos */
+    static final class ManualClock implements FakeTunnelBackend.Clock, TunnelSession.Clock {
+        private final AtomicLong now = new AtomicLong(1_000_000);
+
+        @Override
+        public long nowMs() {
+            return now.get();
+        }
+
+        @Override
+        public long epochMs() {
+            return now.get();
+        }
+
+        @Override
+        public long elapsedMs() {
+            return now.get();
+        }
+
+        @Override
+        public void sleep(long ms) {
+            now.addAndGet(ms);
+        }
+
+        void advance(long ms) {
+            now.addAndGet(ms);
+        }
+    }
+
+    private static final class TestTunnel implements Tunnel {
+        @Override
+        public String getName() {
+            return "nodex";
+        }
+
+        @Override
+        public void onStateChange(Tunnel.State newState) {
+        }
+    }
+
+    /**
+     * Cola del watchdog sobre el reloj manual; las tareas se ejecutan en el
+     * hilo del test con {@link #runDue}
+     */
+    static final class ManualScheduler implements HandshakeWatchdog.Scheduler {
+        private final ManualClock clock;
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+        private long sequence;
+
+        private static final class Task implements Comparable<Task> {
+            final long dueAt;
+            final long order;
+            final Runnable runnable;
+
+            Task(long dueAt, long order, Runnable runnable) {
+                this.dueAt = dueAt;
+                this.order = order;
+                this.runnable = runnable;
+            }
+
+            @Override
+            public int compareTo(Task other) {
+                return dueAt != other.dueAt ? Long.compare(dueAt, other.dueAt) : Long.compare(order, other.order);
+            }
+        }
+
+        ManualScheduler(ManualClock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public long now() {
+            return clock.nowMs();
+        }
+
+        @Override
+        public void post(Runnable task) {
+            postDelayed(task, 0);
+        }
+
+        @Override
+        public synchronized void postDelayed(Runnable task, long delayMs) {
+            tasks.add(new Task(clock.nowMs() + delayMs, sequence++, task));
+        }
+
+        @Override
+        public synchronized void remove(Runnable task) {
+            tasks.removeIf(item -> item.runnable == task);
+        }
+
+        @Override
+        public void quit() {
+        }
+
+        void runDue() {
+            while (true) {
+                Task task;
+                synchronized (this) {
+                    task = tasks.peek();
+                    if (task == null || task.dueAt > clock.nowMs()) return;
+                    tasks.poll();
+                }
+                task.runnable.run();
+            }
+        }
+    }
+
+    /**
+     * El lado Android de {@link TunnelSession}: backend falso, watchdog y
+     * reloj manuales, instantánea escrita en el hilo de control. Guarda lo
+     * que la sesión le cuenta y conduce el tiempo del test.
+     */
+    static final class TestHost implements TunnelSession.Host {
+        final FakeTunnelBackend backend;
+        final ManualClock clock;
+        final File snapshotFile;
+        final ManualScheduler scheduler;
+        final TunnelSession session;
+        final StatsRingBuffer samples = new StatsRingBuffer(64);
+        final List<String[]> statuses = new CopyOnWriteArrayList<>();
+        final List<Object[]> finished = new CopyOnWriteArrayList<>();
+        final List<HandshakeWatchdog.Incident> incidents = new CopyOnWriteArrayList<>();
+        final List<Long> reconnects = new CopyOnWriteArrayList<>();
+        final List<KeyPair> rotated = new CopyOnWriteArrayList<>();
+        final List<KeyPair> dropped = new CopyOnWriteArrayList<>();
+        volatile boolean sampling;
+        volatile boolean notificationShown;
+        volatile boolean stopped;
+        volatile Runnable onReconnect;
+        volatile Runnable onFailover;
+
+        TestHost(FakeTunnelBackend backend, ManualClock clock, File snapshotFile) {
+            this.backend = backend;
+            this.clock = clock;
+            this.snapshotFile = snapshotFile;
+            this.scheduler = new ManualScheduler(clock);
+            // Opciones por defecto del watchdog: handshake viejo a los 180 s, 20 s por intento
+            this.session = new TunnelSession(this, snapshotFile, Runnable::run, clock, scheduler);
+        }
+
+        // -- TunnelSession.Host --
+
+        @Override
+        public TunnelBackend backend() {
+            return backend;
+        }
+
+        @Override
+        public Config withDiscoveredMtu(Config requested, Config resolved, Config fallback) {
+            return resolved;
+        }
+
+        @Override
+        public void scheduleMtuDiscovery(Config requested, Config applied) {
+        }
+
+        @Override
+        public void startSampling(TunnelBackend backend, Tunnel tunnel, TunnelStatsSampler.HandshakeListener listener) {
+            sampling = true;
+        }
+
+        @Override
+        public void stopSampling() {
+            sampling = false;
+        }
+
+        @Override
+        public void startNetworkMonitor() {
+        }
+
+        @Override
+        public void stopNetworkMonitor() {
+        }
+
+        @Override
+        public boolean hasVpnPermission() {
+            return true;
+        }
+
+        @Override
+        public void showNotification(String endpoint, boolean newSession) {
+            notificationShown = true;
+        }
+
+        @Override
+        public void hideNotification() {
+            notificationShown = false;
+        }
+
+        @Override
+        public void stopService() {
+            stopped = true;
+        }
+
+        @Override
+        public void onStatus(String status, boolean connected, String message, Bundle extras) {
+            statuses.add(new String[]{status, message});
+            // Lo que manda startRecovery justo antes de encolar el connect
+            if ("Reconectando...".equals(message)) {
+                Runnable hook = onReconnect;
+                if (hook != null) hook.run();
+                reconnects.add(clock.nowMs());
+            } else if ("Cambiando a servidor de respaldo...".equals(message)) {
+                Runnable hook = onFailover;
+                if (hook != null) hook.run();
+            }
+        }
+
+        @Override
+        public void onCommandFinished(TunnelController.Command command, TunnelController.Outcome outcome,
+                                      Throwable error) {
+            finished.add(new Object[]{command, outcome, error});
+        }
+
+        @Override
+        public void onKeyRotated(KeyPair key) {
+            rotated.add(key);
+        }
+
+        @Override
+        public void onRotationDropped(KeyPair key) {
+            dropped.add(key);
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        @Override
+        public void onIncident(HandshakeWatchdog.Incident incident) {
+            incidents.add(incident);
+        }
+
+        // -- Conducción del test --
+
+        /** Arranque del proceso con la instantánea del anterior, como restoreFromSnapshot */
+        boolean restore() throws InterruptedException {
+            if (!session.restore("test", false, ConnectTracer.Phase.RESTORE, clock.elapsedMs())) return false;
+            awaitIdle();
+            scheduler.runDue();
+            return session.isConnected();
+        }
+
+        void submitAndWait(TunnelController.Command command) throws InterruptedException {
+            session.submit(command);
+            awaitIdle();
+            scheduler.runDue();
+        }
+
+        void awaitIdle() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!session.isIdle()) {
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("TunnelController ocupado");
+                Thread.sleep(1);
+            }
+        }
+
+        void awaitStarted(TunnelController.Command command) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (command.getStartedAtNanos() == 0) {
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("sin empezar");
+                Thread.sleep(1);
+            }
+        }
+
+        /** Lo que hace onDestroy: bajar el túnel, terminar el bucle y soltar el watchdog */
+        void release() throws InterruptedException {
+            session.release();
+            awaitIdle();
+        }
+
+        TunnelBackend.Totals totals() throws Exception {
+            TunnelBackend.Totals totals = new TunnelBackend.Totals();
+            backend.readTotals(session.getTunnel(), totals);
+            return totals;
+        }
+
+        /** Una muestra por segundo, como el sampler con la pantalla apagada */
+        void runFor(long ms) throws Exception {
+            for (long elapsed = 0; elapsed < ms; elapsed += 1000) {
+                tick();
+            }
+        }
+
+        void runUntilIncident(long maxMs) throws Exception {
+            for (long elapsed = 0; elapsed < maxMs && incidents.isEmpty(); elapsed += 1000) {
+                tick();
+            }
+            assertEquals("incidentes", 1, incidents.size());
+        }
+
+        private void tick() throws Exception {
+            clock.advance(1000);
+            TunnelBackend.Totals totals = totals();
+            long now = clock.nowMs();
+            long handshakeAge = totals.latestHandshakeEpochMillis > 0 ? now - totals.latestHandshakeEpochMillis : -1;
+            long seq = samples.add(now, totals.rxBytes, totals.txBytes, 0, 0, handshakeAge);
+            session.onSamples(samples, seq, seq + 1);
+            scheduler.runDue();
+            awaitIdle();
+        }
+
+        /** Olvidar lo registrado (los ciclos largos no deben acumularlo) */
+        void clear() {
+            statuses.clear();
+            finished.clear();
+            reconnects.clear();
+        }
+
+        TunnelController.Outcome outcomeOf(TunnelController.Command command) {
+            for (Object[] item : finished) {
+                if (item[0] == command) return (TunnelController.Outcome) item[1];
+            }
+            return null;
+        }
+
+        TunnelController.Command lastCommand() {
+            return (TunnelController.Command) finished.get(finished.size() - 1)[0];
+        }
+
+        TunnelController.Outcome lastOutcome() {
+            return (TunnelController.Outcome) finished.get(finished.size() - 1)[1];
+        }
+
+        Throwable lastError() {
+            return (Throwable) finished.get(finished.size() - 1)[2];
+        }
+
+        String lastStatus() {
+            return statuses.get(statuses.size() - 1)[0];
+        }
+
+        String lastMessage() {
+            return statuses.get(statuses.size() - 1)[1];
+        }
+
+        int count(String status) {
+            int count = 0;
+            for (String[] item : statuses) {
+                if (item[0].equals(status)) count++;
+            }
+            return count;
+        }
+    }
+}
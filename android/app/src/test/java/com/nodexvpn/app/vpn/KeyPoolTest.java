@@ -0,0 +1,158 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.wireguard.crypto.KeyPair;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * KeyPool: clave activa en caché, invalidada por escrituras de otra
+ * instancia (el otro proceso), y devolución de claves sin usar.
+ */
+public class KeyPoolTest {
+
+    private File dir;
+    private CountingSealer sealer;
+    private KeyPool pool;
+    private KeyPool other;
+
+    /** Sin cifrado; cuenta las lecturas del fichero y puede fallar como un Keystore perdido */
+    private static final class CountingSealer implements KeyPool.Sealer {
+        final AtomicInteger opens = new AtomicInteger();
+        volatile boolean broken;
+
+        @Override
+        public byte[] seal(byte[] plain) throws IOException {
+            if (broken) throw new IOException("Keystore no disponible");
+            return plain.clone();
+        }
+
+        @Override
+        public byte[] open(byte[] sealed) {
+            opens.incrementAndGet();
+            return sealed.clone();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("keys").toFile();
+        sealer = new CountingSealer();
+        pool = new KeyPool(dir, sealer);
+        other = new KeyPool(dir, new CountingSealer());
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        other.shutdown();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void activeIsServedFromMemoryWhileTheFileIsUnchanged() {
+        KeyPool.Active first = pool.activeOrCreate();
+        int opens = sealer.opens.get();
+
+        for (int i = 0; i < 100; i++) {
+            assertSame(first, pool.activeOrCreate());
+            assertSame(first, pool.active());
+        }
+        assertEquals(opens, sealer.opens.get());
+    }
+
+    @Test
+    public void commitFromAnotherInstanceInvalidatesTheCache() {
+        KeyPool.Active first = pool.activeOrCreate();
+        assertEquals(first.keyPair.getPublicKey(), other.active().keyPair.getPublicKey());
+
+        KeyPair next = other.take();
+        other.commit(next);
+
+        assertEquals(next.getPublicKey(), pool.active().keyPair.getPublicKey());
+        assertEquals(next.getPublicKey(), pool.activeOrCreate().keyPair.getPublicKey());
+    }
+
+    @Test
+    public void ownCommitReplacesTheCachedKey() {
+        pool.activeOrCreate();
+        KeyPair next = pool.take();
+
+        pool.commit(next);
+
+        assertEquals(next.getPublicKey(), pool.active().keyPair.getPublicKey());
+    }
+
+    @Test
+    public void takenKeyIsNotActiveUntilCommitted() {
+        KeyPool.Active active = pool.activeOrCreate();
+
+        KeyPair taken = pool.take();
+
+        assertEquals(active.keyPair.getPublicKey(), pool.active().keyPair.getPublicKey());
+        assertNotEquals(active.keyPair.getPublicKey(), taken.getPublicKey());
+    }
+
+    @Test
+    public void givenBackKeyIsTakenAgain() throws Exception {
+        assertNull(pool.active());
+        KeyPair taken = pool.take();
+
+        pool.giveBack(taken);
+        awaitPool(pool);
+
+        assertEquals(taken.getPublicKey(), other.take().getPublicKey());
+    }
+
+    @Test
+    public void activeKeyIsNeverGivenBack() throws Exception {
+        KeyPool.Active active = pool.activeOrCreate();
+        awaitPool(pool);
+
+        pool.giveBack(active.keyPair);
+        awaitPool(pool);
+
+        assertNotEquals(active.keyPair.getPublicKey(), pool.take().getPublicKey());
+    }
+
+    @Test
+    public void fallbackKeyIsStableWhileStorageFails() {
+        sealer.broken = true;
+
+        KeyPool.Active first = pool.activeOrCreate();
+        for (int i = 0; i < 10; i++) {
+            assertSame(first, pool.activeOrCreate());
+        }
+        assertSame(first, pool.active());
+    }
+
+    @Test
+    public void fallbackKeyBecomesActiveWhenStorageRecovers() {
+        sealer.broken = true;
+        KeyPool.Active fallback = pool.activeOrCreate();
+
+        sealer.broken = false;
+
+        assertEquals(fallback.keyPair.getPublicKey(), pool.activeOrCreate().keyPair.getPublicKey());
+        assertEquals(fallback.keyPair.getPublicKey(), other.active().keyPair.getPublicKey());
+    }
+
+    /** Esperar a que el hilo del pool termine lo encolado */
+    private static void awaitPool(KeyPool pool) throws InterruptedException {
+        Thread.sleep(200);
+    }
+}
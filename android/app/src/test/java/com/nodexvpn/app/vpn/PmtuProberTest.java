@@ -0,0 +1,246 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PmtuProber contra un eco UDP en loopback que simula un camino con MTU
+ * limitado: solo devuelve los datagramas cuyo paquete IP cabe en él.
+ */
+public class PmtuProberTest {
+
+    /** Cabeceras IPv4 + UDP que PmtuProber descuenta del tamaño de paquete */
+    private static final int HEADERS_V4 = 20 + 8;
+
+    private final List<DatagramSocket> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (DatagramSocket server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void echoFindsTheLargestPacketThatFits() throws Exception {
+        Responder echo = echo(1400, 0);
+
+        PmtuProber.Result result = probe(echo.port, options(1280, 1500));
+
+        assertEquals(1400, result.pathMtu);
+        assertTrue(result.confirmed);
+        assertFalse(result.ipv6);
+        assertEquals(1400 - PmtuProber.WG_OVERHEAD_V4, result.tunnelMtu());
+        // Nunca se sondea fuera de [minSize, maxSize]
+        assertTrue(echo.largest.get() <= 1500);
+        assertTrue(echo.smallest.get() >= 1280);
+    }
+
+    @Test
+    public void everyPathMtuInsideTheBoundsIsFoundExactly() throws Exception {
+        for (int mtu : new int[] {1280, 1281, 1391, 1392, 1499, 1500}) {
+            Responder echo = echo(mtu, 0);
+
+            PmtuProber.Result result = probe(echo.port, options(1280, 1500));
+
+            assertEquals("mtu " + mtu, mtu, result.pathMtu);
+            assertTrue(result.confirmed);
+        }
+    }
+
+    @Test
+    public void pathLargerThanMaxStopsAtMax() throws Exception {
+        Responder echo = echo(9000, 0);
+
+        PmtuProber.Result result = probe(echo.port, options(1280, 1500));
+
+        assertEquals(1500, result.pathMtu);
+        assertTrue(result.confirmed);
+        assertEquals(1500, echo.largest.get());
+    }
+
+    @Test
+    public void binarySearchUsesLogarithmicProbes() throws Exception {
+        Responder echo = echo(1333, 0);
+        PmtuProber.Options options = options(1280, 1500);
+        options.attempts = 1;
+
+        PmtuProber.Result result = probe(echo.port, options);
+
+        assertEquals(1333, result.pathMtu);
+        // Comprobación del eco + mínimo + ceil(log2(221)) pasos
+        assertTrue("sondas " + result.probes, result.probes <= 2 + 8);
+    }
+
+    @Test
+    public void equalBoundsProbeOnlyTheMinimum() throws Exception {
+        Responder echo = echo(1500, 0);
+        PmtuProber.Options options = options(1400, 1400);
+        options.attempts = 1;
+
+        PmtuProber.Result result = probe(echo.port, options);
+
+        assertEquals(1400, result.pathMtu);
+        assertTrue(result.confirmed);
+        assertEquals(2, result.probes);
+    }
+
+    @Test
+    public void lostProbeIsRetriedBeforeGivingUp() throws Exception {
+        // El eco descarta la primera copia de cada tamaño
+        Responder echo = echo(1450, 1);
+        PmtuProber.Options options = options(1280, 1500);
+        options.attempts = 2;
+
+        PmtuProber.Result result = probe(echo.port, options);
+
+        assertEquals(1450, result.pathMtu);
+        assertTrue(result.confirmed);
+    }
+
+    @Test
+    public void silentEchoPortTimesOutAndFallsBackToLocalLink() throws Exception {
+        DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        servers.add(silent);
+        PmtuProber.Options options = options(1280, 1500);
+        options.attempts = 2;
+        options.timeoutMs = 100;
+
+        long start = System.nanoTime();
+        PmtuProber.Result result = probe(silent.getLocalPort(), options);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Sin eco solo cuenta el enlace local: loopback acepta hasta maxSize
+        assertFalse(result.confirmed);
+        assertEquals(1500, result.pathMtu);
+        // Solo la comprobación inicial espera respuesta: dos intentos de 100 ms
+        assertTrue("tardó " + elapsedMs, elapsedMs >= 190 && elapsedMs < 2000);
+    }
+
+    @Test
+    public void pathBelowMinimumFallsBackToLocalLink() throws Exception {
+        Responder echo = echo(1200, 0);
+        PmtuProber.Options options = options(1280, 1500);
+        options.timeoutMs = 100;
+
+        PmtuProber.Result result = probe(echo.port, options);
+
+        assertFalse(result.confirmed);
+        assertEquals(1500, result.pathMtu);
+    }
+
+    @Test
+    public void lateEchoesOfEarlierProbesAreIgnored() throws Exception {
+        // Antes de cada respuesta llega el eco de una sonda vieja del mismo tamaño
+        Responder echo = echo(1420, 0);
+        echo.stale = true;
+
+        PmtuProber.Result result = probe(echo.port, options(1280, 1500));
+
+        assertEquals(1420, result.pathMtu);
+        assertTrue(result.confirmed);
+    }
+
+    @Test
+    public void configuratorSeesTheAddressFamily() throws Exception {
+        Responder echo = echo(1500, 0);
+        AtomicInteger calls = new AtomicInteger();
+        boolean[] ipv6 = {true};
+        PmtuProber prober = new PmtuProber((socket, v6) -> {
+            calls.incrementAndGet();
+            ipv6[0] = v6;
+        });
+
+        prober.probe(new InetSocketAddress(InetAddress.getLoopbackAddress(), 51820), withEcho(options(1280, 1300), echo.port));
+
+        assertEquals(1, calls.get());
+        assertFalse(ipv6[0]);
+    }
+
+    @Test
+    public void tunnelMtuNeverDropsBelowIpv6Minimum() {
+        assertEquals(PmtuProber.MIN_TUNNEL_MTU, new PmtuProber.Result(1300, true, false, 1, 0).tunnelMtu());
+        assertEquals(1500 - PmtuProber.WG_OVERHEAD_V6, new PmtuProber.Result(1500, true, true, 1, 0).tunnelMtu());
+        assertEquals(1420, new PmtuProber.Result(1500, true, true, 1, 0).tunnelMtu());
+    }
+
+    private PmtuProber.Result probe(int echoPort, PmtuProber.Options options) throws IOException {
+        return new PmtuProber(null).probe(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 51820), withEcho(options, echoPort));
+    }
+
+    private static PmtuProber.Options withEcho(PmtuProber.Options options, int echoPort) {
+        options.echoPort = echoPort;
+        return options;
+    }
+
+    private static PmtuProber.Options options(int minSize, int maxSize) {
+        PmtuProber.Options options = new PmtuProber.Options();
+        options.minSize = minSize;
+        options.maxSize = maxSize;
+        options.timeoutMs = 100;
+        return options;
+    }
+
+    private static final class Responder {
+        int port;
+        volatile boolean stale;
+        final AtomicInteger largest = new AtomicInteger();
+        final AtomicInteger smallest = new AtomicInteger(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Eco que solo responde si el paquete IP cabe en {@code pathMtu} y
+     * descarta las primeras {@code drop} copias de cada tamaño
+     */
+    private Responder echo(int pathMtu, int drop) throws SocketException {
+        DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        servers.add(socket);
+        Responder responder = new Responder();
+        responder.port = socket.getLocalPort();
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[65535];
+            int lastSize = -1;
+            int seen = 0;
+            while (!socket.isClosed()) {
+                try {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(packet);
+                    int size = packet.getLength() + HEADERS_V4;
+                    responder.largest.accumulateAndGet(size, Math::max);
+                    responder.smallest.accumulateAndGet(size, Math::min);
+                    if (size > pathMtu) continue;
+                    seen = size == lastSize ? seen + 1 : 1;
+                    lastSize = size;
+                    if (seen <= drop) continue;
+                    if (responder.stale) {
+                        byte[] old = packet.getData().clone();
+                        ByteBuffer.wrap(old).putLong(ByteBuffer.wrap(old).getLong() - 1000);
+                        socket.send(new DatagramPacket(old, packet.getLength(), packet.getSocketAddress()));
+                    }
+                    socket.send(new DatagramPacket(packet.getData(), packet.getLength(), packet.getSocketAddress()));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "EcoPmtu");
+        thread.setDaemon(true);
+        thread.start();
+        return responder;
+    }
+}
@@ -0,0 +1,210 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.wireguard.config.BadConfigException;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * RouteCompiler: resta de prefijos, bordes /0 y /32, fusión de hermanos,
+ * IPv6 y el CIDR inválido que llega al error de WireGuardConfig.
+ */
+public class RouteCompilerTest {
+
+    @Test
+    public void includedWithoutExclusionsIsUnchanged() {
+        assertEquals(list("0.0.0.0/0", "::/0"), compile(list("0.0.0.0/0", "::/0"), list()));
+    }
+
+    @Test
+    public void excludingHalfLeavesTheOtherHalf() {
+        assertEquals(list("128.0.0.0/1"), compile(list("0.0.0.0/0"), list("0.0.0.0/1")));
+        assertEquals(list("0.0.0.0/1"), compile(list("0.0.0.0/0"), list("128.0.0.0/1")));
+    }
+
+    @Test
+    public void excludingARangeLeavesOneSiblingPerLevel() {
+        List<String> routes = compile(list("0.0.0.0/0"), list("10.0.0.0/8"));
+
+        assertEquals(list(
+            "0.0.0.0/5",
+            "8.0.0.0/7",
+            "11.0.0.0/8",
+            "12.0.0.0/6",
+            "16.0.0.0/4",
+            "32.0.0.0/3",
+            "64.0.0.0/2",
+            "128.0.0.0/1"), routes);
+    }
+
+    @Test
+    public void excludingASingleHostSplitsDownToSlash32() {
+        List<String> routes = compile(list("192.168.1.0/24"), list("192.168.1.1/32"));
+
+        assertEquals(list(
+            "192.168.1.0/32",
+            "192.168.1.2/31",
+            "192.168.1.4/30",
+            "192.168.1.8/29",
+            "192.168.1.16/28",
+            "192.168.1.32/27",
+            "192.168.1.64/26",
+            "192.168.1.128/25"), routes);
+    }
+
+    @Test
+    public void excludingEverythingLeavesNothing() {
+        assertEquals(list(), compile(list("0.0.0.0/0"), list("0.0.0.0/0")));
+        assertEquals(list(), compile(list("10.1.2.3/32"), list("10.1.2.3/32")));
+        // Una exclusión más amplia también borra lo incluido dentro
+        assertEquals(list(), compile(list("10.1.0.0/16"), list("10.0.0.0/8")));
+    }
+
+    @Test
+    public void slash0ExclusionOnlyAffectsItsFamily() {
+        assertEquals(list("::/0"), compile(list("0.0.0.0/0", "::/0"), list("0.0.0.0/0")));
+        assertEquals(list("0.0.0.0/0"), compile(list("0.0.0.0/0", "::/0"), list("::/0")));
+    }
+
+    @Test
+    public void hostWithoutLengthIsSlash32() {
+        assertEquals(list("1.2.3.4/32"), compile(list("1.2.3.4"), list()));
+    }
+
+    @Test
+    public void exclusionOutsideIncludedIsIgnored() {
+        assertEquals(list("10.0.0.0/8"), compile(list("10.0.0.0/8"), list("192.168.0.0/16")));
+    }
+
+    @Test
+    public void adjacentPrefixesMergeIntoTheirParent() {
+        assertEquals(list("10.0.0.0/23"), compile(list("10.0.0.0/24", "10.0.1.0/24"), list()));
+        // Cuatro /26 forman un /24, y dos /1 la ruta por defecto
+        assertEquals(list("10.0.0.0/24"),
+            compile(list("10.0.0.192/26", "10.0.0.0/26", "10.0.0.128/26", "10.0.0.64/26"), list()));
+        assertEquals(list("0.0.0.0/0"), compile(list("128.0.0.0/1", "0.0.0.0/1"), list()));
+    }
+
+    @Test
+    public void adjacentButUnalignedPrefixesDoNotMerge() {
+        // 10.0.1.0/24 y 10.0.2.0/24 son contiguos pero no hermanos
+        assertEquals(list("10.0.1.0/24", "10.0.2.0/24"), compile(list("10.0.2.0/24", "10.0.1.0/24"), list()));
+    }
+
+    @Test
+    public void overlappingIncludesCollapseToTheShortest() {
+        assertEquals(list("10.0.0.0/8"), compile(list("10.1.0.0/16", "10.0.0.0/8", "10.1.2.0/24"), list()));
+    }
+
+    @Test
+    public void adjacentExclusionsLeaveTheSameRoutesAsTheirUnion() {
+        // Los restos de partir nodos vuelven a fusionarse al normalizar
+        List<String> routes = compile(list("10.0.0.0/8"), list("10.0.0.0/24", "10.0.1.0/24"));
+        assertEquals(compile(list("10.0.0.0/8"), list("10.0.0.0/23")), routes);
+        assertEquals("10.0.2.0/23", routes.get(0));
+        assertEquals("10.128.0.0/9", routes.get(routes.size() - 1));
+    }
+
+    @Test
+    public void hostBitsBelowTheLengthAreIgnored() {
+        assertEquals(list("10.0.0.0/8"), compile(list("10.20.30.40/8"), list()));
+    }
+
+    @Test
+    public void ipv6ExclusionAndFormatting() {
+        List<String> routes = compile(list("::/0"), list("::/1"));
+        assertEquals(list("8000::/1"), routes);
+
+        routes = compile(list("2001:db8::/32"), list("2001:db8::/33"));
+        assertEquals(list("2001:db8:8000::/33"), routes);
+    }
+
+    @Test
+    public void ipv6SingleHostAndAdjacentMerge() {
+        assertEquals(list("2001:db8::1/128"), compile(list("2001:db8:0:0:0:0:0:1"), list()));
+        assertEquals(list("2001:db8::/127"), compile(list("2001:db8::/128", "2001:db8::1/128"), list()));
+        assertEquals(list("fe80::/10"), compile(list("[fe80::]/10"), list()));
+    }
+
+    @Test
+    public void ipv6LanExclusionsLeaveNoOverlap() {
+        List<String> routes = compile(list("::/0"), RouteCompiler.LAN_ROUTES);
+
+        assertTrue(routes.contains("::/1"));
+        assertTrue(routes.contains("8000::/2"));
+        assertTrue(routes.contains("fe00::/9"));
+        for (String route : routes) {
+            assertTrue(route, route.indexOf(':') >= 0);
+            assertTrue(route, !route.startsWith("fc") && !route.startsWith("fd") && !route.startsWith("ff"));
+        }
+    }
+
+    @Test
+    public void ipv4BeforeIpv6() {
+        assertEquals(list("10.0.0.0/8", "fc00::/7"), compile(list("fc00::/7", "10.0.0.0/8"), list()));
+    }
+
+    @Test
+    public void invalidCidrsAreRejected() {
+        for (String bad : list("10.0.0.0/33", "10.0.0/8", "10.0.0.256/32", "10.0.0.0/x", "::1::/64",
+                "2001:db8::/129", "1:2:3:4:5:6:7:8:9/64", "12345::/16", "/8")) {
+            try {
+                compile(list(bad), list());
+                fail("aceptó " + bad);
+            } catch (RouteCompiler.InvalidRouteException expected) {
+                assertEquals(bad, expected.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void toConfigReportsTheCidrThatFailed() {
+        WireGuardConfig config = new WireGuardConfig();
+        config.setAllowedIPs("0.0.0.0/0, 10.0.0.0/99");
+        config.setExcludedIPs("192.168.0.0/16");
+        assertEquals("10.0.0.0/99", badAllowedIps(config));
+
+        config.setAllowedIPs("0.0.0.0/0");
+        config.setExcludedIPs("192.168.0.0/16, 172.16.0/12");
+        assertEquals("172.16.0/12", badAllowedIps(config));
+
+        // Sin exclusiones, con la LAN fuera
+        config.setAllowedIPs("0.0.0.0/0, ::/200");
+        config.setExcludedIPs(null);
+        config.setBypassLan(true);
+        assertEquals("::/200", badAllowedIps(config));
+    }
+
+    @Test
+    public void splitAndJoinRoundTrip() {
+        List<String> items = RouteCompiler.split(" 10.0.0.0/8, ,::/0 ,");
+        assertEquals(list("10.0.0.0/8", "::/0"), items);
+        assertEquals("10.0.0.0/8, ::/0", RouteCompiler.join(items));
+        assertEquals(list(), RouteCompiler.split(null));
+    }
+
+    private static String badAllowedIps(WireGuardConfig config) {
+        try {
+            config.toConfig();
+            fail("aceptó " + config.getAllowedIPs() + " - " + config.getExcludedIPs());
+            return null;
+        } catch (BadConfigException e) {
+            return e.getText().toString();
+        }
+    }
+
+    private static List<String> compile(List<String> included, List<String> excluded) {
+        return RouteCompiler.compile(included, excluded);
+    }
+
+    private static List<String> list(String... items) {
+        return items.length == 0 ? Collections.<String>emptyList() : Arrays.asList(items);
+    }
+}
@@ -0,0 +1,204 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ServerProber contra servidores de prueba en loopback: eco UDP con
+ * retardo, UDP mudo, puerto cerrado y respaldo TCP.
+ */
+public class ServerProberTest {
+
+    private final List<AutoCloseable> servers = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (AutoCloseable server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void udpEchoIsReachableWithAllSamples() throws Exception {
+        int port = udpEcho(0);
+
+        ServerProber.Result result = probeOne(new ServerProber.Target("eco", "127.0.0.1", port, 0), options(3, 1000));
+
+        assertTrue(result.isReachable());
+        assertEquals(ServerProber.Method.UDP, result.method);
+        assertEquals(3, result.sent);
+        assertEquals(3, result.received);
+        assertEquals(0.0, result.loss(), 0.0);
+        assertTrue(result.minMs >= 0 && result.minMs <= result.medianMs && result.medianMs <= result.p95Ms);
+        assertNull(result.error);
+    }
+
+    @Test
+    public void rttOrdersServersByResponseDelay() throws Exception {
+        int fast = udpEcho(0);
+        int slow = udpEcho(60);
+        int medium = udpEcho(25);
+
+        List<ServerProber.Result> results = new ServerProber().probe(Arrays.asList(
+            new ServerProber.Target("lento", "127.0.0.1", slow, 0),
+            new ServerProber.Target("rapido", "127.0.0.1", fast, 0),
+            new ServerProber.Target("medio", "127.0.0.1", medium, 0)), options(3, 1000));
+
+        // Resultados en el orden de entrada, con el RTT de cada servidor
+        assertEquals("lento", results.get(0).id);
+        assertEquals("rapido", results.get(1).id);
+        assertEquals("medio", results.get(2).id);
+        double slowMs = results.get(0).medianMs;
+        double fastMs = results.get(1).medianMs;
+        double mediumMs = results.get(2).medianMs;
+        assertTrue(fastMs < mediumMs);
+        assertTrue(mediumMs < slowMs);
+        assertTrue("lento " + slowMs, slowMs >= 60);
+        assertTrue("medio " + mediumMs, mediumMs >= 25);
+    }
+
+    @Test
+    public void silentUdpTimesOutEverySample() throws Exception {
+        DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        servers.add(silent);
+
+        long start = System.nanoTime();
+        ServerProber.Result result = probeOne(
+            new ServerProber.Target("mudo", "127.0.0.1", silent.getLocalPort(), 0), options(3, 100));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertFalse(result.isReachable());
+        assertEquals(ServerProber.Method.NONE, result.method);
+        assertEquals(3, result.sent);
+        assertEquals(0, result.received);
+        assertEquals(1.0, result.loss(), 0.0);
+        assertEquals(-1, result.medianMs, 0.0);
+        // Tres muestras secuenciales de 100 ms, sin esperar de más
+        assertTrue("tardó " + elapsedMs, elapsedMs >= 300 && elapsedMs < 2000);
+    }
+
+    @Test
+    public void closedUdpPortCountsAsAnswer() throws Exception {
+        // Puerto libre: el ICMP port unreachable de loopback es una respuesta
+        DatagramSocket probe = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        int closedPort = probe.getLocalPort();
+        probe.close();
+
+        ServerProber.Result result = probeOne(new ServerProber.Target("cerrado", "127.0.0.1", closedPort, 0), options(2, 500));
+
+        assertTrue(result.isReachable());
+        assertEquals(ServerProber.Method.UDP, result.method);
+        assertEquals(2, result.received);
+    }
+
+    @Test
+    public void silentUdpFallsBackToTcp() throws Exception {
+        DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        servers.add(silent);
+        ServerSocket tcp = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        servers.add(tcp);
+        acceptForever(tcp);
+
+        ServerProber.Result result = probeOne(
+            new ServerProber.Target("tcp", "127.0.0.1", silent.getLocalPort(), tcp.getLocalPort()), options(3, 100));
+
+        assertTrue(result.isReachable());
+        assertEquals(ServerProber.Method.TCP, result.method);
+        // Las muestras se reinician al pasar a TCP
+        assertEquals(3, result.sent);
+        assertEquals(3, result.received);
+    }
+
+    @Test
+    public void unknownHostIsReportedWithoutSampling() throws Exception {
+        ServerProber.Result result = probeOne(
+            new ServerProber.Target("dns", "no-existe.invalid", 51820, 0), options(3, 100));
+
+        assertFalse(result.isReachable());
+        assertEquals(0, result.sent);
+        assertEquals("dns", result.error);
+    }
+
+    @Test
+    public void maxInFlightStillProbesEveryServer() throws Exception {
+        List<ServerProber.Target> targets = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            targets.add(new ServerProber.Target("s" + i, "127.0.0.1", udpEcho(10), 0));
+        }
+        ServerProber.Options options = options(2, 1000);
+        options.maxInFlight = 2;
+
+        List<ServerProber.Result> results = new ServerProber().probe(targets, options);
+
+        assertEquals(6, results.size());
+        for (ServerProber.Result result : results) {
+            assertEquals(result.id, 2, result.received);
+        }
+    }
+
+    private ServerProber.Result probeOne(ServerProber.Target target, ServerProber.Options options) throws IOException {
+        return new ServerProber().probe(Arrays.asList(target), options).get(0);
+    }
+
+    private static ServerProber.Options options(int samples, long timeoutMs) {
+        ServerProber.Options options = new ServerProber.Options();
+        options.samples = samples;
+        options.timeoutMs = timeoutMs;
+        options.sampleIntervalMs = 5;
+        return options;
+    }
+
+    /**
+     * Eco UDP que responde tras delayMs
+     */
+    private int udpEcho(long delayMs) throws SocketException {
+        DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        servers.add(socket);
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[1500];
+            while (!socket.isClosed()) {
+                try {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(packet);
+                    if (delayMs > 0) Thread.sleep(delayMs);
+                    socket.send(new DatagramPacket(packet.getData(), packet.getLength(), packet.getSocketAddress()));
+                } catch (IOException | InterruptedException e) {
+                    return;
+                }
+            }
+        }, "EcoUdp");
+        thread.setDaemon(true);
+        thread.start();
+        return socket.getLocalPort();
+    }
+
+    private static void acceptForever(ServerSocket server) {
+        Thread thread = new Thread(() -> {
+            while (!server.isClosed()) {
+                try (Socket ignored = server.accept()) {
+                    // Solo cuenta el connect
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }, "AceptarTcp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
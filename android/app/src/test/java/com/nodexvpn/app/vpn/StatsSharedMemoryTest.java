@@ -0,0 +1,174 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Seqlock de StatsSharedMemory: un escritor y un lector con mapeos
+ * distintos del mismo archivo, como los procesos :vpn y UI.
+ */
+public class StatsSharedMemoryTest {
+
+    private File file;
+    private StatsSharedMemory writer;
+    private StatsSharedMemory reader;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("stats", ".shm").toFile();
+        writer = StatsSharedMemory.open(file);
+        writer.reset();
+        reader = StatsSharedMemory.open(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        reader.close();
+        file.delete();
+    }
+
+    @Test
+    public void readsPublishedSamplesInOrder() {
+        StatsRingBuffer samples = new StatsRingBuffer(64);
+        for (long v = 1; v <= 5; v++) {
+            samples.add(v, v * 10, v * 20, v * 30, v * 40, v * 50);
+        }
+        writer.publish(samples, 0, samples.endSeq());
+
+        StatsRingBuffer into = new StatsRingBuffer(64);
+        long count = reader.read(0, into);
+
+        assertEquals(5, count);
+        assertEquals(5, into.endSeq());
+        for (long s = 0; s < 5; s++) {
+            assertEquals(s + 1, into.timestampAt(s));
+            assertEquals((s + 1) * 50, into.handshakeAgeAt(s));
+        }
+        // Nada nuevo desde la última lectura
+        assertEquals(5, reader.read(count, into));
+        assertEquals(5, into.endSeq());
+    }
+
+    @Test
+    public void keepsOnlyTheLastRingOfSamples() {
+        StatsRingBuffer samples = new StatsRingBuffer(64);
+        for (long v = 1; v <= 40; v++) {
+            samples.add(v, v, v, v, v, v);
+        }
+        writer.publish(samples, 0, samples.endSeq());
+
+        StatsRingBuffer into = new StatsRingBuffer(64);
+        assertEquals(16, reader.read(0, into));
+        assertEquals(16, into.endSeq());
+        assertEquals(25, into.timestampAt(0));
+        assertEquals(40, into.timestampAt(15));
+    }
+
+    @Test
+    public void resetStartsReadersFromZero() {
+        StatsRingBuffer samples = new StatsRingBuffer(64);
+        samples.add(1, 1, 1, 1, 1, 1);
+        samples.add(2, 2, 2, 2, 2, 2);
+        writer.publish(samples, 0, 2);
+        StatsRingBuffer into = new StatsRingBuffer(64);
+        long count = reader.read(0, into);
+        assertEquals(2, count);
+
+        writer.reset();
+        StatsRingBuffer fresh = new StatsRingBuffer(64);
+        fresh.add(7, 7, 7, 7, 7, 7);
+        writer.publish(fresh, 0, 1);
+
+        assertEquals(1, reader.read(count, into));
+        assertEquals(7, into.timestampAt(into.endSeq() - 1));
+    }
+
+    /**
+     * Cada muestra lleva el mismo valor en sus seis campos: una copia rota
+     * (campos de dos escrituras) o desordenada no puede pasar la validación.
+     */
+    @Test
+    public void concurrentReadsNeverSeeTornSamples() throws Exception {
+        final long durationMs = 2000;
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread writerThread = new Thread(() -> {
+            StatsRingBuffer samples = new StatsRingBuffer(64);
+            long value = 1;
+            try {
+                while (!stop.get()) {
+                    long from = samples.endSeq();
+                    int batch = 1 + (int) (value % 5);
+                    for (int i = 0; i < batch; i++, value++) {
+                        samples.add(value, value, value, value, value, value);
+                    }
+                    writer.publish(samples, from, samples.endSeq());
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "Escritor");
+
+        long[] reads = new long[1];
+        long[] seen = new long[1];
+        Thread readerThread = new Thread(() -> {
+            StatsRingBuffer into = new StatsRingBuffer(1024);
+            long count = 0;
+            long last = 0;
+            try {
+                while (!stop.get()) {
+                    long start = into.endSeq();
+                    long next = reader.read(count, into);
+                    if (next == count) continue;
+                    reads[0]++;
+                    long end = into.endSeq();
+                    // Exactamente las muestras nuevas: count avanza lo mismo que se añadió
+                    assertEquals(Math.min(next - count, 16), end - start);
+                    for (long s = start; s < end; s++) {
+                        long v = into.timestampAt(s);
+                        assertEquals(v, into.rxBytesAt(s));
+                        assertEquals(v, into.txBytesAt(s));
+                        assertEquals(v, into.rxRateAt(s));
+                        assertEquals(v, into.txRateAt(s));
+                        assertEquals(v, into.handshakeAgeAt(s));
+                        assertTrue("fuera de orden: " + v + " tras " + last, v > last);
+                        // Dentro de una lectura las muestras son consecutivas
+                        if (s > start) assertEquals(last + 1, v);
+                        last = v;
+                        seen[0]++;
+                    }
+                    // El total publicado coincide con el valor de la última muestra
+                    assertEquals(next, last);
+                    count = next;
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "Lector");
+
+        writerThread.start();
+        readerThread.start();
+        Thread.sleep(durationMs);
+        stop.set(true);
+        writerThread.join();
+        readerThread.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError("Lectura inconsistente tras " + reads[0] + " lecturas", failure.get());
+        }
+        assertTrue("sin lecturas válidas", reads[0] > 100);
+        assertTrue(seen[0] > 0);
+    }
+}
@@ -0,0 +1,74 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STOP es terminal: el executor se para aunque el disconnect falle y lo
+ * que llegue después se descarta.
+ */
+public class TunnelControllerTest {
+
+    private static final class FailingExecutor implements TunnelController.Executor {
+        final CountDownLatch stopped = new CountDownLatch(1);
+
+        @Override
+        public void connect(TunnelController.Command command) {
+        }
+
+        @Override
+        public void switchServer(TunnelController.Command command) {
+        }
+
+        @Override
+        public void rebind(TunnelController.Command command) {
+        }
+
+        @Override
+        public void disconnect() throws Exception {
+            throw new IllegalStateException("setState DOWN falló");
+        }
+
+        @Override
+        public void stop() {
+            stopped.countDown();
+        }
+    }
+
+    @Test
+    public void stopRunsEvenWhenDisconnectFails() throws Exception {
+        FailingExecutor executor = new FailingExecutor();
+        List<Object[]> finished = new CopyOnWriteArrayList<>();
+        TunnelController controller = new TunnelController(executor,
+            (command, outcome, error) -> finished.add(new Object[]{command, outcome, error}));
+
+        TunnelController.Command stop = TunnelController.Command.stop();
+        controller.submit(stop);
+
+        assertTrue("stop() no llegó a llamarse", executor.stopped.await(5, TimeUnit.SECONDS));
+        awaitFinished(finished, 1);
+        assertEquals(stop, finished.get(0)[0]);
+        assertEquals(TunnelController.Outcome.FAILED, finished.get(0)[1]);
+
+        // El bucle terminó: lo que llega después se descarta
+        TunnelController.Command late = TunnelController.Command.connect(null);
+        controller.submit(late);
+        assertEquals(late, finished.get(1)[0]);
+        assertEquals(TunnelController.Outcome.COALESCED, finished.get(1)[1]);
+    }
+
+    private static void awaitFinished(List<Object[]> finished, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (finished.size() < count) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("comandos sin terminar");
+            Thread.sleep(1);
+        }
+    }
+}
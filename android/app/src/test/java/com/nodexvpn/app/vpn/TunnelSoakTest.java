@@ -0,0 +1,221 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertTrue;
+
+import com.nodexvpn.app.vpn.FakeTunnelBackendTest.ManualClock;
+import com.nodexvpn.app.vpn.FakeTunnelBackendTest.TestHost;
+import com.wireguard.config.Config;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link SoakHarness} en la JVM sobre el {@link TunnelSession} del servicio
+ * y {@link FakeTunnelBackend}, con el mismo {@link TestHost} que
+ * {@link FakeTunnelBackendTest}: mismos ciclos, muestras y umbrales por
+ * defecto de {@link SoakHarness.Options} que en el dispositivo. Además de
+ * heap, hilos y descriptores, los Tunnel que el backend ve vivos no deben
+ * crecer. Los hilos se cuentan desde la JVM y no desde /proc/self/task: los
+ * compiladores JIT van y vienen.
+ *
+ * El camino completo (módulo, AIDL y listener de estado del módulo) solo
+ * corre en el dispositivo: startSoakTest con {@link ModuleSoakTarget}.
+ */
+public class TunnelSoakTest {
+
+    private File dir;
+    private final List<TestHost> hosts = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("soak").toFile();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        for (TestHost host : hosts) {
+            host.release();
+        }
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void cyclesDoNotLeakThreadsDescriptorsHeapOrTunnels() throws Exception {
+        SessionTarget target = new SessionTarget(false);
+        SoakHarness.Options options = new SoakHarness.Options();
+        options.warmupCycles = 50;
+        options.cycles = 1000;
+        options.sampleEvery = 100;
+
+        assertPassed(new SoakHarness(target, options).run());
+        assertTrue("incidentes del watchdog: " + target.incidents, target.incidents.isEmpty());
+    }
+
+    @Test
+    public void restartedServicesReleaseTheirControlThreadsAndTunnels() throws Exception {
+        SessionTarget target = new SessionTarget(true);
+        SoakHarness.Options options = new SoakHarness.Options();
+        options.warmupCycles = 50;
+        options.cycles = 200;
+        options.sampleEvery = 50;
+        options.switchesPerCycle = 0;
+
+        assertPassed(new SoakHarness(target, options).run());
+    }
+
+    private static void assertPassed(SoakHarness.Report report) {
+        assertTrue(String.valueOf(report.failures), report.passed());
+    }
+
+    /**
+     * Un ciclo del harness sobre la sesión: connect, switch más un re-enlace
+     * con unos segundos de muestras, y cada pocos ciclos una ráfaga que se
+     * reduce a desconectar. Con {@code restart} cada connect crea el servicio
+     * y cada disconnect hace STOP y onDestroy.
+     */
+    private final class SessionTarget implements SoakHarness.Target {
+        final boolean restart;
+        final ManualClock clock = new ManualClock();
+        final FakeTunnelBackend backend = new FakeTunnelBackend(FakeTunnelBackendTest.options(30), clock);
+        final Config[] configs = new Config[3];
+        final List<HandshakeWatchdog.Incident> incidents = new ArrayList<>();
+        TestHost host;
+        int cycle;
+
+        SessionTarget(boolean restart) {
+            this.restart = restart;
+        }
+
+        @Override
+        public void start() throws Exception {
+            for (int i = 0; i < configs.length; i++) {
+                configs[i] = FakeTunnelBackendTest.config("198.51.100." + (i + 1));
+            }
+            if (!restart) {
+                host = newHost();
+                hosts.add(host);
+            }
+        }
+
+        @Override
+        public int configCount() {
+            return configs.length;
+        }
+
+        @Override
+        public void connect(int config) throws Exception {
+            if (restart) host = newHost();
+            run(TunnelController.Command.connect(configs[config]));
+            host.runFor(2000);
+        }
+
+        @Override
+        public void switchServer(int config) throws Exception {
+            run(TunnelController.Command.switchServer(configs[config]));
+            run(TunnelController.Command.rebind(configs[config]));
+            host.runFor(2000);
+        }
+
+        @Override
+        public void disconnect() throws Exception {
+            try {
+                if (restart) {
+                    run(TunnelController.Command.stop());
+                    host.release();
+                    awaitThreadsGone("NodexTunnelControl");
+                    return;
+                }
+                run(TunnelController.Command.disconnect());
+                if (cycle % 10 == 0) {
+                    host.session.submit(TunnelController.Command.connect(configs[0]));
+                    host.session.submit(TunnelController.Command.switchServer(configs[1]));
+                    host.session.submit(TunnelController.Command.disconnect());
+                    host.awaitIdle();
+                    check();
+                }
+                if (host.session.isConnected()) throw new IllegalStateException("conectado tras disconnect");
+            } finally {
+                cycle++;
+                incidents.addAll(host.incidents);
+                // Lo que el test guarda no debe contar como fuga
+                host.clear();
+                if (restart) host = null;
+            }
+        }
+
+        @Override
+        public Map<String, SoakHarness.Usage> sample() {
+            Runtime runtime = Runtime.getRuntime();
+            runtime.gc();
+            System.runFinalization();
+            runtime.gc();
+
+            SoakHarness.Usage usage = new SoakHarness.Usage();
+            usage.heapKb = (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+            usage.threads = Thread.activeCount();
+            String[] fds = new File("/proc/self/fd").list();
+            usage.fds = fds != null ? fds.length : -1;
+            usage.handles.put("tunnels", backend.getLiveTunnelCount());
+            Map<String, SoakHarness.Usage> processes = new TreeMap<>();
+            processes.put("vpn", usage);
+            return processes;
+        }
+
+        @Override
+        public void finish() throws InterruptedException {
+            if (restart && host != null) host.release();
+        }
+
+        @Override
+        public String toString() {
+            return restart ? "session/restart" : "session";
+        }
+
+        private TestHost newHost() {
+            return new TestHost(backend, clock, new File(dir, TunnelSnapshot.FILE_NAME));
+        }
+
+        private void run(TunnelController.Command command) throws InterruptedException {
+            host.submitAndWait(command);
+            check();
+        }
+
+        private void check() {
+            for (Object[] item : host.finished) {
+                TunnelController.Outcome outcome = (TunnelController.Outcome) item[1];
+                if (outcome != TunnelController.Outcome.SUCCEEDED && outcome != TunnelController.Outcome.COALESCED
+                    && outcome != TunnelController.Outcome.CANCELLED) {
+                    throw new IllegalStateException(item[0] + ": " + outcome + " " + item[2]);
+                }
+            }
+        }
+    }
+
+    private static void awaitThreadsGone(String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countThreads(name) > 0) {
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException(name + " sigue vivo");
+            Thread.sleep(1);
+        }
+    }
+
+    private static int countThreads(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals(name)) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,234 @@
+package com.nodexvpn.app.vpn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * UsageStore tras un corte: cola del log cortada o con basura, CRC que no
+ * cuadra y compactación interrumpida entre los rollups y el log nuevo.
+ */
+public class UsageStoreTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    private File dir;
+    private UsageStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("usage").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) store.close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void trafficSurvivesAReopen() {
+        store = UsageStore.open(dir);
+        store.record(T0, "de-1", 100, 10);
+        store.record(T0 + UsageStore.HOUR_MS, "nl-2", 200, 20);
+        store.flush();
+
+        reopen();
+        assertArrayEquals(new long[] {300, 30}, total());
+        assertArrayEquals(new long[] {200, 20}, server("nl-2"));
+    }
+
+    @Test
+    public void cutTailIsTrimmedAndTheLogKeepsWorking() throws IOException {
+        store = UsageStore.open(dir);
+        store.record(T0, "de-1", 100, 10);
+        store.flush();
+        long good = log().length();
+        store.record(T0, "de-1", 50, 5);
+        store.flush();
+        // Corte a mitad del último registro
+        try (RandomAccessFile file = new RandomAccessFile(log(), "rw")) {
+            file.setLength(file.length() - 7);
+        }
+
+        reopen();
+        assertArrayEquals(new long[] {100, 10}, total());
+        assertEquals(good, log().length());
+
+        // Lo siguiente se añade tras la parte válida y se lee
+        store.record(T0, "de-1", 1, 1);
+        store.flush();
+        reopen();
+        assertArrayEquals(new long[] {101, 11}, total());
+    }
+
+    @Test
+    public void garbageTailIsIgnored() throws IOException {
+        store = UsageStore.open(dir);
+        store.record(T0, "de-1", 100, 10);
+        store.flush();
+        long good = log().length();
+        try (RandomAccessFile file = new RandomAccessFile(log(), "rw")) {
+            file.seek(file.length());
+            file.write(new byte[] {2, 0, 0, 0, 1, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f, 0x7f});
+        }
+
+        reopen();
+        assertArrayEquals(new long[] {100, 10}, total());
+        assertEquals(good, log().length());
+    }
+
+    @Test
+    public void logRecordWithBadCrcEndsTheReplay() throws IOException {
+        store = UsageStore.open(dir);
+        store.record(T0, "de-1", 100, 10);
+        store.flush();
+        long first = log().length();
+        store.record(T0 + UsageStore.HOUR_MS, "de-1", 50, 5);
+        store.flush();
+        // Un bit cambiado en el rx del segundo registro
+        try (RandomAccessFile file = new RandomAccessFile(log(), "rw")) {
+            file.seek(first + 1 + 4 + 4 + 7);
+            file.write(file.read() ^ 1);
+        }
+
+        reopen();
+        assertArrayEquals(new long[] {100, 10}, total());
+        assertEquals(first, log().length());
+    }
+
+    @Test
+    public void rollupsWithBadCrcAreIgnored() throws IOException {
+        store = UsageStore.open(dir);
+        store.record(T0, "de-1", 100, 10);
+        store.flush();
+        store.compact();
+        store.record(T0, "de-1", 7, 7);
+        store.flush();
+        try (RandomAccessFile file = new RandomAccessFile(rollups(), "rw")) {
+            file.seek(20);
+            file.write(file.read() ^ 1);
+        }
+
+        reopen();
+        // Nada de los rollups dañados se aplica; el log posterior depende de
+        // su diccionario de servidores y tampoco se atribuye a otro
+        assertArrayEquals(new long[] {0, 0}, total());
+
+        store.record(T0, "de-1", 3, 3);
+        store.flush();
+        reopen();
+        assertArrayEquals(new long[] {3, 3}, server("de-1"));
+    }
+
+    @Test
+    public void crashBetweenRollupsAndNewLogDoesNotCountTwice() throws IOException {
+        store = UsageStore.open(dir);
+        store.record(T0, "de-1", 100, 10);
+        store.record(T0, "nl-2", 40, 4);
+        store.flush();
+        File before = new File(dir, "usage.log.before");
+        Files.copy(log().toPath(), before.toPath());
+
+        store.compact();
+        store.close();
+        // El proceso murió tras escribir los rollups y antes de reemplazar el log
+        Files.move(before.toPath(), log().toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        store = UsageStore.open(dir);
+        assertArrayEquals(new long[] {140, 14}, total());
+        assertArrayEquals(new long[] {40, 4}, server("nl-2"));
+
+        // El log viejo se descartó: lo nuevo tampoco se duplica
+        store.record(T0, "nl-2", 1, 1);
+        store.flush();
+        reopen();
+        assertArrayEquals(new long[] {141, 15}, total());
+    }
+
+    @Test
+    public void longServerNamesAreCutOnceEverywhere() {
+        String ascii = repeat("a", 300);
+        String accented = repeat("é", 200);
+        store = UsageStore.open(dir);
+        store.record(T0, ascii, 100, 10);
+        store.record(T0, accented, 50, 5);
+        // Mismo prefijo recortado: mismo servidor
+        store.record(T0, ascii + "b", 1, 1);
+
+        String asciiCut = repeat("a", 255);
+        String accentedCut = repeat("é", 127);
+        assertEquals(accentedCut, UsageStore.truncate(accented));
+        assertArrayEquals(new long[] {101, 11}, server(asciiCut));
+        assertArrayEquals(new long[] {50, 5}, server(accentedCut));
+
+        store.flush();
+        reopen();
+        assertArrayEquals(new long[] {101, 11}, server(asciiCut));
+        assertArrayEquals(new long[] {50, 5}, server(accentedCut));
+
+        store.compact();
+        reopen();
+        assertArrayEquals(new long[] {101, 11}, server(asciiCut));
+        assertArrayEquals(new long[] {50, 5}, server(accentedCut));
+        assertTrue(accentedCut.getBytes(StandardCharsets.UTF_8).length <= UsageStore.MAX_NAME_BYTES);
+    }
+
+    private void reopen() {
+        store.close();
+        store = UsageStore.open(dir);
+    }
+
+    private long[] total() {
+        long[] total = new long[2];
+        for (UsageStore.Bucket bucket : history()) {
+            total[0] += bucket.rxBytes;
+            total[1] += bucket.txBytes;
+        }
+        return total;
+    }
+
+    private long[] server(String name) {
+        long[] total = new long[2];
+        for (UsageStore.Bucket bucket : history()) {
+            long[] values = bucket.byServer.get(name);
+            if (values == null) continue;
+            total[0] += values[0];
+            total[1] += values[1];
+        }
+        return total;
+    }
+
+    private List<UsageStore.Bucket> history() {
+        return store.getHistory(T0 - 2 * UsageStore.DAY_MS, T0 + 2 * UsageStore.DAY_MS, UsageStore.Granularity.DAY);
+    }
+
+    private File log() {
+        return new File(dir, "usage.log");
+    }
+
+    private File rollups() {
+        return new File(dir, "usage_rollup.bin");
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) sb.append(s);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,134 @@
+#!/usr/bin/env bash
+# Benchmark de extremo a extremo del túnel en una máquina Linux.
+#
+#   ./gradlew :benchmarks:loopback
+#   ./gradlew :benchmarks:loopback -Ploopback.args="--duration 20 --streams 1,4,8"
+#
+# Dos network namespaces unidos por un veth: en nxb-srv un wireguard-go
+# hace de servidor y LoopbackSink responde; en nxb-cli otro wireguard-go
+# hace de dispositivo y LoopbackBenchmark conecta, mide y escribe el JSON
+# en build/loopback/. wireguard-go se compila con la misma versión que
+# fija libwg-go/go.mod (la que lleva la app); WG_GO=/ruta/binario para
+# usar uno ya compilado.
+#
+# Requiere ip (iproute2), go (sin WG_GO), java 17 y root o sudo.
+# Uso directo: run.sh <classpath> [opciones de LoopbackBenchmark]
+
+set -euo pipefail
+
+HERE="$(cd "$(dirname "$0")" && pwd)"
+CLASSPATH_ARG="$1"
+shift
+
+OUT_DIR="${OUT_DIR:-$HERE/../build/loopback}"
+NS_SRV=nxb-srv
+NS_CLI=nxb-cli
+IF_SRV=nxbs0
+IF_CLI=nxbc0
+VETH_SRV=nxb-veth0
+VETH_CLI=nxb-veth1
+UNDERLAY_SRV=192.168.241.1
+UNDERLAY_CLI=192.168.241.2
+TUNNEL_SRV=10.99.0.1
+TUNNEL_CLI=10.99.0.2
+LISTEN_PORT=51820
+SOCKET_DIR=/var/run/wireguard
+
+SUDO=""
+if [ "$(id -u)" -ne 0 ]; then
+    SUDO="sudo"
+fi
+
+need() {
+    command -v "$1" >/dev/null 2>&1 || { echo "❌ Falta '$1' en PATH" >&2; exit 1; }
+}
+
+need ip
+need java
+mkdir -p "$OUT_DIR/bin"
+
+# --- wireguard-go con la versión de la app ---
+WG_MODULE_VERSION="$(awk '$1 == "golang.zx2c4.com/wireguard" { print $2 }' \
+    "$HERE/../../app/src/main/cpp/libwg-go/go.mod")"
+if [ -z "${WG_GO:-}" ]; then
+    need go
+    WG_GO="$OUT_DIR/bin/wireguard"
+    if [ ! -x "$WG_GO" ] || [ "$(cat "$OUT_DIR/bin/wireguard.version" 2>/dev/null)" != "$WG_MODULE_VERSION" ]; then
+        echo "🔨 Compilando wireguard-go $WG_MODULE_VERSION..."
+        GOBIN="$OUT_DIR/bin" go install "golang.zx2c4.com/wireguard@$WG_MODULE_VERSION"
+        echo "$WG_MODULE_VERSION" > "$OUT_DIR/bin/wireguard.version"
+    fi
+fi
+WG_VERSION="wireguard-go $WG_MODULE_VERSION"
+
+# --- Red: dos namespaces y un veth ---
+PIDS=()
+cleanup() {
+    for pid in "${PIDS[@]}"; do
+        $SUDO kill "$pid" 2>/dev/null || true
+    done
+    $SUDO ip netns del "$NS_CLI" 2>/dev/null || true
+    $SUDO ip netns del "$NS_SRV" 2>/dev/null || true
+    $SUDO rm -f "$SOCKET_DIR/$IF_SRV.sock" "$SOCKET_DIR/$IF_CLI.sock"
+}
+trap cleanup EXIT
+cleanup
+
+$SUDO ip netns add "$NS_SRV"
+$SUDO ip netns add "$NS_CLI"
+$SUDO ip link add "$VETH_SRV" type veth peer name "$VETH_CLI"
+$SUDO ip link set "$VETH_SRV" netns "$NS_SRV"
+$SUDO ip link set "$VETH_CLI" netns "$NS_CLI"
+$SUDO ip -n "$NS_SRV" address add "$UNDERLAY_SRV/24" dev "$VETH_SRV"
+$SUDO ip -n "$NS_CLI" address add "$UNDERLAY_CLI/24" dev "$VETH_CLI"
+for ns in "$NS_SRV" "$NS_CLI"; do
+    $SUDO ip -n "$ns" link set lo up
+done
+$SUDO ip -n "$NS_SRV" link set "$VETH_SRV" up
+$SUDO ip -n "$NS_CLI" link set "$VETH_CLI" up
+
+# --- wireguard-go en cada lado (en primer plano para poder matarlo) ---
+start_wg() {
+    $SUDO ip netns exec "$1" env WG_I_PREFER_BUGGY_USERSPACE_TO_POLISHED_KMOD=1 "$WG_GO" -f "$2" \
+        > "$OUT_DIR/$2.log" 2>&1 &
+    PIDS+=("$!")
+    for _ in $(seq 50); do
+        [ -S "$SOCKET_DIR/$2.sock" ] && return 0
+        sleep 0.1
+    done
+    echo "❌ wireguard-go no creó $SOCKET_DIR/$2.sock (ver $OUT_DIR/$2.log)" >&2
+    exit 1
+}
+start_wg "$NS_SRV" "$IF_SRV"
+start_wg "$NS_CLI" "$IF_CLI"
+
+# El servidor se direcciona aquí; el cliente lo hace UapiTunnelBackend en cada connect
+$SUDO ip -n "$NS_SRV" address add "$TUNNEL_SRV/24" dev "$IF_SRV"
+$SUDO ip -n "$NS_SRV" link set "$IF_SRV" mtu 1420 up
+
+$SUDO ip netns exec "$NS_SRV" java -cp "$CLASSPATH_ARG" com.nodexvpn.app.vpn.bench.LoopbackSink \
+    > "$OUT_DIR/sink.log" 2>&1 &
+PIDS+=("$!")
+sleep 1
+
+COMMIT="$(git -C "$HERE" rev-parse --short HEAD 2>/dev/null || echo unknown)"
+if [ -n "$(git -C "$HERE" status --porcelain 2>/dev/null)" ]; then
+    COMMIT="$COMMIT-dirty"
+fi
+OUT_FILE="$OUT_DIR/loopback-$COMMIT-$(date +%Y%m%d-%H%M%S).json"
+
+echo "🚀 Benchmark contra $WG_VERSION"
+$SUDO ip netns exec "$NS_CLI" java -cp "$CLASSPATH_ARG" com.nodexvpn.app.vpn.bench.LoopbackBenchmark \
+    --out "$OUT_FILE" \
+    --commit "$COMMIT" \
+    --wg-version "$WG_VERSION" \
+    --client-iface "$IF_CLI" \
+    --client-socket "$SOCKET_DIR/$IF_CLI.sock" \
+    --server-iface "$IF_SRV" \
+    --server-socket "$SOCKET_DIR/$IF_SRV.sock" \
+    --endpoint "$UNDERLAY_SRV:$LISTEN_PORT" \
+    --listen-port "$LISTEN_PORT" \
+    --client-address "$TUNNEL_CLI/32" \
+    --server-tunnel-ip "$TUNNEL_SRV" \
+    --allowed-ips "10.99.0.0/24" \
+    "$@"
@@ -0,0 +1,76 @@
+package com.nodexvpn.app.vpn.bench;
+
+import com.nodexvpn.app.vpn.WireGuardConfig;
+
+import java.util.Base64;
+
+/**
+ * Configuraciones realistas para los benchmarks.
+ *
+ * SMALL es lo que manda hoy el backend (túnel completo, un DNS). LARGE
+ * es el peor caso que esperamos con split tunneling: cientos de rutas
+ * IPv4/IPv6, interfaz dual-stack, varios DNS y endpoint IPv6.
+ */
+final class BenchConfigs {
+
+    enum Profile { SMALL, LARGE }
+
+    private BenchConfigs() {
+    }
+
+    static WireGuardConfig create(Profile profile, int variant) {
+        WireGuardConfig config = new WireGuardConfig();
+        config.setPrivateKey(key(1 + variant));
+        config.setPublicKey(key(101 + variant));
+        config.setPersistentKeepalive("25");
+        if (profile == Profile.SMALL) {
+            config.setInterfaceAddress("10.8.0." + (2 + variant % 200) + "/32");
+            config.setDns("1.1.1.1");
+            config.setEndpoint("203.0.113." + (10 + variant % 200) + ":51820");
+            config.setAllowedIPs(WireGuardConfig.DEFAULT_ALLOWED_IPS);
+        } else {
+            config.setInterfaceAddress("10.8.0." + (2 + variant % 200) + "/32, fd00:8::" + Integer.toHexString(2 + variant) + "/128");
+            config.setDns("1.1.1.1, 1.0.0.1, 2606:4700:4700::1111, 2606:4700:4700::1001");
+            config.setEndpoint("[2001:db8:" + Integer.toHexString(10 + variant) + "::1]:51820");
+            config.setAllowedIPs(largeAllowedIps(variant));
+        }
+        return config;
+    }
+
+    static String toJson(WireGuardConfig config) {
+        return "{\"Interface\":{"
+            + "\"PrivateKey\":\"" + config.getPrivateKey() + "\","
+            + "\"Address\":\"" + config.getInterfaceAddress() + "\","
+            + "\"DNS\":\"" + config.getDns() + "\"},"
+            + "\"Peer\":{"
+            + "\"PublicKey\":\"" + config.getPublicKey() + "\","
+            + "\"Endpoint\":\"" + config.getEndpoint() + "\","
+            + "\"AllowedIPs\":\"" + config.getAllowedIPs() + "\","
+            + "\"PersistentKeepalive\":\"" + config.getPersistentKeepalive() + "\"}}";
+    }
+
+    /** 200 prefijos IPv4 y 56 IPv6 (rutas públicas menos las redes locales) */
+    private static String largeAllowedIps(int variant) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(11 + i / 16).append('.').append((i * 16 + variant) % 256).append(".0.0/12");
+        }
+        for (int i = 0; i < 56; i++) {
+            sb.append(", 2001:").append(Integer.toHexString(0x4000 + i * 64 + variant)).append("::/32");
+        }
+        return sb.toString();
+    }
+
+    /** Clave de 32 bytes determinista en base64 */
+    private static String key(int seed) {
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (seed * 31 + i * 7);
+        }
+        // Clave privada X25519 con el clamping habitual
+        bytes[0] &= (byte) 248;
+        bytes[31] = (byte) ((bytes[31] & 127) | 64);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,101 @@
+package com.nodexvpn.app.vpn.bench;
+
+import com.nodexvpn.app.vpn.ConfigCache;
+import com.nodexvpn.app.vpn.ConfigDiff;
+import com.nodexvpn.app.vpn.WireGuardConfig;
+import com.wireguard.config.Config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Camino de la configuración en el connect: JSON de JS -> WireGuardConfig
+ * -> Config, por el camino antiguo (texto + Config.parse) y el actual
+ * (builders + ConfigCache).
+ */
+@State(Scope.Benchmark)
+public class ConfigBenchmark {
+
+    @Param({"SMALL", "LARGE"})
+    public BenchConfigs.Profile profile;
+
+    private String json;
+    private WireGuardConfig config;
+    private WireGuardConfig otherPeer;
+    private String configText;
+    private byte[] configBytes;
+    private Config built;
+    private Config builtOtherPeer;
+    private ConfigCache cache;
+
+    @Setup
+    public void setUp() throws Exception {
+        config = BenchConfigs.create(profile, 0);
+        json = BenchConfigs.toJson(config);
+        configText = config.toConfigString();
+        configBytes = configText.getBytes(StandardCharsets.UTF_8);
+        built = config.toConfig();
+
+        // Mismo [Interface], otro servidor: el caso de switchServer
+        otherPeer = BenchConfigs.create(profile, 0);
+        otherPeer.setPublicKey(BenchConfigs.create(profile, 1).getPublicKey());
+        otherPeer.setEndpoint(BenchConfigs.create(profile, 1).getEndpoint());
+        builtOtherPeer = otherPeer.toConfig();
+
+        cache = new ConfigCache(ConfigCache.DEFAULT_CAPACITY);
+        cache.getOrBuild(config);
+    }
+
+    @Benchmark
+    public WireGuardConfig fromJson() {
+        return WireGuardConfig.fromJson(json);
+    }
+
+    @Benchmark
+    public String toConfigString() {
+        return config.toConfigString();
+    }
+
+    /** Camino anterior: texto wg-quick y Config.parse */
+    @Benchmark
+    public Config parseConfigText() throws Exception {
+        return Config.parse(new ByteArrayInputStream(configBytes));
+    }
+
+    /** Camino actual: builders tipados sin texto intermedio */
+    @Benchmark
+    public Config buildTyped() throws Exception {
+        return config.toConfig();
+    }
+
+    @Benchmark
+    public Config cacheHit() throws Exception {
+        return cache.getOrBuild(config);
+    }
+
+    @Benchmark
+    public String cacheKey() {
+        return config.cacheKey();
+    }
+
+    @Benchmark
+    public String extractEndpoint() {
+        return WireGuardConfig.extractEndpoint(built);
+    }
+
+    @Benchmark
+    public ConfigDiff.Kind diffPeersOnly() {
+        return ConfigDiff.compare(built, builtOtherPeer);
+    }
+
+    @Benchmark
+    public Config mergePeersOnly() {
+        return ConfigDiff.merge(built, builtOtherPeer, ConfigDiff.Kind.PEERS_ONLY);
+    }
+}
@@ -0,0 +1,58 @@
+package com.nodexvpn.app.vpn.bench;
+
+import com.nodexvpn.app.vpn.RouteCompiler;
+import com.nodexvpn.app.vpn.WireGuardConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compilación de AllowedIPs con listas de exclusión grandes
+ * (LAN + redes de usuario, IPv4 e IPv6 mezcladas).
+ */
+@State(Scope.Benchmark)
+public class RouteCompilerBenchmark {
+
+    @Param({"8", "500", "5000"})
+    public int exclusions;
+
+    private final List<String> fullTunnel = Arrays.asList("0.0.0.0/0", "::/0");
+    private List<String> excluded;
+    private WireGuardConfig config;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        excluded = new ArrayList<>(RouteCompiler.LAN_ROUTES);
+        while (excluded.size() < exclusions) {
+            if (random.nextInt(4) == 0) {
+                excluded.add("2001:" + Integer.toHexString(random.nextInt(0x10000)) + "::/" + (32 + random.nextInt(33)));
+            } else {
+                excluded.add(random.nextInt(224) + "." + random.nextInt(256) + "." + random.nextInt(256) + ".0/" + (8 + random.nextInt(17)));
+            }
+        }
+
+        config = BenchConfigs.create(BenchConfigs.Profile.SMALL, 0);
+        config.setBypassLan(true);
+        config.setExcludedIPs(RouteCompiler.join(excluded.subList(RouteCompiler.LAN_ROUTES.size(), excluded.size())));
+    }
+
+    @Benchmark
+    public List<String> compile() {
+        return RouteCompiler.compile(fullTunnel, excluded);
+    }
+
+    /** Lo que hace toConfig: split de las listas, compilación y DNS */
+    @Benchmark
+    public String effectiveAllowedIPs() {
+        return config.effectiveAllowedIPs();
+    }
+}
@@ -0,0 +1,104 @@
+package com.nodexvpn.app.vpn.bench;
+
+import com.nodexvpn.app.vpn.ConnectionStateMachine;
+import com.nodexvpn.app.vpn.ConnectionStateMachine.State;
+import com.nodexvpn.app.vpn.LatencyHistogram;
+import com.nodexvpn.app.vpn.StatsRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Manejo de estado en caliente: transiciones CAS con y sin esperas,
+ * lectura de getStatus bajo contención y registro de muestras.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+public class StateBenchmark {
+
+    private static final Set<State> ANY = ConnectionStateMachine.ANY;
+    private static final Set<State> CONNECTED = EnumSet.of(State.CONNECTED);
+    private static final Set<State> FAILURES = EnumSet.of(State.ERROR, State.DISCONNECTED);
+    private static final ConnectionStateMachine.Callback NO_OP = (outcome, snapshot) -> { };
+
+    private ConnectionStateMachine machine;
+    private LatencyHistogram histogram;
+    private StatsRingBuffer ring;
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        machine = new ConnectionStateMachine();
+        histogram = new LatencyHistogram();
+        ring = new StatsRingBuffer(64);
+    }
+
+    @TearDown
+    public void tearDown() {
+        machine.shutdown();
+    }
+
+    /** Ciclo connect sin esperas: CONNECTING -> CONNECTED */
+    @Benchmark
+    public ConnectionStateMachine.Snapshot transitionCycle() {
+        machine.transition(State.CONNECTING, "Conectando...", ANY);
+        return machine.transition(State.CONNECTED, "VPN conectado", ANY);
+    }
+
+    /** Ciclo connect con un promise de JS esperando (timeout incluido) */
+    @Benchmark
+    public ConnectionStateMachine.Snapshot transitionWithWaiter() {
+        ConnectionStateMachine.Snapshot connecting = machine.transition(State.CONNECTING, "Conectando...", ANY);
+        machine.await(CONNECTED, FAILURES, connecting.version, 30000, NO_OP);
+        return machine.transition(State.CONNECTED, "VPN conectado", ANY);
+    }
+
+    /** Máquina compartida entre los hilos del grupo "contended" */
+    @org.openjdk.jmh.annotations.State(Scope.Group)
+    public static class Shared {
+        ConnectionStateMachine machine;
+        long counter;
+
+        @Setup
+        public void setUp() {
+            machine = new ConnectionStateMachine();
+        }
+
+        @TearDown
+        public void tearDown() {
+            machine.shutdown();
+        }
+    }
+
+    /** getStatus desde el bridge mientras llegan estados del servicio */
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public State readStatus(Shared shared) {
+        return shared.machine.get().state;
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public ConnectionStateMachine.Snapshot writeStatus(Shared shared) {
+        return shared.machine.transition((shared.counter++ & 1) == 0 ? State.CONNECTING : State.CONNECTED, null, ANY);
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        histogram.record(++counter & 0xFFFFF);
+    }
+
+    @Benchmark
+    public long addStatsSample() {
+        long n = ++counter;
+        return ring.add(n, n * 1500, n * 300, 1500, 300, 2000);
+    }
+}
@@ -0,0 +1,418 @@
+package com.nodexvpn.app.vpn.bench;
+
+import com.nodexvpn.app.vpn.ConfigCache;
+import com.nodexvpn.app.vpn.LatencyHistogram;
+import com.nodexvpn.app.vpn.TunnelBackend;
+import com.nodexvpn.app.vpn.WireGuardConfig;
+import com.wireguard.android.backend.Tunnel;
+import com.wireguard.config.Config;
+import com.wireguard.config.InetNetwork;
+import com.wireguard.config.Interface;
+import com.wireguard.config.Peer;
+import com.wireguard.crypto.KeyPair;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark de extremo a extremo del túnel contra un wireguard-go local.
+ *
+ * Corre en el namespace del cliente (lo prepara loopback/run.sh): construye
+ * la config con WireGuardConfig y ConfigCache como el connect de la app, la
+ * aplica con {@link UapiTunnelBackend} y mide ciclos connect/disconnect,
+ * throughput TCP con 1..N flujos en ambos sentidos y RTT UDP en reposo y
+ * bajo carga contra {@link LoopbackSink}. Resultado en JSON.
+ *
+ * Opciones (--clave valor): out, commit, wg-version, client-iface,
+ * client-socket, server-iface, server-socket, endpoint, listen-port,
+ * client-address, server-tunnel-ip, tcp-port, udp-port, allowed-ips, mtu,
+ * cycles, duration, warmup (s), streams (lista, p. ej. 1,4),
+ * probe-interval-ms.
+ */
+public final class LoopbackBenchmark {
+
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+    private static final int PROBE_SIZE = 16;
+
+    private final Map<String, String> options;
+    private final InetAddress serverIp;
+    private final int tcpPort;
+    private final int udpPort;
+    private final long probeIntervalMs;
+    private final Tunnel tunnel = new Tunnel() {
+        @Override
+        public String getName() {
+            return "nodex-bench";
+        }
+
+        @Override
+        public void onStateChange(State newState) {
+        }
+    };
+    private final TunnelBackend.Totals totals = new TunnelBackend.Totals();
+    private UapiTunnelBackend client;
+
+    private LoopbackBenchmark(Map<String, String> options) throws IOException {
+        this.options = options;
+        this.serverIp = InetAddress.getByName(option("server-tunnel-ip", "10.99.0.1"));
+        this.tcpPort = Integer.parseInt(option("tcp-port", String.valueOf(LoopbackSink.TCP_PORT)));
+        this.udpPort = Integer.parseInt(option("udp-port", String.valueOf(LoopbackSink.UDP_PORT)));
+        this.probeIntervalMs = Long.parseLong(option("probe-interval-ms", "10"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Opción inválida: " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        JSONObject result = new LoopbackBenchmark(options).run();
+        String out = options.get("out");
+        if (out != null) {
+            File file = new File(out);
+            if (file.getParentFile() != null) file.getParentFile().mkdirs();
+            Files.write(file.toPath(), result.toString(2).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Resultado en " + file.getAbsolutePath());
+        } else {
+            System.out.println(result.toString(2));
+        }
+    }
+
+    private String option(String name, String fallback) {
+        return options.getOrDefault(name, fallback);
+    }
+
+    private JSONObject run() throws Exception {
+        KeyPair serverKeys = new KeyPair();
+        KeyPair clientKeys = new KeyPair();
+
+        // Peer de pruebas: solo UAPI, la red de su namespace la pone run.sh
+        Config serverConfig = new Config.Builder()
+            .setInterface(new Interface.Builder()
+                .setKeyPair(serverKeys)
+                .setListenPort(Integer.parseInt(option("listen-port", "51820")))
+                .build())
+            .addPeer(new Peer.Builder()
+                .setPublicKey(clientKeys.getPublicKey())
+                .addAllowedIp(InetNetwork.parse(option("client-address", "10.99.0.2/32")))
+                .build())
+            .build();
+        String wgVersion = option("wg-version", "wireguard-go");
+        new UapiTunnelBackend(option("server-iface", "nxbs0"),
+            Path.of(option("server-socket", "/var/run/wireguard/nxbs0.sock")), wgVersion).configure(serverConfig);
+
+        // Mismo camino que el connect de la app: JSON del servidor -> WireGuardConfig -> ConfigCache
+        WireGuardConfig source = new WireGuardConfig();
+        source.setPrivateKey(clientKeys.getPrivateKey().toBase64());
+        source.setPublicKey(serverKeys.getPublicKey().toBase64());
+        source.setInterfaceAddress(option("client-address", "10.99.0.2/32"));
+        source.setEndpoint(option("endpoint", "192.168.241.1:51820"));
+        source.setAllowedIPs(option("allowed-ips", "10.99.0.0/24"));
+        source.setPersistentKeepalive("25");
+        if (options.containsKey("mtu")) source.setMtu(options.get("mtu"));
+        ConfigCache cache = new ConfigCache(ConfigCache.DEFAULT_CAPACITY);
+
+        client = new UapiTunnelBackend(option("client-iface", "nxbc0"),
+            Path.of(option("client-socket", "/var/run/wireguard/nxbc0.sock")), wgVersion);
+
+        JSONObject result = new JSONObject();
+        result.put("commit", option("commit", "unknown"));
+        result.put("timestamp", System.currentTimeMillis());
+        result.put("host", host());
+        result.put("backend", new JSONObject().put("kind", client.getKind().name().toLowerCase()).put("version", wgVersion));
+
+        System.out.println("🔌 Ciclos connect/disconnect...");
+        result.put("connect", connectCycles(cache, source, Integer.parseInt(option("cycles", "20"))));
+
+        client.setState(tunnel, Tunnel.State.UP, cache.getOrBuild(source));
+        if (awaitFirstReply(System.nanoTime()) == null) {
+            throw new IOException("Sin respuesta por el túnel de " + serverIp.getHostAddress());
+        }
+
+        long durationMs = (long) (Double.parseDouble(option("duration", "10")) * 1000);
+        long warmupMs = (long) (Double.parseDouble(option("warmup", "2")) * 1000);
+        List<Integer> streams = new ArrayList<>();
+        for (String value : option("streams", "1,4").split(",")) {
+            streams.add(Integer.parseInt(value.trim()));
+        }
+        result.put("params", new JSONObject()
+            .put("durationMs", durationMs)
+            .put("warmupMs", warmupMs)
+            .put("streams", new JSONArray(streams))
+            .put("probeIntervalMs", probeIntervalMs)
+            .put("mtu", client.currentMtu()));
+
+        System.out.println("📶 RTT en reposo...");
+        result.put("idleRtt", probeFor(Math.max(2000, 200 * probeIntervalMs), null));
+
+        if (warmupMs > 0) {
+            bulk(LoopbackSink.MODE_UPLOAD, 1, warmupMs);
+        }
+        JSONArray runs = new JSONArray();
+        for (byte mode : new byte[]{LoopbackSink.MODE_UPLOAD, LoopbackSink.MODE_DOWNLOAD}) {
+            for (int count : streams) {
+                System.out.println("🚀 " + (mode == LoopbackSink.MODE_UPLOAD ? "Subida" : "Bajada") + " con " + count + " flujos...");
+                JSONObject run = bulk(mode, count, durationMs);
+                System.out.println("   " + run.getDouble("mbps") + " Mbit/s, RTT p99 "
+                    + run.getJSONObject("rtt").getLong("p99Us") + "µs");
+                runs.put(run);
+            }
+        }
+        result.put("throughput", runs);
+
+        client.setState(tunnel, Tunnel.State.DOWN, null);
+        return result;
+    }
+
+    /**
+     * connect = setState(UP) hasta el primer eco por el túnel; el handshake
+     * se lee de las estadísticas del backend, como waitForHandshake
+     */
+    private JSONObject connectCycles(ConfigCache cache, WireGuardConfig source, int cycles) throws Exception {
+        LatencyHistogram setState = new LatencyHistogram();
+        LatencyHistogram handshake = new LatencyHistogram();
+        LatencyHistogram firstPacket = new LatencyHistogram();
+        LatencyHistogram disconnect = new LatencyHistogram();
+        int failures = 0;
+        for (int i = 0; i < cycles; i++) {
+            long start = System.nanoTime();
+            client.setState(tunnel, Tunnel.State.UP, cache.getOrBuild(source));
+            setState.record((System.nanoTime() - start) / 1000);
+
+            long[] reached = awaitFirstReply(start);
+            if (reached == null) {
+                failures++;
+            } else {
+                handshake.record((reached[0] - start) / 1000);
+                firstPacket.record((reached[1] - start) / 1000);
+            }
+
+            long downStart = System.nanoTime();
+            client.setState(tunnel, Tunnel.State.DOWN, null);
+            disconnect.record((System.nanoTime() - downStart) / 1000);
+        }
+        return new JSONObject()
+            .put("cycles", cycles)
+            .put("failures", failures)
+            .put("setState", summary(setState))
+            .put("handshake", summary(handshake))
+            .put("firstPacket", summary(firstPacket))
+            .put("disconnect", summary(disconnect));
+    }
+
+    /**
+     * Ecos cada 5ms hasta la primera respuesta. Devuelve {handshake, eco}
+     * en nanoTime, o null si no hubo respuesta
+     */
+    private long[] awaitFirstReply(long start) throws IOException {
+        long handshakeAt = 0;
+        long deadline = start + CONNECT_TIMEOUT_MS * 1_000_000;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(new InetSocketAddress(serverIp, udpPort));
+            socket.setSoTimeout(5);
+            byte[] buffer = new byte[PROBE_SIZE];
+            DatagramPacket reply = new DatagramPacket(new byte[PROBE_SIZE], PROBE_SIZE);
+            while (System.nanoTime() < deadline) {
+                try {
+                    socket.send(new DatagramPacket(buffer, buffer.length));
+                } catch (IOException e) {
+                    // Ruta aún no instalada
+                }
+                boolean replied = false;
+                try {
+                    socket.receive(reply);
+                    replied = true;
+                } catch (SocketTimeoutException e) {
+                    // Siguiente intento
+                }
+                long now = System.nanoTime();
+                if (handshakeAt == 0) {
+                    client.readTotals(tunnel, totals);
+                    if (totals.latestHandshakeEpochMillis > 0) handshakeAt = now;
+                }
+                if (replied) {
+                    return new long[]{handshakeAt != 0 ? handshakeAt : now, now};
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Flujos TCP en paralelo durante durationMs, con sondas de RTT a la vez
+     */
+    private JSONObject bulk(byte mode, int streams, long durationMs) throws Exception {
+        CountDownLatch connected = new CountDownLatch(streams);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicLong bytes = new AtomicLong();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            Thread thread = new Thread(() -> {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(serverIp, tcpPort), (int) CONNECT_TIMEOUT_MS);
+                    connected.countDown();
+                    go.await();
+                    bytes.addAndGet(stream(socket, mode, durationMs));
+                } catch (Exception e) {
+                    System.err.println("flujo: " + e.getMessage());
+                    failed.set(true);
+                    connected.countDown();
+                }
+            }, "NodexBenchStream");
+            threads.add(thread);
+            thread.start();
+        }
+        connected.await();
+
+        client.readTotals(tunnel, totals);
+        long rxBefore = totals.rxBytes;
+        long txBefore = totals.txBytes;
+        AtomicBoolean loaded = new AtomicBoolean(true);
+        JSONObject[] rtt = new JSONObject[1];
+        Thread prober = new Thread(() -> {
+            try {
+                rtt[0] = probeFor(Long.MAX_VALUE, loaded);
+            } catch (IOException e) {
+                rtt[0] = new JSONObject().put("error", e.getMessage());
+            }
+        }, "NodexBenchProbe");
+        prober.start();
+
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        loaded.set(false);
+        prober.join();
+
+        client.readTotals(tunnel, totals);
+        double seconds = elapsed / 1e9;
+        return new JSONObject()
+            .put("direction", mode == LoopbackSink.MODE_UPLOAD ? "upload" : "download")
+            .put("streams", streams)
+            .put("failed", failed.get())
+            .put("bytes", bytes.get())
+            .put("seconds", Math.round(seconds * 1000) / 1000.0)
+            .put("mbps", Math.round(bytes.get() * 8 / seconds / 1e4) / 100.0)
+            // Bytes cifrados en el cable, para ver la sobrecarga del túnel
+            .put("tunnelRxBytes", totals.rxBytes - rxBefore)
+            .put("tunnelTxBytes", totals.txBytes - txBefore)
+            .put("rtt", rtt[0]);
+    }
+
+    private static long stream(Socket socket, byte mode, long durationMs) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeByte(mode);
+        out.writeLong(durationMs);
+        out.flush();
+        if (mode == LoopbackSink.MODE_DOWNLOAD) {
+            return LoopbackSink.drain(socket.getInputStream());
+        }
+        OutputStream raw = socket.getOutputStream();
+        byte[] buffer = new byte[LoopbackSink.CHUNK];
+        long deadline = System.nanoTime() + durationMs * 1_000_000;
+        while (System.nanoTime() < deadline) {
+            raw.write(buffer);
+        }
+        raw.flush();
+        socket.shutdownOutput();
+        // Lo que contó el sink, no lo que quedó en buffers locales
+        return new DataInputStream(socket.getInputStream()).readLong();
+    }
+
+    /**
+     * Sondas UDP cada probeIntervalMs durante durationMs o mientras running
+     */
+    private JSONObject probeFor(long durationMs, AtomicBoolean running) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long sent = 0;
+        long lost = 0;
+        long deadline = durationMs == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + durationMs * 1_000_000;
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(new InetSocketAddress(serverIp, udpPort));
+            ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+            DatagramPacket reply = new DatagramPacket(new byte[PROBE_SIZE], PROBE_SIZE);
+            while (System.nanoTime() < deadline && (running == null || running.get())) {
+                long seq = sent++;
+                long sentAt = System.nanoTime();
+                probe.clear();
+                probe.putLong(seq).putLong(sentAt);
+                socket.send(new DatagramPacket(probe.array(), PROBE_SIZE));
+                // Respuestas tardías de sondas anteriores se descartan por secuencia
+                boolean matched = false;
+                long waitUntil = sentAt + Math.max(probeIntervalMs, 1000) * 1_000_000;
+                while (!matched) {
+                    long remainingMs = (waitUntil - System.nanoTime()) / 1_000_000;
+                    if (remainingMs <= 0) break;
+                    socket.setSoTimeout((int) remainingMs);
+                    try {
+                        socket.receive(reply);
+                    } catch (SocketTimeoutException e) {
+                        break;
+                    }
+                    ByteBuffer in = ByteBuffer.wrap(reply.getData(), 0, reply.getLength());
+                    if (reply.getLength() == PROBE_SIZE && in.getLong() == seq) {
+                        histogram.record((System.nanoTime() - in.getLong()) / 1000);
+                        matched = true;
+                    }
+                }
+                if (!matched) lost++;
+                long sleepMs = probeIntervalMs - (System.nanoTime() - sentAt) / 1_000_000;
+                if (sleepMs > 0) {
+                    try {
+                        Thread.sleep(sleepMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        return summary(histogram).put("sent", sent).put("lost", lost);
+    }
+
+    private static JSONObject summary(LatencyHistogram histogram) {
+        return new JSONObject()
+            .put("count", histogram.getCount())
+            .put("minUs", histogram.getMin())
+            .put("meanUs", histogram.getMean())
+            .put("p50Us", histogram.percentile(50))
+            .put("p90Us", histogram.percentile(90))
+            .put("p99Us", histogram.percentile(99))
+            .put("maxUs", histogram.getMax());
+    }
+
+    private static JSONObject host() {
+        return new JSONObject()
+            .put("os", System.getProperty("os.name") + " " + System.getProperty("os.version"))
+            .put("arch", System.getProperty("os.arch"))
+            .put("cpus", Runtime.getRuntime().availableProcessors())
+            .put("java", System.getProperty("java.version"));
+    }
+}
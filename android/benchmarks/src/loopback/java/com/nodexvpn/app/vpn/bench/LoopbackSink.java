@@ -0,0 +1,103 @@
+package com.nodexvpn.app.vpn.bench;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Lado servidor del benchmark de loopback, en el namespace del peer.
+ *
+ * TCP: el cliente manda un byte de modo y la duración en ms. 'U' descarta
+ * lo recibido hasta EOF y responde con los bytes contados; 'D' envía datos
+ * durante la duración y cierra. UDP: eco de cada datagrama (RTT).
+ *
+ *   LoopbackSink [puertoTcp] [puertoUdp]
+ */
+public final class LoopbackSink {
+
+    static final byte MODE_UPLOAD = 'U';
+    static final byte MODE_DOWNLOAD = 'D';
+    static final int TCP_PORT = 5201;
+    static final int UDP_PORT = 5202;
+    static final int CHUNK = 128 * 1024;
+
+    private LoopbackSink() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int tcpPort = args.length > 0 ? Integer.parseInt(args[0]) : TCP_PORT;
+        int udpPort = args.length > 1 ? Integer.parseInt(args[1]) : UDP_PORT;
+
+        Thread echo = new Thread(() -> echo(udpPort), "NodexSinkEcho");
+        echo.setDaemon(true);
+        echo.start();
+
+        try (ServerSocket server = new ServerSocket(tcpPort)) {
+            System.out.println("sink tcp " + tcpPort + ", udp " + udpPort);
+            while (true) {
+                Socket socket = server.accept();
+                Thread thread = new Thread(() -> serve(socket), "NodexSinkStream");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private static void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            byte mode = in.readByte();
+            long durationMs = in.readLong();
+            if (mode == MODE_UPLOAD) {
+                long total = drain(in);
+                DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                out.writeLong(total);
+                out.flush();
+            } else if (mode == MODE_DOWNLOAD) {
+                fill(s.getOutputStream(), durationMs);
+            }
+        } catch (IOException e) {
+            System.err.println("sink: " + e.getMessage());
+        }
+    }
+
+    static long drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[CHUNK];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static void fill(OutputStream out, long durationMs) throws IOException {
+        byte[] buffer = new byte[CHUNK];
+        long deadline = System.nanoTime() + durationMs * 1_000_000;
+        while (System.nanoTime() < deadline) {
+            out.write(buffer);
+        }
+        out.flush();
+    }
+
+    private static void echo(int port) {
+        try (DatagramSocket socket = new DatagramSocket(port)) {
+            byte[] buffer = new byte[2048];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (true) {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                socket.send(packet);
+            }
+        } catch (IOException e) {
+            System.err.println("sink echo: " + e.getMessage());
+        }
+    }
+}
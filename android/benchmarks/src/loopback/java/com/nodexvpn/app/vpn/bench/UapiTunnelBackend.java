@@ -0,0 +1,186 @@
+package com.nodexvpn.app.vpn.bench;
+
+import com.nodexvpn.app.vpn.TunnelBackend;
+import com.wireguard.android.backend.Tunnel;
+import com.wireguard.config.Config;
+import com.wireguard.config.InetNetwork;
+import com.wireguard.config.Peer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link TunnelBackend} sobre un wireguard-go de Linux ya arrancado.
+ *
+ * La config se aplica por el socket UAPI con {@code toWgUserspaceString()},
+ * el mismo texto que GoBackend pasa a libwg-go en wgTurnOn; direcciones,
+ * MTU y rutas las pone {@code ip}, que en Android hace VpnService.Builder.
+ * DOWN quita los peers: el siguiente UP hace un handshake nuevo.
+ */
+final class UapiTunnelBackend implements TunnelBackend {
+
+    /** MTU si la Interface no lo fija, como el servicio */
+    private static final int DEFAULT_MTU = 1280;
+
+    private final String iface;
+    private final Path socket;
+    private final String version;
+    private Tunnel.State state = Tunnel.State.DOWN;
+    private Config current;
+
+    UapiTunnelBackend(String iface, Path socket, String version) {
+        this.iface = iface;
+        this.socket = socket;
+        this.version = version;
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.GO;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public synchronized Tunnel.State setState(Tunnel tunnel, Tunnel.State state, Config config) throws Exception {
+        if (state == Tunnel.State.TOGGLE) {
+            state = this.state == Tunnel.State.UP ? Tunnel.State.DOWN : Tunnel.State.UP;
+        }
+        if (state == Tunnel.State.UP) {
+            if (config == null) config = current;
+            if (config == null) throw new IllegalArgumentException("Sin config para levantar el túnel");
+            if (this.state != Tunnel.State.UP || config != current) {
+                set(config.toWgUserspaceString());
+                if (this.state != Tunnel.State.UP) {
+                    linkUp(config);
+                }
+                current = config;
+            }
+        } else if (this.state == Tunnel.State.UP) {
+            set("replace_peers=true\n");
+            ip("link", "set", iface, "down");
+        }
+        this.state = state;
+        tunnel.onStateChange(state);
+        return state;
+    }
+
+    @Override
+    public synchronized Tunnel.State getState(Tunnel tunnel) {
+        return state;
+    }
+
+    @Override
+    public void readTotals(Tunnel tunnel, Totals into) throws IOException {
+        into.clear();
+        long handshakeSec = 0;
+        for (String line : get()) {
+            int eq = line.indexOf('=');
+            if (eq < 0) continue;
+            String key = line.substring(0, eq);
+            String value = line.substring(eq + 1);
+            switch (key) {
+                case "public_key":
+                    handshakeSec = 0;
+                    break;
+                case "rx_bytes":
+                    into.rxBytes += Long.parseLong(value);
+                    break;
+                case "tx_bytes":
+                    into.txBytes += Long.parseLong(value);
+                    break;
+                case "last_handshake_time_sec":
+                    handshakeSec = Long.parseLong(value);
+                    break;
+                case "last_handshake_time_nsec":
+                    long epochMillis = handshakeSec * 1000 + Long.parseLong(value) / 1_000_000;
+                    into.latestHandshakeEpochMillis = Math.max(into.latestHandshakeEpochMillis, epochMillis);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Solo UAPI, sin tocar la red: para el peer de pruebas, en otro namespace
+     */
+    void configure(Config config) throws IOException {
+        set(config.toWgUserspaceString());
+    }
+
+    synchronized int currentMtu() {
+        return current != null ? current.getInterface().getMtu().orElse(DEFAULT_MTU) : DEFAULT_MTU;
+    }
+
+    private void linkUp(Config config) throws IOException, InterruptedException {
+        ip("address", "flush", "dev", iface);
+        for (InetNetwork address : config.getInterface().getAddresses()) {
+            ip("address", "add", address.toString(), "dev", iface);
+        }
+        ip("link", "set", iface, "mtu", String.valueOf(config.getInterface().getMtu().orElse(DEFAULT_MTU)), "up");
+        for (Peer peer : config.getPeers()) {
+            for (InetNetwork allowed : peer.getAllowedIps()) {
+                ip("route", "replace", allowed.toString(), "dev", iface);
+            }
+        }
+    }
+
+    private static void ip(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(args.length + 1);
+        command.add("ip");
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        if (process.waitFor() != 0) {
+            throw new IOException(String.join(" ", command) + ": " + output);
+        }
+    }
+
+    private void set(String settings) throws IOException {
+        List<String> reply = request("set=1\n" + settings + "\n");
+        String errno = reply.isEmpty() ? "errno=?" : reply.get(reply.size() - 1);
+        if (!"errno=0".equals(errno)) {
+            throw new IOException("UAPI set en " + iface + ": " + errno);
+        }
+    }
+
+    private List<String> get() throws IOException {
+        return request("get=1\n\n");
+    }
+
+    /** Una petición por conexión; la respuesta termina en línea vacía */
+    private List<String> request(String body) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            ByteBuffer out = ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            ByteBuffer in = ByteBuffer.allocate(4096);
+            while (channel.read(in) >= 0) {
+                bytes.write(in.array(), 0, in.position());
+                in.clear();
+                String text = bytes.toString(StandardCharsets.UTF_8);
+                if (text.endsWith("\n\n")) break;
+            }
+            List<String> lines = new ArrayList<>();
+            for (String line : bytes.toString(StandardCharsets.UTF_8).split("\n")) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package android.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Shim de android.net.InetAddresses: solo direcciones literales, nunca DNS.
+ */
+public final class InetAddresses {
+
+    private InetAddresses() {
+    }
+
+    public static InetAddress parseNumericAddress(String address) {
+        if (!isNumericAddress(address)) {
+            throw new IllegalArgumentException("Not a numeric address: " + address);
+        }
+        try {
+            // Con un literal getByName no resuelve nada
+            return InetAddress.getByName(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public static boolean isNumericAddress(String address) {
+        if (address == null || address.isEmpty()) return false;
+        if (address.indexOf(':') >= 0) return true;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) return false;
+        }
+        return true;
+    }
+}
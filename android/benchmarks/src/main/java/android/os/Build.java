@@ -0,0 +1,25 @@
+package android.os;
+
+/**
+ * Shim de android.os.Build: la librería de WireGuard consulta SDK_INT
+ * para elegir el parser de direcciones (API 29+ usa android.net.InetAddresses).
+ */
+public final class Build {
+
+    private Build() {
+    }
+
+    public static final class VERSION {
+        public static final int SDK_INT = VERSION_CODES.Q;
+
+        private VERSION() {
+        }
+    }
+
+    public static final class VERSION_CODES {
+        public static final int Q = 29;
+
+        private VERSION_CODES() {
+        }
+    }
+}
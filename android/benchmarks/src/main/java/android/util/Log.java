@@ -0,0 +1,19 @@
+package android.util;
+
+/**
+ * Shim de android.util.Log para la JVM de benchmarks: descarta todo,
+ * como logcat con el nivel desactivado.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) { return 0; }
+    public static int i(String tag, String msg) { return 0; }
+    public static int w(String tag, String msg) { return 0; }
+    public static int w(String tag, String msg, Throwable tr) { return 0; }
+    public static int e(String tag, String msg) { return 0; }
+    public static int e(String tag, String msg, Throwable tr) { return 0; }
+    public static int println(int priority, String tag, String msg) { return 0; }
+}
@@ -5,17 +5,24 @@
  */
 
 import { NativeModules, NativeEventEmitter, Platform } from 'react-native';
+import NativeNodexVpnTurbo from '../specs/NativeNodexVpnTurbo';
 
 // Importar módulo nativo de WireGuard REAL (GoBackend)
 const WireGuardNative = NativeModules.RealWireGuardModule || {};
 const eventEmitter = new NativeEventEmitter(WireGuardNative);
 
+// Connect/switch/disconnect por el TurboModule si está; el legacy sigue igual
+const VpnControl = NativeNodexVpnTurbo || WireGuardNative;
+
 // Configuración WireGuard
 export interface WireGuardConfig {
   name: string;
-  privateKey: string;
+  // Vacía si el servidor registró la clave del cliente: la pone el módulo nativo
+  privateKey?: string;
   addresses: string[];
   dns?: string[];
+  // Si no se indica, el servicio nativo usa el MTU descubierto (PMTU)
+  mtu?: number;
   peers: WireGuardPeer[];
 }
 
@@ -33,9 +40,45 @@ export interface VpnConfig {
   authToken: string;
 }
 
+// Origen de la configuración obtenida por el cliente nativo de aprovisionamiento
+export type ConfigSource = 'network' | 'not_modified' | 'cache' | 'stale';
+
+// Errores del connect tras los que merece la pena pedir una configuración nueva
+const RETRY_WITH_FRESH_CONFIG = ['INVALID_CONFIG', 'CONNECTION_FAILED', 'TIMEOUT'];
+
 // Estados de conexión
 export type ConnectionState = 'disconnected' | 'connecting' | 'connected' | 'disconnecting' | 'error';
 
+// Estado nativo por índice (orden de ConnectionStateMachine.State)
+const NATIVE_STATES: ConnectionState[] = [
+  'disconnected', // DISCONNECTED
+  'connecting',   // PERMISSION_PENDING
+  'connecting',   // CONNECTING
+  'connecting',   // SWITCHING
+  'connected',    // CONNECTED
+  'disconnecting', // DISCONNECTING
+  'error'         // ERROR
+];
+
+// Lectura síncrona del estado y las estadísticas (NodexVpnTurbo)
+export interface LiveStatus {
+  state: ConnectionState;
+  stateVersion: number;
+  bytesReceived: number;
+  bytesSent: number;
+  rxBytesPerSec: number;
+  txBytesPerSec: number;
+  handshakeAgeMs: number;
+  timestamp: number;
+}
+
+// Coste medio por lectura (µs): getStatus asíncrono vs lectura síncrona
+export interface StatusReadBenchmark {
+  iterations: number;
+  asyncGetStatusUs: number;
+  syncReadUs: number;
+}
+
 // Eventos
 export interface VpnConnectionEvent {
   status: ConnectionState;
@@ -45,7 +88,176 @@ export interface VpnConnectionEvent {
 export interface VpnStatsEvent {
   bytesReceived: number;
   bytesSent: number;
-  ping: number;
+  ping?: number;
+  // Muestreo nativo (TunnelStatsSampler)
+  rxBytesPerSec?: number;
+  txBytesPerSec?: number;
+  handshakeAgeMs?: number;
+  timestamp?: number;
+  rxRates?: number[];
+  txRates?: number[];
+}
+
+// Métricas de una fase del connect (ConnectTracer), en microsegundos
+export interface ConnectPhaseMetrics {
+  count: number;
+  minUs: number;
+  meanUs: number;
+  p50Us: number;
+  p90Us: number;
+  p99Us: number;
+  maxUs: number;
+  lastUs: number;
+}
+
+// Split tunneling: apps y redes que no pasan por el túnel
+export interface SplitTunnelOptions {
+  bypassLan?: boolean;
+  excludedRoutes?: string[];
+  // Solo estas apps por el túnel (excluye a excludedApps)
+  includedApps?: string[];
+  excludedApps?: string[];
+}
+
+// Watchdog de handshake: reconexión automática si el túnel deja de responder
+export interface WatchdogOptions {
+  enabled?: boolean;
+  staleHandshakeMs?: number;
+  rxStallMs?: number;
+  attemptTimeoutMs?: number;
+  baseBackoffMs?: number;
+  maxBackoffMs?: number;
+  sameEndpointAttempts?: number;
+}
+
+// Historial de uso persistente (nativo)
+export type UsageGranularity = 'hour' | 'day';
+
+export interface UsageBucket {
+  startMs: number;
+  rxBytes: number;
+  txBytes: number;
+  // Solo con 'day': uso por servidor (host:puerto)
+  servers: Record<string, { rxBytes: number; txBytes: number }>;
+}
+
+// Descubrimiento de MTU de camino (se omite si el config fija MTU)
+export interface MtuDiscoveryOptions {
+  enabled?: boolean;
+  // Puerto de eco UDP del servidor; sin él solo se mide el enlace local
+  echoPort?: number;
+  ttlMs?: number;
+}
+
+// Rotación de la clave del cliente sobre el túnel activo, sin desconectar
+export interface KeyRotationOptions {
+  enabled?: boolean;
+  // 24h por defecto
+  intervalMs?: number;
+}
+
+// Backend del túnel: kernel (módulo WireGuard + root), go (userspace) o fake (solo debug)
+export type BackendPreference = 'auto' | 'go' | 'kernel' | 'fake';
+
+export interface BackendInfo {
+  preference: BackendPreference;
+  // Sin kind/version/reason hasta el primer connect
+  kind?: 'go' | 'kernel' | 'fake';
+  version?: string;
+  kernelSupport?: boolean;
+  rootAvailable?: boolean;
+  reason?: string;
+  selectMs?: number;
+}
+
+// Nivel del log nativo (los dos procesos); 'none' lo apaga
+export type LogLevel = 'debug' | 'info' | 'warn' | 'error' | 'none';
+
+// Informe de diagnóstico: .json.gz en la caché de la app, claves redactadas
+export interface DiagnosticsExport {
+  path: string;
+  bytes: number;
+}
+
+// Prueba de resistencia (solo builds de depuración)
+export interface SoakOptions {
+  // La primera para conectar; los cambios de servidor rotan por todas
+  configs: VpnConfig[];
+  cycles?: number;
+  // Para sesiones largas: corre hasta este tiempo (con cycles: 0, sin límite de ciclos)
+  durationMs?: number;
+  warmupCycles?: number;
+  sampleEvery?: number;
+  switchesPerCycle?: number;
+  pauseMs?: number;
+  // 'fake' por defecto; 'go' o 'kernel' para probar con el túnel real
+  backend?: BackendPreference;
+  maxHeapGrowthKb?: number;
+  maxNativeHeapGrowthKb?: number;
+  maxThreadGrowth?: number;
+  maxFdGrowth?: number;
+  maxLatencyDrift?: number;
+  maxErrors?: number;
+}
+
+export interface SoakResources {
+  heapKb: number;
+  heapMaxKb: number;
+  nativeHeapKb: number;
+  threads: number;
+  fds: number;
+  // Solo en :vpn
+  listeners?: number;
+}
+
+export interface SoakReport {
+  passed: boolean;
+  cancelled: boolean;
+  failures: string[];
+  cycles: number;
+  durationMs: number;
+  errors: number;
+  growth: {
+    ui: { heapKb: number; nativeHeapKb: number; threads: number; fds: number };
+    vpn: { heapKb: number; nativeHeapKb: number; threads: number; fds: number };
+  };
+  latency: {
+    cycle: Omit<ConnectPhaseMetrics, 'lastUs'>;
+    connect: Omit<ConnectPhaseMetrics, 'lastUs'>;
+    switch: Omit<ConnectPhaseMetrics, 'lastUs'>;
+    disconnect: Omit<ConnectPhaseMetrics, 'lastUs'>;
+    baselineP50Us: number;
+    finalP50Us: number;
+    drift: number;
+  };
+  samples: { cycle: number; elapsedMs: number; p50Us: number; ui: SoakResources; vpn: SoakResources }[];
+}
+
+// Resultado del sondeo nativo de servidores (ServerProber)
+export interface ProbeTarget {
+  id: string;
+  address: string;
+  port: number;
+  tcpPort?: number;
+}
+
+export interface ProbeOptions {
+  samples?: number;
+  timeoutMs?: number;
+  force?: boolean;
+}
+
+export interface ProbeResult {
+  id: string;
+  reachable: boolean;
+  method: 'udp' | 'tcp' | 'none';
+  minMs: number;
+  medianMs: number;
+  p95Ms: number;
+  loss: number;
+  sent: number;
+  received: number;
+  error?: string;
 }
 
 export interface VpnErrorEvent {
@@ -59,6 +271,8 @@ export interface VpnErrorEvent {
 class WireGuardVPN {
   private currentConfig: WireGuardConfig | null = null;
   private connectionState: ConnectionState = 'disconnected';
+  private lastConfigSource: ConfigSource = 'network';
+  private splitTunnel: SplitTunnelOptions = {};
   private listeners: { [key: string]: Function[] } = {
     connection: [],
     stats: [],
@@ -114,18 +328,38 @@ class WireGuardVPN {
    */
   async connect(legacyConfig: VpnConfig): Promise<void> {
     try {
-      // Obtener configuración WireGuard del servidor
+      // Obtener configuración WireGuard del servidor (o de la caché nativa)
       const wireGuardConfig = await this.fetchWireGuardConfig(legacyConfig);
-      return this.connectWithWireGuard(wireGuardConfig);
+      try {
+        return await this.connectWithWireGuard(wireGuardConfig);
+      } catch (error: any) {
+        // Configuración de la caché que el servidor ya no acepta: pedirla de nuevo
+        if (this.lastConfigSource === 'network' || !RETRY_WITH_FRESH_CONFIG.includes(error?.code)) {
+          throw error;
+        }
+        console.log('🔄 Reintentando con configuración recién descargada...');
+        const freshConfig = await this.fetchWireGuardConfig(legacyConfig, true);
+        return await this.connectWithWireGuard(freshConfig);
+      }
     } catch (error) {
       throw new Error(`Error conectando VPN: ${error}`);
     }
   }
 
   /**
-   * Obtener configuración WireGuard del servidor
+   * Obtener configuración WireGuard del servidor. Con el módulo nativo sale
+   * de su caché en disco (revalidada con ETag en segundo plano); force la
+   * pide siempre al servidor.
    */
-  private async fetchWireGuardConfig(legacyConfig: VpnConfig): Promise<WireGuardConfig> {
+  private async fetchWireGuardConfig(legacyConfig: VpnConfig, force: boolean = false): Promise<WireGuardConfig> {
+    if (WireGuardNative.fetchWireGuardConfig) {
+      const result = await WireGuardNative.fetchWireGuardConfig(legacyConfig.serverAddress, { allowStale: true, force });
+      this.lastConfigSource = result.source;
+      console.log(`📋 Configuración de ${legacyConfig.serverAddress} (${result.source})`);
+      return this.parseServerConfig(result.config, legacyConfig.serverAddress);
+    }
+
+    this.lastConfigSource = 'network';
     const response = await fetch(`http://${legacyConfig.serverAddress}:3000/api/vpn/wireguard-config`, {
       method: 'POST',
       headers: {
@@ -236,6 +470,9 @@ class WireGuardVPN {
             case 'DNS':
               config.dns = value.split(',').map(s => s.trim());
               break;
+            case 'MTU':
+              config.mtu = parseInt(value);
+              break;
           }
         } else if (currentSection === 'peer') {
           switch (key) {
@@ -303,7 +540,7 @@ class WireGuardVPN {
 
       console.log('🔌 Llamando módulo nativo connect...');
       // Conectar usando módulo nativo RealWireGuardModule
-      const result = await WireGuardNative.connect(moduleConfig);
+      const result = await VpnControl.connect(moduleConfig);
       console.log('🔌 Módulo nativo RealWireGuardModule respondió exitosamente:', result);
       
       // ✅ ACTUALIZAR ESTADO: El módulo simplificado no envía eventos automáticos
@@ -345,17 +582,23 @@ class WireGuardVPN {
     const peer = config.peers[0]; // Tomar el primer peer
     console.log('🔧 Peer seleccionado:', peer);
     
+    const split = this.splitTunnel;
     const moduleConfig = {
       Interface: {
         PrivateKey: config.privateKey,
         Address: config.addresses[0],
-        DNS: config.dns?.join(',') || '8.8.8.8'
+        DNS: config.dns?.join(',') || '8.8.8.8',
+        MTU: config.mtu,
+        IncludedApplications: split.includedApps?.length ? split.includedApps.join(',') : undefined,
+        ExcludedApplications: split.excludedApps?.length ? split.excludedApps.join(',') : undefined
       },
       Peer: {
         PublicKey: peer.publicKey,
         Endpoint: peer.endpoint,
         AllowedIPs: peer.allowedIPs.join(','),
-        PersistentKeepalive: peer.persistentKeepalive?.toString() || '25'
+        PersistentKeepalive: peer.persistentKeepalive?.toString() || '25',
+        ExcludedIPs: split.excludedRoutes?.length ? split.excludedRoutes.join(',') : undefined,
+        BypassLan: split.bypassLan === true
       }
     };
     
@@ -363,6 +606,33 @@ class WireGuardVPN {
     return moduleConfig;
   }
 
+  /**
+   * Configurar split tunneling; se aplica en la próxima conexión o cambio de servidor
+   */
+  setSplitTunnel(options: SplitTunnelOptions): void {
+    if (options.includedApps?.length && options.excludedApps?.length) {
+      throw new Error('No se pueden combinar apps incluidas y excluidas');
+    }
+    this.splitTunnel = { ...options };
+  }
+
+  /**
+   * Cambiar de servidor sin desconectar (reconfigura el túnel activo)
+   */
+  async switchServer(legacyConfig: VpnConfig): Promise<any> {
+    const wireGuardConfig = await this.fetchWireGuardConfig(legacyConfig);
+
+    if (this.connectionState !== 'connected' || !WireGuardNative.switchServer) {
+      return this.connectWithWireGuard(wireGuardConfig);
+    }
+
+    this.currentConfig = wireGuardConfig;
+    const result = await VpnControl.switchServer(this.convertToModuleConfig(wireGuardConfig));
+    console.log(`🔀 Servidor cambiado (${result.switchKind}): sin tráfico ${result.switchBlackholeMs}ms`);
+    this.notifyListeners('connection', { status: 'connected', message: 'Servidor cambiado' });
+    return result;
+  }
+
   /**
    * Desconectar VPN
    */
@@ -374,8 +644,8 @@ class WireGuardVPN {
       this.connectionState = 'disconnecting';
       this.notifyListeners('connection', { status: 'disconnecting' });
 
-      if (WireGuardNative && WireGuardNative.disconnect) {
-        const result = await WireGuardNative.disconnect();
+      if (VpnControl && VpnControl.disconnect) {
+        const result = await VpnControl.disconnect();
         console.log('🔌 Módulo nativo disconnect respondió:', result);
       }
       
@@ -407,6 +677,14 @@ class WireGuardVPN {
    * Probar servidor
    */
   async testServer(address: string, port: number): Promise<{ reachable: boolean; ping: number }> {
+    if (WireGuardNative.probeServers) {
+      const [result] = await this.probeServers([{ id: `${address}:${port}`, address, port }]);
+      return {
+        reachable: result.reachable,
+        ping: result.reachable ? Math.round(result.medianMs) : 999
+      };
+    }
+
     try {
       const startTime = Date.now();
       const response = await fetch(`http://${address}:3000/health`, {
@@ -426,6 +704,155 @@ class WireGuardVPN {
     }
   }
 
+  /**
+   * Sondear varios servidores en paralelo desde código nativo
+   */
+  async probeServers(servers: ProbeTarget[], options: ProbeOptions = {}): Promise<ProbeResult[]> {
+    if (!WireGuardNative.probeServers) {
+      throw new Error('Sondeo nativo no disponible');
+    }
+    return WireGuardNative.probeServers(servers, options);
+  }
+
+  /**
+   * Esperar a que el módulo nativo llegue a un estado (rechaza con TIMEOUT)
+   */
+  async waitForStatus(status: ConnectionState, timeoutMs: number = 30000): Promise<any> {
+    if (!WireGuardNative.waitForStatus) {
+      throw new Error('waitForStatus no disponible');
+    }
+    return WireGuardNative.waitForStatus(status, timeoutMs);
+  }
+
+  /**
+   * Histogramas por fase del connect (µs), persistidos entre sesiones
+   */
+  async getConnectMetrics(): Promise<Record<string, ConnectPhaseMetrics>> {
+    if (!WireGuardNative.getConnectMetrics) {
+      return {};
+    }
+    return WireGuardNative.getConnectMetrics();
+  }
+
+  /**
+   * Ajustar el watchdog de handshake del servicio nativo
+   */
+  configureWatchdog(options: WatchdogOptions): void {
+    WireGuardNative.configureWatchdog?.(options);
+  }
+
+  /**
+   * Uso del túnel entre dos fechas (epoch ms), por hora o por día
+   */
+  async getUsageHistory(fromMs: number, toMs: number, granularity: UsageGranularity = 'day'): Promise<UsageBucket[]> {
+    if (!WireGuardNative.getUsageHistory) {
+      return [];
+    }
+    return WireGuardNative.getUsageHistory(fromMs, toMs, granularity);
+  }
+
+  /**
+   * Ajustar el descubrimiento de MTU de camino del servicio nativo
+   */
+  configureMtuDiscovery(options: MtuDiscoveryOptions): void {
+    WireGuardNative.configureMtuDiscovery?.(options);
+  }
+
+  /**
+   * Ajustar la rotación de la clave del cliente. Latencias de registro y
+   * de corte en getConnectMetrics (KEY_REGISTRATION, ROTATION_*)
+   */
+  configureKeyRotation(options: KeyRotationOptions): void {
+    WireGuardNative.configureKeyRotation?.(options);
+  }
+
+  /**
+   * Elegir el backend del túnel; se aplica en el próximo connect
+   */
+  setBackendPreference(preference: BackendPreference): void {
+    WireGuardNative.setBackendPreference?.(preference);
+  }
+
+  /**
+   * Backend en uso y motivo de la elección
+   */
+  async getBackendInfo(): Promise<BackendInfo | null> {
+    if (!WireGuardNative.getBackendInfo) {
+      return null;
+    }
+    return WireGuardNative.getBackendInfo();
+  }
+
+  /**
+   * Nivel mínimo del log nativo; con 'none' no se registra nada
+   */
+  setLogLevel(level: LogLevel): void {
+    WireGuardNative.setLogLevel?.(level);
+  }
+
+  /**
+   * Generar el informe de diagnóstico (app, dispositivo, estado, métricas,
+   * backend y el final del log) para adjuntarlo a un reporte
+   */
+  async exportDiagnostics(): Promise<DiagnosticsExport> {
+    if (!WireGuardNative.exportDiagnostics) {
+      throw new Error('Diagnóstico no disponible en esta plataforma');
+    }
+    return WireGuardNative.exportDiagnostics();
+  }
+
+  /**
+   * Prueba de resistencia: ciclos connect/switch/disconnect con seguimiento
+   * de heap, hilos, fds y latencia en los dos procesos. Solo debug y con el
+   * VPN desconectado; el informe dice si pasó (passed) y qué creció.
+   */
+  async runSoakTest(options: SoakOptions): Promise<SoakReport> {
+    if (!WireGuardNative.runSoakTest) {
+      throw new Error('Prueba de resistencia no disponible en esta plataforma');
+    }
+    const configs: any[] = [];
+    for (const server of options.configs) {
+      const wireGuardConfig = await this.fetchWireGuardConfig(server);
+      configs.push(this.convertToModuleConfig(wireGuardConfig));
+    }
+    return WireGuardNative.runSoakTest({ ...options, configs });
+  }
+
+  /**
+   * Parar la prueba de resistencia tras el ciclo en curso
+   */
+  stopSoakTest(): void {
+    WireGuardNative.stopSoakTest?.();
+  }
+
+  /**
+   * Servidores de respaldo, en orden, si el actual deja de responder.
+   * Devuelve cuántos se pudieron preparar.
+   */
+  async setFailoverServers(servers: VpnConfig[]): Promise<number> {
+    if (!WireGuardNative.setFailoverServers) {
+      return 0;
+    }
+    const configs: any[] = [];
+    for (const server of servers) {
+      try {
+        const wireGuardConfig = await this.fetchWireGuardConfig(server);
+        configs.push(this.convertToModuleConfig(wireGuardConfig));
+      } catch (error) {
+        console.warn(`⚠️ Servidor de respaldo ${server.serverAddress} omitido:`, error);
+      }
+    }
+    return WireGuardNative.setFailoverServers(configs);
+  }
+
+  /**
+   * Precargar en segundo plano la configuración de los topN servidores más
+   * usados, para que el próximo connect no espere al backend
+   */
+  prefetchConfigs(serverAddresses: string[], topN: number = 3): void {
+    WireGuardNative.prefetchWireGuardConfigs?.(serverAddresses, topN);
+  }
+
   /**
    * Obtener estado actual
    */
@@ -433,6 +860,53 @@ class WireGuardVPN {
     return this.connectionState;
   }
 
+  /**
+   * Estado y estadísticas nativas leídos de forma síncrona, sin promesas
+   * ni mapas nativos. Pasar {@code into} para reutilizar el objeto en cada
+   * render. Null si el módulo NodexVpnTurbo no está disponible.
+   */
+  readLiveStatus(into?: LiveStatus): LiveStatus | null {
+    const turbo = NativeNodexVpnTurbo;
+    if (!turbo) {
+      return null;
+    }
+    const status = into || ({} as LiveStatus);
+    status.state = NATIVE_STATES[turbo.getStateCode()] || 'error';
+    status.stateVersion = turbo.getStateVersion();
+    status.bytesReceived = turbo.getRxBytes();
+    status.bytesSent = turbo.getTxBytes();
+    status.rxBytesPerSec = turbo.getRxBytesPerSec();
+    status.txBytesPerSec = turbo.getTxBytesPerSec();
+    status.handshakeAgeMs = turbo.getHandshakeAgeMs();
+    status.timestamp = turbo.getStatsTimestamp();
+    return status;
+  }
+
+  /**
+   * Medir el coste de leer el estado: getStatus del módulo legacy (bridge,
+   * WritableMap y Promise) contra readLiveStatus (JSI)
+   */
+  async benchmarkStatusReads(iterations: number = 1000): Promise<StatusReadBenchmark> {
+    const result: StatusReadBenchmark = { iterations, asyncGetStatusUs: -1, syncReadUs: -1 };
+    if (WireGuardNative.getStatus) {
+      const start = performance.now();
+      for (let i = 0; i < iterations; i++) {
+        await WireGuardNative.getStatus();
+      }
+      result.asyncGetStatusUs = ((performance.now() - start) * 1000) / iterations;
+    }
+    if (NativeNodexVpnTurbo) {
+      const reused = {} as LiveStatus;
+      const start = performance.now();
+      for (let i = 0; i < iterations; i++) {
+        this.readLiveStatus(reused);
+      }
+      result.syncReadUs = ((performance.now() - start) * 1000) / iterations;
+    }
+    console.log(`⏱️ Lectura de estado: getStatus ${result.asyncGetStatusUs.toFixed(1)}µs, síncrona ${result.syncReadUs.toFixed(1)}µs`);
+    return result;
+  }
+
   /**
    * Agregar listener
    */
@@ -482,9 +956,26 @@ const wireGuardVPN = new WireGuardVPN();
 export default {
   // Métodos principales
   connect: (config: VpnConfig) => wireGuardVPN.connect(config),
+  switchServer: (config: VpnConfig) => wireGuardVPN.switchServer(config),
   disconnect: () => wireGuardVPN.disconnect(),
   requestPermissions: () => wireGuardVPN.requestPermissions(),
   testServer: (address: string, port: number) => wireGuardVPN.testServer(address, port),
+  probeServers: (servers: ProbeTarget[], options?: ProbeOptions) => wireGuardVPN.probeServers(servers, options),
+  waitForStatus: (status: ConnectionState, timeoutMs?: number) => wireGuardVPN.waitForStatus(status, timeoutMs),
+  getConnectMetrics: () => wireGuardVPN.getConnectMetrics(),
+  setSplitTunnel: (options: SplitTunnelOptions) => wireGuardVPN.setSplitTunnel(options),
+  configureWatchdog: (options: WatchdogOptions) => wireGuardVPN.configureWatchdog(options),
+  configureMtuDiscovery: (options: MtuDiscoveryOptions) => wireGuardVPN.configureMtuDiscovery(options),
+  configureKeyRotation: (options: KeyRotationOptions) => wireGuardVPN.configureKeyRotation(options),
+  getUsageHistory: (fromMs: number, toMs: number, granularity?: UsageGranularity) =>
+    wireGuardVPN.getUsageHistory(fromMs, toMs, granularity),
+  setFailoverServers: (servers: VpnConfig[]) => wireGuardVPN.setFailoverServers(servers),
+  setBackendPreference: (preference: BackendPreference) => wireGuardVPN.setBackendPreference(preference),
+  getBackendInfo: () => wireGuardVPN.getBackendInfo(),
+  runSoakTest: (options: SoakOptions) => wireGuardVPN.runSoakTest(options),
+  stopSoakTest: () => wireGuardVPN.stopSoakTest(),
+  setLogLevel: (level: LogLevel) => wireGuardVPN.setLogLevel(level),
+  exportDiagnostics: () => wireGuardVPN.exportDiagnostics(),
   
   // Listeners
   addConnectionListener: (callback: (event: VpnConnectionEvent) => void) => wireGuardVPN.addConnectionListener(callback),
@@ -493,7 +984,10 @@ export default {
   removeAllListeners: () => wireGuardVPN.removeAllListeners(),
   
   // Estado
-  getConnectionState: () => wireGuardVPN.getConnectionState()
+  prefetchConfigs: (serverAddresses: string[], topN?: number) => wireGuardVPN.prefetchConfigs(serverAddresses, topN),
+  getConnectionState: () => wireGuardVPN.getConnectionState(),
+  readLiveStatus: (into?: LiveStatus) => wireGuardVPN.readLiveStatus(into),
+  benchmarkStatusReads: (iterations?: number) => wireGuardVPN.benchmarkStatusReads(iterations)
 };
 
 // Los tipos ya están definidos arriba, no necesitamos exportarlos de nuevo 
\ No newline at end of file
@@ -10,7 +10,9 @@ import NodexVPN, {
   ConnectionState, 
   VpnConnectionEvent,
   VpnStatsEvent,
-  VpnErrorEvent 
+  VpnErrorEvent,
+  UsageBucket,
+  UsageGranularity
 } from './NodexVpn';
 
 // Servidor real en producción
@@ -82,6 +84,8 @@ class VpnIntegrationService {
 
   constructor() {
     this.setupVpnListeners();
+    // Con la app quieta: configuraciones listas antes de que el usuario conecte
+    NodexVPN.prefetchConfigs(DEMO_SERVERS.map(server => server.address));
   }
 
   /**
@@ -207,8 +211,8 @@ class VpnIntegrationService {
    * Actualiza estadísticas
    */
   private updateStats(nativeStats: VpnStatsEvent) {
-    // Calcular velocidad (aproximada)
-    const speedMbps = (nativeStats.bytesReceived / 1024 / 1024) || 0;
+    // Velocidad de bajada calculada por el sampler nativo
+    const speedMbps = (nativeStats.rxBytesPerSec || 0) / 1024 / 1024;
     
     this.stats = {
       speed: speedMbps > 0 ? `${speedMbps.toFixed(1)} MB/s` : '--',
@@ -238,30 +242,8 @@ class VpnIntegrationService {
       this.status.error = null;
       this.notifyStatusListeners();
 
-      // Obtener configuración WireGuard del servidor real
-      const response = await fetch(`http://${server.address}:3000/api/vpn/wireguard-config`, {
-        method: 'POST',
-        headers: {
-          'Content-Type': 'application/json',
-        },
-        body: JSON.stringify({
-          userId: 'user-' + Date.now() // ID único para este usuario
-        })
-      });
-
-      if (!response.ok) {
-        throw new Error(`Error del servidor: ${response.status}`);
-      }
-
-      const data = await response.json();
-      
-      if (!data.success) {
-        throw new Error(data.error || 'Error obteniendo configuración');
-      }
-
-      console.log('Configuración WireGuard obtenida del servidor');
-
-      // Configurar conexión con datos reales del servidor
+      // La configuración WireGuard la obtiene NodexVPN.connect (caché nativa
+      // con revalidación); pedirla aquí también duplicaba la petición
       const config: VpnConfig = {
         serverAddress: server.address,
         serverPort: server.port || 51820,
@@ -322,6 +304,7 @@ class VpnIntegrationService {
       }
       
       await NodexVPN.disconnect();
+      NodexVPN.prefetchConfigs(DEMO_SERVERS.map(server => server.address));
     } catch (error) {
       console.error('Error desconectando VPN:', error);
       throw error;
@@ -353,6 +336,13 @@ class VpnIntegrationService {
     return { ...this.stats };
   }
 
+  /**
+   * Uso acumulado por hora o por día (persistente, sobrevive a reinicios)
+   */
+  getUsageHistory(fromMs: number, toMs: number, granularity: UsageGranularity = 'day'): Promise<UsageBucket[]> {
+    return NodexVPN.getUsageHistory(fromMs, toMs, granularity);
+  }
+
   /**
    * Obtener lista de servidores
    */
@@ -364,6 +354,19 @@ class VpnIntegrationService {
    * Probar conectividad de servidor
    */
   async testServer(server: Server): Promise<{ ping: number; reachable: boolean }> {
+    try {
+      // Sondeo nativo (UDP al puerto WireGuard / TCP de respaldo), con caché
+      const [result] = await NodexVPN.probeServers([
+        { id: server.id, address: server.address, port: server.port || 51820 }
+      ]);
+      return {
+        ping: result.reachable ? Math.round(result.medianMs) : -1,
+        reachable: result.reachable
+      };
+    } catch (probeError) {
+      console.warn('Sondeo nativo no disponible, usando /health:', probeError);
+    }
+
     try {
       // Probar endpoint de health del servidor
       const startTime = Date.now();
@@ -0,0 +1,30 @@
+import type { TurboModule } from 'react-native';
+import { TurboModuleRegistry } from 'react-native';
+
+/**
+ * Spec de codegen del módulo VPN para la nueva arquitectura.
+ *
+ * Las lecturas son síncronas (JSI) y devuelven números sueltos: no crean
+ * mapas ni promesas, así que se pueden llamar en cada render. Connect,
+ * switch y disconnect siguen siendo asíncronos.
+ */
+export interface Spec extends TurboModule {
+  // Índice del estado nativo (ver NATIVE_STATES en NodexVpn.ts)
+  getStateCode(): number;
+  // Cambia en cada transición de estado
+  getStateVersion(): number;
+
+  // Última muestra de estadísticas del túnel
+  getRxBytes(): number;
+  getTxBytes(): number;
+  getRxBytesPerSec(): number;
+  getTxBytesPerSec(): number;
+  getHandshakeAgeMs(): number;
+  getStatsTimestamp(): number;
+
+  connect(config: Object): Promise<Object>;
+  switchServer(config: Object): Promise<Object>;
+  disconnect(): Promise<Object>;
+}
+
+export default TurboModuleRegistry.get<Spec>('NodexVpnTurbo');